@@ -1,100 +1,227 @@
 package com.conveyal.gtfs;
 
-import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3Client;
-import com.amazonaws.services.s3.model.AmazonS3Exception;
-import com.amazonaws.services.s3.model.S3Object;
+import com.conveyal.gtfs.storage.BlobStore;
+import com.conveyal.gtfs.storage.S3BlobStore;
+import com.conveyal.gtfs.util.ParallelZipWriter;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
 import com.google.common.cache.RemovalListener;
-import com.google.common.io.ByteStreams;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.mapdb.DB;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 /**
- * Fast cache for GTFS feeds stored on S3.
+ * Fast cache for GTFS feeds stored on S3, or in another {@link BlobStore}.
  *
  * Depending on the application, we often want to store additional data with a GTFS feed. Thus, you can subclass this
  * class and override the processFeed function with a function that transforms a GTFSFeed object into whatever objects
  * you need. If you just need to store GTFSFeeds without any additional data, see the GTFSCache class.
  *
- * This uses a soft-values cache because (it is assumed) you do not want to have multiple copies of the same GTFS feed
+ * Feeds are evicted from memory when their estimated footprint (by default, the size of their MapDB file) exceeds a
+ * memory budget, least recently used first. It is assumed you do not want to have multiple copies of the same GTFS feed
  * in memory. When you are storing a reference to the original GTFS feed, it may be retrieved from the cache and held
- * by the caller for some finite amount of time. If, during that time, it is removed from the cache and requested again,
- * we would connect another GTFSFeed to the same mapdb, which seems like an ideal way to corrupt mapdbs. SoftReferences
- * prevent this as it cannot be removed if it is referenced elsewhere.
+ * by the caller for some finite amount of time. If, during that time, it is evicted from the cache and requested again,
+ * we would connect another GTFSFeed to the same mapdb, which seems like an ideal way to corrupt mapdbs. To prevent
+ * this, evicted feeds are kept weakly referenced, and a feed that is still referenced elsewhere is returned to the
+ * cache rather than opened again.
+ *
+ * The files in the cache directory are also kept within a disk budget. When it is exceeded, the files of the least
+ * recently used feeds that are not open are deleted: first MapDB files, which can be rebuilt, then GTFS zip files, but
+ * only if they can be downloaded again from remote storage.
  */
-public abstract class BaseGTFSCache<T> {
+public abstract class BaseGTFSCache<T> implements Closeable {
     private static final Logger LOG = LoggerFactory.getLogger(BaseGTFSCache.class);
 
+    /** The S3 bucket feeds are stored in, or null if they are stored elsewhere or only locally. */
     public final String bucket;
     public final String bucketFolder;
+    /** Where feeds and their MapDB files are stored remotely, or null to work offline. Closed with this cache. */
+    public final BlobStore blobStore;
 
     public final File cacheDir;
 
-    private static final AmazonS3 s3 = new AmazonS3Client();
+    private static final String[] DB_EXTENSIONS = {".db.p", ".db"};
+    // MapDB files are stored remotely as a compressed bundle with a checksum, as entries with this name and extensions.
+    private static final String DB_BUNDLE_EXTENSION = ".mapdb.zip";
+    private static final String CHECKSUM_EXTENSION = ".sha256";
+    private static final String BUNDLE_ENTRY_NAME = "feed";
+    private static final int LOAD_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    /** The estimated total footprint in bytes of the feeds held in memory (see estimateFootprint). */
+    public final long memoryBudgetBytes;
+    /** The total size in bytes of the files to keep in the cache directory. */
+    public final long diskBudgetBytes;
+
     private LoadingCache<String, T> cache;
+    // Feeds evicted from the cache, keyed on clean ID, which may still be in use elsewhere.
+    private final Map<String, WeakReference<T>> evicted = new ConcurrentHashMap<>();
+    // The MapDB of each feed opened by this cache, keyed on clean ID. An evicted feed that is garbage collected leaves
+    // its database open until it is finalized, so it is closed here before its files are deleted.
+    private final Map<String, DB> databases = new ConcurrentHashMap<>();
+    // When each feed was last used by this cache, keyed on clean ID. Files not used since startup use their timestamp.
+    private final Map<String, Long> lastUsed = new ConcurrentHashMap<>();
+    // Clean IDs of feeds whose files are being written, which must not be deleted to stay within the disk budget.
+    private final Set<String> loading = ConcurrentHashMap.newKeySet();
+    private final LongAdder diskEvictions = new LongAdder();
+    private final LongAdder diskBytesEvicted = new LongAdder();
+    // Loads and puts running in the background, keyed on feed ID, so that concurrent requests share a single load.
+    private final Map<String, CompletableFuture<T>> inFlight = new ConcurrentHashMap<>();
+    // Bounds the number of feeds converted and processed in the background at once. Idle threads are not kept.
+    private final ThreadPoolExecutor loadExecutor;
 
     public BaseGTFSCache(String bucket, File cacheDir) {
         this(bucket, null, cacheDir);
     }
 
-    /** If bucket is null, work offline and do not use S3 */
+    /**
+     * If bucket is null, work offline and do not use S3. The memory budget is {@link #defaultMemoryBudgetBytes()}. When
+     * using S3, the local files of feeds are deleted once they are no longer in memory; otherwise they are kept
+     * indefinitely.
+     */
     public BaseGTFSCache(String bucket, String bucketFolder, File cacheDir) {
-        if (bucket == null) LOG.info("No bucket specified; GTFS Cache will run locally");
-        else LOG.info("Using bucket {} for GTFS Cache", bucket);
+        this(bucket != null ? new S3BlobStore(bucket) : null, bucketFolder, cacheDir, defaultMemoryBudgetBytes(),
+            bucket != null ? 0 : Long.MAX_VALUE);
+    }
+
+    /**
+     * @param blobStore         where feeds and their MapDB files are stored remotely, or null to work offline
+     * @param bucketFolder      a folder within the blob store holding the feeds, or null
+     * @param memoryBudgetBytes the estimated total footprint of the feeds to hold in memory (see estimateFootprint). A
+     *                          feed larger than the whole budget is only kept while it is in use elsewhere.
+     * @param diskBudgetBytes   the total size of the files to keep in cacheDir
+     */
+    public BaseGTFSCache(BlobStore blobStore, String bucketFolder, File cacheDir, long memoryBudgetBytes,
+                         long diskBudgetBytes) {
+        if (blobStore == null) LOG.info("No remote storage specified; GTFS Cache will run locally");
+        else LOG.info("Using {} for GTFS Cache", blobStore.getClass().getSimpleName());
 
-        this.bucket = bucket;
+        this.blobStore = blobStore;
+        this.bucket = blobStore instanceof S3BlobStore ? ((S3BlobStore) blobStore).bucket : null;
         this.bucketFolder = bucketFolder != null ? bucketFolder.replaceAll("\\/","") : null;
 
         this.cacheDir = cacheDir;
-
-        if (bucket != null) {
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.diskBudgetBytes = diskBudgetBytes;
+        this.loadExecutor = new ThreadPoolExecutor(LOAD_THREADS, LOAD_THREADS, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "gtfs-cache-loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.loadExecutor.allowCoreThreadTimeOut(true);
+
+        if (blobStore != null && diskBudgetBytes == 0) {
             LOG.warn("Local cache files (including .zip) will be deleted when removed from cache.");
         }
-        RemovalListener<String, GTFSFeed> removalListener = removalNotification -> {
-            // delete local files ONLY if using s3
-            if (bucket != null) {
-                String id = removalNotification.getKey();
-                String[] extensions = {".db", ".db.p", ".zip"};
-                // delete local cache files (including zip) when feed removed from cache
-                for (String type : extensions) {
-                    File file = new File(cacheDir, id + type);
-                    file.delete();
-                }
+        RemovalListener<String, T> removalListener = removalNotification -> {
+            // We don't want more than one copy of a particular GTFSFeed object around; that would mean multiple MapDBs
+            // are pointing at the same file, which is bad. So remember evicted feeds in case they are still in use.
+            if (removalNotification.getCause() != RemovalCause.REPLACED && removalNotification.getValue() != null) {
+                evicted.put(cleanId(removalNotification.getKey()), new WeakReference<>(removalNotification.getValue()));
             }
         };
-        this.cache = (LoadingCache<String, T>) CacheBuilder.newBuilder()
-                // we use SoftReferenced values because we have the constraint that we don't want more than one
-                // copy of a particular GTFSFeed object around; that would mean multiple MapDBs are pointing at the same
-                // file, which is bad.
-                .softValues()
+        this.cache = CacheBuilder.newBuilder()
+                // Weights are in kilobytes so that large budgets fit in the int weights Guava uses.
+                .maximumWeight(Math.max(1, memoryBudgetBytes / 1024))
+                .weigher((String id, T value) ->
+                    (int) Math.max(1, Math.min(Integer.MAX_VALUE, estimateFootprint(id, value) / 1024)))
                 .removalListener(removalListener)
-                .build(new CacheLoader() {
-                    public T load(Object s) throws Exception {
-                        // Thanks, java, for making me use a cast here. If I put generic arguments to new CacheLoader
-                        // due to type erasure it can't be sure I'm using types correctly.
-                        return retrieveAndProcessFeed((String) s);
+                .recordStats()
+                .build(new CacheLoader<String, T>() {
+                    public T load(String id) {
+                        return retrieveAndProcessFeed(id);
                     }
                 });
     }
 
+    /**
+     * The memory budget used when none is given: half of the machine's physical memory. By default the footprint of a
+     * feed is the size of its MapDB file, which is memory mapped and so held in the operating system's page cache
+     * rather than on the heap, so the budget is based on physical memory rather than the maximum heap size. The other
+     * half is left for the heap and everything else. If the physical memory cannot be determined, the maximum heap
+     * size is used instead.
+     */
+    public static long defaultMemoryBudgetBytes() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            long physicalMemoryBytes = ((com.sun.management.OperatingSystemMXBean) os).getTotalPhysicalMemorySize();
+            if (physicalMemoryBytes > 0) return physicalMemoryBytes / 2;
+        }
+        return Runtime.getRuntime().maxMemory();
+    }
+
     public long getCurrentCacheSize() {
         return this.cache.size();
     }
 
+    /**
+     * Hits, misses, load times and evictions of feeds held in memory. Feeds that were still in use when requested
+     * again after being evicted count as misses, but are not loaded again.
+     */
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    /** @return the number of feeds whose local files have been deleted to stay within the disk budget. */
+    public long getDiskEvictionCount() {
+        return diskEvictions.sum();
+    }
+
+    /** @return the total size of the local files deleted to stay within the disk budget. */
+    public long getDiskBytesEvicted() {
+        return diskBytesEvicted.sum();
+    }
+
+    /** @return the total size of the feed files in the cache directory. */
+    public long getDiskUsageBytes() {
+        return localFilesById().values().stream().flatMap(List::stream).mapToLong(File::length).sum();
+    }
+
+    /**
+     * Estimate the memory used by a feed held in this cache. By default this is the size of its MapDB file, which is
+     * memory mapped. Subclasses that hold more than the feed may override this.
+     */
+    protected long estimateFootprint(String id, T value) {
+        return new File(cacheDir, cleanId(id) + ".db").length();
+    }
+
     /**
      * Add a GTFS feed to this cache with the given ID. NB this is not the feed ID, because feed IDs are not
      * unique when you load multiple versions of the same feed.
@@ -111,7 +238,16 @@ public abstract class BaseGTFSCache<T> {
     private T put (String id, File feedFile, Function<GTFSFeed, String> idGenerator) throws Exception {
         // generate temporary ID to name files
         String tempId = id != null ? id : UUID.randomUUID().toString();
+        loading.add(cleanId(tempId));
+        try {
+            return putWithTempId(id, tempId, feedFile, idGenerator);
+        } finally {
+            loading.remove(cleanId(tempId));
+        }
+    }
 
+    private T putWithTempId (String id, String tempId, File feedFile, Function<GTFSFeed, String> idGenerator)
+            throws Exception {
         // read the feed
         String cleanTempId = cleanId(tempId);
         File dbFile = new File(cacheDir, cleanTempId + ".db");
@@ -126,7 +262,11 @@ public abstract class BaseGTFSCache<T> {
         if (idGenerator != null) id = idGenerator.apply(feed);
 
         String cleanId = cleanId(id);
+        loading.add(cleanId);
 
+        // Build the spatial index now so it is stored in the database file that is uploaded, rather than rebuilt by
+        // every process that downloads the feed.
+        feed.getFeedSpatialIndex();
         feed.close(); // make sure everything is written to disk
 
         if (idGenerator != null) {
@@ -137,33 +277,37 @@ public abstract class BaseGTFSCache<T> {
 
         // upload feed
         // TODO best way to do this? Should we zip the files together?
-        if (bucket != null) {
-            LOG.info("Writing feed to s3 cache");
+        if (blobStore != null) {
+            LOG.info("Writing feed to remote storage");
             String key = bucketFolder != null ? String.join("/", bucketFolder, cleanId) : cleanId;
 
-            // write zip to s3 if not already there
-            if (!s3.doesObjectExist(bucket, key + ".zip")) {
-                s3.putObject(bucket, key + ".zip", feedFile);
+            // write zip to remote storage if not already there
+            if (!blobStore.exists(key + ".zip")) {
+                blobStore.upload(key + ".zip", feedFile);
                 LOG.info("Zip file written.");
             }
             else {
-                LOG.info("Zip file already exists on s3.");
+                LOG.info("Zip file already exists in remote storage.");
             }
-            s3.putObject(bucket, key + ".db", new File(cacheDir, cleanId + ".db"));
-            s3.putObject(bucket, key + ".db.p", new File(cacheDir, cleanId + ".db.p"));
+            uploadDatabase(key, cleanId);
             LOG.info("db files written.");
         }
 
         // reconnect to feed database
-        feed = new GTFSFeed(new File(cacheDir, cleanId + ".db").getAbsolutePath());
+        feed = openFeed(cleanId);
         T processed = processFeed(feed);
         cache.put(id, processed);
+        lastUsed.put(cleanId, System.currentTimeMillis());
+        if (!cleanId.equals(cleanTempId)) loading.remove(cleanId);
+        enforceDiskBudget();
         return processed;
     }
 
     public T get (String id) {
         try {
-            return cache.get(id);
+            T value = cache.get(id);
+            lastUsed.put(cleanId(id), System.currentTimeMillis());
+            return value;
         } catch (ExecutionException e) {
             LOG.error("Error loading local MapDB.", e);
             deleteLocalDBFiles(id);
@@ -171,6 +315,74 @@ public abstract class BaseGTFSCache<T> {
         }
     }
 
+    /**
+     * Get a feed without blocking the caller, loading it in the background if it is not in memory. Concurrent requests
+     * for the same feed share one load. If the load fails, the future completes exceptionally.
+     */
+    public CompletableFuture<T> getAsync (String id) {
+        T cached = cache.asMap().get(id);
+        if (cached != null) {
+            lastUsed.put(cleanId(id), System.currentTimeMillis());
+            return CompletableFuture.completedFuture(cached);
+        }
+        return submit(id, () -> {
+            try {
+                T value = cache.get(id);
+                lastUsed.put(cleanId(id), System.currentTimeMillis());
+                return value;
+            } catch (ExecutionException e) {
+                LOG.error("Error loading local MapDB.", e);
+                deleteLocalDBFiles(id);
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Add a GTFS feed to this cache in the background, converting it to MapDB (and uploading it to remote storage) on the bounded
+     * loader threads. If the feed is already being loaded under this ID, returns that load instead.
+     */
+    public CompletableFuture<T> putAsync (String id, File feedFile) {
+        return submit(id, () -> put(id, feedFile));
+    }
+
+    /**
+     * Load the given feeds in parallel in the background, for instance at startup so that the first requests for them
+     * do not wait for them to load. Feeds that fail to load are logged and do not fail the returned future. Only as
+     * many feeds as fit in the memory budget will remain in memory.
+     */
+    public CompletableFuture<Void> warmUp (Collection<String> ids) {
+        long startTime = System.currentTimeMillis();
+        LOG.info("Warming up cache with {} feeds", ids.size());
+        CompletableFuture<?>[] loads = ids.stream()
+            .map(id -> getAsync(id).handle((feed, e) -> {
+                if (e != null) LOG.warn("Could not load feed {} while warming up cache", id, e);
+                return feed;
+            }))
+            .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(loads).thenRun(() ->
+            LOG.info("Warmed up cache with {} feeds in {} ms", ids.size(), System.currentTimeMillis() - startTime));
+    }
+
+    /** Run a load for the given feed ID on the loader threads, unless one is already running. */
+    private CompletableFuture<T> submit (String id, Callable<T> load) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFuture<T> existing = inFlight.putIfAbsent(id, future);
+        if (existing != null) return existing;
+        loadExecutor.execute(() -> {
+            try {
+                future.complete(load.call());
+            } catch (Throwable e) {
+                // Report the failure of the load itself rather than the cache wrapping it.
+                boolean wrapped = e instanceof ExecutionException || e instanceof UncheckedExecutionException;
+                future.completeExceptionally(wrapped && e.getCause() != null ? e.getCause() : e);
+            } finally {
+                inFlight.remove(id, future);
+            }
+        });
+        return future;
+    }
+
     public boolean containsId (String id) {
         T feed;
         try {
@@ -182,17 +394,51 @@ public abstract class BaseGTFSCache<T> {
     }
 
 
+    /** Open the MapDB file of a feed in the cache directory, keeping its database so it can be closed later. */
+    private GTFSFeed openFeed (String id) throws IOException, ExecutionException {
+        GTFSFeed feed = new GTFSFeed(new File(cacheDir, id + ".db").getAbsolutePath());
+        databases.put(id, feed.getDatabase());
+        return feed;
+    }
+
+    /** Close the database of a feed that is no longer in use, before its files are deleted. */
+    private void closeDatabase (String id) {
+        DB db = databases.remove(id);
+        if (db != null && !db.isClosed()) db.close();
+    }
+
     /** retrieve a feed from local cache or S3 */
     private T retrieveAndProcessFeed (String originalId) {
-        // see if we have it cached locally
         String id = cleanId(originalId);
+        // A feed that was evicted but is still in use must be reused rather than opened a second time.
+        WeakReference<T> evictedReference = evicted.remove(id);
+        T evictedFeed = evictedReference == null ? null : evictedReference.get();
+        if (evictedFeed != null) {
+            LOG.info("Feed {} was evicted but is still in use; returning it to the cache", originalId);
+            return evictedFeed;
+        }
+        // Otherwise any earlier copy of the feed is unreachable, but its database is only closed once it is finalized.
+        closeDatabase(id);
+        loading.add(id);
+        try {
+            T processed = retrieveAndProcessFeed(originalId, id);
+            lastUsed.put(id, System.currentTimeMillis());
+            enforceDiskBudget();
+            return processed;
+        } finally {
+            loading.remove(id);
+        }
+    }
+
+    private T retrieveAndProcessFeed (String originalId, String id) {
+        // see if we have it cached locally
         String key = bucketFolder != null ? String.join("/", bucketFolder, id) : id;
         File dbFile = new File(cacheDir, id + ".db");
         GTFSFeed feed;
         if (dbFile.exists()) {
             LOG.info("Processed GTFS was found cached locally");
             try {
-                feed = new GTFSFeed(dbFile.getAbsolutePath());
+                feed = openFeed(id);
                 if (feed != null) {
                     return processFeed(feed);
                 }
@@ -202,32 +448,19 @@ public abstract class BaseGTFSCache<T> {
             }
         }
 
-        if (bucket != null) {
+        if (blobStore != null) {
             try {
-                LOG.info("Attempting to download cached GTFS MapDB from S3: {}/{}.db", bucket, key);
-                S3Object db = s3.getObject(bucket, key + ".db");
-                InputStream is = db.getObjectContent();
-                FileOutputStream fos = new FileOutputStream(dbFile);
-                ByteStreams.copy(is, fos);
-                is.close();
-                fos.close();
-
-                S3Object dbp = s3.getObject(bucket, key + ".db.p");
-                InputStream isp = dbp.getObjectContent();
-                FileOutputStream fosp = new FileOutputStream(new File(cacheDir, id + ".db.p"));
-                ByteStreams.copy(isp, fosp);
-                isp.close();
-                fosp.close();
-
-                LOG.info("Returning processed GTFS from S3");
-                feed = new GTFSFeed(dbFile.getAbsolutePath());
-                if (feed != null) {
+                LOG.info("Attempting to download cached GTFS MapDB: {}", key);
+                if (downloadDatabase(key, id)) {
+                    LOG.info("Returning processed GTFS from remote storage");
+                    feed = openFeed(id);
                     return processFeed(feed);
                 }
-            } catch (AmazonS3Exception e) {
-                LOG.warn("MapDB file for key '{}' does not exist on S3.", key);
+                LOG.warn("MapDB file for key '{}' does not exist in remote storage.", key);
             } catch (ExecutionException | IOException e) {
-                LOG.warn("Error retrieving MapDB file from S3, will re-create one from the original GTFS.", e);
+                // This includes MapDB files written in an earlier format, which must not be left in the cache directory.
+                LOG.warn("Error retrieving MapDB file, will re-create one from the original GTFS.", e);
+                deleteLocalDBFiles(id);
             }
         }
 
@@ -238,17 +471,13 @@ public abstract class BaseGTFSCache<T> {
             LOG.info("Loading feed from local cache directory...");
         }
 
-        if (!feedFile.exists() && bucket != null) {
-            LOG.info("Feed not found locally, downloading from S3.");
+        if (!feedFile.exists() && blobStore != null) {
+            LOG.info("Feed not found locally, downloading from remote storage.");
             try {
-                S3Object gtfs = s3.getObject(bucket, key + ".zip");
-                InputStream is = gtfs.getObjectContent();
-                FileOutputStream fos = new FileOutputStream(feedFile);
-                ByteStreams.copy(is, fos);
-                is.close();
-                fos.close();
+                if (!blobStore.download(key + ".zip", feedFile)) LOG.warn("Feed {}.zip not found remotely", key);
             } catch (Exception e) {
-                LOG.error("Could not download feed at s3://{}/{}.", bucket, key);
+                LOG.error("Could not download feed at {}.zip.", key);
+                feedFile.delete();
                 throw new RuntimeException(e);
             }
         }
@@ -266,12 +495,162 @@ public abstract class BaseGTFSCache<T> {
         }
     }
 
+    /**
+     * Upload the MapDB files of a feed as a single compressed bundle, followed by its SHA-256 checksum. MapDB files are
+     * mostly empty space and repeated keys, so they are several times smaller compressed, and the bundle is compressed
+     * on several threads.
+     */
+    private void uploadDatabase (String key, String cleanId) throws IOException {
+        long startTime = System.currentTimeMillis();
+        File bundle = File.createTempFile(cleanId + "-bundle", ".tmp", cacheDir);
+        File checksumFile = File.createTempFile(cleanId + "-checksum", ".tmp", cacheDir);
+        try {
+            try (ParallelZipWriter zip = new ParallelZipWriter(bundle, Deflater.BEST_SPEED, LOAD_THREADS)) {
+                for (String extension : DB_EXTENSIONS) {
+                    File file = new File(cacheDir, cleanId + extension);
+                    zip.addEntry(BUNDLE_ENTRY_NAME + extension, out -> Files.copy(file, out));
+                }
+            }
+            Files.asCharSink(checksumFile, StandardCharsets.UTF_8).write(sha256(bundle));
+            blobStore.upload(key + DB_BUNDLE_EXTENSION, bundle);
+            blobStore.upload(key + DB_BUNDLE_EXTENSION + CHECKSUM_EXTENSION, checksumFile);
+            LOG.info("Compressed and uploaded MapDB files of {} ({} bytes) in {} ms", key, bundle.length(),
+                System.currentTimeMillis() - startTime);
+        } finally {
+            bundle.delete();
+            checksumFile.delete();
+        }
+    }
+
+    /**
+     * Download the MapDB files of a feed into the cache directory, verifying the checksum of the bundle they are stored
+     * in. MapDB files uploaded separately and uncompressed, before they were bundled, are also accepted.
+     * @return false if there are no MapDB files for the feed in remote storage
+     */
+    private boolean downloadDatabase (String key, String id) throws IOException {
+        long startTime = System.currentTimeMillis();
+        File bundle = File.createTempFile(id + "-bundle", ".tmp", cacheDir);
+        File checksumFile = File.createTempFile(id + "-checksum", ".tmp", cacheDir);
+        try {
+            if (!blobStore.download(key + DB_BUNDLE_EXTENSION, bundle)) {
+                return blobStore.download(key + ".db", new File(cacheDir, id + ".db")) &&
+                    blobStore.download(key + ".db.p", new File(cacheDir, id + ".db.p"));
+            }
+            if (!blobStore.download(key + DB_BUNDLE_EXTENSION + CHECKSUM_EXTENSION, checksumFile)) {
+                throw new IOException("No checksum for MapDB bundle " + key);
+            }
+            String expected = Files.asCharSource(checksumFile, StandardCharsets.UTF_8).read().trim();
+            String actual = sha256(bundle);
+            if (!actual.equals(expected)) {
+                throw new IOException(String.format("Checksum of MapDB bundle %s is %s, expected %s", key, actual,
+                    expected));
+            }
+            try (ZipFile zip = new ZipFile(bundle)) {
+                for (String extension : DB_EXTENSIONS) {
+                    ZipEntry entry = zip.getEntry(BUNDLE_ENTRY_NAME + extension);
+                    if (entry == null) throw new IOException("MapDB bundle " + key + " has no " + extension + " file");
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        Files.asByteSink(new File(cacheDir, id + extension)).writeFrom(in);
+                    }
+                }
+            }
+            LOG.info("Downloaded and decompressed MapDB files of {} ({} bytes) in {} ms", key, bundle.length(),
+                System.currentTimeMillis() - startTime);
+            return true;
+        } finally {
+            bundle.delete();
+            checksumFile.delete();
+        }
+    }
+
+    private static String sha256 (File file) throws IOException {
+        return Files.asByteSource(file).hash(Hashing.sha256()).toString();
+    }
+
+    /**
+     * Delete the files of the least recently used feeds that are not open until the cache directory is within its disk
+     * budget. MapDB files are deleted first, since they can be rebuilt from the GTFS zip. Zip files are only deleted
+     * when they can be downloaded again from remote storage. This is called whenever a feed is added, and may also be called
+     * periodically, since feeds evicted from memory are only considered closed once they are garbage collected. The
+     * MapDB of such a feed is closed before its files are deleted.
+     */
+    public synchronized void enforceDiskBudget() {
+        if (diskBudgetBytes == Long.MAX_VALUE) return;
+        evicted.values().removeIf(reference -> reference.get() == null);
+        Set<String> openIds = new HashSet<>(evicted.keySet());
+        openIds.addAll(loading);
+        for (String id : cache.asMap().keySet()) openIds.add(cleanId(id));
+
+        Map<String, List<File>> filesById = localFilesById();
+        long usage = filesById.values().stream().flatMap(List::stream).mapToLong(File::length).sum();
+        if (usage <= diskBudgetBytes) return;
+        List<String> leastRecentlyUsed = filesById.keySet().stream()
+                .filter(id -> !openIds.contains(id))
+                .sorted(Comparator.comparingLong(id -> lastUsed.getOrDefault(id, lastModified(filesById.get(id)))))
+                .collect(Collectors.toList());
+        for (boolean deleteZips : new boolean[] {false, true}) {
+            if (deleteZips && blobStore == null) break;
+            for (String id : leastRecentlyUsed) {
+                if (usage <= diskBudgetBytes) return;
+                if (!deleteZips) closeDatabase(id);
+                long deleted = 0;
+                for (File file : filesById.get(id)) {
+                    if (file.getName().endsWith(".zip") != deleteZips) continue;
+                    long length = file.length();
+                    if (file.delete()) deleted += length;
+                }
+                if (deleted > 0) {
+                    LOG.info("Deleted {} bytes of local files for feed {} to stay within the disk budget", deleted, id);
+                    usage -= deleted;
+                    diskEvictions.increment();
+                    diskBytesEvicted.add(deleted);
+                }
+            }
+        }
+        if (usage > diskBudgetBytes) {
+            LOG.warn("Cache directory uses {} bytes, over its budget of {}, but the remaining files are in use or are the " +
+                    "only copies of their feeds", usage, diskBudgetBytes);
+        }
+    }
+
+    /** @return the feed files in the cache directory, grouped by clean feed ID. */
+    private Map<String, List<File>> localFilesById() {
+        Map<String, List<File>> filesById = new HashMap<>();
+        File[] files = cacheDir.listFiles();
+        if (files == null) return filesById;
+        for (File file : files) {
+            String name = file.getName();
+            String id = null;
+            if (name.endsWith(".zip")) id = name.substring(0, name.length() - ".zip".length());
+            for (String extension : DB_EXTENSIONS) {
+                if (id == null && name.endsWith(extension)) id = name.substring(0, name.length() - extension.length());
+            }
+            if (id != null) filesById.computeIfAbsent(id, i -> new ArrayList<>()).add(file);
+        }
+        return filesById;
+    }
+
+    private static long lastModified(List<File> files) {
+        return files.stream().mapToLong(File::lastModified).max().orElse(0);
+    }
+
+    /**
+     * Stop loading feeds in the background and close the blob store, releasing its threads and connections. Feeds
+     * already retrieved can still be used, but the cache itself must not be used afterward.
+     */
+    @Override
+    public void close() throws IOException {
+        loadExecutor.shutdownNow();
+        if (blobStore != null) blobStore.close();
+    }
+
     /** Convert a GTFSFeed into whatever this cache holds. */
     protected abstract T processFeed (GTFSFeed feed);
 
     public abstract GTFSFeed getFeed (String id);
 
     private void deleteLocalDBFiles(String id) {
+        closeDatabase(cleanId(id));
         String[] extensions = {".db", ".db.p"};
         // delete ONLY local cache db files
         for (String type : extensions) {
@@ -0,0 +1,523 @@
+package com.conveyal.gtfs;
+
+import com.conveyal.gtfs.loader.Feed;
+import com.conveyal.gtfs.model.Entity;
+import com.conveyal.gtfs.model.Route;
+import com.conveyal.gtfs.model.ShapePoint;
+import com.conveyal.gtfs.model.Stop;
+import com.conveyal.gtfs.model.StopTime;
+import com.conveyal.gtfs.model.Trip;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TShortArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An immutable, compact in-memory copy of the parts of a feed needed to build routing networks or run analytics: stops,
+ * routes, trips, stop times and shapes. Rather than one Java object per row (each with its own header and String
+ * references), every field is stored as a column in a primitive array, and IDs are replaced with indexes into sorted
+ * ID dictionaries. This uses roughly a tenth of the memory of the equivalent StopTime and Trip objects.
+ *
+ * Stop times are stored sorted by trip and stop_sequence, so the stop times for trip t are the rows from
+ * getFirstStopTime(t) to getFirstStopTime(t) + getStopTimeCount(t). Shape points are likewise stored by shape, with
+ * coordinates packed as alternating lon and lat. The large stop time and shape columns can optionally be placed in
+ * direct (off-heap) buffers, which keeps them out of the garbage collected heap entirely.
+ *
+ * Create instances with {@link #fromFeed(Feed, boolean)} or {@link #fromGTFSFeed(GTFSFeed, boolean)}. Stop times or
+ * shape points that refer to unknown trips or shapes are left out. A stop time referring to an unknown stop has stop
+ * index -1.
+ */
+public class ColumnarFeed {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnarFeed.class);
+
+    public final IdDictionary stopIds;
+    public final IdDictionary routeIds;
+    public final IdDictionary tripIds;
+    public final IdDictionary serviceIds;
+    public final IdDictionary shapeIds;
+
+    /** True if the stop time and shape columns are held in direct buffers outside the Java heap. */
+    public final boolean offHeap;
+
+    // Stops, by index in stopIds.
+    private final double[] stopLats;
+    private final double[] stopLons;
+    private final String[] stopNames;
+
+    // Routes, by index in routeIds. The trips on route r are routeTrips[routeTripOffsets[r] .. routeTripOffsets[r + 1]).
+    private final short[] routeTypes;
+    private final int[] routeTripOffsets;
+    private final int[] routeTrips;
+
+    // Trips, by index in tripIds. References to other entities are indexes in their dictionaries, or -1 if missing.
+    private final int[] tripRoutes;
+    private final int[] tripServices;
+    private final int[] tripShapes;
+    private final short[] tripDirections;
+    // The stop times for trip t are the rows tripStopTimeOffsets[t] .. tripStopTimeOffsets[t + 1].
+    private final int[] tripStopTimeOffsets;
+
+    // Stop time columns, by row.
+    private final IntBuffer stopTimeStops;
+    private final IntBuffer stopSequences;
+    private final IntBuffer arrivalTimes;
+    private final IntBuffer departureTimes;
+    private final ShortBuffer pickupTypes;
+    private final ShortBuffer dropOffTypes;
+    private final DoubleBuffer stopTimeDistances;
+
+    // Shape points. The points of shape s are shapePointOffsets[s] .. shapePointOffsets[s + 1], with the coordinates of
+    // point p at shapeCoordinates[2p] (lon) and shapeCoordinates[2p + 1] (lat).
+    private final int[] shapePointOffsets;
+    private final DoubleBuffer shapeCoordinates;
+    private final DoubleBuffer shapePointDistances;
+
+    private ColumnarFeed (
+        Collection<Stop> stops,
+        Collection<Route> routes,
+        Collection<Trip> trips,
+        Iterable<StopTime> stopTimes,
+        Iterable<ShapePoint> shapePoints,
+        boolean offHeap
+    ) {
+        this.offHeap = offHeap;
+        stopIds = IdDictionary.of(stops.stream().map(stop -> stop.stop_id).iterator());
+        routeIds = IdDictionary.of(routes.stream().map(route -> route.route_id).iterator());
+        tripIds = IdDictionary.of(trips.stream().map(trip -> trip.trip_id).iterator());
+        serviceIds = IdDictionary.of(trips.stream().map(trip -> trip.service_id).iterator());
+        shapeIds = IdDictionary.of(trips.stream().map(trip -> trip.shape_id).iterator());
+
+        stopLats = new double[stopIds.size()];
+        stopLons = new double[stopIds.size()];
+        stopNames = new String[stopIds.size()];
+        for (Stop stop : stops) {
+            int s = stopIds.indexOf(stop.stop_id);
+            if (s < 0) continue;
+            stopLats[s] = stop.stop_lat;
+            stopLons[s] = stop.stop_lon;
+            stopNames[s] = stop.stop_name;
+        }
+
+        routeTypes = new short[routeIds.size()];
+        for (Route route : routes) {
+            int r = routeIds.indexOf(route.route_id);
+            if (r >= 0) routeTypes[r] = toShort(route.route_type);
+        }
+
+        int nTrips = tripIds.size();
+        tripRoutes = new int[nTrips];
+        tripServices = new int[nTrips];
+        tripShapes = new int[nTrips];
+        tripDirections = new short[nTrips];
+        for (Trip trip : trips) {
+            int t = tripIds.indexOf(trip.trip_id);
+            if (t < 0) continue;
+            tripRoutes[t] = routeIds.indexOf(trip.route_id);
+            tripServices[t] = serviceIds.indexOf(trip.service_id);
+            tripShapes[t] = shapeIds.indexOf(trip.shape_id);
+            tripDirections[t] = toShort(trip.direction_id);
+        }
+        // Group the trips by route with a counting sort, leaving out trips with no known route.
+        routeTripOffsets = new int[routeIds.size() + 1];
+        for (int route : tripRoutes) if (route >= 0) routeTripOffsets[route + 1]++;
+        for (int r = 0; r < routeIds.size(); r++) routeTripOffsets[r + 1] += routeTripOffsets[r];
+        routeTrips = new int[routeTripOffsets[routeIds.size()]];
+        int[] nextTripForRoute = Arrays.copyOf(routeTripOffsets, routeIds.size());
+        for (int t = 0; t < nTrips; t++) {
+            if (tripRoutes[t] >= 0) routeTrips[nextTripForRoute[tripRoutes[t]]++] = t;
+        }
+
+        // Read the stop times into growable columns in the order supplied, then move them into trip order.
+        TIntArrayList stopTimeTrips = new TIntArrayList();
+        TIntArrayList rawStops = new TIntArrayList();
+        TIntArrayList rawSequences = new TIntArrayList();
+        TIntArrayList rawArrivals = new TIntArrayList();
+        TIntArrayList rawDepartures = new TIntArrayList();
+        TShortArrayList rawPickups = new TShortArrayList();
+        TShortArrayList rawDropOffs = new TShortArrayList();
+        TDoubleArrayList rawDistances = new TDoubleArrayList();
+        for (StopTime stopTime : stopTimes) {
+            int t = tripIds.indexOf(stopTime.trip_id);
+            if (t < 0) continue;
+            stopTimeTrips.add(t);
+            rawStops.add(stopIds.indexOf(stopTime.stop_id));
+            rawSequences.add(stopTime.stop_sequence);
+            rawArrivals.add(stopTime.arrival_time);
+            rawDepartures.add(stopTime.departure_time);
+            rawPickups.add(toShort(stopTime.pickup_type));
+            rawDropOffs.add(toShort(stopTime.drop_off_type));
+            rawDistances.add(stopTime.shape_dist_traveled);
+        }
+        tripStopTimeOffsets = groupOffsets(stopTimeTrips, nTrips);
+        int[] stopTimeOrder = groupOrder(stopTimeTrips, tripStopTimeOffsets);
+        stopTimeStops = intColumn(permute(rawStops.toArray(), stopTimeOrder), offHeap);
+        stopSequences = intColumn(permute(rawSequences.toArray(), stopTimeOrder), offHeap);
+        arrivalTimes = intColumn(permute(rawArrivals.toArray(), stopTimeOrder), offHeap);
+        departureTimes = intColumn(permute(rawDepartures.toArray(), stopTimeOrder), offHeap);
+        pickupTypes = shortColumn(permute(rawPickups.toArray(), stopTimeOrder), offHeap);
+        dropOffTypes = shortColumn(permute(rawDropOffs.toArray(), stopTimeOrder), offHeap);
+        stopTimeDistances = doubleColumn(permute(rawDistances.toArray(), stopTimeOrder), offHeap);
+
+        TIntArrayList pointShapes = new TIntArrayList();
+        TDoubleArrayList rawCoordinates = new TDoubleArrayList();
+        TDoubleArrayList rawPointDistances = new TDoubleArrayList();
+        for (ShapePoint point : shapePoints) {
+            int s = shapeIds.indexOf(point.shape_id);
+            if (s < 0) continue;
+            pointShapes.add(s);
+            rawCoordinates.add(point.shape_pt_lon);
+            rawCoordinates.add(point.shape_pt_lat);
+            rawPointDistances.add(point.shape_dist_traveled);
+        }
+        shapePointOffsets = groupOffsets(pointShapes, shapeIds.size());
+        int[] pointOrder = groupOrder(pointShapes, shapePointOffsets);
+        double[] coordinates = new double[rawCoordinates.size()];
+        for (int p = 0; p < pointOrder.length; p++) {
+            coordinates[2 * p] = rawCoordinates.get(2 * pointOrder[p]);
+            coordinates[2 * p + 1] = rawCoordinates.get(2 * pointOrder[p] + 1);
+        }
+        shapeCoordinates = doubleColumn(coordinates, offHeap);
+        shapePointDistances = doubleColumn(permute(rawPointDistances.toArray(), pointOrder), offHeap);
+        LOG.info("Built columnar feed with {} trips, {} stop times and {} shape points ({} bytes).",
+            nTrips, getStopTimeCount(), pointOrder.length, getByteSize());
+    }
+
+    /**
+     * Build a snapshot of the feed stored in a database namespace. Only the columns used are selected.
+     */
+    public static ColumnarFeed fromFeed (Feed feed, boolean offHeap) {
+        return new ColumnarFeed(
+            toList(feed.stops.withColumns("stop_id", "stop_name", "stop_lat", "stop_lon")),
+            toList(feed.routes.withColumns("route_id", "route_type")),
+            toList(feed.trips.withColumns("trip_id", "route_id", "service_id", "shape_id", "direction_id")),
+            feed.stopTimes.withColumns("trip_id", "stop_id", "stop_sequence", "arrival_time", "departure_time",
+                "pickup_type", "drop_off_type", "shape_dist_traveled").getAllOrdered(),
+            feed.shapePoints.getAllOrdered(),
+            offHeap
+        );
+    }
+
+    /**
+     * Build a snapshot of a MapDB-backed feed.
+     */
+    public static ColumnarFeed fromGTFSFeed (GTFSFeed feed, boolean offHeap) {
+        // The stop times and shape points maps are sorted by (ID, sequence number), which the constructor relies on.
+        return new ColumnarFeed(
+            feed.stops.values(),
+            feed.routes.values(),
+            feed.trips.values(),
+            feed.stop_times.values(),
+            feed.shape_points.values(),
+            offHeap
+        );
+    }
+
+    private static <T> List<T> toList (Iterable<T> items) {
+        List<T> list = new ArrayList<>();
+        items.forEach(list::add);
+        return list;
+    }
+
+    /**
+     * @return for items grouped by the given group indexes, offsets such that the items in group g will be at
+     * offsets[g] until offsets[g + 1].
+     */
+    private static int[] groupOffsets (TIntArrayList groups, int nGroups) {
+        int[] offsets = new int[nGroups + 1];
+        for (int i = 0; i < groups.size(); i++) offsets[groups.get(i) + 1]++;
+        for (int g = 0; g < nGroups; g++) offsets[g + 1] += offsets[g];
+        return offsets;
+    }
+
+    /**
+     * @return the original position of the item that goes at each position once grouped. This is a stable counting
+     * sort, so items within a group stay in the order they were supplied (e.g. stop_sequence order).
+     */
+    private static int[] groupOrder (TIntArrayList groups, int[] offsets) {
+        int[] order = new int[groups.size()];
+        int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+        for (int i = 0; i < groups.size(); i++) order[next[groups.get(i)]++] = i;
+        return order;
+    }
+
+    private static int[] permute (int[] values, int[] order) {
+        int[] permuted = new int[order.length];
+        for (int i = 0; i < order.length; i++) permuted[i] = values[order[i]];
+        return permuted;
+    }
+
+    private static short[] permute (short[] values, int[] order) {
+        short[] permuted = new short[order.length];
+        for (int i = 0; i < order.length; i++) permuted[i] = values[order[i]];
+        return permuted;
+    }
+
+    private static double[] permute (double[] values, int[] order) {
+        double[] permuted = new double[order.length];
+        for (int i = 0; i < order.length; i++) permuted[i] = values[order[i]];
+        return permuted;
+    }
+
+    /**
+     * Small integer codes (route types, directions, pickup and drop off types) are stored as shorts. Casting
+     * Entity.INT_MISSING to a short would give zero, a valid code, so missing values are stored as Short.MIN_VALUE.
+     */
+    private static short toShort (int value) {
+        return value == Entity.INT_MISSING ? Short.MIN_VALUE : (short) value;
+    }
+
+    private static int fromShort (short value) {
+        return value == Short.MIN_VALUE ? Entity.INT_MISSING : value;
+    }
+
+    private static ByteBuffer allocateDirect (int bytes) {
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+
+    private static IntBuffer intColumn (int[] values, boolean offHeap) {
+        if (!offHeap) return IntBuffer.wrap(values);
+        IntBuffer buffer = allocateDirect(values.length * Integer.BYTES).asIntBuffer();
+        buffer.put(values).flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    private static ShortBuffer shortColumn (short[] values, boolean offHeap) {
+        if (!offHeap) return ShortBuffer.wrap(values);
+        ShortBuffer buffer = allocateDirect(values.length * Short.BYTES).asShortBuffer();
+        buffer.put(values).flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    private static DoubleBuffer doubleColumn (double[] values, boolean offHeap) {
+        if (!offHeap) return DoubleBuffer.wrap(values);
+        DoubleBuffer buffer = allocateDirect(values.length * Double.BYTES).asDoubleBuffer();
+        buffer.put(values).flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    // Stops
+
+    public int getStopIndex (String stopId) {
+        return stopIds.indexOf(stopId);
+    }
+
+    public double getStopLat (int stop) {
+        return stopLats[stop];
+    }
+
+    public double getStopLon (int stop) {
+        return stopLons[stop];
+    }
+
+    public String getStopName (int stop) {
+        return stopNames[stop];
+    }
+
+    // Routes
+
+    public int getRouteIndex (String routeId) {
+        return routeIds.indexOf(routeId);
+    }
+
+    public int getRouteType (int route) {
+        return fromShort(routeTypes[route]);
+    }
+
+    /** @return the indexes of the trips on the given route, in trip ID order. */
+    public int[] getTripsForRoute (int route) {
+        return Arrays.copyOfRange(routeTrips, routeTripOffsets[route], routeTripOffsets[route + 1]);
+    }
+
+    /** @return the IDs of the trips on the given route, or an empty list if the route is unknown. */
+    public List<String> getTripIdsForRoute (String routeId) {
+        List<String> ids = new ArrayList<>();
+        int route = routeIds.indexOf(routeId);
+        if (route < 0) return ids;
+        for (int trip : getTripsForRoute(route)) ids.add(tripIds.get(trip));
+        return ids;
+    }
+
+    // Trips
+
+    public int getTripIndex (String tripId) {
+        return tripIds.indexOf(tripId);
+    }
+
+    /** @return the index of the trip's route in routeIds, or -1 if it has no known route. */
+    public int getTripRoute (int trip) {
+        return tripRoutes[trip];
+    }
+
+    /** @return the index of the trip's service in serviceIds, or -1 if it has none. */
+    public int getTripService (int trip) {
+        return tripServices[trip];
+    }
+
+    /** @return the index of the trip's shape in shapeIds, or -1 if it has none. */
+    public int getTripShape (int trip) {
+        return tripShapes[trip];
+    }
+
+    public int getTripDirection (int trip) {
+        return fromShort(tripDirections[trip]);
+    }
+
+    // Stop times
+
+    /** @return the total number of stop time rows. */
+    public int getStopTimeCount () {
+        return tripStopTimeOffsets[tripIds.size()];
+    }
+
+    /** @return the row of the first stop time of the given trip. */
+    public int getFirstStopTime (int trip) {
+        return tripStopTimeOffsets[trip];
+    }
+
+    public int getStopTimeCount (int trip) {
+        return tripStopTimeOffsets[trip + 1] - tripStopTimeOffsets[trip];
+    }
+
+    /** @return the index of the stop for the stop time row in stopIds, or -1 if the stop is unknown. */
+    public int getStopTimeStop (int row) {
+        return stopTimeStops.get(row);
+    }
+
+    public int getStopSequence (int row) {
+        return stopSequences.get(row);
+    }
+
+    public int getArrivalTime (int row) {
+        return arrivalTimes.get(row);
+    }
+
+    public int getDepartureTime (int row) {
+        return departureTimes.get(row);
+    }
+
+    public int getPickupType (int row) {
+        return fromShort(pickupTypes.get(row));
+    }
+
+    public int getDropOffType (int row) {
+        return fromShort(dropOffTypes.get(row));
+    }
+
+    public double getShapeDistTraveled (int row) {
+        return stopTimeDistances.get(row);
+    }
+
+    /**
+     * Materialize the stop times for a trip as StopTime objects, for code written against the object model. Fields that
+     * are not held in this snapshot have their missing values.
+     */
+    public List<StopTime> getStopTimesForTrip (String tripId) {
+        List<StopTime> stopTimes = new ArrayList<>();
+        int trip = tripIds.indexOf(tripId);
+        if (trip < 0) return stopTimes;
+        for (int row = tripStopTimeOffsets[trip]; row < tripStopTimeOffsets[trip + 1]; row++) {
+            StopTime stopTime = new StopTime();
+            stopTime.trip_id = tripId;
+            int stop = stopTimeStops.get(row);
+            stopTime.stop_id = stop < 0 ? null : stopIds.get(stop);
+            stopTime.stop_sequence = stopSequences.get(row);
+            stopTime.arrival_time = arrivalTimes.get(row);
+            stopTime.departure_time = departureTimes.get(row);
+            stopTime.pickup_type = getPickupType(row);
+            stopTime.drop_off_type = getDropOffType(row);
+            stopTime.shape_dist_traveled = stopTimeDistances.get(row);
+            stopTimes.add(stopTime);
+        }
+        return stopTimes;
+    }
+
+    // Shapes
+
+    public int getShapeIndex (String shapeId) {
+        return shapeIds.indexOf(shapeId);
+    }
+
+    public int getShapePointCount (int shape) {
+        return shapePointOffsets[shape + 1] - shapePointOffsets[shape];
+    }
+
+    /** @return the coordinates of the shape's points in sequence, packed as alternating lon and lat. */
+    public double[] getShapeCoordinates (int shape) {
+        int from = shapePointOffsets[shape];
+        double[] coordinates = new double[2 * getShapePointCount(shape)];
+        for (int i = 0; i < coordinates.length; i++) coordinates[i] = shapeCoordinates.get(2 * from + i);
+        return coordinates;
+    }
+
+    /** @return the shape_dist_traveled of each of the shape's points in sequence. */
+    public double[] getShapeDistances (int shape) {
+        int from = shapePointOffsets[shape];
+        double[] distances = new double[getShapePointCount(shape)];
+        for (int i = 0; i < distances.length; i++) distances[i] = shapePointDistances.get(from + i);
+        return distances;
+    }
+
+    /**
+     * @return the approximate number of bytes held by the columns of this snapshot (on and off the heap), not counting
+     * the ID and stop name strings.
+     */
+    public long getByteSize () {
+        long bytes = 8L * (stopLats.length + stopLons.length);
+        bytes += 2L * (routeTypes.length + tripDirections.length);
+        bytes += 4L * (routeTripOffsets.length + routeTrips.length + tripRoutes.length + tripServices.length
+            + tripShapes.length + tripStopTimeOffsets.length + shapePointOffsets.length);
+        bytes += 4L * (stopTimeStops.capacity() + stopSequences.capacity() + arrivalTimes.capacity()
+            + departureTimes.capacity());
+        bytes += 2L * (pickupTypes.capacity() + dropOffTypes.capacity());
+        bytes += 8L * (stopTimeDistances.capacity() + shapeCoordinates.capacity() + shapePointDistances.capacity());
+        return bytes;
+    }
+
+    /**
+     * A sorted array of distinct IDs, mapping each ID to its position. Looking up an index is a binary search, which
+     * avoids the per-entry overhead of a hash map.
+     */
+    public static class IdDictionary {
+
+        private final String[] ids;
+
+        private IdDictionary (String[] ids) {
+            this.ids = ids;
+        }
+
+        /** Build a dictionary of the distinct, non-null IDs supplied. */
+        static IdDictionary of (Iterator<String> ids) {
+            List<String> list = new ArrayList<>();
+            ids.forEachRemaining(id -> { if (id != null) list.add(id); });
+            return new IdDictionary(list.stream().sorted().distinct().toArray(String[]::new));
+        }
+
+        /** @return the index of the ID, or -1 if it is null or not in this dictionary. */
+        public int indexOf (String id) {
+            if (id == null) return -1;
+            int index = Arrays.binarySearch(ids, id);
+            return index < 0 ? -1 : index;
+        }
+
+        public String get (int index) {
+            return ids[index];
+        }
+
+        public int size () {
+            return ids.length;
+        }
+    }
+}
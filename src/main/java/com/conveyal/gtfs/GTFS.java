@@ -1,11 +1,15 @@
 package com.conveyal.gtfs;
 
 import com.conveyal.gtfs.loader.Feed;
+import com.conveyal.gtfs.loader.FeedDiffResult;
 import com.conveyal.gtfs.loader.FeedLoadResult;
+import com.conveyal.gtfs.loader.JdbcGtfsDiffer;
 import com.conveyal.gtfs.loader.JdbcGtfsExporter;
 import com.conveyal.gtfs.loader.JdbcGtfsLoader;
 import com.conveyal.gtfs.loader.JdbcGtfsSnapshotter;
+import com.conveyal.gtfs.loader.RowDiff;
 import com.conveyal.gtfs.loader.SnapshotResult;
+import com.conveyal.gtfs.loader.Table;
 import com.conveyal.gtfs.util.InvalidNamespaceException;
 import com.conveyal.gtfs.validator.FeedValidatorCreator;
 import com.conveyal.gtfs.validator.ValidationResult;
@@ -23,12 +27,15 @@ import org.slf4j.LoggerFactory;
 import javax.sql.DataSource;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.function.Consumer;
 
 import static com.conveyal.gtfs.util.Util.ensureValidNamespace;
 
@@ -51,6 +58,15 @@ public abstract class GTFS {
         return exporter.exportTables();
     }
 
+    /**
+     * Export a feed ID from the database as a zipped GTFS to the given stream, such as an HTTP response, which is left
+     * open. Optional tables with no rows are left out.
+     */
+    public static FeedLoadResult export (String feedId, OutputStream out, DataSource dataSource, boolean fromEditor, boolean publishProprietaryFiles) {
+        JdbcGtfsExporter exporter = new JdbcGtfsExporter(feedId, null, dataSource, fromEditor, publishProprietaryFiles);
+        return exporter.exportTables(out);
+    }
+
     /**
      * Load the GTFS data in the specified file into the given JDBC DataSource.
      *
@@ -86,11 +102,61 @@ public abstract class GTFS {
      * @return the result of the snapshot
      */
     public static SnapshotResult makeSnapshot (String feedId, DataSource dataSource, boolean normalizeStopTimes) {
-        JdbcGtfsSnapshotter snapshotter = new JdbcGtfsSnapshotter(feedId, dataSource, normalizeStopTimes);
+        return makeSnapshot(feedId, dataSource, normalizeStopTimes, false);
+    }
+
+    /**
+     * Make a snapshot as above. If lazy is true, most tables start out as views of the source feed's tables and are only
+     * copied when they are first edited, which makes the snapshot almost instant for large feeds. See
+     * {@link JdbcGtfsSnapshotter}.
+     */
+    public static SnapshotResult makeSnapshot (String feedId, DataSource dataSource, boolean normalizeStopTimes, boolean lazy) {
+        return makeSnapshot(feedId, dataSource, normalizeStopTimes, lazy, 1);
+    }
+
+    /**
+     * Make a snapshot as above, copying and indexing up to maxConcurrentTables tables at once on separate connections
+     * (see {@link JdbcGtfsSnapshotter#DEFAULT_MAX_CONCURRENT_TABLES}). The time spent copying and indexing each table
+     * is reported in the result.
+     */
+    public static SnapshotResult makeSnapshot (
+        String feedId,
+        DataSource dataSource,
+        boolean normalizeStopTimes,
+        boolean lazy,
+        int maxConcurrentTables
+    ) {
+        JdbcGtfsSnapshotter snapshotter = new JdbcGtfsSnapshotter(feedId, dataSource, normalizeStopTimes, lazy, maxConcurrentTables);
         SnapshotResult result = snapshotter.copyTables();
         return result;
     }
 
+    /**
+     * Copy any tables of a lazy snapshot that are still views of the source feed's tables, so that the snapshot no
+     * longer depends on the source feed.
+     * @return the number of tables copied
+     */
+    public static int materializeSnapshot (String feedId, DataSource dataSource) throws SQLException, InvalidNamespaceException {
+        ensureValidNamespace(feedId);
+        return JdbcGtfsSnapshotter.materialize(dataSource, feedId);
+    }
+
+    /**
+     * Compare the tables of two feeds (schema namespaces) in the database, passing each row that was added, removed or
+     * changed in the other feed relative to the base feed to the listener as it is found. See {@link JdbcGtfsDiffer}.
+     * @return the number of rows of each table that differ
+     */
+    public static FeedDiffResult diff (
+        String baseFeedId,
+        String otherFeedId,
+        DataSource dataSource,
+        Consumer<RowDiff> listener
+    ) throws InvalidNamespaceException {
+        ensureValidNamespace(baseFeedId);
+        ensureValidNamespace(otherFeedId);
+        return new JdbcGtfsDiffer(baseFeedId, otherFeedId, dataSource).diffTables(listener);
+    }
+
     /**
      * Overloaded makeSnapshot method that defaults to normalize stop times.
      */
@@ -102,8 +168,21 @@ public abstract class GTFS {
      * Once a feed has been loaded into the database, examine its contents looking for various problems and errors.
      */
     public static ValidationResult validate (String feedId, DataSource dataSource, FeedValidatorCreator... additionalValidators) {
+        return validate(feedId, dataSource, false, additionalValidators);
+    }
+
+    /**
+     * Validate a loaded feed. If reuseCachedResult is true and a feed loaded from an identical GTFS file has already
+     * been validated with the same validators, the stored result and errors are copied instead of running validation.
+     */
+    public static ValidationResult validate (
+        String feedId,
+        DataSource dataSource,
+        boolean reuseCachedResult,
+        FeedValidatorCreator... additionalValidators
+    ) {
         Feed feed = new Feed(dataSource, feedId);
-        ValidationResult result = feed.validate(additionalValidators);
+        ValidationResult result = feed.validate(reuseCachedResult, additionalValidators);
         return result;
     }
 
@@ -130,6 +209,8 @@ public abstract class GTFS {
             while (resultSet.next()) {
                 LOG.info("schema + " + resultSet.getString("schema_name"));
             }
+            // Lazy snapshots of this feed would lose their views of its tables when the schema is dropped, so copy them.
+            JdbcGtfsSnapshotter.materializeDependents(connection, feedId, Arrays.asList(Table.tablesInOrder));
             // Drop all tables bearing the feedId namespace.
             // Note: It does not appear to be possible to use prepared statements with "drop schema."
             String dropSchemaSql = String.format("drop schema %s cascade;", feedId);
@@ -1,5 +1,7 @@
 package com.conveyal.gtfs;
 
+import com.conveyal.gtfs.storage.BlobStore;
+
 import java.io.File;
 
 /**
@@ -13,6 +15,11 @@ public class GTFSCache extends BaseGTFSCache<GTFSFeed> {
     public GTFSCache(String bucket, String bucketFolder, File cacheDir) {
         super(bucket, bucketFolder, cacheDir);
     }
+
+    public GTFSCache(BlobStore blobStore, String bucketFolder, File cacheDir, long memoryBudgetBytes,
+                     long diskBudgetBytes) {
+        super(blobStore, bucketFolder, cacheDir, memoryBudgetBytes, diskBudgetBytes);
+    }
     
     @Override
     protected GTFSFeed processFeed(GTFSFeed feed) {
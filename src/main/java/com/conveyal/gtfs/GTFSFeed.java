@@ -5,9 +5,15 @@ import com.conveyal.gtfs.loader.FeedLoadResult;
 import com.conveyal.gtfs.loader.JdbcGTFSFeedConverter;
 import com.conveyal.gtfs.model.*;
 import com.conveyal.gtfs.model.Calendar;
+import com.conveyal.gtfs.storage.MapDBSerializers;
 import com.conveyal.gtfs.validator.Validator;
+import com.conveyal.gtfs.util.Deduplicator;
+import com.conveyal.gtfs.util.FeedSpatialIndex;
+import com.conveyal.gtfs.util.ParallelZipWriter;
 import com.conveyal.gtfs.util.Util;
 import com.conveyal.gtfs.validator.service.GeoUtils;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.*;
 import com.google.common.eventbus.EventBus;
 import com.google.common.util.concurrent.ExecutionError;
@@ -26,20 +32,24 @@ import org.slf4j.LoggerFactory;
 import javax.sql.DataSource;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOError;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
 /**
  * All entities must be from a single feed namespace.
@@ -50,6 +60,23 @@ public class GTFSFeed implements Cloneable, Closeable {
     private static final Logger LOG = LoggerFactory.getLogger(GTFSFeed.class);
     private static final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyyMMdd");
 
+    /**
+     * The version of the layout and serialization of the MapDB file. Increment this whenever the maps or their
+     * serializers (see {@link MapDBSerializers}) change, so that files written by earlier versions are detected when
+     * reopened and can be rebuilt. Files written before the version was recorded are treated as version 1.
+     */
+    public static final int DB_FORMAT_VERSION = 2;
+    private static final String DB_FORMAT_VERSION_KEY = "format_version";
+
+    // The serialized FeedSpatialIndex is stored in the MapDB under this name.
+    private static final String SPATIAL_INDEX_KEY = "spatial_index";
+
+    // The number of tables that may be loaded at once. There are at most six independent groups of tables.
+    private static final int LOADER_THREADS = Math.min(6, Runtime.getRuntime().availableProcessors());
+
+    // The number of trips whose derived data is kept, unless it has been precomputed for all trips.
+    private static final int TRIP_DERIVED_DATA_CACHE_SIZE = 10_000;
+
     private DB db;
 
     public String feedId = null;
@@ -68,7 +95,7 @@ public class GTFSFeed implements Cloneable, Closeable {
     public final Map<String, Translation> translations;
     public final Map<String, Attribution> attributions;
 
-    public final Set<String> transitIds = new HashSet<>();
+    public final Set<String> transitIds = ConcurrentHashMap.newKeySet();
     /** CRC32 of the GTFS file this was loaded from */
     public long checksum;
 
@@ -90,9 +117,18 @@ public class GTFSFeed implements Cloneable, Closeable {
     /* Stops spatial index which gets built lazily by getSpatialIndex() */
     private transient STRtree spatialIndex;
 
+    /* Index of stops and shape segments, loaded from the MapDB file or built lazily by getFeedSpatialIndex() */
+    private transient FeedSpatialIndex feedSpatialIndex;
+
     /* Convex hull of feed (based on stops) built lazily by getConvexHull() */
     private transient Polygon convexHull;
 
+    /* Interpolated stop times, geometry, length and speed of recently used trips, or all trips once precomputed. */
+    private transient volatile Cache<String, TripDerivedData> tripDerivedDataCache;
+
+    /* Whether the methods computing a single value for a trip are answered from tripDerivedDataCache. */
+    private transient volatile boolean tripDerivedDataPrecomputed;
+
     /* Merged stop buffers polygon built lazily by getMergedBuffers() */
     private transient Geometry mergedBuffers;
 
@@ -107,6 +143,12 @@ public class GTFSFeed implements Cloneable, Closeable {
     public final Map<String, String> tripPatternMap;
     private boolean loaded = false;
 
+    // The format version of the database file this feed is stored in.
+    private final int dbFormatVersion;
+
+    /* Deduplicates the strings read while loading this feed. See getDeduplicator(). */
+    private transient Deduplicator deduplicator;
+
     /* A place to store an event bus that is passed through constructor. */
     public transient EventBus eventBus;
 
@@ -118,7 +160,9 @@ public class GTFSFeed implements Cloneable, Closeable {
      * referential integrity while the files are being loaded. This is done on the fly during loading because it allows
      * us to associate a line number with errors in objects that don't have any other clear identifier.
      *
-     * Interestingly, all references are resolvable when tables are loaded in alphabetical order.
+     * Tables that do not depend on each other (e.g. shapes and stops) are loaded concurrently, and tables that reference
+     * others (e.g. stop times, which reference trips and stops) are only started once the tables they reference are
+     * complete.
      */
     public void loadFromFile(ZipFile zip, String fid) throws Exception {
         if (this.loaded) throw new UnsupportedOperationException("Attempt to load GTFS into existing database");
@@ -135,6 +179,10 @@ public class GTFSFeed implements Cloneable, Closeable {
 
         db.getAtomicLong("checksum").set(checksum);
 
+        // Unless the caller supplied a deduplicator, use one just for this load and release its strings afterward.
+        boolean ownDeduplicator = deduplicator == null;
+        Deduplicator deduplicator = getDeduplicator();
+
         new FeedInfo.Loader(this).loadTable(zip);
         // maybe we should just point to the feed object itself instead of its ID, and null out its stoptimes map after loading
         if (fid != null) {
@@ -151,32 +199,61 @@ public class GTFSFeed implements Cloneable, Closeable {
 
         db.getAtomicString("feed_id").set(feedId);
 
-        new Agency.Loader(this).loadTable(zip);
-
-        // calendars and calendar dates are joined into services. This means a lot of manipulating service objects as
-        // they are loaded; since mapdb keys/values are immutable, load them in memory then copy them to MapDB once
-        // we're done loading them
-        Map<String, Service> serviceTable = new HashMap<>();
-        new Calendar.Loader(this, serviceTable).loadTable(zip);
-        new CalendarDate.Loader(this, serviceTable).loadTable(zip);
-        this.services.putAll(serviceTable);
-        serviceTable = null; // free memory
-
-        // Same deal
-        Map<String, Fare> fares = new HashMap<>();
-        new FareAttribute.Loader(this, fares).loadTable(zip);
-        new FareRule.Loader(this, fares).loadTable(zip);
-        this.fares.putAll(fares);
-        fares = null; // free memory
-
-        new Pattern.Loader(this).loadTable(zip);
-        new Route.Loader(this).loadTable(zip);
-        new ShapePoint.Loader(this).loadTable(zip);
-        new Stop.Loader(this).loadTable(zip);
-        new Transfer.Loader(this).loadTable(zip);
-        new Trip.Loader(this).loadTable(zip);
-        new Frequency.Loader(this).loadTable(zip);
-        new StopTime.Loader(this).loadTable(zip); // comment out this line for quick testing using NL feed
+        // Load tables concurrently, except that each table is only loaded once the tables it references are complete.
+        ExecutorService executor = Executors.newFixedThreadPool(LOADER_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "gtfs-table-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            CompletableFuture<Void> agenciesAndRoutes = loadAsync(executor, () -> {
+                new Agency.Loader(this).loadTable(zip);
+                new Route.Loader(this).loadTable(zip);
+            });
+            CompletableFuture<Void> services = loadAsync(executor, () -> {
+                // calendars and calendar dates are joined into services. This means a lot of manipulating service
+                // objects as they are loaded; since mapdb keys/values are immutable, load them in memory then copy
+                // them to MapDB once we're done loading them
+                Map<String, Service> serviceTable = new HashMap<>();
+                new Calendar.Loader(this, serviceTable).loadTable(zip);
+                new CalendarDate.Loader(this, serviceTable).loadTable(zip);
+                this.services.putAll(serviceTable);
+            });
+            CompletableFuture<Void> fares = loadAsync(executor, () -> {
+                // Same deal
+                Map<String, Fare> fareTable = new HashMap<>();
+                new FareAttribute.Loader(this, fareTable).loadTable(zip);
+                new FareRule.Loader(this, fareTable).loadTable(zip);
+                this.fares.putAll(fareTable);
+            });
+            CompletableFuture<Void> patterns = loadAsync(executor, () -> new Pattern.Loader(this).loadTable(zip));
+            CompletableFuture<Void> shapes = loadAsync(executor, () -> new ShapePoint.Loader(this).loadTable(zip));
+            CompletableFuture<Void> stops = loadAsync(executor, () -> new Stop.Loader(this).loadTable(zip));
+            CompletableFuture<Void> trips = CompletableFuture.allOf(agenciesAndRoutes, services)
+                .thenCompose(done -> loadAsync(executor, () -> new Trip.Loader(this).loadTable(zip)));
+            CompletableFuture<Void> tripsAndStops = CompletableFuture.allOf(trips, stops);
+            CompletableFuture<Void> transfers = tripsAndStops
+                .thenCompose(done -> loadAsync(executor, () -> new Transfer.Loader(this).loadTable(zip)));
+            CompletableFuture<Void> frequencies = trips
+                .thenCompose(done -> loadAsync(executor, () -> new Frequency.Loader(this).loadTable(zip)));
+            CompletableFuture<Void> stopTimes = tripsAndStops
+                .thenCompose(done -> loadAsync(executor, () -> new StopTime.Loader(this).loadTable(zip)));
+            CompletableFuture.allOf(fares, patterns, shapes, transfers, frequencies, stopTimes).join();
+        } catch (CompletionException e) {
+            // Stop the other loaders, and wait for any that are still running, so none of them is still writing to
+            // the database when the failure is rethrown.
+            executor.shutdownNow();
+            awaitTermination(executor);
+            // Rethrow the exception from the loader that failed.
+            Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw e;
+        } finally {
+            executor.shutdown();
+            // Log the statistics before a reset drops the canonical objects they count.
+            LOG.info("Deduplication: {}", deduplicator.getStats());
+            if (ownDeduplicator) deduplicator.reset();
+        }
         LOG.info("{} errors", errors.size());
         for (GTFSError error : errors) {
             LOG.info("{}", error);
@@ -188,20 +265,68 @@ public class GTFSFeed implements Cloneable, Closeable {
         loadFromFile(zip, null);
     }
 
+    /**
+     * Use the given deduplicator for strings read while loading this feed, for example a bounded or weak one, or one
+     * shared with other feeds. The caller is responsible for resetting it. This must be called before loading.
+     */
+    public void setDeduplicator (Deduplicator deduplicator) {
+        this.deduplicator = deduplicator;
+    }
+
+    /**
+     * @return the deduplicator used while loading this feed, from which deduplication statistics can be read. Unless
+     * one was supplied with setDeduplicator, a new one is created for the load and its canonical strings are released
+     * once the load finishes.
+     */
+    public synchronized Deduplicator getDeduplicator () {
+        if (deduplicator == null) deduplicator = new Deduplicator();
+        return deduplicator;
+    }
+
+    /** Loading a table, which may throw an IOException. */
+    @FunctionalInterface
+    private interface TableLoad {
+        void load() throws IOException;
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOG.info("Waiting for table loaders to stop.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static CompletableFuture<Void> loadAsync(ExecutorService executor, TableLoad tableLoad) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                tableLoad.load();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
     public FeedLoadResult toSQL (DataSource dataSource) {
         JdbcGTFSFeedConverter converter = new JdbcGTFSFeedConverter(this, dataSource);
         return converter.loadTables();
     }
 
     public void toFile (String file) {
-        try {
-            File out = new File(file);
-            OutputStream os = new FileOutputStream(out);
-            ZipOutputStream zip = new ZipOutputStream(os);
-
-            // write everything
-            // TODO: shapes
+        toFile(file, Deflater.DEFAULT_COMPRESSION);
+    }
 
+    /**
+     * Write this feed to a GTFS zip file. Tables are written concurrently, and each table is deflated in chunks on
+     * several threads, so large feeds are not limited by the speed of a single deflate stream.
+     * @param compressionLevel the deflate level from 0 (no compression) to 9, or Deflater.DEFAULT_COMPRESSION
+     */
+    public void toFile (String file, int compressionLevel) {
+        ParallelZipWriter zip = new ParallelZipWriter(new File(file), compressionLevel,
+                Runtime.getRuntime().availableProcessors());
+        try {
             // don't write empty feed_info.txt
             if (!this.feedInfo.isEmpty()) new FeedInfo.Writer(this).writeTable(zip);
 
@@ -218,23 +343,28 @@ public class GTFSFeed implements Cloneable, Closeable {
             new Trip.Writer(this).writeTable(zip);
             new StopTime.Writer(this).writeTable(zip);
             new Pattern.Writer(this).writeTable(zip);
-
-            zip.close();
-
-            LOG.info("GTFS file written");
         } catch (Exception e) {
+            // Discard the tables already started, rather than writing a zip file without the remaining ones.
+            zip.abort();
             LOG.error("Error saving GTFS: {}", e.getMessage());
             throw new RuntimeException(e);
         }
+        try {
+            zip.close();
+        } catch (IOException e) {
+            LOG.error("Error saving GTFS: {}", e.getMessage());
+            throw new RuntimeException(e);
+        }
+        LOG.info("GTFS file written");
     }
 
     public void validate (boolean repair, Validator... validators) {
-        long startValidation = System.currentTimeMillis();
+        long startValidation = System.nanoTime();
         for (Validator validator : validators) {
             try {
-                long startValidator = System.currentTimeMillis();
+                long startValidator = System.nanoTime();
 //                validator.validate(this, repair);
-                long endValidator = System.currentTimeMillis();
+                long endValidator = System.nanoTime();
                 long diff = endValidator - startValidator;
                 LOG.info("{} finished in {} milliseconds.", validator.getClass().getSimpleName(), TimeUnit.NANOSECONDS.toMillis(diff));
             } catch (Exception e) {
@@ -267,7 +397,16 @@ public class GTFSFeed implements Cloneable, Closeable {
      * supplied value if the parameter is non-null.
      */
     public static GTFSFeed fromFile(String file, String feedId) {
-        GTFSFeed feed = new GTFSFeed();
+        return fromFile(file, feedId, Storage.TEMP_FILE);
+    }
+
+    /**
+     * Static factory method returning a new instance of GTFSFeed with the given storage, containing the contents of
+     * the GTFS file at the supplied filesystem path. Forces the feedId to the supplied value if the parameter is
+     * non-null.
+     */
+    public static GTFSFeed fromFile(String file, String feedId, Storage storage) {
+        GTFSFeed feed = new GTFSFeed(storage);
         ZipFile zip;
         try {
             zip = new ZipFile(file);
@@ -308,6 +447,8 @@ public class GTFSFeed implements Cloneable, Closeable {
 
     /**
      * TODO rename getStopSpatialIndex to make it clear what the index contains.
+     * The envelopes of the stops in the index are in (lon, lat) order, like the geometries elsewhere in this class.
+     * For nearest-neighbor and radius queries, see getFeedSpatialIndex.
      */
     public STRtree getSpatialIndex () {
         if (this.spatialIndex == null) {
@@ -320,7 +461,7 @@ public class GTFSFeed implements Cloneable, Closeable {
                             if (Double.isNaN(stop.stop_lat) || Double.isNaN(stop.stop_lon)) {
                                 continue;
                             }
-                            Coordinate stopCoord = new Coordinate(stop.stop_lat, stop.stop_lon);
+                            Coordinate stopCoord = new Coordinate(stop.stop_lon, stop.stop_lat);
                             stopIndex.insert(new Envelope(stopCoord), stop);
                         } catch (Exception e) {
                             e.printStackTrace();
@@ -339,6 +480,33 @@ public class GTFSFeed implements Cloneable, Closeable {
         return this.spatialIndex;
     }
 
+    /**
+     * Get an index of the stops and shape segments of this feed for nearest-neighbor and radius queries. The index is
+     * stored in the MapDB file the first time it is built, so feeds reopened from a file (e.g. by a GTFS cache) do not
+     * rebuild it. A stored index built from a different version of the feed is rebuilt.
+     */
+    public FeedSpatialIndex getFeedSpatialIndex () {
+        if (this.feedSpatialIndex == null) {
+            synchronized (this) {
+                if (this.feedSpatialIndex == null) {
+                    FeedSpatialIndex index = null;
+                    if (db.exists(SPATIAL_INDEX_KEY)) {
+                        index = FeedSpatialIndex.fromBytes(db.<byte[]>getAtomicVar(SPATIAL_INDEX_KEY).get());
+                        if (index != null && index.feedChecksum != checksum) index = null;
+                    }
+                    if (index == null) {
+                        index = FeedSpatialIndex.build(this);
+                        byte[] bytes = index.toBytes();
+                        if (db.exists(SPATIAL_INDEX_KEY)) db.getAtomicVar(SPATIAL_INDEX_KEY).set(bytes);
+                        else db.createAtomicVar(SPATIAL_INDEX_KEY, bytes, Serializer.BYTE_ARRAY);
+                    }
+                    this.feedSpatialIndex = index;
+                }
+            }
+        }
+        return this.feedSpatialIndex;
+    }
+
     /** Get the shape for the given shape ID */
     public Shape getShape (String shape_id) {
         Shape shape = new Shape(this, shape_id);
@@ -347,15 +515,30 @@ public class GTFSFeed implements Cloneable, Closeable {
 
     /**
      * For the given trip ID, fetch all the stop times in order, and interpolate stop-to-stop travel times.
+     * After {@link #precomputeTripDerivedData()} this is answered from the precomputed data, even if the feed has
+     * changed since.
      */
     public Iterable<StopTime> getInterpolatedStopTimesForTrip (String trip_id) throws FirstAndLastStopsDoNotHaveTimes {
+        TripDerivedData cached = getCachedTripDerivedData(trip_id);
+        if (cached != null) {
+            if (!cached.hasInterpolatedStopTimes()) throw new FirstAndLastStopsDoNotHaveTimes();
+            return cached.getInterpolatedStopTimes();
+        }
         // clone stop times so as not to modify base GTFS structures
         StopTime[] stopTimes = StreamSupport.stream(getOrderedStopTimesForTrip(trip_id).spliterator(), false)
                 .map(st -> st.clone())
                 .toArray(i -> new StopTime[i]);
+        return Arrays.asList(interpolateStopTimes(stopTimes, stops));
+    }
 
+    /**
+     * Fill in missing arrival and departure times in the supplied stop times (which are modified in place) by
+     * interpolating between the stops that have times, in proportion to the distance between stops.
+     */
+    private StopTime[] interpolateStopTimes (StopTime[] stopTimes, Map<String, Stop> stops)
+            throws FirstAndLastStopsDoNotHaveTimes {
         // avoid having to make sure that the array has length below.
-        if (stopTimes.length == 0) return Collections.emptyList();
+        if (stopTimes.length == 0) return stopTimes;
 
         // first pass: set all partially filled stop times
         for (StopTime st : stopTimes) {
@@ -423,7 +606,7 @@ public class GTFSFeed implements Cloneable, Closeable {
             }
         }
 
-        return Arrays.asList(stopTimes);
+        return stopTimes;
     }
 
     public Collection<Frequency> getFrequencies (String trip_id) {
@@ -444,7 +627,10 @@ public class GTFSFeed implements Cloneable, Closeable {
         return stops;
     }
 
+    /** Like the other trip geometry methods, this is answered from precomputed data if there is any. */
     public LineString getStraightLineForStops(String trip_id) {
+        TripDerivedData cached = getCachedTripDerivedData(trip_id);
+        if (cached != null) return cached.straightLineGeometry;
         CoordinateList coordinates = new CoordinateList();
         LineString ls = null;
         Trip trip = trips.get(trip_id);
@@ -471,12 +657,16 @@ public class GTFSFeed implements Cloneable, Closeable {
      * Returns a trip geometry object (LineString) for a given trip id.
      * If the trip has a shape reference, this will be used for the geometry.
      * Otherwise, the ordered stoptimes will be used.
+     * After {@link #precomputeTripDerivedData()} this is answered from the precomputed data, even if the feed has
+     * changed since.
      *
      * @param   trip_id   trip id of desired trip geometry
      * @return          the LineString representing the trip geometry.
      * @see             LineString
      */
     public LineString getTripGeometry(String trip_id){
+        TripDerivedData cached = getCachedTripDerivedData(trip_id);
+        if (cached != null) return cached.geometry;
 
         CoordinateList coordinates = new CoordinateList();
         LineString ls = null;
@@ -496,8 +686,13 @@ public class GTFSFeed implements Cloneable, Closeable {
         return ls;
     }
 
-    /** Get the length of a trip in meters. */
+    /** Get the length of a trip in meters, from the precomputed data if there is any (see getTripGeometry). */
     public double getTripDistance (String trip_id, boolean straightLine) {
+        TripDerivedData cached = getCachedTripDerivedData(trip_id);
+        // A trip without a geometry is left to fail as it would without precomputed data.
+        if (cached != null && (straightLine ? cached.straightLineGeometry : cached.geometry) != null) {
+            return straightLine ? cached.straightLineDistance : cached.distance;
+        }
         return straightLine
                 ? GeoUtils.getDistance(this.getStraightLineForStops(trip_id))
                 : GeoUtils.getDistance(this.getTripGeometry(trip_id));
@@ -508,8 +703,14 @@ public class GTFSFeed implements Cloneable, Closeable {
         return getTripSpeed(trip_id, false);
     }
 
-    /** Get trip speed in meters per second. */
+    /** Get trip speed in meters per second, from the precomputed data if there is any (see getTripGeometry). */
     public double getTripSpeed (String trip_id, boolean straightLine) {
+        TripDerivedData cached = getCachedTripDerivedData(trip_id);
+        // Trips without stop times or a geometry are left to be handled as they would be without precomputed data.
+        if (cached != null && cached.travelTime != Entity.INT_MISSING
+                && (straightLine ? cached.straightLineGeometry : cached.geometry) != null) {
+            return straightLine ? cached.getStraightLineSpeed() : cached.getSpeed();
+        }
 
         StopTime firstStopTime = this.stop_times.ceilingEntry(Fun.t2(trip_id, null)).getValue();
         StopTime lastStopTime = this.stop_times.floorEntry(Fun.t2(trip_id, Fun.HI)).getValue();
@@ -527,6 +728,161 @@ public class GTFSFeed implements Cloneable, Closeable {
         return distance / time; // meters per second
     }
 
+    /**
+     * Get the interpolated stop times, geometry, length and speed of a trip, from the cache if they have already been
+     * computed. The cache holds the most recently used trips, unless all of them were computed at once by
+     * {@link #precomputeTripDerivedData()}. Cached data is not updated if the feed is modified afterward.
+     * @throws RuntimeException if the trip does not exist or one of its stops does not, as the methods computing a
+     *         single value for a trip would.
+     */
+    public TripDerivedData getTripDerivedData (String trip_id) {
+        Cache<String, TripDerivedData> cache = getTripDerivedDataCache();
+        TripDerivedData tripDerivedData = cache.getIfPresent(trip_id);
+        if (tripDerivedData == null) {
+            tripDerivedData = computeTripDerivedData(trip_id, stops, new HashMap<>());
+            cache.put(trip_id, tripDerivedData);
+        }
+        return tripDerivedData;
+    }
+
+    /**
+     * Get the derived data for many trips at once, computing those that are not yet cached in parallel.
+     * @return a map from trip ID to derived data, in the order of the supplied IDs. Trips whose data could not be
+     *         computed (e.g. because they reference stops that do not exist) are left out.
+     */
+    public Map<String, TripDerivedData> getTripDerivedData (Collection<String> tripIds) {
+        Cache<String, TripDerivedData> cache = getTripDerivedDataCache();
+        Map<String, TripDerivedData> cached = cache.getAllPresent(tripIds);
+        List<String> missingTripIds = tripIds.stream()
+                .filter(tripId -> !cached.containsKey(tripId))
+                .distinct()
+                .collect(Collectors.toList());
+        Map<String, TripDerivedData> computed = computeTripDerivedData(missingTripIds);
+        cache.putAll(computed);
+        Map<String, TripDerivedData> tripDerivedData = new LinkedHashMap<>();
+        for (String tripId : tripIds) {
+            TripDerivedData data = cached.containsKey(tripId) ? cached.get(tripId) : computed.get(tripId);
+            if (data != null) tripDerivedData.put(tripId, data);
+        }
+        return tripDerivedData;
+    }
+
+    /**
+     * Compute the derived data for every trip in parallel, and keep all of it in a cache large enough to hold it.
+     * After this, the interpolated stop times, geometry, distance and speed of any trip are answered from the cache,
+     * which is not updated if the feed is modified afterward: call this method again to recompute it. Until then, the
+     * cache is only used by {@link #getTripDerivedData(String)}, and those methods always read the feed.
+     */
+    public void precomputeTripDerivedData () {
+        long startTime = System.currentTimeMillis();
+        Map<String, TripDerivedData> tripDerivedData = computeTripDerivedData(trips.keySet());
+        Cache<String, TripDerivedData> cache = buildTripDerivedDataCache(tripDerivedData.size());
+        cache.putAll(tripDerivedData);
+        tripDerivedDataCache = cache;
+        tripDerivedDataPrecomputed = true;
+        LOG.info("Computed derived data for {} trips in {} ms.", tripDerivedData.size(),
+                System.currentTimeMillis() - startTime);
+    }
+
+    private TripDerivedData getCachedTripDerivedData (String trip_id) {
+        if (!tripDerivedDataPrecomputed) return null;
+        Cache<String, TripDerivedData> cache = tripDerivedDataCache;
+        return cache == null ? null : cache.getIfPresent(trip_id);
+    }
+
+    private Cache<String, TripDerivedData> getTripDerivedDataCache () {
+        if (tripDerivedDataCache == null) {
+            synchronized (this) {
+                if (tripDerivedDataCache == null) {
+                    tripDerivedDataCache = buildTripDerivedDataCache(TRIP_DERIVED_DATA_CACHE_SIZE);
+                }
+            }
+        }
+        return tripDerivedDataCache;
+    }
+
+    private static Cache<String, TripDerivedData> buildTripDerivedDataCache (int size) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(Math.max(size, TRIP_DERIVED_DATA_CACHE_SIZE))
+                .build();
+    }
+
+    /**
+     * Compute the derived data for the given trips in parallel. Stops are copied out of the feed once, and the
+     * geometry of each shape is only built once, however many trips share it.
+     */
+    private Map<String, TripDerivedData> computeTripDerivedData (Collection<String> tripIds) {
+        if (tripIds.isEmpty()) return Collections.emptyMap();
+        Map<String, Stop> stopsById = new HashMap<>(stops);
+        Map<String, LineString> shapeGeometries = new ConcurrentHashMap<>();
+        return tripIds.parallelStream()
+                .map(tripId -> {
+                    try {
+                        return computeTripDerivedData(tripId, stopsById, shapeGeometries);
+                    } catch (RuntimeException e) {
+                        LOG.warn("Could not compute derived data for trip {}.", tripId, e);
+                        return null;
+                    }
+                })
+                .filter(Objects::nonNull)
+                .collect(Collectors.toConcurrentMap(data -> data.trip_id, data -> data));
+    }
+
+    /**
+     * Compute the derived data for one trip, reading its stop times once. This fails where the methods computing a
+     * single value for a trip would, so that the cache never answers differently than they would.
+     */
+    private TripDerivedData computeTripDerivedData (String trip_id, Map<String, Stop> stopsById,
+                                                    Map<String, LineString> shapeGeometries) {
+        Trip trip = trips.get(trip_id);
+        if (trip == null) throw new IllegalArgumentException("Trip does not exist: " + trip_id);
+        StopTime[] stopTimes = StreamSupport.stream(getOrderedStopTimesForTrip(trip_id).spliterator(), false)
+                .map(st -> st.clone())
+                .toArray(i -> new StopTime[i]);
+
+        // As in getTripSpeed, the travel time is measured before interpolation.
+        int travelTime = stopTimes.length == 0
+                ? Entity.INT_MISSING
+                : stopTimes[stopTimes.length - 1].arrival_time - stopTimes[0].departure_time;
+
+        LineString straightLine = null;
+        if (stopTimes.length > 1) {
+            CoordinateList coordinates = new CoordinateList();
+            for (StopTime stopTime : stopTimes) {
+                Stop stop = stopsById.get(stopTime.stop_id);
+                if (stop == null) throw new IllegalArgumentException("Stop does not exist: " + stopTime.stop_id);
+                coordinates.add(new Coordinate(stop.stop_lon, stop.stop_lat));
+            }
+            straightLine = gf.createLineString(coordinates.toCoordinateArray());
+        }
+
+        LineString geometry = null;
+        if (trip.shape_id != null) {
+            geometry = shapeGeometries.computeIfAbsent(trip.shape_id, shape_id -> {
+                Shape shape = getShape(shape_id);
+                return shape == null ? null : shape.geometry;
+            });
+        }
+        if (geometry == null) geometry = straightLine;
+
+        StopTime[] interpolatedStopTimes;
+        try {
+            interpolatedStopTimes = interpolateStopTimes(stopTimes, stopsById);
+        } catch (FirstAndLastStopsDoNotHaveTimes e) {
+            interpolatedStopTimes = null;
+        }
+
+        return new TripDerivedData(
+                trip_id,
+                geometry,
+                straightLine,
+                geometry == null ? Double.NaN : GeoUtils.getDistance(geometry),
+                straightLine == null ? Double.NaN : GeoUtils.getDistance(straightLine),
+                travelTime,
+                interpolatedStopTimes
+        );
+    }
+
     public Polygon getConvexHull() {
         if (this.convexHull == null) {
             synchronized (this) {
@@ -549,7 +905,11 @@ public class GTFSFeed implements Cloneable, Closeable {
     @Override
     public GTFSFeed clone() {
         try {
-            return (GTFSFeed) super.clone();
+            GTFSFeed clone = (GTFSFeed) super.clone();
+            // The clone is expected to be modified, so it should not share derived data computed from this feed.
+            clone.tripDerivedDataCache = null;
+            clone.tripDerivedDataPrecomputed = false;
+            return clone;
         } catch (CloneNotSupportedException e) {
             throw new RuntimeException(e);
         }
@@ -563,27 +923,67 @@ public class GTFSFeed implements Cloneable, Closeable {
         db.close();
     }
 
+    /** @return the MapDB this feed is stored in, so a cache can close it once the feed itself is unreachable. */
+    DB getDatabase () {
+        return db;
+    }
+
     /** Thrown when we cannot interpolate stop times because the first or last stops do not have times */
     public class FirstAndLastStopsDoNotHaveTimes extends Exception {
         /** do nothing */
     }
 
+    /** Where the tables of a GTFSFeed that is not stored in a particular file are kept. */
+    public enum Storage {
+        /** In a compressed, memory-mapped temp file, which is deleted when the feed is closed. */
+        TEMP_FILE,
+        /**
+         * On the heap, as objects in the same sorted maps, with no serialization, compression or file handles. This is
+         * much faster to read but uses more memory, so is intended for small and medium-sized feeds. Entities read
+         * from the maps are the stored instances themselves, so they must not be modified in place.
+         */
+        HEAP
+    }
+
     /** Create a GTFS feed in a temp file */
     public GTFSFeed () {
+        this(Storage.TEMP_FILE);
+    }
+
+    /** Create a GTFS feed with the given storage. */
+    public GTFSFeed (Storage storage) {
         // calls to this must be first operation in constructor - why, Java?
-        this(DBMaker.newTempFileDB()
+        this(constructDB(storage)); // TODO db.close();
+    }
+
+    private static DB constructDB(Storage storage) {
+        if (storage == Storage.HEAP) {
+            return DBMaker.newHeapDB()
+                    .transactionDisable()
+                    .make();
+        }
+        return DBMaker.newTempFileDB()
                 .transactionDisable()
                 .mmapFileEnable()
                 .asyncWriteEnable()
                 .deleteFilesAfterClose()
                 .compressionEnable()
                 // .cacheSize(1024 * 1024) this bloats memory consumption
-                .make()); // TODO db.close();
+                .make();
     }
 
-    /** Create a GTFS feed connected to a particular DB, which will be created if it does not exist. */
+    /**
+     * Create a GTFS feed connected to a particular DB, which will be created if it does not exist.
+     * @throws IOException if the DB exists but was written in an earlier format, in which case it should be deleted and
+     *                     rebuilt from the original GTFS.
+     */
     public GTFSFeed (String dbFile) throws IOException, ExecutionException {
         this(constructDB(dbFile)); // TODO db.close();
+        if (dbFormatVersion != DB_FORMAT_VERSION) {
+            close();
+            throw new IOException(String.format("MapDB file %s has format version %d, but version %d is required.",
+                dbFile, dbFormatVersion, DB_FORMAT_VERSION));
+        }
     }
 
     private static DB constructDB(String dbFile) {
@@ -607,27 +1007,38 @@ public class GTFSFeed implements Cloneable, Closeable {
     private GTFSFeed (DB db) {
         this.db = db;
 
+        // Mark new databases with the current format version, before any maps are created.
+        if (db.getCatalog().isEmpty()) db.createAtomicInteger(DB_FORMAT_VERSION_KEY, DB_FORMAT_VERSION);
+        dbFormatVersion = db.exists(DB_FORMAT_VERSION_KEY) ? db.getAtomicInteger(DB_FORMAT_VERSION_KEY).get() : 1;
+
         agency = db.getTreeMap("agency");
         feedInfo = db.getTreeMap("feed_info");
         routes = db.getTreeMap("routes");
         trips = db.getTreeMap("trips");
-        stop_times = db.getTreeMap("stop_times");
+        // The largest maps use compact serializers, and keys that share their trip or shape ID within each node.
+        stop_times = db.createTreeMap("stop_times")
+                .keySerializer(MapDBSerializers.ID_SEQUENCE_KEYS)
+                .valueSerializer(MapDBSerializers.STOP_TIME)
+                .makeOrGet();
         frequencies = db.getTreeSet("frequencies");
         transfers = db.getTreeMap("transfers");
         stops = db.getTreeMap("stops");
         fares = db.getTreeMap("fares");
         services = db.getTreeMap("services");
-        shape_points = db.getTreeMap("shape_points");
+        shape_points = db.createTreeMap("shape_points")
+                .keySerializer(MapDBSerializers.ID_SEQUENCE_KEYS)
+                .valueSerializer(MapDBSerializers.SHAPE_POINT)
+                .makeOrGet();
         translations = db.getTreeMap("translations");
         attributions = db.getTreeMap("attributions");
 
         feedId = db.getAtomicString("feed_id").get();
         checksum = db.getAtomicLong("checksum").get();
 
-        // use Java serialization because MapDB serialization is very slow with JTS as they have a lot of references.
-        // nothing else contains JTS objects
+        // MapDB serialization is very slow with JTS as they have a lot of references, so patterns (the only objects
+        // containing JTS geometries) are written field by field with their geometries as packed coordinates.
         patterns = db.createTreeMap("patterns")
-                .valueSerializer(Serializer.JAVA)
+                .valueSerializer(MapDBSerializers.PATTERN)
                 .makeOrGet();
 
         tripPatternMap = db.getTreeMap("patternForTrip");
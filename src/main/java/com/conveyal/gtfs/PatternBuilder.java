@@ -33,10 +33,11 @@ public class PatternBuilder {
     private final Feed feed;
     private static final String TEMP_FILE_NAME = "pattern_for_trips";
 
-    private final Connection connection;
+    // Obtained when patterns are created rather than on construction, so that no connection is held (or leaked) by
+    // validators that never reach the completion stage.
+    private Connection connection;
     public PatternBuilder(Feed feed) throws SQLException {
         this.feed = feed;
-        connection = feed.getConnection();
     }
 
     public void create(Map<TripPatternKey, Pattern> patterns, boolean usePatternsFromFeed) {
@@ -48,6 +49,7 @@ public class PatternBuilder {
         Table patternStopsTable = new Table(patternStopsTableName, PatternStop.class, Requirement.EDITOR, Table.PATTERN_STOP.fields);
 
         try {
+            connection = feed.getConnection();
             File tempPatternForTripsTextFile = File.createTempFile(TEMP_FILE_NAME, "text");
             LOG.info("Creating pattern and pattern stops tables.");
             Statement statement = connection.createStatement();
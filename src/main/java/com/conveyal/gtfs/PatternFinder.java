@@ -7,6 +7,7 @@ import com.conveyal.gtfs.model.Pattern;
 import com.conveyal.gtfs.model.Stop;
 import com.conveyal.gtfs.model.StopTime;
 import com.conveyal.gtfs.model.Trip;
+import com.conveyal.gtfs.validator.TripStopTimes;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Multimap;
@@ -44,19 +45,41 @@ public class PatternFinder {
     private int nTripsProcessed = 0;
 
     public void processTrip(Trip trip, Iterable<StopTime> orderedStopTimes) {
-        if (++nTripsProcessed % 100000 == 0) {
-            LOG.info("trip {}", human(nTripsProcessed));
-        }
         // No need to scope the route ID here, patterns are built within the context of a single feed.
         // Create a key that might already be in the map (by semantic equality)
         TripPatternKey key = new TripPatternKey(trip.route_id);
         for (StopTime st : orderedStopTimes) {
             key.addStopTime(st);
         }
+        addTrip(key, trip);
+    }
+
+    /**
+     * Equivalent to {@link #processTrip(Trip, Iterable)}, but reads the stop times from a columnar trip view.
+     */
+    public void processTrip(Trip trip, TripStopTimes stopTimes) {
+        TripPatternKey key = new TripPatternKey(trip.route_id);
+        for (int i = 0; i < stopTimes.size; i++) {
+            key.addStopTime(stopTimes, i);
+        }
+        addTrip(key, trip);
+    }
+
+    private void addTrip(TripPatternKey key, Trip trip) {
+        if (++nTripsProcessed % 100000 == 0) {
+            LOG.info("trip {}", human(nTripsProcessed));
+        }
         // Add the current trip to the map, possibly extending an existing list of trips on this pattern.
         tripsForPattern.put(key, trip);
     }
 
+    /**
+     * @return the number of trips accumulated so far, all of which are held in memory until patterns are created.
+     */
+    public int getTripCount() {
+        return tripsForPattern.size();
+    }
+
     /**
      * Once all trips have been processed, call this method to produce the final Pattern objects representing all the
      * unique sequences of stops encountered. Returns map of patterns to their keys so that downstream functions can
@@ -1,6 +1,7 @@
 package com.conveyal.gtfs;
 
 import com.conveyal.gtfs.model.StopTime;
+import com.conveyal.gtfs.validator.TripStopTimes;
 import gnu.trove.list.TDoubleList;
 import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TDoubleArrayList;
@@ -49,6 +50,23 @@ public class TripPatternKey {
         continuous_drop_off.add(st.continuous_drop_off);
     }
 
+    /**
+     * Add the stop time at the given index of a columnar trip view, without creating a StopTime object.
+     */
+    public void addStopTime (TripStopTimes stopTimes, int i) {
+        stops.add(stopTimes.stopIds[i]);
+        pickupTypes.add(resolvePickupOrDropOffType(stopTimes.pickupTypes[i]));
+        dropoffTypes.add(resolvePickupOrDropOffType(stopTimes.dropOffTypes[i]));
+        // Note, the items listed below are not used in the equality check.
+        arrivalTimes.add(stopTimes.arrivalTimes[i]);
+        departureTimes.add(stopTimes.departureTimes[i]);
+        timepoints.add(stopTimes.timepoints[i]);
+        stopHeadsigns.add(stopTimes.stopHeadsigns[i]);
+        shapeDistances.add(stopTimes.shapeDistTraveled[i]);
+        continuous_pickup.add(stopTimes.continuousPickups[i]);
+        continuous_drop_off.add(stopTimes.continuousDropOffs[i]);
+    }
+
     /**
      * Resolves omitted (INT_MISSING) values for pickup and drop-off types to the default value (0 - regular)
      * for the purposes of determining whether entries in stop_times correspond to the same trip pattern(s).
@@ -46,6 +46,9 @@ public class SQLErrorStorage {
     // count, which should only be determined with a SQL query.
     private int errorId;
 
+    // The number of errors stored through this instance, which unlike the count does not require a query.
+    private int storedErrorCount;
+
     // How many errors to insert at a time in a batch, for efficiency.
     private static final long INSERT_BATCH_SIZE = 500;
 
@@ -83,6 +86,7 @@ public class SQLErrorStorage {
                 insertInfo.executeBatch();
             }
             errorId += 1;
+            storedErrorCount += 1;
         } catch (SQLException ex) {
             throw new StorageException(ex);
         }
@@ -94,6 +98,15 @@ public class SQLErrorStorage {
         }
     }
 
+    /**
+     * @return the number of errors stored through this instance so far. This is cheap enough to call around every
+     * unit of work (e.g. each trip validated), but does not include errors stored before the error tables were
+     * reconnected. Use {@link #getErrorCount()} for the total.
+     */
+    public int getStoredErrorCount () {
+        return storedErrorCount;
+    }
+
     /**
      * Commits any outstanding error inserts and returns the error count via a SQL query.
      */
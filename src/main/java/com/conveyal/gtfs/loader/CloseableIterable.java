@@ -0,0 +1,24 @@
+package com.conveyal.gtfs.loader;
+
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * An Iterable over rows that are read from the database as iteration proceeds, holding a connection open until the
+ * rows run out or the iterable is closed. Use it in a try-with-resources block so that the connection is released
+ * even when iteration stops early (by break, return or exception).
+ */
+public interface CloseableIterable<T> extends Iterable<T>, AutoCloseable {
+
+    /** Release the underlying connection. This may be called more than once. */
+    @Override
+    void close ();
+
+    /**
+     * @return a sequential stream over the items. Closing the stream closes this iterable, so the stream can itself be
+     * used in try-with-resources.
+     */
+    default Stream<T> stream () {
+        return StreamSupport.stream(spliterator(), false).onClose(this::close);
+    }
+}
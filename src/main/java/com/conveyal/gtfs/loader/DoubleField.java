@@ -3,8 +3,12 @@ package com.conveyal.gtfs.loader;
 import com.conveyal.gtfs.error.NewGTFSError;
 import com.conveyal.gtfs.storage.StorageException;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.sql.JDBCType;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.SQLType;
 import java.util.Set;
 
@@ -85,4 +89,13 @@ public class DoubleField extends Field {
         );
     }
 
+    /** Round fields that have an outputPrecision > -1 half away from zero, like the SQL round function. */
+    @Override
+    public String formatCsvValue(ResultSet resultSet, int oneBasedIndex) throws SQLException {
+        if (this.outputPrecision < 0) return super.formatCsvValue(resultSet, oneBasedIndex);
+        double value = resultSet.getDouble(oneBasedIndex);
+        if (resultSet.wasNull()) return null;
+        return BigDecimal.valueOf(value).setScale(this.outputPrecision, RoundingMode.HALF_UP).toPlainString();
+    }
+
 }
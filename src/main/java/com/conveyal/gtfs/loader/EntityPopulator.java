@@ -35,10 +35,10 @@ import static com.conveyal.gtfs.model.ScheduleException.exemplarFromInt;
 /**
  * For now we will copy all available fields into Java model objects.
  *
- * We could also have entity cursors with accessor functions that move along the results, and only look at
- * the fields we need. We could even select only the required fields from the backend database but that gets
- * messy. Anecdotal evidence suggests this would give about a 1/3 speedup. But other observations show no speedup at all.
- * The main benefit would be grabbing arbitrary extension columns.
+ * Most populators are {@link IndexedEntityPopulator}s, which table readers compile once against the columns of their
+ * query so that fields are read by index rather than looked up by name in every row. Readers can also select only the
+ * required fields from the backend database (see {@link JDBCTableReader#withColumns(String...)}), in which case the
+ * fields that were not selected are left with their missing values.
  *
  * TODO associate EntityPopulator more closely with Entity types and Table instances, so you can get one from the other.
  * e.g. getEntityPopulator() and getTableSpec() on Entity classes.
@@ -54,93 +54,87 @@ import static com.conveyal.gtfs.model.ScheduleException.exemplarFromInt;
  */
 public interface EntityPopulator<T> {
     Logger LOG = LoggerFactory.getLogger(EntityPopulator.class);
-    EntityPopulator<PatternStop> PATTERN_STOP = (result, columnForName) -> {
-        PatternStop patternStop = new PatternStop();
-        patternStop.stop_id = getStringIfPresent(result, "stop_id", columnForName);
-        patternStop.default_dwell_time = getIntIfPresent(result, "default_dwell_time", columnForName);
-        patternStop.default_travel_time = getIntIfPresent(result, "default_travel_time", columnForName);
-        patternStop.pattern_id = getStringIfPresent(result, "pattern_id", columnForName);
-        patternStop.drop_off_type = getIntIfPresent(result, "drop_off_type", columnForName);
-        patternStop.stop_headsign = getStringIfPresent(result, "stop_headsign", columnForName);
-        patternStop.pickup_type = getIntIfPresent(result, "pickup_type", columnForName);
-        patternStop.stop_sequence = getIntIfPresent(result, "stop_sequence", columnForName);
-        patternStop.timepoint = getIntIfPresent(result, "timepoint", columnForName);
-        patternStop.shape_dist_traveled = getDoubleIfPresent(result, "shape_dist_traveled", columnForName);
-        patternStop.continuous_pickup   = getIntIfPresent   (result, "continuous_pickup",   columnForName);
-        patternStop.continuous_drop_off = getIntIfPresent   (result, "continuous_drop_off", columnForName);
-        return patternStop;
-    };
+    EntityPopulator<PatternStop> PATTERN_STOP = new IndexedEntityPopulator<>(PatternStop::new)
+        .stringColumn("stop_id",             (e, v) -> e.stop_id = v)
+        .intColumn   ("default_dwell_time",  (e, v) -> e.default_dwell_time = v)
+        .intColumn   ("default_travel_time", (e, v) -> e.default_travel_time = v)
+        .stringColumn("pattern_id",          (e, v) -> e.pattern_id = v)
+        .intColumn   ("drop_off_type",       (e, v) -> e.drop_off_type = v)
+        .stringColumn("stop_headsign",       (e, v) -> e.stop_headsign = v)
+        .intColumn   ("pickup_type",         (e, v) -> e.pickup_type = v)
+        .intColumn   ("stop_sequence",       (e, v) -> e.stop_sequence = v)
+        .intColumn   ("timepoint",           (e, v) -> e.timepoint = v)
+        .doubleColumn("shape_dist_traveled", (e, v) -> e.shape_dist_traveled = v)
+        .intColumn   ("continuous_pickup",   (e, v) -> e.continuous_pickup = v)
+        .intColumn   ("continuous_drop_off", (e, v) -> e.continuous_drop_off = v);
 
-    EntityPopulator<Pattern> PATTERN = (result, columnForName) -> {
-        Pattern pattern = new Pattern();
-        pattern.pattern_id = getStringIfPresent(result, "pattern_id", columnForName);
-        pattern.route_id = getStringIfPresent(result, "route_id", columnForName);
-        pattern.name = getStringIfPresent(result, "name", columnForName);
-        pattern.direction_id = getIntIfPresent(result, "direction_id", columnForName);
-        pattern.use_frequency = getIntIfPresent(result, "use_frequency", columnForName);
-        pattern.shape_id = getStringIfPresent(result, "shape_id", columnForName);
-        return pattern;
-    };
+    EntityPopulator<Pattern> PATTERN = new IndexedEntityPopulator<>(Pattern::new)
+        .stringColumn("pattern_id",    (e, v) -> e.pattern_id = v)
+        .stringColumn("route_id",      (e, v) -> e.route_id = v)
+        .stringColumn("name",          (e, v) -> e.name = v)
+        .intColumn   ("direction_id",  (e, v) -> e.direction_id = v)
+        .intColumn   ("use_frequency", (e, v) -> e.use_frequency = v)
+        .stringColumn("shape_id",      (e, v) -> e.shape_id = v);
 
     T populate (ResultSet results, TObjectIntMap<String> columnForName) throws SQLException;
 
-    EntityPopulator<Agency> AGENCY = (result, columnForName) -> {
-        Agency agency              = new Agency();
-        agency.agency_id           = getStringIfPresent(result, "agency_id", columnForName);
-        agency.agency_name         = getStringIfPresent(result, "agency_name", columnForName);
-        agency.agency_url          = getUrlIfPresent   (result, "agency_url", columnForName);
-        agency.agency_timezone     = getStringIfPresent(result, "agency_timezone", columnForName);
-        agency.agency_lang         = getStringIfPresent(result, "agency_lang", columnForName);
-        agency.agency_phone        = getStringIfPresent(result, "agency_phone", columnForName);
-        agency.agency_fare_url     = getUrlIfPresent   (result, "agency_fare_url", columnForName);
-        agency.agency_email        = getStringIfPresent(result, "agency_email", columnForName);
-        agency.agency_branding_url = getUrlIfPresent   (result, "agency_branding_url", columnForName);
-        return agency;
-    };
+    /**
+     * Bind this populator to the column layout of a query, for reading many rows with the same columns. By default
+     * this just holds on to the map and looks up each column by name as before; {@link IndexedEntityPopulator}
+     * resolves the columns to indexes up front.
+     */
+    default Compiled<T> compile (TObjectIntMap<String> columnForName) {
+        return results -> populate(results, columnForName);
+    }
 
-    EntityPopulator<Calendar> CALENDAR = (result, columnForName) -> {
-        Calendar calendar   = new Calendar();
-        calendar.service_id = getStringIfPresent(result, "service_id", columnForName);
-        calendar.start_date = getDateIfPresent  (result, "start_date", columnForName);
-        calendar.end_date   = getDateIfPresent  (result, "end_date",   columnForName);
-        calendar.monday     = getIntIfPresent   (result, "monday",     columnForName);
-        calendar.tuesday    = getIntIfPresent   (result, "tuesday",    columnForName);
-        calendar.wednesday  = getIntIfPresent   (result, "wednesday",  columnForName);
-        calendar.thursday   = getIntIfPresent   (result, "thursday",   columnForName);
-        calendar.friday     = getIntIfPresent   (result, "friday",     columnForName);
-        calendar.saturday   = getIntIfPresent   (result, "saturday",   columnForName);
-        calendar.sunday     = getIntIfPresent   (result, "sunday",     columnForName);
-        return calendar;
-    };
+    /** An entity populator bound to the columns of a particular query, see {@link #compile(TObjectIntMap)}. */
+    @FunctionalInterface
+    interface Compiled<T> {
+        T populate (ResultSet results) throws SQLException;
+    }
 
-    EntityPopulator<CalendarDate> CALENDAR_DATE = (result, columnForName) -> {
-        CalendarDate calendarDate   = new CalendarDate();
-        calendarDate.service_id     = getStringIfPresent(result, "service_id",     columnForName);
-        calendarDate.date           = getDateIfPresent  (result, "date",           columnForName);
-        calendarDate.exception_type = getIntIfPresent   (result, "exception_type", columnForName);
-        return calendarDate;
-    };
+    EntityPopulator<Agency> AGENCY = new IndexedEntityPopulator<>(Agency::new)
+        .stringColumn("agency_id",           (e, v) -> e.agency_id = v)
+        .stringColumn("agency_name",         (e, v) -> e.agency_name = v)
+        .urlColumn   ("agency_url",          (e, v) -> e.agency_url = v)
+        .stringColumn("agency_timezone",     (e, v) -> e.agency_timezone = v)
+        .stringColumn("agency_lang",         (e, v) -> e.agency_lang = v)
+        .stringColumn("agency_phone",        (e, v) -> e.agency_phone = v)
+        .urlColumn   ("agency_fare_url",     (e, v) -> e.agency_fare_url = v)
+        .stringColumn("agency_email",        (e, v) -> e.agency_email = v)
+        .urlColumn   ("agency_branding_url", (e, v) -> e.agency_branding_url = v);
 
-    EntityPopulator<FareAttribute> FARE_ATTRIBUTE = (result, columnForName) -> {
-        FareAttribute fareAttribute     = new FareAttribute();
-        fareAttribute.fare_id           = getStringIfPresent(result, "fare_id",     columnForName);
-        fareAttribute.agency_id         = getStringIfPresent(result, "agency_id",     columnForName);
-        fareAttribute.price             = getDoubleIfPresent(result, "price",           columnForName);
-        fareAttribute.payment_method    = getIntIfPresent   (result, "payment_method", columnForName);
-        fareAttribute.transfers         = getIntIfPresent   (result, "transfers", columnForName);
-        fareAttribute.transfer_duration = getIntIfPresent   (result, "transfer_duration", columnForName);
-        return fareAttribute;
-    };
+    EntityPopulator<Calendar> CALENDAR = new IndexedEntityPopulator<>(Calendar::new)
+        .stringColumn("service_id", (e, v) -> e.service_id = v)
+        .dateColumn  ("start_date", (e, v) -> e.start_date = v)
+        .dateColumn  ("end_date",   (e, v) -> e.end_date = v)
+        .intColumn   ("monday",     (e, v) -> e.monday = v)
+        .intColumn   ("tuesday",    (e, v) -> e.tuesday = v)
+        .intColumn   ("wednesday",  (e, v) -> e.wednesday = v)
+        .intColumn   ("thursday",   (e, v) -> e.thursday = v)
+        .intColumn   ("friday",     (e, v) -> e.friday = v)
+        .intColumn   ("saturday",   (e, v) -> e.saturday = v)
+        .intColumn   ("sunday",     (e, v) -> e.sunday = v);
 
-    EntityPopulator<Frequency> FREQUENCY = (result, columnForName) -> {
-        Frequency frequency    = new Frequency();
-        frequency.trip_id      = getStringIfPresent(result, "trip_id",     columnForName);
-        frequency.start_time   = getIntIfPresent   (result, "start_time", columnForName);
-        frequency.end_time     = getIntIfPresent   (result, "end_time", columnForName);
-        frequency.headway_secs = getIntIfPresent   (result, "headway_secs", columnForName);
-        frequency.exact_times  = getIntIfPresent   (result, "exact_times", columnForName);
-        return frequency;
-    };
+    EntityPopulator<CalendarDate> CALENDAR_DATE = new IndexedEntityPopulator<>(CalendarDate::new)
+        .stringColumn("service_id",     (e, v) -> e.service_id = v)
+        .dateColumn  ("date",           (e, v) -> e.date = v)
+        .intColumn   ("exception_type", (e, v) -> e.exception_type = v);
+
+    EntityPopulator<FareAttribute> FARE_ATTRIBUTE = new IndexedEntityPopulator<>(FareAttribute::new)
+        .stringColumn("fare_id",           (e, v) -> e.fare_id = v)
+        .stringColumn("agency_id",         (e, v) -> e.agency_id = v)
+        .doubleColumn("price",             (e, v) -> e.price = v)
+        .intColumn   ("payment_method",    (e, v) -> e.payment_method = v)
+        .intColumn   ("transfers",         (e, v) -> e.transfers = v)
+        .intColumn   ("transfer_duration", (e, v) -> e.transfer_duration = v);
+
+    EntityPopulator<Frequency> FREQUENCY = new IndexedEntityPopulator<>(Frequency::new)
+        .stringColumn("trip_id",      (e, v) -> e.trip_id = v)
+        .intColumn   ("start_time",   (e, v) -> e.start_time = v)
+        .intColumn   ("end_time",     (e, v) -> e.end_time = v)
+        .intColumn   ("headway_secs", (e, v) -> e.headway_secs = v)
+        .intColumn   ("exact_times",  (e, v) -> e.exact_times = v);
 
     EntityPopulator<ScheduleException> SCHEDULE_EXCEPTION = (result, columnForName) -> {
         ScheduleException scheduleException = new ScheduleException();
@@ -153,82 +147,67 @@ public interface EntityPopulator<T> {
         return scheduleException;
     };
 
-    EntityPopulator<Route> ROUTE = (result, columnForName) -> {
-        Route route               = new Route();
-        route.route_id            = getStringIfPresent(result, "route_id",            columnForName);
-        route.agency_id           = getStringIfPresent(result, "agency_id",           columnForName);
-        route.route_short_name    = getStringIfPresent(result, "route_short_name",    columnForName);
-        route.route_long_name     = getStringIfPresent(result, "route_long_name",     columnForName);
-        route.route_desc          = getStringIfPresent(result, "route_desc",          columnForName);
-        route.route_type          = getIntIfPresent   (result, "route_type",          columnForName);
-        route.route_color         = getStringIfPresent(result, "route_color",         columnForName);
-        route.route_text_color    = getStringIfPresent(result, "route_text_color",    columnForName);
-        route.route_url           = getUrlIfPresent   (result, "route_url",           columnForName);
-        route.route_branding_url  = getUrlIfPresent   (result, "route_branding_url",  columnForName);
-        route.continuous_pickup   = getIntIfPresent   (result, "continuous_pickup",   columnForName);
-        route.continuous_drop_off = getIntIfPresent   (result, "continuous_drop_off", columnForName);
-        return route;
-    };
+    EntityPopulator<Route> ROUTE = new IndexedEntityPopulator<>(Route::new)
+        .stringColumn("route_id",            (e, v) -> e.route_id = v)
+        .stringColumn("agency_id",           (e, v) -> e.agency_id = v)
+        .stringColumn("route_short_name",    (e, v) -> e.route_short_name = v)
+        .stringColumn("route_long_name",     (e, v) -> e.route_long_name = v)
+        .stringColumn("route_desc",          (e, v) -> e.route_desc = v)
+        .intColumn   ("route_type",          (e, v) -> e.route_type = v)
+        .stringColumn("route_color",         (e, v) -> e.route_color = v)
+        .stringColumn("route_text_color",    (e, v) -> e.route_text_color = v)
+        .urlColumn   ("route_url",           (e, v) -> e.route_url = v)
+        .urlColumn   ("route_branding_url",  (e, v) -> e.route_branding_url = v)
+        .intColumn   ("continuous_pickup",   (e, v) -> e.continuous_pickup = v)
+        .intColumn   ("continuous_drop_off", (e, v) -> e.continuous_drop_off = v);
 
-    EntityPopulator<Stop> STOP = (result, columnForName) -> {
-        Stop stop           = new Stop();
-        stop.stop_id        = getStringIfPresent(result, "stop_id",        columnForName);
-        stop.stop_code      = getStringIfPresent(result, "stop_code",      columnForName);
-        stop.stop_name      = getStringIfPresent(result, "stop_name",      columnForName);
-        stop.stop_desc      = getStringIfPresent(result, "stop_desc",      columnForName);
-        stop.stop_lat       = getDoubleIfPresent(result, "stop_lat",       columnForName);
-        stop.stop_lon       = getDoubleIfPresent(result, "stop_lon",       columnForName);
-        stop.zone_id        = getStringIfPresent(result, "zone_id",        columnForName);
-        stop.parent_station = getStringIfPresent(result, "parent_station", columnForName);
-        stop.stop_timezone  = getStringIfPresent(result, "stop_timezone",  columnForName);
-        stop.stop_url       = getUrlIfPresent   (result, "stop_url",       columnForName);
-        stop.location_type  = getIntIfPresent   (result, "location_type",  columnForName);
-        stop.wheelchair_boarding = getIntIfPresent(result, "wheelchair_boarding", columnForName);
-        stop.platform_code  = getStringIfPresent(result, "platform_code",  columnForName);
-        return stop;
-    };
+    EntityPopulator<Stop> STOP = new IndexedEntityPopulator<>(Stop::new)
+        .stringColumn("stop_id",             (e, v) -> e.stop_id = v)
+        .stringColumn("stop_code",           (e, v) -> e.stop_code = v)
+        .stringColumn("stop_name",           (e, v) -> e.stop_name = v)
+        .stringColumn("stop_desc",           (e, v) -> e.stop_desc = v)
+        .doubleColumn("stop_lat",            (e, v) -> e.stop_lat = v)
+        .doubleColumn("stop_lon",            (e, v) -> e.stop_lon = v)
+        .stringColumn("zone_id",             (e, v) -> e.zone_id = v)
+        .stringColumn("parent_station",      (e, v) -> e.parent_station = v)
+        .stringColumn("stop_timezone",       (e, v) -> e.stop_timezone = v)
+        .urlColumn   ("stop_url",            (e, v) -> e.stop_url = v)
+        .intColumn   ("location_type",       (e, v) -> e.location_type = v)
+        .intColumn   ("wheelchair_boarding", (e, v) -> e.wheelchair_boarding = v)
+        .stringColumn("platform_code",       (e, v) -> e.platform_code = v);
 
-    EntityPopulator<Trip> TRIP = (result, columnForName) -> {
-        Trip trip            = new Trip();
-        trip.trip_id         = getStringIfPresent(result, "trip_id", columnForName);
-        trip.route_id        = getStringIfPresent(result, "route_id", columnForName);
-        trip.service_id      = getStringIfPresent(result, "service_id", columnForName);
-        trip.trip_headsign   = getStringIfPresent(result, "trip_headsign", columnForName);
-        trip.trip_short_name = getStringIfPresent(result, "trip_short_name", columnForName);
-        trip.block_id        = getStringIfPresent(result, "block_id", columnForName);
-        trip.shape_id        = getStringIfPresent(result, "shape_id", columnForName);
-        trip.direction_id    = getIntIfPresent   (result, "direction_id", columnForName);
-        trip.bikes_allowed   = getIntIfPresent   (result, "bikes_allowed", columnForName);
-        trip.wheelchair_accessible = getIntIfPresent(result, "wheelchair_accessible", columnForName);
-        return trip;
-    };
+    EntityPopulator<Trip> TRIP = new IndexedEntityPopulator<>(Trip::new)
+        .stringColumn("trip_id",               (e, v) -> e.trip_id = v)
+        .stringColumn("route_id",              (e, v) -> e.route_id = v)
+        .stringColumn("service_id",            (e, v) -> e.service_id = v)
+        .stringColumn("trip_headsign",         (e, v) -> e.trip_headsign = v)
+        .stringColumn("trip_short_name",       (e, v) -> e.trip_short_name = v)
+        .stringColumn("block_id",              (e, v) -> e.block_id = v)
+        .stringColumn("shape_id",              (e, v) -> e.shape_id = v)
+        .intColumn   ("direction_id",          (e, v) -> e.direction_id = v)
+        .intColumn   ("bikes_allowed",         (e, v) -> e.bikes_allowed = v)
+        .intColumn   ("wheelchair_accessible", (e, v) -> e.wheelchair_accessible = v);
 
-    EntityPopulator<ShapePoint> SHAPE_POINT = (result, columnForName) -> {
-        ShapePoint shapePoint          = new ShapePoint();
-        shapePoint.shape_id            = getStringIfPresent(result, "shape_id", columnForName);
-        shapePoint.shape_pt_lat        = getDoubleIfPresent(result, "shape_pt_lat", columnForName);
-        shapePoint.shape_pt_lon        = getDoubleIfPresent(result, "shape_pt_lon", columnForName);
-        shapePoint.shape_pt_sequence   = getIntIfPresent   (result, "shape_pt_sequence", columnForName);
-        shapePoint.shape_dist_traveled = getDoubleIfPresent(result, "shape_dist_traveled", columnForName);
-        return shapePoint;
-    };
+    EntityPopulator<ShapePoint> SHAPE_POINT = new IndexedEntityPopulator<>(ShapePoint::new)
+        .stringColumn("shape_id",            (e, v) -> e.shape_id = v)
+        .doubleColumn("shape_pt_lat",        (e, v) -> e.shape_pt_lat = v)
+        .doubleColumn("shape_pt_lon",        (e, v) -> e.shape_pt_lon = v)
+        .intColumn   ("shape_pt_sequence",   (e, v) -> e.shape_pt_sequence = v)
+        .doubleColumn("shape_dist_traveled", (e, v) -> e.shape_dist_traveled = v);
 
-    EntityPopulator<StopTime> STOP_TIME = (result, columnForName) -> {
-        StopTime stopTime            = new StopTime();
-        stopTime.trip_id             = getStringIfPresent(result, "trip_id", columnForName);
-        stopTime.arrival_time        = getIntIfPresent   (result, "arrival_time", columnForName);
-        stopTime.departure_time      = getIntIfPresent   (result, "departure_time", columnForName);
-        stopTime.stop_id             = getStringIfPresent(result, "stop_id", columnForName);
-        stopTime.stop_sequence       = getIntIfPresent   (result, "stop_sequence", columnForName);
-        stopTime.stop_headsign       = getStringIfPresent(result, "stop_headsign", columnForName);
-        stopTime.pickup_type         = getIntIfPresent   (result, "pickup_type", columnForName);
-        stopTime.drop_off_type       = getIntIfPresent   (result, "drop_off_type", columnForName);
-        stopTime.continuous_pickup   = getIntIfPresent   (result, "continuous_pickup", columnForName);
-        stopTime.continuous_drop_off = getIntIfPresent   (result, "continuous_drop_off", columnForName);
-        stopTime.timepoint           = getIntIfPresent   (result, "timepoint", columnForName);
-        stopTime.shape_dist_traveled = getDoubleIfPresent(result, "shape_dist_traveled", columnForName);
-        return stopTime;
-    };
+    EntityPopulator<StopTime> STOP_TIME = new IndexedEntityPopulator<>(StopTime::new)
+        .stringColumn("trip_id",             (e, v) -> e.trip_id = v)
+        .intColumn   ("arrival_time",        (e, v) -> e.arrival_time = v)
+        .intColumn   ("departure_time",      (e, v) -> e.departure_time = v)
+        .stringColumn("stop_id",             (e, v) -> e.stop_id = v)
+        .intColumn   ("stop_sequence",       (e, v) -> e.stop_sequence = v)
+        .stringColumn("stop_headsign",       (e, v) -> e.stop_headsign = v)
+        .intColumn   ("pickup_type",         (e, v) -> e.pickup_type = v)
+        .intColumn   ("drop_off_type",       (e, v) -> e.drop_off_type = v)
+        .intColumn   ("continuous_pickup",   (e, v) -> e.continuous_pickup = v)
+        .intColumn   ("continuous_drop_off", (e, v) -> e.continuous_drop_off = v)
+        .intColumn   ("timepoint",           (e, v) -> e.timepoint = v)
+        .doubleColumn("shape_dist_traveled", (e, v) -> e.shape_dist_traveled = v);
 
     // The reason we're passing in the columnForName map is that resultSet.getX(columnName) throws an exception
     // when the column is not present.
@@ -239,14 +218,20 @@ public interface EntityPopulator<T> {
 
     static String getStringIfPresent (ResultSet resultSet, String columnName,
                                              TObjectIntMap<String> columnForName) throws SQLException {
-        int columnIndex = columnForName.get(columnName);
+        return getStringIfPresent(resultSet, columnForName.get(columnName));
+    }
+
+    static String getStringIfPresent (ResultSet resultSet, int columnIndex) throws SQLException {
         if (columnIndex == 0) return null;
         else return resultSet.getString(columnIndex);
     }
 
     static LocalDate getDateIfPresent (ResultSet resultSet, String columnName,
                                              TObjectIntMap<String> columnForName) throws SQLException {
-        int columnIndex = columnForName.get(columnName);
+        return getDateIfPresent(resultSet, columnForName.get(columnName));
+    }
+
+    static LocalDate getDateIfPresent (ResultSet resultSet, int columnIndex) throws SQLException {
         if (columnIndex == 0) return null;
         else {
             try {
@@ -288,7 +273,10 @@ public interface EntityPopulator<T> {
 
     static URL getUrlIfPresent (ResultSet resultSet, String columnName,
                                        TObjectIntMap<String> columnForName) throws SQLException {
-        int columnIndex = columnForName.get(columnName);
+        return getUrlIfPresent(resultSet, columnForName.get(columnName));
+    }
+
+    static URL getUrlIfPresent (ResultSet resultSet, int columnIndex) throws SQLException {
         if (columnIndex == 0) return null;
         try {
             URL url = new URL(resultSet.getString(columnIndex));
@@ -300,7 +288,10 @@ public interface EntityPopulator<T> {
 
     static double getDoubleIfPresent (ResultSet resultSet, String columnName,
                                              TObjectIntMap<String> columnForName) throws SQLException {
-        int columnIndex = columnForName.get(columnName);
+        return getDoubleIfPresent(resultSet, columnForName.get(columnName));
+    }
+
+    static double getDoubleIfPresent (ResultSet resultSet, int columnIndex) throws SQLException {
         if (columnIndex == 0) return Entity.DOUBLE_MISSING;
         double doubleValue = resultSet.getDouble(columnIndex);
         // If SQL value for column was null, resultSet.getDouble will return 0.0. If this is the case, override value with
@@ -311,7 +302,10 @@ public interface EntityPopulator<T> {
 
     static int getIntIfPresent (ResultSet resultSet, String columnName,
                                        TObjectIntMap<String> columnForName) throws SQLException {
-        int columnIndex = columnForName.get(columnName);
+        return getIntIfPresent(resultSet, columnForName.get(columnName));
+    }
+
+    static int getIntIfPresent (ResultSet resultSet, int columnIndex) throws SQLException {
         if (columnIndex == 0) return Entity.INT_MISSING;
         int intValue = resultSet.getInt(columnIndex);
         // If SQL value for column was null, resultSet.getInt will return 0. If this is the case, override value with
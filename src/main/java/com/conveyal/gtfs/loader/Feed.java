@@ -13,7 +13,10 @@ import org.slf4j.LoggerFactory;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 import static com.conveyal.gtfs.error.NewGTFSErrorType.VALIDATOR_FAILED;
 
@@ -40,6 +43,10 @@ public class Feed {
     public final TableReader<Trip>          trips;
     public final TableReader<StopTime>      stopTimes;
     public final TableReader<Pattern>       patterns;
+    public final TableReader<ShapePoint>    shapePoints;
+
+    // Rows read by validators that query tables directly rather than through the table readers above.
+    private final LongAdder rowsReadDirectly = new LongAdder();
 
     /**
      * Create a feed that reads tables over a JDBC connection. The connection should already be set to the right
@@ -61,6 +68,7 @@ public class Feed {
         trips = new JDBCTableReader(Table.TRIPS, dataSource, databaseSchemaPrefix, EntityPopulator.TRIP);
         stopTimes = new JDBCTableReader(Table.STOP_TIMES, dataSource, databaseSchemaPrefix, EntityPopulator.STOP_TIME);
         patterns = new JDBCTableReader(Table.PATTERNS, dataSource, databaseSchemaPrefix, EntityPopulator.PATTERN);
+        shapePoints = new JDBCTableReader(Table.SHAPES, dataSource, databaseSchemaPrefix, EntityPopulator.SHAPE_POINT);
     }
 
     /**
@@ -73,6 +81,16 @@ public class Feed {
      *   data is 100% visible. That would also avoid having to reconnect the error storage to the DB.
      */
     public ValidationResult validate (FeedValidatorCreator... additionalValidators) {
+        return validate(false, additionalValidators);
+    }
+
+    /**
+     * Run validation as above. If reuseCachedResult is true and a feed loaded from an identical file has already been
+     * validated with the same set of validators, its errors and derived tables are copied into this feed and the
+     * earlier result is returned instead (see {@link ValidationResultCache}). Otherwise, the result of this run is
+     * recorded for reuse. This must only be requested when the feed's tables have not been modified since load.
+     */
+    public ValidationResult validate (boolean reuseCachedResult, FeedValidatorCreator... additionalValidators) {
         long validationStartTime = System.currentTimeMillis();
         // Create an empty validation result that will have its fields populated by certain validators.
         ValidationResult validationResult = new ValidationResult();
@@ -100,33 +118,79 @@ public class Feed {
         for (FeedValidatorCreator creator : additionalValidators) {
             if (creator != null) feedValidators.add(creator.create(this, errorStorage));
         }
+        // If a feed with identical content has already been run through the same validators, reuse its results.
+        // Only callers that opt in (and therefore vouch for the feed being unmodified since load) read or write the cache.
+        ValidationResultCache validationResultCache =
+            new ValidationResultCache(dataSource, databaseSchemaPrefix, feedValidators);
+        ValidationResult cachedResult = reuseCachedResult ? validationResultCache.lookUpCachedResult() : null;
+        if (cachedResult != null) {
+            // Release the error storage connection, which may hold a lock on the errors table that is about to be
+            // replaced. If copying fails, start over with a fresh error storage and run the validators normally.
+            errorStorage.commitAndClose();
+            if (!validationResultCache.copyCachedTables()) return validate(false, additionalValidators);
+            // No validators were run, so the timings stored with the earlier result do not describe this validation.
+            cachedResult.validatorTimings.clear();
+            cachedResult.validationTime = System.currentTimeMillis() - validationStartTime;
+            LOG.info("Reused cached validation result ({} errors) in {} milliseconds.",
+                cachedResult.errorCount, cachedResult.validationTime);
+            return cachedResult;
+        }
+        // Results are only cached if every validator ran to completion.
+        boolean allValidatorsSucceeded = true;
 
+        // Profile each validator, keeping the timings in the same order as the validators.
+        List<ValidatorTiming> timings = new ArrayList<>();
         for (FeedValidator feedValidator : feedValidators) {
             String validatorName = feedValidator.getClass().getSimpleName();
+            ValidatorTiming timing = new ValidatorTiming(feedValidator, null);
+            timings.add(timing);
+            long rowsReadBefore = getRowsRead();
+            int errorCountBefore = errorStorage.getStoredErrorCount();
+            timing.validate.start();
             try {
                 LOG.info("Running {}.", validatorName);
-                int errorCountBefore = errorStorage.getErrorCount();
                 feedValidator.validate();
-                LOG.info("{} found {} errors.", validatorName, errorStorage.getErrorCount() - errorCountBefore);
+                LOG.info("{} found {} errors.", validatorName, errorStorage.getStoredErrorCount() - errorCountBefore);
             } catch (Exception e) {
                 // store an error if the validator fails
                 // FIXME: should the exception be stored?
                 String badValue = String.join(":", validatorName, e.toString());
                 errorStorage.storeError(NewGTFSError.forFeed(VALIDATOR_FAILED, badValue));
+                allValidatorsSucceeded = false;
                 LOG.error("{} failed.", validatorName);
                 LOG.error(e.toString());
                 e.printStackTrace();
+            } finally {
+                timing.validate.stop();
+                timing.rowsScanned += getRowsRead() - rowsReadBefore;
+                timing.errorsEmitted += errorStorage.getStoredErrorCount() - errorCountBefore;
+                timing.sampleCacheSize(feedValidator);
             }
         }
         // Signal to all validators that validation is complete and allow them to report on results / status.
-        for (FeedValidator feedValidator : feedValidators) {
+        for (int i = 0; i < feedValidators.size(); i++) {
+            FeedValidator feedValidator = feedValidators.get(i);
+            ValidatorTiming timing = timings.get(i);
+            long rowsReadBefore = getRowsRead();
+            int errorCountBefore = errorStorage.getStoredErrorCount();
+            timing.complete.start();
             try {
                 feedValidator.complete(validationResult);
             } catch (Exception e) {
                 String badValue = String.join(":", feedValidator.getClass().getSimpleName(), e.toString());
                 errorStorage.storeError(NewGTFSError.forFeed(VALIDATOR_FAILED, badValue));
+                allValidatorsSucceeded = false;
                 LOG.error("Validator failed completion stage.", e);
+            } finally {
+                timing.complete.stop();
+                timing.rowsScanned += getRowsRead() - rowsReadBefore;
+                timing.errorsEmitted += errorStorage.getStoredErrorCount() - errorCountBefore;
+                timing.sampleCacheSize(feedValidator);
             }
+            LOG.info("{} took {} ms (validate) and {} ms (complete).",
+                timing.validatorName, timing.validate.wallTimeMillis, timing.complete.wallTimeMillis);
+            validationResult.validatorTimings.add(timing);
+            validationResult.validatorTimings.addAll(feedValidator.getNestedValidatorTimings());
         }
         // Total validation errors accounts for errors found during both loading and validation. Otherwise, this value
         // may be confusing if it reads zero but there were a number of data type or referential integrity errors found
@@ -142,11 +206,34 @@ public class Feed {
         // update validation result fields
         validationResult.errorCount = totalValidationErrors;
         validationResult.validationTime = totalValidationTime;
+        if (reuseCachedResult && allValidatorsSucceeded) validationResultCache.store(validationResult);
 
         // FIXME: Validation result date and int[] fields need to be set somewhere.
         return validationResult;
     }
 
+    /**
+     * @return the total number of rows read through this feed's table readers so far. Used for profiling validators.
+     */
+    public long getRowsRead() {
+        long rowsRead = rowsReadDirectly.sum();
+        for (TableReader<?> tableReader : Arrays.asList(
+            agencies, calendars, calendarDates, fareAttributes, frequencies, routes, stops, trips, stopTimes, patterns,
+            shapePoints
+        )) {
+            if (tableReader instanceof JDBCTableReader) rowsRead += ((JDBCTableReader<?>) tableReader).getRowsRead();
+        }
+        return rowsRead;
+    }
+
+    /**
+     * Record rows that were read from this feed's tables with a direct query, so they are included in
+     * {@link #getRowsRead()}.
+     */
+    public void countRowsRead(long rows) {
+        rowsReadDirectly.add(rows);
+    }
+
     /**
      * @return a JDBC connection to the database underlying this Feed.
      */
@@ -0,0 +1,37 @@
+package com.conveyal.gtfs.loader;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A summary of the differences between two feed namespaces, as found by {@link JdbcGtfsDiffer}. The differing rows
+ * themselves are streamed to the caller while diffing rather than held here.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class FeedDiffResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    public String baseNamespace;
+    public String otherNamespace;
+    public String fatalException;
+    /** Results for each table found in either namespace, by table name. */
+    public Map<String, TableDiffResult> tables = new LinkedHashMap<>();
+    public long diffTimeMillis;
+    public long completionTime;
+
+    public FeedDiffResult () { }
+
+    /** @return true if every table was compared and no rows differ. */
+    @JsonIgnore
+    public boolean isIdentical () {
+        if (fatalException != null) return false;
+        for (TableDiffResult table : tables.values()) {
+            if (table.fatalException != null || table.getTotal() > 0) return false;
+        }
+        return true;
+    }
+}
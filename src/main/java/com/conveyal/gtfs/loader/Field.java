@@ -6,6 +6,7 @@ import com.conveyal.gtfs.loader.conditions.ConditionalRequirement;
 import com.google.common.collect.ImmutableSet;
 
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLType;
 import java.util.LinkedHashSet;
@@ -212,6 +213,16 @@ public abstract class Field {
         return prefix != null ? String.format("%s%s", prefix, name) : name;
     }
 
+    /**
+     * Format the value of this field for a GTFS CSV file, from a column selected with getColumnExpression(prefix, false).
+     * This is the dialect-neutral equivalent of the column expressions used when csvOutput is true, for exporting from
+     * databases other than PostgreSQL.
+     * @return the formatted value, or null if the value is SQL null
+     */
+    public String formatCsvValue(ResultSet resultSet, int oneBasedIndex) throws SQLException {
+        return resultSet.getString(oneBasedIndex);
+    }
+
     /**
      * Mark this field as conditionally required. If needed an optional list of conditions can be provided.
      */
@@ -0,0 +1,97 @@
+package com.conveyal.gtfs.loader;
+
+import gnu.trove.map.TObjectIntMap;
+
+import java.net.URL;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * An {@link EntityPopulator} declared as a list of column names, each with a setter for the corresponding entity field.
+ *
+ * The lambda populators look up every column by name in every row. This one is compiled against the column layout of
+ * a particular query (see {@link #compile(TObjectIntMap)}), resolving each column name to its index once, so reading a
+ * row is just a walk over a fixed array of indexes. Columns that are not in the query (because the table does not have
+ * them or they were left out of a projection) are set to the usual missing value without touching the result set.
+ */
+public class IndexedEntityPopulator<T> implements EntityPopulator<T> {
+
+    private final Supplier<T> constructor;
+    private final List<String> columnNames = new ArrayList<>();
+    private final List<ColumnReader<T>> columnReaders = new ArrayList<>();
+
+    public IndexedEntityPopulator (Supplier<T> constructor) {
+        this.constructor = constructor;
+    }
+
+    public IndexedEntityPopulator<T> stringColumn (String columnName, BiConsumer<T, String> setter) {
+        return addColumn(columnName, (results, column, entity) ->
+            setter.accept(entity, EntityPopulator.getStringIfPresent(results, column)));
+    }
+
+    public IndexedEntityPopulator<T> intColumn (String columnName, ObjIntConsumer<T> setter) {
+        return addColumn(columnName, (results, column, entity) ->
+            setter.accept(entity, EntityPopulator.getIntIfPresent(results, column)));
+    }
+
+    public IndexedEntityPopulator<T> doubleColumn (String columnName, ObjDoubleConsumer<T> setter) {
+        return addColumn(columnName, (results, column, entity) ->
+            setter.accept(entity, EntityPopulator.getDoubleIfPresent(results, column)));
+    }
+
+    public IndexedEntityPopulator<T> dateColumn (String columnName, BiConsumer<T, LocalDate> setter) {
+        return addColumn(columnName, (results, column, entity) ->
+            setter.accept(entity, EntityPopulator.getDateIfPresent(results, column)));
+    }
+
+    public IndexedEntityPopulator<T> urlColumn (String columnName, BiConsumer<T, URL> setter) {
+        return addColumn(columnName, (results, column, entity) ->
+            setter.accept(entity, EntityPopulator.getUrlIfPresent(results, column)));
+    }
+
+    private IndexedEntityPopulator<T> addColumn (String columnName, ColumnReader<T> columnReader) {
+        columnNames.add(columnName);
+        columnReaders.add(columnReader);
+        return this;
+    }
+
+    /**
+     * Populating a single entity by name compiles a throwaway reader. Callers reading more than one row should compile
+     * once and reuse the result, as {@link JDBCTableReader} does.
+     */
+    @Override
+    public T populate (ResultSet results, TObjectIntMap<String> columnForName) throws SQLException {
+        return compile(columnForName).populate(results);
+    }
+
+    @Override
+    public Compiled<T> compile (TObjectIntMap<String> columnForName) {
+        // Copy into arrays so the per-row loop does not go through the lists.
+        int nColumns = columnNames.size();
+        int[] columnIndexes = new int[nColumns];
+        @SuppressWarnings("unchecked")
+        ColumnReader<T>[] readers = columnReaders.toArray(new ColumnReader[nColumns]);
+        for (int i = 0; i < nColumns; i++) {
+            // Absent columns map to zero, which the readers treat as missing (SQL columns are 1-based).
+            columnIndexes[i] = columnForName.get(columnNames.get(i));
+        }
+        return results -> {
+            T entity = constructor.get();
+            for (int i = 0; i < nColumns; i++) readers[i].read(results, columnIndexes[i], entity);
+            return entity;
+        };
+    }
+
+    /** Reads one column of the current row into a field of the entity. A column index of zero means absent. */
+    @FunctionalInterface
+    private interface ColumnReader<T> {
+        void read (ResultSet results, int column, T entity) throws SQLException;
+    }
+}
@@ -3,6 +3,7 @@ package com.conveyal.gtfs.loader;
 import com.conveyal.gtfs.model.Calendar;
 import com.conveyal.gtfs.model.Entity;
 import com.conveyal.gtfs.storage.StorageException;
+import com.google.common.collect.Lists;
 import gnu.trove.map.TObjectIntMap;
 import gnu.trove.map.hash.TObjectIntHashMap;
 import org.apache.commons.dbutils.DbUtils;
@@ -12,10 +13,23 @@ import org.slf4j.LoggerFactory;
 import javax.sql.DataSource;
 import java.lang.reflect.Field;
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static java.sql.ResultSet.TYPE_FORWARD_ONLY;
 import static java.sql.ResultSet.CONCUR_READ_ONLY;
@@ -34,41 +48,188 @@ public class JDBCTableReader<T extends Entity> implements TableReader<T> {
     // See https://www.postgresql.org/docs/9.6/static/errcodes-appendix.html
     public static final String SQL_STATE_UNDEFINED_TABLE = "42P01";
 
+    // Rows are fetched from a cursor in batches of roughly this many bytes (see estimateFetchSize).
+    private static final int FETCH_BATCH_BYTES = 2 * 1024 * 1024;
+    private static final int MIN_FETCH_SIZE = 100;
+    private static final int MAX_FETCH_SIZE = 10_000;
+    // The maximum number of keys bound to the array parameter of a single multi-key query.
+    private static final int KEYS_PER_QUERY = 1_000;
+
     private final Table specTable;
     private final EntityPopulator<T> entityPopulator;
+    // The entity populator bound to the columns selected by this reader.
+    private final EntityPopulator.Compiled<T> compiledPopulator;
 
     private final TObjectIntMap<String> columnForName;
+    private final int idColumn;
+    private final int fetchSize;
     private final DataSource dataSource;
+    private final String tablePrefix;
     private final String qualifiedTableName;
+    // The list of columns selected by this reader, either "*" or the projected columns joined with commas.
+    private final String selectColumns;
     private final String selectClause;
+    // The number of columns in the select clause (zero if the table did not exist when this reader was created).
+    private final int selectedColumnCount;
+    // The number of rows turned into entities by all iterators over this table, for profiling. Readers derived with
+    // withColumns share the counter of the reader they were derived from, so the feed's total includes them.
+    private final LongAdder rowsRead;
+
+    /** How the rows of a table are assigned to partitions by {@link #scanPartitioned}. */
+    public enum Partitioning {
+        /**
+         * Split the range of the id column (the line number, assigned in sequence when the table is loaded) into
+         * equal parts. This produces partitions of similar size, but the rows for one key may span partitions.
+         */
+        ID_RANGE,
+        /**
+         * Assign rows to partitions by a hash of the key field (e.g. trip_id for stop_times), so all the rows for any
+         * one key are in the same partition. Partitions will be of similar size if there are many keys.
+         */
+        KEY_HASH
+    }
+
     /**
      * @param tablePrefix must not be null, can be empty string, should include any separator character (dot)
      */
     public JDBCTableReader(Table specTable, DataSource dataSource, String tablePrefix, EntityPopulator<T> entityPopulator) {
+        this(specTable, dataSource, tablePrefix, entityPopulator, new String[0]);
+    }
+
+    /**
+     * @param tablePrefix must not be null, can be empty string, should include any separator character (dot)
+     * @param columnNames if not empty, only these columns (and the id column) are selected. Names of columns that are
+     *                    not in the table are ignored. Fields for the other columns will have their missing values.
+     */
+    public JDBCTableReader(
+        Table specTable,
+        DataSource dataSource,
+        String tablePrefix,
+        EntityPopulator<T> entityPopulator,
+        String... columnNames
+    ) {
+        this(specTable, dataSource, tablePrefix, entityPopulator, new LongAdder(), columnNames);
+    }
+
+    private JDBCTableReader(
+        Table specTable,
+        DataSource dataSource,
+        String tablePrefix,
+        EntityPopulator<T> entityPopulator,
+        LongAdder rowsRead,
+        String... columnNames
+    ) {
+        this.rowsRead = rowsRead;
         qualifiedTableName = tablePrefix + specTable.name;
         this.dataSource = dataSource;
+        this.tablePrefix = tablePrefix;
         this.entityPopulator = entityPopulator;
         this.specTable = specTable;
         // Prepare a mapping from column names to indexes. This allows us to avoid throwing exceptions on missing columns.
         // We do this in the constructor to avoid rebuilding the mapping every time we fetch a single entity from the table.
         // No entry value defaults to zero, and SQL columns are 1-based.
         columnForName = new TObjectIntHashMap<>();
-        selectClause = "select * from " + qualifiedTableName;
+        String selectColumns = "*";
+        String selectClause = "select * from " + qualifiedTableName;
+        int fetchSize = MAX_FETCH_SIZE;
+        int selectedColumnCount = 0;
         // Try-with-resources will automatically close the connection when the try block exits.
         try (Connection connection = dataSource.getConnection()) {
             LOG.info("Connected to {}", qualifiedTableName);
-            PreparedStatement selectAll = connection.prepareStatement(
-                    selectClause, TYPE_FORWARD_ONLY, CONCUR_READ_ONLY, CLOSE_CURSORS_AT_COMMIT);
-            ResultSetMetaData metaData = selectAll.getMetaData();
-            int nColumns = metaData.getColumnCount();
-            for (int c = 1; c <= nColumns; c++) {
+            ResultSetMetaData metaData = getMetaData(connection, selectClause);
+            if (columnNames.length > 0) {
+                // Select only the requested columns that actually exist, always including the id (line number).
+                List<String> existingColumns = new ArrayList<>();
+                for (int c = 1; c <= metaData.getColumnCount(); c++) existingColumns.add(metaData.getColumnName(c));
+                List<String> projectedColumns = new ArrayList<>();
+                if (existingColumns.contains("id")) projectedColumns.add("id");
+                for (String columnName : columnNames) {
+                    if (existingColumns.contains(columnName) && !projectedColumns.contains(columnName)) {
+                        projectedColumns.add(columnName);
+                    }
+                }
+                if (!projectedColumns.isEmpty()) {
+                    selectColumns = String.join(", ", projectedColumns);
+                    selectClause = String.format("select %s from %s", selectColumns, qualifiedTableName);
+                    metaData = getMetaData(connection, selectClause);
+                }
+            }
+            selectedColumnCount = metaData.getColumnCount();
+            for (int c = 1; c <= selectedColumnCount; c++) {
                 columnForName.put(metaData.getColumnName(c), c);
             }
+            fetchSize = estimateFetchSize(metaData);
         } catch (SQLException e) {
             if (specTable.isRequired()) {
                 LOG.warn("Could not connect to required table " + qualifiedTableName);
             }
         }
+        this.selectColumns = selectColumns;
+        this.selectClause = selectClause;
+        this.fetchSize = fetchSize;
+        this.selectedColumnCount = selectedColumnCount;
+        idColumn = columnForName.get("id");
+        compiledPopulator = entityPopulator.compile(columnForName);
+    }
+
+    /**
+     * @return a reader for the same table that selects only the named columns (plus the id). This reduces the amount
+     * of data transferred from the database when only a few fields of each entity are needed. The fields for all other
+     * columns will have their missing values, so entities from this reader should not be written back.
+     */
+    @Override
+    public JDBCTableReader<T> withColumns (String... columnNames) {
+        return new JDBCTableReader<>(specTable, dataSource, tablePrefix, entityPopulator, rowsRead, columnNames);
+    }
+
+    /**
+     * @return the select clause of this reader's queries (without any where or order by clause), for callers that
+     * read the table's rows directly rather than as entities.
+     */
+    public String getSelectClause () {
+        return selectClause;
+    }
+
+    /** @return the number of rows this reader fetches from a cursor at once (see estimateFetchSize). */
+    public int getFetchSize () {
+        return fetchSize;
+    }
+
+    private static ResultSetMetaData getMetaData (Connection connection, String sql) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(
+            sql, TYPE_FORWARD_ONLY, CONCUR_READ_ONLY, CLOSE_CURSORS_AT_COMMIT);
+        return statement.getMetaData();
+    }
+
+    /**
+     * Choose how many rows to fetch from the cursor at once, such that each batch is about FETCH_BATCH_BYTES. Narrow
+     * rows (e.g. a projection of a few numeric columns) are fetched in larger batches, saving round trips, while wide
+     * rows are fetched in smaller batches to limit memory use. Row width is estimated from the column types, since
+     * text columns are unbounded in our tables.
+     */
+    static int estimateFetchSize (ResultSetMetaData metaData) throws SQLException {
+        // Allow for the per-row overhead of the driver's row representation.
+        int rowBytes = 16;
+        for (int c = 1; c <= metaData.getColumnCount(); c++) {
+            switch (metaData.getColumnType(c)) {
+                case Types.BOOLEAN:
+                case Types.BIT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.REAL:
+                    rowBytes += 4;
+                    break;
+                case Types.BIGINT:
+                case Types.DOUBLE:
+                case Types.FLOAT:
+                    rowBytes += 8;
+                    break;
+                default:
+                    // Text (IDs, names, dates) and everything else.
+                    rowBytes += 32;
+            }
+        }
+        return Math.max(MIN_FETCH_SIZE, Math.min(MAX_FETCH_SIZE, FETCH_BATCH_BYTES / rowBytes));
     }
 
     /**
@@ -85,8 +246,11 @@ public class JDBCTableReader<T extends Entity> implements TableReader<T> {
      */
     @Override
     public T get (final String id) {
-        // This is slightly less efficient than writing custom code, but code reuse is good.
-        return getUnordered(id).iterator().next();
+        // This is slightly less efficient than writing custom code, but code reuse is good. The iterator is closed
+        // explicitly because tables with sequence numbers can have more than one row for the ID.
+        try (EntityIterator iterator = new EntityIterator(id, false)) {
+            return iterator.next();
+        }
     }
 
     /**
@@ -124,6 +288,171 @@ public class JDBCTableReader<T extends Entity> implements TableReader<T> {
         return () -> new EntityIterator(null, true);
     }
 
+    /**
+     * Open all the items from this table for iteration, in an unspecified order (or ordered by ID and sequence
+     * number). Unlike the Iterables returned by {@link #getAll()}, which only release their connection once iteration
+     * reaches the end, this can be abandoned partway through as long as it is closed:
+     * <pre>
+     * try (CloseableIterable&lt;Stop&gt; stops = reader.openAll(false)) {
+     *     for (Stop stop : stops) if (matches(stop)) return stop;
+     * }
+     * </pre>
+     * The result can only be iterated once.
+     */
+    public CloseableIterable<T> openAll (boolean ordered) {
+        return new EntityIterable(null, ordered);
+    }
+
+    /**
+     * @return a sequential stream over all the items in this table, in an unspecified order. The stream holds a
+     * connection open until it is fully consumed or closed, so it should be closed (e.g. with try-with-resources) if it
+     * may be terminated early, for instance with findFirst or anyMatch.
+     */
+    @Override
+    public Stream<T> stream () {
+        return openAll(false).stream();
+    }
+
+    /**
+     * @return a parallel stream over all the items in this table. The table is split into ranges of the id column,
+     * each read over its own connection and in id order, so this can be used on multi-million row tables (e.g.
+     * stop_times) with an ordinary parallel stream pipeline. forEachOrdered or collect will see the items in id order.
+     * The stream must be closed (e.g. with try-with-resources) to release the connections of any ranges that were not
+     * fully consumed. If the table has no id column, this falls back to a sequential stream.
+     */
+    @Override
+    public Stream<T> parallelStream () {
+        if (idColumn == 0) return stream();
+        int minId;
+        int maxId;
+        try (Connection connection = dataSource.getConnection()) {
+            ResultSet resultSet = connection.createStatement()
+                .executeQuery(String.format("select min(id), max(id) from %s", qualifiedTableName));
+            resultSet.next();
+            minId = resultSet.getInt(1);
+            if (resultSet.wasNull()) return Stream.empty();
+            maxId = resultSet.getInt(2);
+        } catch (SQLException ex) {
+            if (SQL_STATE_UNDEFINED_TABLE.equals(ex.getSQLState())) return Stream.empty();
+            throw new StorageException(ex);
+        }
+        // Keep track of every range that opens a connection, so that closing the stream can close them all.
+        Set<IdRangeSpliterator> openRanges = ConcurrentHashMap.newKeySet();
+        IdRangeSpliterator spliterator = new IdRangeSpliterator(minId, maxId + 1, openRanges);
+        return StreamSupport.stream(spliterator, true).onClose(() -> openRanges.forEach(IdRangeSpliterator::close));
+    }
+
+    /**
+     * Read the whole table in the given number of partitions at once, each over its own connection and on its own
+     * thread, and return when all partitions have been read. Every item is passed to the consumer for its partition,
+     * which is created by calling consumerForPartition with the partition number. Each consumer is only called from
+     * the thread reading its partition, so it does not need to be thread-safe, and per-partition results can be
+     * combined once this returns. If ordered is true, each partition is read in key and sequence number order, and
+     * with KEY_HASH partitioning each consumer then sees complete runs of items for one key (e.g. all stop times of a
+     * trip in stop_sequence order). Use {@link #scanOrdered(int)} instead if all items must be seen in order.
+     */
+    public void scanPartitioned (
+        int partitions,
+        Partitioning partitioning,
+        boolean ordered,
+        IntFunction<Consumer<T>> consumerForPartition
+    ) {
+        if (selectedColumnCount == 0) return;
+        if (partitioning == Partitioning.ID_RANGE && idColumn == 0) {
+            throw new IllegalArgumentException("Cannot partition " + qualifiedTableName + " by id: it has no id column.");
+        }
+        createPartitionedScan().scan(partitions, partitioning, ordered, consumerForPartition);
+    }
+
+    /**
+     * Read the whole table in order of key and sequence number, e.g. (trip_id, stop_sequence) for stop_times, as the
+     * given number of partitions read and sorted by the database in parallel and merged as they arrive. Keys are
+     * compared by code point rather than with the database's collation. This holds a connection and a thread per
+     * partition until iteration reaches the end, so it should be used in a try-with-resources block.
+     */
+    public CloseableIterable<T> scanOrdered (int partitions) {
+        return createPartitionedScan().mergeOrdered(partitions, selectedColumnCount > 0);
+    }
+
+    private PartitionedTableScan<T> createPartitionedScan () {
+        return new PartitionedTableScan<>(dataSource, qualifiedTableName, selectColumns, selectedColumnCount,
+            specTable.getKeyFieldName(), specTable.getOrderFieldName(), compiledPopulator, idColumn, fetchSize, rowsRead);
+    }
+
+    /**
+     * Get the first item from this table for each of the given IDs, using one connection and as few queries as
+     * possible rather than one of each per ID.
+     * @return the items keyed on ID, in the order the IDs were supplied. IDs with no items are not present.
+     */
+    @Override
+    public Map<String, T> getAll (Collection<String> ids) {
+        Map<String, T> entityForId = new LinkedHashMap<>();
+        getForKeys(ids, false).forEach((id, entities) -> entityForId.put(id, entities.get(0)));
+        return entityForId;
+    }
+
+    /**
+     * Get all the items from this table with each of the given IDs, in order, using one connection and as few
+     * queries as possible rather than one of each per ID (e.g. all stop times for a set of trips).
+     * @return the ordered items grouped by ID, in the order the IDs were supplied. IDs with no items are not present.
+     */
+    @Override
+    public Map<String, List<T>> getOrderedForKeys (Collection<String> ids) {
+        return getForKeys(ids, true);
+    }
+
+    /**
+     * Fetch the items for the given keys in chunks, binding each chunk of keys to a single array parameter. The key
+     * is selected as an extra column after the entity columns, so that items can be grouped on it even if the key
+     * field is not part of this reader's projection.
+     */
+    private Map<String, List<T>> getForKeys (Collection<String> keys, boolean ordered) {
+        Map<String, List<T>> entitiesForKey = new LinkedHashMap<>();
+        List<String> distinctKeys = keys.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList());
+        if (distinctKeys.isEmpty() || selectedColumnCount == 0) return entitiesForKey;
+        for (String key : distinctKeys) entitiesForKey.put(key, new ArrayList<>());
+        String keyField = specTable.getKeyFieldName();
+        String orderByField = specTable.getOrderFieldName();
+        // The key is aliased so that it does not make the key field name ambiguous in the order by clause.
+        String sql = String.format("select %s, %s as group_key from %s where %s = any(?)",
+            selectColumns, keyField, qualifiedTableName, keyField);
+        if (ordered && orderByField != null) {
+            sql += String.format(" order by %s, %s", keyField, orderByField);
+        }
+        int keyColumn = selectedColumnCount + 1;
+        try (Connection connection = dataSource.getConnection()) {
+            PreparedStatement preparedStatement = connection.prepareStatement(sql, TYPE_FORWARD_ONLY, CONCUR_READ_ONLY);
+            preparedStatement.setFetchSize(fetchSize);
+            for (List<String> keyChunk : Lists.partition(distinctKeys, KEYS_PER_QUERY)) {
+                preparedStatement.setArray(1, connection.createArrayOf("varchar", keyChunk.toArray()));
+                LOG.info("{} ({} keys)", sql, keyChunk.size());
+                try (ResultSet results = preparedStatement.executeQuery()) {
+                    while (results.next()) {
+                        T entity = compiledPopulator.populate(results);
+                        entity.id = EntityPopulator.getIntIfPresent(results, idColumn);
+                        rowsRead.increment();
+                        entitiesForKey.get(results.getString(keyColumn)).add(entity);
+                    }
+                }
+            }
+        } catch (SQLException ex) {
+            if (SQL_STATE_UNDEFINED_TABLE.equals(ex.getSQLState())) {
+                LOG.info("Table {} did not exist, returning no items.", qualifiedTableName);
+            } else {
+                throw new StorageException(ex);
+            }
+        }
+        entitiesForKey.values().removeIf(List::isEmpty);
+        return entitiesForKey;
+    }
+
+    /**
+     * @return the total number of rows read from this table through this reader so far (not the size of the table).
+     */
+    public long getRowsRead() {
+        return rowsRead.sum();
+    }
+
     /**
      * @return the total number of rows in this table, or -1 if the table does not exist.
      */
@@ -159,7 +488,117 @@ public class JDBCTableReader<T extends Entity> implements TableReader<T> {
         );
     }
 
-    private class EntityIterator implements Iterator<T> {
+    /**
+     * A single-use iterable over one EntityIterator, which can be closed before iteration is complete.
+     */
+    private class EntityIterable implements CloseableIterable<T> {
+
+        private final String id;
+        private final boolean ordered;
+        private EntityIterator iterator;
+
+        EntityIterable (String id, boolean ordered) {
+            this.id = id;
+            this.ordered = ordered;
+        }
+
+        @Override
+        public Iterator<T> iterator () {
+            if (iterator != null) {
+                throw new IllegalStateException("A closeable iterable over " + qualifiedTableName + " can only be iterated once.");
+            }
+            iterator = new EntityIterator(id, ordered);
+            return iterator;
+        }
+
+        @Override
+        public void close () {
+            if (iterator != null) iterator.close();
+        }
+    }
+
+    /**
+     * Reads the entities with ids in a half-open range [from, to), in id order, over a connection of its own. Until it
+     * starts reading, the range can be split in two, allowing the table to be read in parallel.
+     */
+    private class IdRangeSpliterator implements Spliterator<T> {
+
+        // Ranges with fewer ids than this are not split further, to avoid opening many connections for few rows.
+        private static final int MIN_SPLIT_SIZE = 10_000;
+
+        private int from;
+        private final int to;
+        private final Set<IdRangeSpliterator> openRanges;
+        private Connection connection;
+        private ResultSet results;
+        private boolean finished = false;
+
+        IdRangeSpliterator (int from, int to, Set<IdRangeSpliterator> openRanges) {
+            this.from = from;
+            this.to = to;
+            this.openRanges = openRanges;
+        }
+
+        @Override
+        public boolean tryAdvance (Consumer<? super T> action) {
+            if (finished) return false;
+            try {
+                if (results == null) open();
+                if (!results.next()) {
+                    close();
+                    return false;
+                }
+                T entity = compiledPopulator.populate(results);
+                entity.id = EntityPopulator.getIntIfPresent(results, idColumn);
+                rowsRead.increment();
+                action.accept(entity);
+                return true;
+            } catch (SQLException ex) {
+                close();
+                throw new StorageException(ex);
+            }
+        }
+
+        private void open () throws SQLException {
+            connection = dataSource.getConnection();
+            openRanges.add(this);
+            PreparedStatement preparedStatement = connection.prepareStatement(
+                selectClause + " where id >= ? and id < ? order by id", TYPE_FORWARD_ONLY, CONCUR_READ_ONLY);
+            preparedStatement.setFetchSize(fetchSize);
+            preparedStatement.setInt(1, from);
+            preparedStatement.setInt(2, to);
+            results = preparedStatement.executeQuery();
+        }
+
+        /** Split off the first half of this range, so that the split-off part precedes this one in encounter order. */
+        @Override
+        public Spliterator<T> trySplit () {
+            if (results != null || finished || (long) to - from < 2L * MIN_SPLIT_SIZE) return null;
+            int middle = (int) (((long) from + to) / 2);
+            IdRangeSpliterator prefix = new IdRangeSpliterator(from, middle, openRanges);
+            from = middle;
+            return prefix;
+        }
+
+        /** The ids in a table are assigned in sequence at load, so the size of the id range is a good estimate. */
+        @Override
+        public long estimateSize () {
+            return finished ? 0 : (long) to - from;
+        }
+
+        @Override
+        public int characteristics () {
+            return ORDERED | NONNULL;
+        }
+
+        void close () {
+            finished = true;
+            DbUtils.closeQuietly(connection);
+            openRanges.remove(this);
+        }
+    }
+
+    private class EntityIterator implements Iterator<T>, AutoCloseable {
 
         private Connection connection; // Will remain open for the duration of the iteration.
         private boolean hasMoreEntities;
@@ -185,12 +624,12 @@ public class JDBCTableReader<T extends Entity> implements TableReader<T> {
                     // Do not use cursor.
                     preparedStatement.setFetchSize(0);
                 } else {
-                    // Use a cursor, but fetch a lot of rows at once.
+                    // Use a cursor, but fetch a lot of rows at once (more for narrow rows, see estimateFetchSize).
                     // Setting fetchSize to something other than zero enables server-side cursor use.
                     // This will only be effective if autoCommit=false though. Otherwise it fills up the memory with all rows.
                     // By default prepared statements are forward-only and read-only (though we could set that explicitly).
                     // Those settings allow cursors to be used efficiently.
-                    preparedStatement.setFetchSize(1000);
+                    preparedStatement.setFetchSize(fetchSize);
                 }
                 if (id != null) {
                     // Fill the primary key into the prepared statement
@@ -232,14 +671,17 @@ public class JDBCTableReader<T extends Entity> implements TableReader<T> {
          * If you iterate all the way through to the end of the iterator the connection will automatically be closed.
          * This allows concise (for Stop stop : feed.stops) iteration.
          * However it does not allow for partial iteration - stopping partway through will leave the connection open.
+         * For partial iteration use {@link #openAll(boolean)}, {@link #stream()} or {@link #parallelStream()} instead,
+         * which can be closed.
          */
         @Override
         public T next() {
             try {
-                T entity = entityPopulator.populate(results, columnForName);
+                T entity = compiledPopulator.populate(results);
                 // Set the line number on every entity the same way
                 // rather than repeating this statement in each implementation class.
-                entity.id = EntityPopulator.getIntIfPresent(results, "id", columnForName);
+                entity.id = EntityPopulator.getIntIfPresent(results, idColumn);
+                rowsRead.increment();
                 hasMoreEntities = results.next();
                 if (!hasMoreEntities) {
                     // No more entities to iterate over. We can close the database connection.
@@ -254,22 +696,14 @@ public class JDBCTableReader<T extends Entity> implements TableReader<T> {
         }
 
         /**
-         * The finalizer will be called when the object is garbage collected.
-         * This way we can detect unclosed connections.
+         * Release the connection held by this iterator. This happens automatically when the iterator reaches the end,
+         * so only callers that stop iterating early need to call it.
          */
         @Override
-        public void finalize () {
-            try {
-                if (connection != null && !connection.isClosed()) {
-                    LOG.error("An iterator connection to table {} is being closed in a finalizer, " +
-                            "it should have been closed at the end of iteration.", qualifiedTableName);
-                    connection.close();
-                }
-            } catch (SQLException ex) {
-                throw new RuntimeException(ex);
-            }
+        public void close () {
+            hasMoreEntities = false;
+            DbUtils.closeQuietly(connection);
         }
-
     }
 
 
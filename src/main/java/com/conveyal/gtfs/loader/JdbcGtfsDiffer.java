@@ -0,0 +1,294 @@
+package com.conveyal.gtfs.loader;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the tables of two feed namespaces (e.g., a feed and an edited snapshot of it, or two versions of a feed)
+ * row by row, passing every added, removed and changed row to a listener as it is found.
+ *
+ * The comparison is done entirely in the database with one set-based query per table, so that it scales to feeds with
+ * tens of millions of stop_times. Each side is reduced to its key fields (see {@link Table#getKeyFieldName()} and
+ * {@link Table#getOrderFieldName()}) and a 64-bit hash of the fields being compared, the two sides are full outer
+ * joined on the key (which PostgreSQL does with a hash join), and only the rows whose hashes differ are joined back to
+ * the tables to find which fields changed. Tables without a unique key (e.g., calendar_dates or frequencies) are
+ * compared as multisets of rows, so their rows can only be added or removed. The fields compared are those present in
+ * both namespaces other than id, which is a line number or serial number with no meaning outside its own namespace.
+ * A table that is missing from one namespace is treated as empty.
+ *
+ * Keys are expected to be unique, as the validator requires. Rows with duplicate keys are compared with every row of
+ * the other namespace that has the same key. Rows are reported in no particular order. This class uses
+ * PostgreSQL-specific SQL and requires PostgreSQL 11 or later.
+ */
+public class JdbcGtfsDiffer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcGtfsDiffer.class);
+
+    // The number of differing rows fetched from the database at once.
+    private static final int FETCH_SIZE = 10_000;
+    // Enough memory for the hash joins of large tables to avoid spilling to disk in many batches.
+    private static final String WORK_MEM = "256MB";
+
+    private final String baseNamespace;
+    private final String otherNamespace;
+    private final DataSource dataSource;
+
+    /**
+     * @param baseNamespace  the namespace to compare against. Rows only found here are reported as removed.
+     * @param otherNamespace the namespace to compare. Rows only found here are reported as added.
+     */
+    public JdbcGtfsDiffer(String baseNamespace, String otherNamespace, DataSource dataSource) {
+        this.baseNamespace = baseNamespace;
+        this.otherNamespace = otherNamespace;
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Compare every table found in either namespace, passing each differing row to the listener.
+     */
+    public FeedDiffResult diffTables(Consumer<RowDiff> listener) {
+        long startTime = System.currentTimeMillis();
+        FeedDiffResult result = new FeedDiffResult();
+        result.baseNamespace = baseNamespace;
+        result.otherNamespace = otherNamespace;
+        for (Table table : Table.tablesInOrder) {
+            TableDiffResult tableResult = diffTable(table, listener);
+            if (tableResult != null) result.tables.put(table.name, tableResult);
+        }
+        result.completionTime = System.currentTimeMillis();
+        result.diffTimeMillis = result.completionTime - startTime;
+        LOG.info("Compared {} with {} in {} ms", baseNamespace, otherNamespace, result.diffTimeMillis);
+        return result;
+    }
+
+    /**
+     * Compare one table, passing each differing row to the listener. Both namespaces are read from the same snapshot of
+     * the database, so changes made while comparing are not seen.
+     * @return the number of rows that differ, or null if the table is in neither namespace
+     */
+    public TableDiffResult diffTable(Table table, Consumer<RowDiff> listener) {
+        long startTime = System.currentTimeMillis();
+        TableDiffResult result = new TableDiffResult();
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("set transaction isolation level repeatable read, read only");
+                statement.execute(String.format("set local work_mem = '%s'", WORK_MEM));
+            }
+            List<String> baseFields = getComparableFieldNames(connection, baseNamespace, table);
+            List<String> otherFields = getComparableFieldNames(connection, otherNamespace, table);
+            if (baseFields == null && otherFields == null) return null;
+            // Only compare the fields both namespaces have, e.g., so that a feed can be compared with its snapshot.
+            List<String> fields = baseFields == null ? otherFields : new ArrayList<>(baseFields);
+            if (baseFields != null && otherFields != null) fields.retainAll(otherFields);
+            List<String> keyFields = getKeyFieldNames(table);
+            result.keyed = table.hasUniqueKeyField || table.getOrderFieldName() != null;
+            if (!fields.containsAll(keyFields)) result.keyed = false;
+            // Without a key, a row can only be identified by all of its values.
+            List<String> identifyingFields = result.keyed ? keyFields : fields;
+            if (baseFields == null || otherFields == null) {
+                RowDiff.Type type = baseFields == null ? RowDiff.Type.ADDED : RowDiff.Type.REMOVED;
+                String namespace = baseFields == null ? otherNamespace : baseNamespace;
+                String sql = String.format("select %s from %s.%s",
+                    asText("", identifyingFields), namespace, table.name);
+                streamRows(connection, sql, resultSet -> {
+                    count(result, type);
+                    listener.accept(new RowDiff(table.name, type, getKey(resultSet, identifyingFields),
+                        Collections.emptyList()));
+                });
+            } else if (result.keyed) {
+                streamRows(connection, keyedDiffSql(table, keyFields, fields), resultSet -> {
+                    RowDiff.Type type = getType(resultSet, keyFields.size());
+                    List<String> changedFields = Collections.emptyList();
+                    if (type == RowDiff.Type.CHANGED) {
+                        Array array = resultSet.getArray(keyFields.size() + 3);
+                        changedFields = Arrays.asList((String[]) array.getArray());
+                        array.free();
+                    }
+                    count(result, type);
+                    listener.accept(new RowDiff(table.name, type, getKey(resultSet, keyFields), changedFields));
+                });
+            } else {
+                streamRows(connection, multisetDiffSql(table, fields), resultSet -> {
+                    // Every row found is in exactly one namespace.
+                    boolean inBase = resultSet.getBoolean(fields.size() + 1);
+                    RowDiff.Type type = inBase ? RowDiff.Type.REMOVED : RowDiff.Type.ADDED;
+                    count(result, type);
+                    listener.accept(new RowDiff(table.name, type, getKey(resultSet, fields), Collections.emptyList()));
+                });
+            }
+            connection.rollback();
+        } catch (Exception e) {
+            LOG.error("Error comparing table {}", table.name, e);
+            result.fatalException = e.toString();
+        } finally {
+            DbUtils.closeQuietly(connection);
+        }
+        result.diffTimeMillis = System.currentTimeMillis() - startTime;
+        LOG.info("{}: {} added, {} removed, {} changed in {} ms", table.name, result.added, result.removed,
+            result.changed, result.diffTimeMillis);
+        return result;
+    }
+
+    /**
+     * Find rows whose keys are in only one namespace, or whose hashes differ, then join the changed rows back to both
+     * tables to list the fields that differ. The result columns are the key fields, whether the row is in the base and
+     * other namespaces, and the changed field names (null unless the row is in both).
+     */
+    private String keyedDiffSql(Table table, List<String> keyFields, List<String> fields) {
+        String baseTable = String.join(".", baseNamespace, table.name);
+        String otherTable = String.join(".", otherNamespace, table.name);
+        String keys = String.join(", ", keyFields);
+        List<String> valueFields = fields.stream().filter(field -> !keyFields.contains(field))
+            .collect(Collectors.toList());
+        String changedFields = valueFields.isEmpty() ? "array[]::text[]" : String.format(
+            "array_remove(array[%s], null)",
+            valueFields.stream()
+                .map(field -> String.format("case when x.%1$s::text is distinct from y.%1$s::text then '%1$s' end", field))
+                .collect(Collectors.joining(", "))
+        );
+        return String.format(
+            "with a as (select %1$s, %2$s as row_hash from %3$s), " +
+            "b as (select %1$s, %2$s as row_hash from %4$s), " +
+            "d as (select %5$s, a.row_hash is not null as in_base, b.row_hash is not null as in_other " +
+                "from a full outer join b on %6$s where a.row_hash is distinct from b.row_hash) " +
+            "select %7$s, d.in_base, d.in_other, case when d.in_base and d.in_other then %8$s end " +
+            "from d left join %3$s x on d.in_base and d.in_other and %9$s " +
+            "left join %4$s y on d.in_base and d.in_other and %10$s",
+            keys,
+            rowHash(fields),
+            baseTable,
+            otherTable,
+            keyFields.stream().map(field -> String.format("coalesce(a.%1$s, b.%1$s) as %1$s", field))
+                .collect(Collectors.joining(", ")),
+            joinCondition("a", "b", keyFields),
+            asText("d.", keyFields),
+            changedFields,
+            joinCondition("x", "d", keyFields),
+            joinCondition("y", "d", keyFields)
+        );
+    }
+
+    /**
+     * Number the copies of each distinct row on both sides, so that a row that appears more often in one namespace is
+     * reported as added or removed once per extra copy. Tables without keys are small, so the rows' values are carried
+     * through the join rather than joined back afterward. The result columns are the fields and whether the row is in
+     * the base namespace.
+     */
+    private String multisetDiffSql(Table table, List<String> fields) {
+        String numberedRows = "select *, row_number() over (partition by row_hash) as copy from " +
+            "(select %s, %s as row_hash from %s.%s) r";
+        return String.format(
+            "with a as (%s), b as (%s) " +
+            "select %s, a.row_hash is not null as in_base from a full outer join b " +
+            "on a.row_hash = b.row_hash and a.copy = b.copy where a.row_hash is null or b.row_hash is null",
+            String.format(numberedRows, asText("", fields), rowHash(fields), baseNamespace, table.name),
+            String.format(numberedRows, asText("", fields), rowHash(fields), otherNamespace, table.name),
+            fields.stream().map(field -> String.format("case when a.row_hash is null then b.%1$s else a.%1$s end", field))
+                .collect(Collectors.joining(", "))
+        );
+    }
+
+    /**
+     * A 64-bit hash of the text of a row of the given fields. Each field's text is quoted as needed when the row is
+     * converted to text, so nulls and empty strings hash differently.
+     */
+    private static String rowHash(List<String> fields) {
+        return String.format("hashtextextended(row(%s)::text, 0)", String.join(", ", fields));
+    }
+
+    private static String asText(String prefix, List<String> fields) {
+        return fields.stream().map(field -> String.format("%s%s::text as %s", prefix, field, field))
+            .collect(Collectors.joining(", "));
+    }
+
+    private static String joinCondition(String left, String right, List<String> fields) {
+        return fields.stream().map(field -> String.format("%s.%s = %s.%s", left, field, right, field))
+            .collect(Collectors.joining(" and "));
+    }
+
+    private static List<String> getKeyFieldNames(Table table) {
+        List<String> keyFields = new ArrayList<>();
+        keyFields.add(table.getKeyFieldName());
+        String orderFieldName = table.getOrderFieldName();
+        if (orderFieldName != null) keyFields.add(orderFieldName);
+        return keyFields;
+    }
+
+    /**
+     * @return the names of the table's columns other than id, or null if the table does not exist in the namespace.
+     */
+    private static List<String> getComparableFieldNames(Connection connection, String namespace, Table table)
+        throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+            "select exists (select 1 from information_schema.tables where table_schema = ? and table_name = ?)"
+        )) {
+            statement.setString(1, namespace);
+            statement.setString(2, table.name);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                if (!resultSet.getBoolean(1)) return null;
+            }
+        }
+        return table.getExistingFields(connection, namespace).stream()
+            .map(field -> field.name)
+            .filter(name -> !"id".equals(name))
+            .collect(Collectors.toList());
+    }
+
+    private interface RowHandler {
+        void handle(ResultSet resultSet) throws SQLException;
+    }
+
+    private static void streamRows(Connection connection, String sql, RowHandler handler) throws SQLException {
+        LOG.debug(sql);
+        // With autocommit off, PostgreSQL returns the rows in batches through a cursor rather than all at once.
+        try (PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+            ResultSet.CONCUR_READ_ONLY)) {
+            statement.setFetchSize(FETCH_SIZE);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) handler.handle(resultSet);
+            }
+        }
+    }
+
+    /** Get the type of difference from the in_base and in_other columns following the key columns. */
+    private static RowDiff.Type getType(ResultSet resultSet, int keyColumns) throws SQLException {
+        boolean inBase = resultSet.getBoolean(keyColumns + 1);
+        boolean inOther = resultSet.getBoolean(keyColumns + 2);
+        if (inBase && inOther) return RowDiff.Type.CHANGED;
+        return inBase ? RowDiff.Type.REMOVED : RowDiff.Type.ADDED;
+    }
+
+    private static Map<String, String> getKey(ResultSet resultSet, List<String> fields) throws SQLException {
+        Map<String, String> key = new LinkedHashMap<>();
+        for (int i = 0; i < fields.size(); i++) key.put(fields.get(i), resultSet.getString(i + 1));
+        return key;
+    }
+
+    private static void count(TableDiffResult result, RowDiff.Type type) {
+        switch (type) {
+            case ADDED: result.added++; break;
+            case REMOVED: result.removed++; break;
+            default: result.changed++;
+        }
+    }
+}
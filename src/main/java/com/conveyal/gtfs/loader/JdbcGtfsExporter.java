@@ -1,61 +1,81 @@
 package com.conveyal.gtfs.loader;
 
-import com.conveyal.gtfs.GTFSFeed;
 import com.conveyal.gtfs.model.Calendar;
 import com.conveyal.gtfs.model.CalendarDate;
 import com.conveyal.gtfs.model.ScheduleException;
-import com.conveyal.gtfs.model.Service;
+import com.conveyal.gtfs.util.ParallelZipWriter;
 import com.google.common.collect.Lists;
 import org.apache.commons.dbutils.DbUtils;
 import org.postgresql.copy.CopyManager;
+import org.postgresql.copy.CopyOut;
 import org.postgresql.core.BaseConnection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.net.URI;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 /**
- * Handles exporting a feed contained in the database to a GTFS zip file.
+ * Handles exporting a feed contained in the database to a GTFS zip file. Each table is copied out of the database on
+ * its own connection and compressed on its own threads, several tables at once, and the zip file is assembled when all
+ * of them are done. A feed can also be exported to a stream, such as an HTTP response, in which case the tables are
+ * written one after another as they are copied. Either way, optional tables with no rows are left out.
  */
 public class JdbcGtfsExporter {
     private static final Logger LOG = LoggerFactory.getLogger(JdbcGtfsExporter.class);
 
+    /** The default number of tables exported at once, each of which holds a database connection while copying. */
+    public static final int DEFAULT_MAX_CONCURRENT_TABLES = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    // When exporting with JDBC cursors, the number of rows fetched at a time is adjusted to fetch about this many bytes.
+    private static final int TARGET_FETCH_BYTES = 4 * 1024 * 1024;
+    private static final int MIN_FETCH_SIZE = 100;
+    private static final int MAX_FETCH_SIZE = 100_000;
+    private static final int INITIAL_FETCH_SIZE = 1000;
+
     private final String outFile;
     private final DataSource dataSource;
     private final boolean fromEditor;
+    private final int maxConcurrentTables;
+    private final int compressionLevel;
+    private final boolean forceJdbcCursors;
+    // Whether tables are exported with the PostgreSQL COPY command rather than JDBC cursors, known once export begins.
+    private boolean useCopy;
 
     /** If this is true will export tables prefixed with {@link Table#PROPRIETARY_FILE_PREFIX} **/
     private final boolean publishProprietaryFiles;
 
     // These fields will be filled in once feed snapshot begins.
     private Connection connection;
-    private ZipOutputStream zipOutputStream;
+    private TableSink sink;
     // The reference feed ID (namespace) to copy.
     private final String feedIdToExport;
-    private List<String> emptyTableList = new ArrayList<>();
     // These files, even if empty, are required as part of the GTFS specification.
     public static final List<String> mandatoryFileList = Lists.newArrayList(
         Table.AGENCY.fileName,
@@ -72,11 +92,36 @@ public class JdbcGtfsExporter {
 
 
     public JdbcGtfsExporter(String feedId, String outFile, DataSource dataSource, boolean fromEditor, boolean publishProprietaryFiles) {
+        this(feedId, outFile, dataSource, fromEditor, publishProprietaryFiles, DEFAULT_MAX_CONCURRENT_TABLES,
+            Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param outFile             the zip file to export to, which may be null if only exporting to a stream
+     * @param maxConcurrentTables the number of tables to copy and compress at once
+     * @param compressionLevel    a deflate level from 0 to 9, or Deflater.DEFAULT_COMPRESSION
+     */
+    public JdbcGtfsExporter(String feedId, String outFile, DataSource dataSource, boolean fromEditor,
+                            boolean publishProprietaryFiles, int maxConcurrentTables, int compressionLevel) {
+        this(feedId, outFile, dataSource, fromEditor, publishProprietaryFiles, maxConcurrentTables, compressionLevel,
+            false);
+    }
+
+    /**
+     * @param forceJdbcCursors if true, export tables by reading rows with JDBC cursors even from PostgreSQL, where the
+     *                         faster COPY command is otherwise used. Other databases are always exported with cursors.
+     */
+    public JdbcGtfsExporter(String feedId, String outFile, DataSource dataSource, boolean fromEditor,
+                            boolean publishProprietaryFiles, int maxConcurrentTables, int compressionLevel,
+                            boolean forceJdbcCursors) {
         this.feedIdToExport = feedId;
         this.outFile = outFile;
         this.dataSource = dataSource;
         this.fromEditor = fromEditor;
         this.publishProprietaryFiles = publishProprietaryFiles;
+        this.maxConcurrentTables = maxConcurrentTables;
+        this.compressionLevel = compressionLevel;
+        this.forceJdbcCursors = forceJdbcCursors;
     }
 
     /**
@@ -97,26 +142,39 @@ public class JdbcGtfsExporter {
      * tables intact for future editing. Maybe this could be an option provided to the function (e.g., specTablesOnly).
      */
     public FeedLoadResult exportTables() {
+        return exportTables(new ParallelZipSink(new ParallelZipWriter(new File(outFile), compressionLevel,
+            maxConcurrentTables)), outFile);
+    }
+
+    /**
+     * Export the feed as a zip to the given stream in a single pass, writing each table as it is copied out of the
+     * database, so that the start of the zip can be sent before the end has been exported. The zip is finished but
+     * the stream is left open. If the export fails, the zip is left unfinished so it cannot be mistaken for a
+     * complete feed.
+     */
+    public FeedLoadResult exportTables(OutputStream out) {
+        return exportTables(new StreamingZipSink(out, compressionLevel), "stream");
+    }
+
+    private FeedLoadResult exportTables(TableSink tableSink, String destination) {
         // This result object will be returned to the caller to summarize the feed and report any critical errors.
         // FIXME: use feed export result object?
         FeedLoadResult result = new FeedLoadResult();
+        sink = tableSink;
+        boolean finished = false;
 
         try {
-            zipOutputStream = new ZipOutputStream(Files.newOutputStream(Paths.get(outFile)));
             long startTime = System.currentTimeMillis();
-            // We get a single connection object and share it across several different methods.
-            // This ensures that actions taken in one method are visible to all subsequent SQL statements.
-            // If we create a schema or table on one connection, then access it in a separate connection, we have no
-            // guarantee that it exists when the accessing statement is executed.
+            // We get a single connection object and share it across several different methods to prepare the export.
+            // The tables themselves are only read, each on its own connection, so they can be copied in parallel.
             connection = dataSource.getConnection();
-            if (!connection.getMetaData().getDatabaseProductName().equals("PostgreSQL")) {
-                // This code path currently requires the Postgres text "copy to" format.
-                throw new RuntimeException("Export from SQL database not implemented for non-PostgreSQL databases.");
-            }
+            // The Postgres text "copy to" format is much faster, but any other database is read row by row.
+            boolean isPostgres = connection.getMetaData().getDatabaseProductName().equals("PostgreSQL");
+            useCopy = isPostgres && !forceJdbcCursors;
             // Construct where clause for routes table to filter only "approved" routes (and entities related to routes)
             // if exporting a feed/schema that represents an editor snapshot.
             String whereRouteIsApproved = String.format("where %s.%s.status = 2", feedIdToExport, Table.ROUTES.name);
-            // Export each table in turn (by placing entry in zip output stream).
+            // Start exporting each table (by adding an entry to the sink). Entries appear in the order added.
             result.agency = export(Table.AGENCY, connection);
             if (fromEditor) {
                 // only export calendar entries that have at least one day of service set
@@ -125,7 +183,7 @@ public class JdbcGtfsExporter {
                     Table.CALENDAR,
                     String.join(
                         " ",
-                        Table.CALENDAR.generateSelectSql(feedIdToExport, Requirement.OPTIONAL),
+                        selectSql(Table.CALENDAR),
                         "WHERE monday=1 OR tuesday=1 OR wednesday=1 OR thursday=1 OR friday=1 OR saturday=1 OR sunday=1"
                     )
                 );
@@ -134,94 +192,7 @@ public class JdbcGtfsExporter {
             }
             if (fromEditor) {
                 // Export schedule exceptions in place of calendar dates if exporting a feed/schema that represents an editor snapshot.
-                GTFSFeed feed = new GTFSFeed();
-                JDBCTableReader<ScheduleException> exceptionsReader =new JDBCTableReader(
-                    Table.SCHEDULE_EXCEPTIONS,
-                    dataSource,
-                    feedIdToExport + ".",
-                    EntityPopulator.SCHEDULE_EXCEPTION
-                );
-                JDBCTableReader<Calendar> calendarReader = JDBCTableReader.getCalendarTableReader(dataSource, feedIdToExport);
-                Iterable<Calendar> calendars = calendarReader.getAll();
-                Iterable<ScheduleException> exceptionsIterator = exceptionsReader.getAll();
-                List<ScheduleException> calendarExceptions = new ArrayList<>();
-                List<ScheduleException> calendarDateExceptions = new ArrayList<>();
-                // Separate distinct calendar date exceptions from those associated with calendars.
-                for (ScheduleException ex : exceptionsIterator) {
-                    if (ex.exemplar.equals(ScheduleException.ExemplarServiceDescriptor.CALENDAR_DATE_SERVICE)) {
-                        calendarDateExceptions.add(ex);
-                    } else {
-                        calendarExceptions.add(ex);
-                    }
-                }
-
-                int calendarDateCount = calendarDateExceptions.size();
-                // Extract calendar date services, convert to calendar date and add to the feed.
-                for (ScheduleException ex : calendarDateExceptions) {
-                    for (LocalDate date : ex.dates) {
-                        String serviceId = ex.customSchedule.get(0);
-                        CalendarDate calendarDate = new CalendarDate();
-                        calendarDate.date = date;
-                        calendarDate.service_id = serviceId;
-                        calendarDate.exception_type = 1;
-                        Service service = new Service(serviceId);
-                        service.calendar_dates.put(date, calendarDate);
-                        // If the calendar dates provided contain duplicates (e.g. two or more identical service ids
-                        // that are NOT associated with a calendar) only the first entry would persist export. To
-                        // resolve this a unique key consisting of service id and date is used.
-                        feed.services.put(String.format("%s-%s", calendarDate.service_id, calendarDate.date), service);
-                    }
-                }
-
-                // check whether the feed is organized in a format with the calendars.txt file
-                if (calendarReader.getRowCount() > 0) {
-                    // feed does have calendars.txt file, continue export with strategy of matching exceptions
-                    // to calendar to output calendar_dates.txt
-                    for (Calendar cal : calendars) {
-                        Service service = new Service(cal.service_id);
-                        service.calendar = cal;
-                        for (ScheduleException ex : calendarExceptions.stream()
-                            .filter(ex -> exceptionInvolvesService(ex, cal.service_id))
-                            .collect(Collectors.toList())
-                        ) {
-                            for (LocalDate date : ex.dates) {
-                                if (date.isBefore(cal.start_date) || date.isAfter(cal.end_date)) {
-                                    // No need to write dates that do not apply
-                                    continue;
-                                }
-
-                                CalendarDate calendarDate = new CalendarDate();
-                                calendarDate.date = date;
-                                calendarDate.service_id = cal.service_id;
-                                calendarDate.exception_type = ex.serviceRunsOn(cal) ? 1 : 2;
-                                LOG.info("Adding exception {} (type={}) for calendar {} on date {}", ex.name, calendarDate.exception_type, cal.service_id, date);
-
-                                if (service.calendar_dates.containsKey(date))
-                                    throw new IllegalArgumentException("Duplicate schedule exceptions on " + date);
-
-                                service.calendar_dates.put(date, calendarDate);
-                                calendarDateCount += 1;
-                            }
-                        }
-                        feed.services.put(cal.service_id, service);
-                    }
-                }
-                if (calendarDateCount == 0) {
-                    LOG.info("No calendar dates found. Skipping table.");
-                } else {
-                    LOG.info("Writing {} calendar dates from schedule exceptions", calendarDateCount);
-                    new CalendarDate.Writer(feed).writeTable(zipOutputStream);
-                }
-
-                if (calendarReader.getRowCount() == 0 && calendarDateExceptions.isEmpty()) {
-                    // No calendar or calendar date service records exist, export calendar_dates as is and hope for the best.
-                    // This situation will occur in at least 2 scenarios:
-                    // 1.  A GTFS has been loaded into the editor that had only the calendar_dates.txt file
-                    //     and no further edits were made before exporting to a snapshot
-                    // 2.  A new GTFS has been created from scratch and calendar information has yet to be added.
-                    //     This will result in an invalid GTFS, but it was what the user wanted so ¯\_(ツ)_/¯
-                    result.calendarDates = export(Table.CALENDAR_DATES, connection);
-                }
+                exportScheduleExceptionsAsCalendarDates(result);
             } else {
                 // Otherwise, simply export the calendar dates as they were loaded in.
                 result.calendarDates = export(Table.CALENDAR_DATES, connection);
@@ -240,7 +211,7 @@ public class JdbcGtfsExporter {
                     String.join(
                         " ",
                         // Convert start_time and end_time values from seconds to time format (HH:MM:SS).
-                        Table.FREQUENCIES.generateSelectSql(feedIdToExport, Requirement.OPTIONAL),
+                        selectSql(Table.FREQUENCIES),
                         Table.FREQUENCIES.generateJoinSql(Table.TRIPS, feedIdToExport),
                         Table.TRIPS.generateJoinSql(
                             Table.ROUTES,
@@ -262,7 +233,7 @@ public class JdbcGtfsExporter {
                     Table.ROUTES,
                     String.join(
                         " ",
-                        Table.ROUTES.generateSelectSql(feedIdToExport, Requirement.OPTIONAL),
+                        selectSql(Table.ROUTES),
                         whereRouteIsApproved
                     )
                 );
@@ -280,7 +251,7 @@ public class JdbcGtfsExporter {
                 String shapeFieldsToExport = Table.commaSeparatedNames(
                     Table.SHAPES.specFields(),
                     String.join(".", feedIdToExport, Table.SHAPES.name + "."),
-                    true
+                    useCopy
                 );
                 // NOTE: The below substitution uses relative indexing. All values "%<s" reference the same arg as the
                 // previous format specifier (i.e., feedIdToExport).
@@ -310,7 +281,7 @@ public class JdbcGtfsExporter {
                 result.stopTimes = export(
                     Table.STOP_TIMES,
                     String.join(" ",
-                        Table.STOP_TIMES.generateSelectSql(feedIdToExport, Requirement.OPTIONAL),
+                        selectSql(Table.STOP_TIMES),
                         Table.STOP_TIMES.generateJoinSql(Table.TRIPS, feedIdToExport),
                         Table.TRIPS.generateJoinSql(
                             Table.ROUTES,
@@ -333,7 +304,7 @@ public class JdbcGtfsExporter {
                 result.trips = export(
                     Table.TRIPS,
                     String.join(" ",
-                        Table.TRIPS.generateSelectSql(feedIdToExport, Requirement.OPTIONAL),
+                        selectSql(Table.TRIPS),
                         Table.TRIPS.generateJoinSql(
                             Table.ROUTES,
                             feedIdToExport,
@@ -349,14 +320,14 @@ public class JdbcGtfsExporter {
 
             exportProprietaryFiles(result);
 
-            zipOutputStream.close();
-            // Run clean up on the resulting zip file.
-            cleanUpZipFile();
+            // Wait for all tables to be exported, and finish the zip.
+            sink.finish();
+            finished = true;
             result.completionTime = System.currentTimeMillis();
             result.loadTimeMillis = result.completionTime - startTime;
             // Exporting primary GTFS tables for GRTA Xpress = 12 sec
             LOG.info("Exporting tables took {} sec", (result.loadTimeMillis) / 1000);
-            LOG.info("Exported feed {} to zip file: {}", feedIdToExport, outFile);
+            LOG.info("Exported feed {} to zip file: {}", feedIdToExport, destination);
         } catch (Exception ex) {
             // Note: Exceptions that occur during individual table loads are separately caught and stored in
             // TableLoadResult.
@@ -365,10 +336,110 @@ public class JdbcGtfsExporter {
             result.fatalException = ex.toString();
         } finally {
             if (connection != null) DbUtils.closeQuietly(connection);
+            // Make sure any export threads are stopped if the export failed before the zip was finished.
+            if (!finished) sink.abort();
         }
         return result;
     }
 
+    /**
+     * Convert the schedule exceptions of an editor snapshot to calendar dates and write them to the zip. The exceptions
+     * are indexed on the services they involve, so each calendar only looks at its own exceptions, and the calendar
+     * dates are written straight to the zip entry.
+     */
+    private void exportScheduleExceptionsAsCalendarDates(FeedLoadResult result) {
+        JDBCTableReader<ScheduleException> exceptionsReader = new JDBCTableReader(
+            Table.SCHEDULE_EXCEPTIONS,
+            dataSource,
+            feedIdToExport + ".",
+            EntityPopulator.SCHEDULE_EXCEPTION
+        );
+        JDBCTableReader<Calendar> calendarReader = JDBCTableReader.getCalendarTableReader(dataSource, feedIdToExport);
+        // Calendar dates keyed on service, each in date order. Services are written in the order of their keys.
+        Map<String, Map<LocalDate, CalendarDate>> calendarDatesByService = new TreeMap<>();
+        // Exceptions associated with calendars, keyed on each service they involve, in their original order.
+        Map<String, List<ScheduleException>> calendarExceptionsByService = new HashMap<>();
+        boolean hasCalendarDateExceptions = false;
+        for (ScheduleException ex : exceptionsReader.getAll()) {
+            if (ex.exemplar.equals(ScheduleException.ExemplarServiceDescriptor.CALENDAR_DATE_SERVICE)) {
+                // Extract calendar date services, convert to calendar date and add to the export.
+                hasCalendarDateExceptions = true;
+                String serviceId = ex.customSchedule.get(0);
+                for (LocalDate date : ex.dates) {
+                    // If the calendar dates provided contain duplicates (e.g. two or more identical service ids
+                    // that are NOT associated with a calendar) only one entry should be exported. To resolve this a
+                    // unique key consisting of service id and date is used.
+                    calendarDatesByService
+                        .computeIfAbsent(String.format("%s-%s", serviceId, date), key -> new TreeMap<>())
+                        .put(date, newCalendarDate(serviceId, date, 1));
+                }
+            } else {
+                Set<String> serviceIds = new LinkedHashSet<>();
+                serviceIds.addAll(ex.addedService);
+                serviceIds.addAll(ex.removedService);
+                serviceIds.addAll(ex.customSchedule);
+                for (String serviceId : serviceIds) {
+                    calendarExceptionsByService.computeIfAbsent(serviceId, key -> new ArrayList<>()).add(ex);
+                }
+            }
+        }
+
+        // If the feed is organized with calendars, match exceptions to each calendar to output calendar dates.
+        int calendarCount = 0;
+        for (Calendar cal : calendarReader.getAll()) {
+            calendarCount++;
+            Map<LocalDate, CalendarDate> calendarDates = new TreeMap<>();
+            for (ScheduleException ex : calendarExceptionsByService.getOrDefault(cal.service_id, Collections.emptyList())) {
+                int exceptionType = ex.serviceRunsOn(cal) ? 1 : 2;
+                for (LocalDate date : ex.dates) {
+                    if (date.isBefore(cal.start_date) || date.isAfter(cal.end_date)) {
+                        // No need to write dates that do not apply
+                        continue;
+                    }
+                    LOG.debug("Adding exception {} (type={}) for calendar {} on date {}", ex.name, exceptionType, cal.service_id, date);
+                    if (calendarDates.put(date, newCalendarDate(cal.service_id, date, exceptionType)) != null) {
+                        throw new IllegalArgumentException("Duplicate schedule exceptions on " + date);
+                    }
+                }
+            }
+            calendarDatesByService.put(cal.service_id, calendarDates);
+        }
+
+        int calendarDateCount = calendarDatesByService.values().stream().mapToInt(Map::size).sum();
+        if (calendarDateCount == 0) {
+            LOG.info("No calendar dates found. Skipping table.");
+        } else {
+            LOG.info("Writing {} calendar dates from schedule exceptions", calendarDateCount);
+            Iterable<CalendarDate> calendarDates = () -> calendarDatesByService.values().stream()
+                .flatMap(dates -> dates.values().stream())
+                .iterator();
+            try {
+                sink.addEntry(Table.getTableFileNameWithExtension(Table.CALENDAR_DATES.name), false,
+                    out -> new CalendarDate.Writer(calendarDates).writeTable(out));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        if (calendarCount == 0 && !hasCalendarDateExceptions) {
+            // No calendar or calendar date service records exist, export calendar_dates as is and hope for the best.
+            // This situation will occur in at least 2 scenarios:
+            // 1.  A GTFS has been loaded into the editor that had only the calendar_dates.txt file
+            //     and no further edits were made before exporting to a snapshot
+            // 2.  A new GTFS has been created from scratch and calendar information has yet to be added.
+            //     This will result in an invalid GTFS, but it was what the user wanted so ¯\_(ツ)_/¯
+            result.calendarDates = export(Table.CALENDAR_DATES, connection);
+        }
+    }
+
+    private static CalendarDate newCalendarDate (String serviceId, LocalDate date, int exceptionType) {
+        CalendarDate calendarDate = new CalendarDate();
+        calendarDate.service_id = serviceId;
+        calendarDate.date = date;
+        calendarDate.exception_type = exceptionType;
+        return calendarDate;
+    }
+
     /**
      * Export proprietary files, if they are required.
      */
@@ -381,48 +452,20 @@ public class JdbcGtfsExporter {
         }
     }
 
-    /**
-     * Removes any empty zip files from the final zip file unless they are required files.
-     */
-    private void cleanUpZipFile() {
-        long startTime = System.currentTimeMillis();
-        // Define ZIP File System Properties in HashMap
-        Map<String, String> zip_properties = new HashMap<>();
-        // We want to read an existing ZIP File, so we set this to False
-        zip_properties.put("create", "false");
-
-        // Specify the path to the ZIP File that you want to read as a File System
-        // (File#toURI allows this to work across different operating systems, including Windows)
-        URI zip_disk = URI.create("jar:" + new File(outFile).toURI());
-
-        // Removed mandatory files from the empty table list, so they are not deleted from the exported zip file.
-        emptyTableList.removeAll(mandatoryFileList);
-
-        // Create ZIP file System
-        try (FileSystem fileSystem = FileSystems.newFileSystem(zip_disk, zip_properties)) {
-            // Get the Path inside ZIP File to delete the ZIP Entry
-            for (String fileName : emptyTableList) {
-                // Table is empty and not a required file.
-                Path filePath = fileSystem.getPath(fileName);
-                // Execute Delete
-                Files.delete(filePath);
-                LOG.info("Empty file {} successfully deleted.", fileName);
-            }
-        } catch (IOException e) {
-            LOG.error("Could not remove empty zip files");
-            e.printStackTrace();
-        }
-        LOG.info("Deleted {} empty files in {} ms", emptyTableList.size(), System.currentTimeMillis() - startTime);
-    }
-
     private TableLoadResult export (Table table, Connection connection) {
         if (fromEditor) {
             // Default behavior for exporting editor snapshot tables is to select only the spec fields.
-            return export(table, table.generateSelectSql(feedIdToExport, Requirement.OPTIONAL));
+            return export(table, selectSql(table));
         } else {
             String existingFieldsSelect = null;
             try {
-                existingFieldsSelect = table.generateSelectAllExistingFieldsSql(connection, feedIdToExport);
+                if (useCopy) {
+                    existingFieldsSelect = table.generateSelectAllExistingFieldsSql(connection, feedIdToExport);
+                } else {
+                    String tableName = String.join(".", feedIdToExport, table.name);
+                    existingFieldsSelect = String.format("select %s from %s", Table.commaSeparatedNames(
+                        table.getExistingFields(connection, feedIdToExport), tableName + ".", false), tableName);
+                }
             } catch (SQLException e) {
                 LOG.error("failed to generate select statement for existing fields");
                 TableLoadResult tableLoadResult = new TableLoadResult();
@@ -435,48 +478,291 @@ public class JdbcGtfsExporter {
     }
 
     /**
-     * Export a table to the zipOutputStream to be written to the GTFS.
+     * Select the spec fields of a table, converted to their GTFS format in SQL when exporting with COPY, or as they are
+     * stored when exporting with JDBC cursors (in which case each field formats its own values).
+     */
+    private String selectSql (Table table) {
+        return table.generateSelectSql(feedIdToExport, Requirement.OPTIONAL, useCopy);
+    }
+
+    /**
+     * Start exporting a table to an entry of the GTFS zip file. The result is filled in once the zip writer is closed.
+     * A table that fails after its entry has been started fails the whole export, so that the zip is never finished
+     * with a truncated file in it.
      */
     private TableLoadResult export (Table table, String filterSql) {
-        long startTime = System.currentTimeMillis();
         TableLoadResult tableLoadResult = new TableLoadResult();
+        if (filterSql == null) {
+            IllegalArgumentException e = new IllegalArgumentException("filterSql argument cannot be null");
+            tableLoadResult.fatalException = e.toString();
+            LOG.error("Exception while exporting tables", e);
+            return tableLoadResult;
+        }
+        String textFileName = Table.getTableFileNameWithExtension(table.name);
+        // Tables with no rows are left out of the zip, unless they are required files.
+        boolean mandatory = mandatoryFileList.contains(textFileName);
         try {
-            if (filterSql == null) {
-                throw new IllegalArgumentException("filterSql argument cannot be null");
-            } else {
+            if (useCopy) {
                 // Surround filter SQL in parentheses.
-                filterSql = String.format("(%s)", filterSql);
+                String copySql = String.format("copy (%s) to STDOUT DELIMITER ',' CSV HEADER", filterSql);
+                sink.addEntry(textFileName, !mandatory, out -> copyTable(table, copySql, mandatory, out, tableLoadResult));
+            } else {
+                sink.addEntry(textFileName, !mandatory, out -> streamTable(table, filterSql, mandatory, out, tableLoadResult));
             }
+        } catch (IOException e) {
+            // The zip is streamed, so the table has been partly written and the zip cannot be finished.
+            tableLoadResult.fatalException = e.toString();
+            throw new UncheckedIOException(e);
+        }
+        return tableLoadResult;
+    }
 
-            // Create entry for table
-            String textFileName = Table.getTableFileNameWithExtension(table.name);
-            ZipEntry zipEntry = new ZipEntry(textFileName);
-            zipOutputStream.putNextEntry(zipEntry);
-
-            // don't let CSVWriter close the stream when it is garbage-collected
-            OutputStream protectedOut = new FilterOutputStream(zipOutputStream);
-            String copySql = String.format("copy %s to STDOUT DELIMITER ',' CSV HEADER", filterSql);
+    /**
+     * Copy the results of a query to a zip entry on a connection of its own. Nothing at all is written if there are no
+     * rows, unless the table is mandatory, in which case the header is still written. Failures before anything has been
+     * written are recorded in the table's result rather than thrown, so they do not prevent the other tables from being
+     * exported. Failures after the entry has been started are also thrown, as the entry can only be left truncated.
+     */
+    private void copyTable (Table table, String copySql, boolean mandatory, OutputStream out,
+                            TableLoadResult tableLoadResult) throws IOException {
+        long startTime = System.currentTimeMillis();
+        Connection tableConnection = null;
+        boolean entryStarted = false;
+        try {
+            tableConnection = dataSource.getConnection();
             LOG.info(copySql);
             // Our connection pool wraps the Connection objects, so we need to unwrap the Postgres connection interface.
-            CopyManager copyManager = new CopyManager(connection.unwrap(BaseConnection.class));
-            tableLoadResult.rowCount = (int) copyManager.copyOut(copySql, protectedOut);
-            if (tableLoadResult.rowCount == 0) {
-                // If no rows were exported, keep track of table name for later removal.
-                emptyTableList.add(textFileName);
+            CopyManager copyManager = new CopyManager(tableConnection.unwrap(BaseConnection.class));
+            CopyOut copyOut = copyManager.copyOut(copySql);
+            try {
+                // The first row is the header. Look at the next one to find out whether the table is empty.
+                byte[] header = copyOut.readFromCopy();
+                byte[] row = copyOut.readFromCopy();
+                if (row != null || mandatory) {
+                    entryStarted = true;
+                    if (header != null) out.write(header);
+                    for (; row != null; row = copyOut.readFromCopy()) out.write(row);
+                }
+                tableLoadResult.rowCount = (int) copyOut.getHandledRowCount();
+            } finally {
+                if (copyOut.isActive()) copyOut.cancelCopy();
             }
-            zipOutputStream.closeEntry();
             LOG.info("Copied {} {} in {} ms.", tableLoadResult.rowCount, table.name, System.currentTimeMillis() - startTime);
-            connection.commit();
-        } catch (SQLException | IOException | IllegalArgumentException e) {
+            tableConnection.commit();
+        } catch (SQLException | IOException e) {
             // Rollback connection so that fatal exception does not impact loading of other tables.
             try {
-                connection.rollback();
+                if (tableConnection != null) tableConnection.rollback();
             } catch (SQLException ex) {
                 ex.printStackTrace();
             }
             tableLoadResult.fatalException = e.toString();
             LOG.error("Exception while exporting tables", e);
+            if (entryStarted) throw new IOException("Export of " + table.name + " failed after it was started", e);
+        } finally {
+            DbUtils.closeQuietly(tableConnection);
+        }
+    }
+
+    /**
+     * Write the results of a query to a zip entry as CSV, reading rows with a forward-only cursor on a connection of
+     * its own. This works with any database: each value is formatted by its field, rather than in SQL. The rows are
+     * written in the same CSV dialect as the PostgreSQL COPY command, so that both produce identical files. The number
+     * of rows fetched at a time is adjusted as rows are read, to keep about the same number of bytes in memory whether
+     * the rows are narrow or wide. Failures are handled as in {@link #copyTable}.
+     */
+    private void streamTable (Table table, String selectSql, boolean mandatory, OutputStream out,
+                              TableLoadResult tableLoadResult) throws IOException {
+        long startTime = System.currentTimeMillis();
+        Connection tableConnection = null;
+        boolean entryStarted = false;
+        try {
+            tableConnection = dataSource.getConnection();
+            LOG.info(selectSql);
+            // Some drivers (including PostgreSQL) only use a cursor rather than fetching every row when autocommit is off.
+            tableConnection.setAutoCommit(false);
+            try (PreparedStatement statement = tableConnection.prepareStatement(
+                    selectSql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(INITIAL_FETCH_SIZE);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    ResultSetMetaData metaData = resultSet.getMetaData();
+                    int columnCount = metaData.getColumnCount();
+                    Field[] fields = new Field[columnCount];
+                    String[] header = new String[columnCount];
+                    for (int i = 0; i < columnCount; i++) {
+                        // Some databases report unquoted names in upper case.
+                        header[i] = metaData.getColumnLabel(i + 1).toLowerCase(Locale.ROOT);
+                        fields[i] = table.getFieldForName(header[i]);
+                    }
+                    // The writer is flushed but not closed, as the entry stream must be left open.
+                    Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                    boolean hasRows = resultSet.next();
+                    if (hasRows || mandatory) {
+                        entryStarted = true;
+                        writeCsvRow(writer, header);
+                    }
+                    String[] values = new String[columnCount];
+                    int rowCount = 0;
+                    int batchRows = 0;
+                    long batchChars = 0;
+                    int fetchSize = INITIAL_FETCH_SIZE;
+                    for (boolean hasRow = hasRows; hasRow; hasRow = resultSet.next()) {
+                        for (int i = 0; i < columnCount; i++) {
+                            values[i] = fields[i].formatCsvValue(resultSet, i + 1);
+                            batchChars += values[i] == null ? 1 : values[i].length() + 1;
+                        }
+                        writeCsvRow(writer, values);
+                        rowCount++;
+                        if (++batchRows == fetchSize) {
+                            // Fetch as many rows as would fill the target, judging by the size of the last batch.
+                            long charsPerRow = Math.max(1, batchChars / batchRows);
+                            fetchSize = (int) Math.max(MIN_FETCH_SIZE, Math.min(MAX_FETCH_SIZE, TARGET_FETCH_BYTES / charsPerRow));
+                            resultSet.setFetchSize(fetchSize);
+                            batchRows = 0;
+                            batchChars = 0;
+                        }
+                    }
+                    tableLoadResult.rowCount = rowCount;
+                    writer.flush();
+                }
+            }
+            LOG.info("Streamed {} {} in {} ms.", tableLoadResult.rowCount, table.name, System.currentTimeMillis() - startTime);
+            tableConnection.commit();
+        } catch (SQLException | IOException e) {
+            // Rollback connection so that fatal exception does not impact loading of other tables.
+            try {
+                if (tableConnection != null) tableConnection.rollback();
+            } catch (SQLException ex) {
+                ex.printStackTrace();
+            }
+            tableLoadResult.fatalException = e.toString();
+            LOG.error("Exception while exporting tables", e);
+            if (entryStarted) throw new IOException("Export of " + table.name + " failed after it was started", e);
+        } finally {
+            DbUtils.closeQuietly(tableConnection);
+        }
+    }
+
+    /**
+     * Write a row in the CSV dialect of the PostgreSQL COPY command: nulls are empty, empty strings are quoted, and
+     * values containing delimiters, quotes or line breaks are quoted with any quotes doubled.
+     */
+    private static void writeCsvRow (Writer writer, String[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) writer.write(',');
+            String value = values[i];
+            if (value == null) continue;
+            if (value.isEmpty()) {
+                writer.write("\"\"");
+            } else if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0
+                || value.indexOf('\r') >= 0) {
+                writer.write('"');
+                writer.write(value.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(value);
+            }
+        }
+        writer.write('\n');
+    }
+
+    /** Where exported tables are written as zip entries. */
+    private interface TableSink {
+        /**
+         * Write an entry, now or in the background. The entry writer must not close the stream.
+         * @param omitIfEmpty if true, the entry is left out of the zip when nothing is written to it
+         */
+        void addEntry (String name, boolean omitIfEmpty, ParallelZipWriter.EntryWriter entryWriter) throws IOException;
+
+        /** Wait for all entries to be written and finish the zip. */
+        void finish () throws IOException;
+
+        /** Stop writing entries after a failure, without finishing the zip. */
+        void abort ();
+    }
+
+    /** Writes tables to a zip file in parallel, each table to its own temp file until the zip is assembled. */
+    private static class ParallelZipSink implements TableSink {
+        private final ParallelZipWriter zipWriter;
+
+        ParallelZipSink (ParallelZipWriter zipWriter) {
+            this.zipWriter = zipWriter;
+        }
+
+        @Override
+        public void addEntry (String name, boolean omitIfEmpty, ParallelZipWriter.EntryWriter entryWriter) {
+            zipWriter.addEntry(name, omitIfEmpty, entryWriter);
+        }
+
+        @Override
+        public void finish () throws IOException {
+            zipWriter.close();
+        }
+
+        @Override
+        public void abort () {
+            zipWriter.abort();
+        }
+    }
+
+    /**
+     * Writes tables to a zip stream one after another, as they are exported. An entry is only started when the first
+     * byte is written to it, so empty entries can be left out without buffering.
+     */
+    private static class StreamingZipSink implements TableSink {
+        private final ZipOutputStream zipOutputStream;
+
+        StreamingZipSink (OutputStream out, int compressionLevel) {
+            this.zipOutputStream = new ZipOutputStream(new BufferedOutputStream(out));
+            zipOutputStream.setLevel(compressionLevel);
+        }
+
+        @Override
+        public void addEntry (String name, boolean omitIfEmpty, ParallelZipWriter.EntryWriter entryWriter)
+                throws IOException {
+            LazyEntryOutputStream entryOut = new LazyEntryOutputStream(name);
+            entryWriter.write(entryOut);
+            if (!entryOut.started && !omitIfEmpty) entryOut.start();
+            if (entryOut.started) zipOutputStream.closeEntry();
+        }
+
+        @Override
+        public void finish () throws IOException {
+            zipOutputStream.finish();
+            zipOutputStream.flush();
+        }
+
+        @Override
+        public void abort () {
+            // Leave the zip unfinished. The caller owns the underlying stream.
+        }
+
+        /** Writes to a zip entry that is only started when something is written. */
+        private class LazyEntryOutputStream extends OutputStream {
+            private final String name;
+            private boolean started = false;
+
+            LazyEntryOutputStream (String name) {
+                this.name = name;
+            }
+
+            private void start () throws IOException {
+                zipOutputStream.putNextEntry(new ZipEntry(name));
+                started = true;
+            }
+
+            @Override
+            public void write (int b) throws IOException {
+                if (!started) start();
+                zipOutputStream.write(b);
+            }
+
+            @Override
+            public void write (byte[] bytes, int offset, int length) throws IOException {
+                if (length == 0) return;
+                if (!started) start();
+                zipOutputStream.write(bytes, offset, length);
+            }
         }
-        return tableLoadResult;
     }
 }
@@ -282,7 +282,7 @@ public class JdbcGtfsLoader {
         TableLoadResult tableLoadResult = new TableLoadResult();
         int initialErrorCount = errorStorage.getErrorCount();
         try {
-            tableLoadResult.rowCount = loadInternal(table);
+            tableLoadResult.rowCount = loadInternal(table, tableLoadResult);
             tableLoadResult.fileSize = getTableSize(table);
             LOG.info(String.format("loaded in %d %s records", tableLoadResult.rowCount, table.name));
         } catch (Exception ex) {
@@ -318,9 +318,10 @@ public class JdbcGtfsLoader {
     /**
      * This function will throw any exception that occurs. Those exceptions will be handled by the outer load method.
      *
+     * @param tableLoadResult the result for this table, in which the time spent in each phase is recorded.
      * @return number of rows that were loaded.
      */
-    private int loadInternal(Table table) throws Exception {
+    private int loadInternal(Table table, TableLoadResult tableLoadResult) throws Exception {
         CsvReader csvReader = table.getCsvReader(zip, errorStorage);
         if (csvReader == null) {
             LOG.info("File {} not found in gtfs zip file.", Table.getTableFileNameWithExtension(table.name));
@@ -362,6 +363,7 @@ public class JdbcGtfsLoader {
             targetTable.createSqlTable(connection);
         }
 
+        tableLoadResult.parse.start();
         // TODO are we loading with or without a header row in our Postgres text file?
         if (postgresText) {
             // No need to output headers to temp text file, our SQL table column order exactly matches our text file.
@@ -470,23 +472,32 @@ public class JdbcGtfsLoader {
             errorStorage.storeError(NewGTFSError.forTable(table, REQUIRED_TABLE_EMPTY));
         }
         csvReader.close();
+        if (postgresText) tempTextFileStream.close();
+        tableLoadResult.parse.stop();
 
         // Finalize loading the table, either by copying the pre-validated text file into the database (for Postgres)
         // or inserting any remaining rows (for all others).
+        tableLoadResult.copy.start();
         if (postgresText) {
             LOG.info("Loading into database table {} from temporary text file...", targetTable.name);
-            tempTextFileStream.close();
             copyFromFile(connection, tempTextFile, targetTable.name);
         } else {
             insertStatement.executeBatch();
         }
+        tableLoadResult.copy.stop();
         // Create indexes using spec table. Target table must not be used because fields could be in the wrong order
         // (and the order is currently important to determining the index fields).
+        tableLoadResult.index.start();
         table.createIndexes(connection, tablePrefix);
+        tableLoadResult.index.stop();
 
         LOG.info("Committing transaction...");
+        tableLoadResult.commit.start();
         connection.commit();
-        LOG.info("Done.");
+        tableLoadResult.commit.stop();
+        LOG.info("Done. Parse: {} ms, copy: {} ms, index: {} ms, commit: {} ms.",
+            tableLoadResult.parse.wallTimeMillis, tableLoadResult.copy.wallTimeMillis,
+            tableLoadResult.index.wallTimeMillis, tableLoadResult.commit.wallTimeMillis);
         return numberOfRecordsLoaded;
     }
 
@@ -3,6 +3,7 @@ package com.conveyal.gtfs.loader;
 import com.conveyal.gtfs.model.Calendar;
 import com.conveyal.gtfs.model.CalendarDate;
 import com.conveyal.gtfs.model.ScheduleException;
+import com.conveyal.gtfs.util.PhaseTiming;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
@@ -17,11 +18,21 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static com.conveyal.gtfs.loader.JdbcGtfsLoader.createFeedRegistryIfNotExists;
 import static com.conveyal.gtfs.loader.JdbcGtfsLoader.createSchema;
@@ -36,11 +47,42 @@ import static com.conveyal.gtfs.util.Util.randomIdString;
  * tables are somewhat modified from their original read-only source. For instance, the ID column has been modified
  * so that it is an auto-incrementing serial integer, changing the meaning of the column from csv_line (for feeds
  * loaded from GTFS) to a unique identifier used to reference entities in an API.
+ *
+ * A snapshot can also be made lazily, in which case most of the new namespace's tables start out as views of the
+ * source namespace's tables, so that the snapshot is made almost instantly and takes almost no space. A view is
+ * replaced with a copy of the table the first time the table is written to by {@link JdbcTableWriter}, or when
+ * {@link #materialize(DataSource, String)} is called, so only the tables that are actually edited are copied. When
+ * stop sequences are normalized, stop_times is always copied: numbering the rows of a view with a window function
+ * would keep lookups that are not filtered on trip_id from using the source table's indexes.
+ *
+ * The views are plain single-table views, which Postgres would let SQL statements write through to the source
+ * namespace, so the source namespace must not be changed while lazy snapshots of it still have views. Before
+ * {@link JdbcTableWriter} writes to a table, and before {@link com.conveyal.gtfs.GTFS#delete} drops a namespace, they
+ * replace the views of it in other namespaces with copies (see {@link #materializeDependents}).
  */
 public class JdbcGtfsSnapshotter {
 
     private static final Logger LOG = LoggerFactory.getLogger(JdbcGtfsSnapshotter.class);
 
+    /** A reasonable number of tables to copy at once, each of which holds a database connection while copying. */
+    public static final int DEFAULT_MAX_CONCURRENT_TABLES = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Tables that are always copied, even in a lazy snapshot, because making the snapshot changes their contents (see
+     * populateDefaultEditorValues and createScheduleExceptionsTable). All of them are small.
+     */
+    private static final Set<String> EAGERLY_COPIED_TABLES = new HashSet<>(Arrays.asList(
+        Table.ROUTES.name, Table.CALENDAR.name, Table.PATTERNS.name, Table.SCHEDULE_EXCEPTIONS.name
+    ));
+    /** The tables of a snapshot, in the order they are made. */
+    private static final List<Table> SNAPSHOT_TABLES = Arrays.asList(
+        Table.AGENCY, Table.CALENDAR, Table.CALENDAR_DATES, Table.FARE_ATTRIBUTES, Table.FARE_RULES, Table.FEED_INFO,
+        Table.FREQUENCIES, Table.ROUTES, Table.PATTERNS, Table.PATTERN_STOP, Table.SCHEDULE_EXCEPTIONS, Table.SHAPES,
+        Table.STOPS, Table.STOP_TIMES, Table.TRANSFERS, Table.TRIPS, Table.ATTRIBUTIONS, Table.TRANSLATIONS
+    );
+    // Appended to the name of a view while it is being replaced with a table.
+    private static final String MATERIALIZING_SUFFIX = "_materializing";
+
     private final DataSource dataSource;
     /**
      * Whether to normalize stop_times#stop_sequence values on snapshot (or leave them intact).
@@ -49,6 +91,13 @@ public class JdbcGtfsSnapshotter {
      *   object.
      */
     private final boolean normalizeStopTimes;
+    /** Whether to make tables views of the source feed's tables until they are written to, rather than copies. */
+    private final boolean lazy;
+    /**
+     * The number of tables copied or indexed at once, each on its own connection. If this is one, tables are copied one
+     * after another on a single connection.
+     */
+    private final int maxConcurrentTables;
 
     // These fields will be filled in once feed snapshot begins.
     private Connection connection;
@@ -63,9 +112,29 @@ public class JdbcGtfsSnapshotter {
      *                           incrementing
      */
     public JdbcGtfsSnapshotter(String feedId, DataSource dataSource, boolean normalizeStopTimes) {
+        this(feedId, dataSource, normalizeStopTimes, false);
+    }
+
+    /**
+     * @param lazy whether to make most tables views of the source feed's tables, which are only copied when they are
+     *             first written to (see class comment)
+     */
+    public JdbcGtfsSnapshotter(String feedId, DataSource dataSource, boolean normalizeStopTimes, boolean lazy) {
+        this(feedId, dataSource, normalizeStopTimes, lazy, 1);
+    }
+
+    /**
+     * @param maxConcurrentTables if greater than one, copy this many tables at once on separate connections, then
+     *                            create their indexes the same way. Stop times are also normalized in this many parts
+     *                            at once.
+     */
+    public JdbcGtfsSnapshotter(String feedId, DataSource dataSource, boolean normalizeStopTimes, boolean lazy,
+                               int maxConcurrentTables) {
         this.feedIdToSnapshot = feedId;
         this.dataSource = dataSource;
         this.normalizeStopTimes = normalizeStopTimes;
+        this.lazy = lazy;
+        this.maxConcurrentTables = maxConcurrentTables;
     }
 
     /**
@@ -90,31 +159,28 @@ public class JdbcGtfsSnapshotter {
             // Include the dot separator in the table prefix.
             // This allows everything to work even when there's no prefix.
             this.tablePrefix += ".";
-            // Copy each table in turn
             // FIXME: NO non-fatal exception errors are being captured during copy operations.
-            result.agency = copy(Table.AGENCY, true);
-            result.calendar = copy(Table.CALENDAR, true);
-            result.calendarDates = copy(Table.CALENDAR_DATES, true);
-            result.fareAttributes = copy(Table.FARE_ATTRIBUTES, true);
-            result.fareRules = copy(Table.FARE_RULES, true);
-            result.feedInfo = copy(Table.FEED_INFO, true);
-            result.frequencies = copy(Table.FREQUENCIES, true);
-            result.routes = copy(Table.ROUTES, true);
-            // FIXME: Find some place to store errors encountered on copy for patterns and pattern stops.
-            copy(Table.PATTERNS, true);
-            copy(Table.PATTERN_STOP, true);
-            // see method comments fo why different logic is needed for this table
-            result.scheduleExceptions = createScheduleExceptionsTable();
-            result.shapes = copy(Table.SHAPES, true);
-            result.stops = copy(Table.STOPS, true);
-            // TODO: Should we defer index creation on stop times?
-            // Copying all tables for STIF w/ stop times idx = 156 sec; w/o = 28 sec
-            // Other feeds w/ stop times AC Transit = 3 sec; Brooklyn bus =
-            result.stopTimes = copy(Table.STOP_TIMES, true);
-            result.transfers = copy(Table.TRANSFERS, true);
-            result.trips = copy(Table.TRIPS, true);
-            result.attributions = copy(Table.ATTRIBUTIONS, true);
-            result.translations = copy(Table.TRANSLATIONS, true);
+            Map<Table, TableLoadResult> tableResults = maxConcurrentTables > 1 && feedIdToSnapshot != null
+                ? copyTablesInParallel()
+                : copyTablesInTurn();
+            result.agency = tableResults.get(Table.AGENCY);
+            result.calendar = tableResults.get(Table.CALENDAR);
+            result.calendarDates = tableResults.get(Table.CALENDAR_DATES);
+            result.fareAttributes = tableResults.get(Table.FARE_ATTRIBUTES);
+            result.fareRules = tableResults.get(Table.FARE_RULES);
+            result.feedInfo = tableResults.get(Table.FEED_INFO);
+            result.frequencies = tableResults.get(Table.FREQUENCIES);
+            result.routes = tableResults.get(Table.ROUTES);
+            result.patterns = tableResults.get(Table.PATTERNS);
+            result.patternStops = tableResults.get(Table.PATTERN_STOP);
+            result.scheduleExceptions = tableResults.get(Table.SCHEDULE_EXCEPTIONS);
+            result.shapes = tableResults.get(Table.SHAPES);
+            result.stops = tableResults.get(Table.STOPS);
+            result.stopTimes = tableResults.get(Table.STOP_TIMES);
+            result.transfers = tableResults.get(Table.TRANSFERS);
+            result.trips = tableResults.get(Table.TRIPS);
+            result.attributions = tableResults.get(Table.ATTRIBUTIONS);
+            result.translations = tableResults.get(Table.TRANSLATIONS);
             result.completionTime = System.currentTimeMillis();
             result.loadTimeMillis = result.completionTime - startTime;
             LOG.info("Copying tables took {} sec", (result.loadTimeMillis) / 1000);
@@ -130,6 +196,16 @@ public class JdbcGtfsSnapshotter {
         return result;
     }
 
+    /** Copy each table in turn on the shared connection, committing after each one. */
+    private Map<Table, TableLoadResult> copyTablesInTurn () {
+        Map<Table, TableLoadResult> tableResults = new LinkedHashMap<>();
+        for (Table table : SNAPSHOT_TABLES) {
+            // See method comments for why different logic is needed for schedule exceptions.
+            tableResults.put(table, table == Table.SCHEDULE_EXCEPTIONS ? createScheduleExceptionsTable() : copy(table, true));
+        }
+        return tableResults;
+    }
+
     /**
      * This is the main table copy method that wraps a call to Table#createSqlTableFrom and creates indexes for
      * the table.
@@ -139,29 +215,27 @@ public class JdbcGtfsSnapshotter {
         // FIXME: Should there be a separate TableSnapshotResult? Load result is empty except for fatal exception.
         TableLoadResult tableLoadResult = new TableLoadResult();
         try {
-            // FIXME this is confusing, we only create a new table object so we can call a couple of methods on it,
-            // all of which just need a list of fields.
-            Table targetTable = new Table(tablePrefix + table.name, table.entityClass, table.required, table.fields);
-            boolean success;
-            if (feedIdToSnapshot == null) {
-                // If there is no feedId to snapshot (i.e., we're making an empty snapshot), simply create the table.
-                success = targetTable.createSqlTable(connection, true);
-            } else {
-                // Otherwise, use the createTableFrom method to copy the data from the original.
-                String fromTableName = String.format("%s.%s", feedIdToSnapshot, table.name);
-                LOG.info("Copying table {} to {}", fromTableName, targetTable.name);
-                success = targetTable.createSqlTableFrom(connection, fromTableName, normalizeStopTimes);
-            }
+            boolean isView = isView(table);
+            tableLoadResult.copy.start();
+            boolean success = createTable(connection, table, isView);
+            tableLoadResult.copy.stop();
             // Only create indexes if table creation was successful.
             if (success && createIndexes) {
-                addEditorSpecificFields(connection, tablePrefix, table);
-                // Use spec table to create indexes. See createIndexes method for more info on why.
-                table.createIndexes(connection, tablePrefix);
+                // Views already have the editor fields and are read using the source table's indexes.
+                if (!isView) {
+                    addEditorSpecificFields(connection, tablePrefix, table);
+                    // Use spec table to create indexes. See createIndexes method for more info on why.
+                    tableLoadResult.index.start();
+                    table.createIndexes(connection, tablePrefix);
+                    tableLoadResult.index.stop();
+                }
                 // Populate default values for editor fields, including normalization of stop time stop sequences.
                 populateDefaultEditorValues(connection, tablePrefix, table);
             }
             LOG.info("Committing transaction...");
+            tableLoadResult.commit.start();
             connection.commit();
+            tableLoadResult.commit.stop();
             LOG.info("Done.");
         } catch (Exception ex) {
             tableLoadResult.fatalException = ex.toString();
@@ -175,6 +249,328 @@ public class JdbcGtfsSnapshotter {
         return tableLoadResult;
     }
 
+    /**
+     * @return whether the given table of a lazy snapshot is made a view of the source feed's table. Optional tables
+     * missing from the source feed are created empty rather than as views, and normalized stop times are copied.
+     */
+    private boolean isView (Table table) {
+        if (!lazy || EAGERLY_COPIED_TABLES.contains(table.name)) return false;
+        if (normalizeStopTimes && table == Table.STOP_TIMES) return false;
+        return tableExists(feedIdToSnapshot, table.name);
+    }
+
+    /**
+     * Create a table of the snapshot on the given connection: a view of the source feed's table, an empty table if
+     * there is no source feed, or otherwise a copy.
+     */
+    private boolean createTable (Connection connection, Table table, boolean isView) throws SQLException {
+        // FIXME this is confusing, we only create a new table object so we can call a couple of methods on it,
+        // all of which just need a list of fields.
+        Table targetTable = new Table(tablePrefix + table.name, table.entityClass, table.required, table.fields);
+        if (isView) {
+            return createView(connection, table);
+        } else if (feedIdToSnapshot == null) {
+            // If there is no feedId to snapshot (i.e., we're making an empty snapshot), simply create the table.
+            return targetTable.createSqlTable(connection, true);
+        } else {
+            // Otherwise, use the createTableFrom method to copy the data from the original.
+            String fromTableName = String.format("%s.%s", feedIdToSnapshot, table.name);
+            LOG.info("Copying table {} to {}", fromTableName, targetTable.name);
+            return targetTable.createSqlTableFrom(connection, fromTableName, normalizeStopTimes);
+        }
+    }
+
+    /**
+     * Copy tables several at a time, each on a connection of its own, in three steps. First all of the tables are
+     * copied (stop times in several parts at once if their sequences are normalized) and committed, then all of their
+     * indexes are created, and finally the steps that read or change several tables are run in order on the shared
+     * connection: generating schedule exceptions and populating default editor values. Each step waits for the
+     * previous one to finish, and a table that fails to copy is not indexed.
+     */
+    private Map<Table, TableLoadResult> copyTablesInParallel () throws SQLException, InterruptedException {
+        Map<Table, TableLoadResult> tableResults = new LinkedHashMap<>();
+        for (Table table : SNAPSHOT_TABLES) tableResults.put(table, new TableLoadResult());
+        // Decide up front which tables are made and how, as the shared connection cannot be used by the workers.
+        boolean generateScheduleExceptions = !tableExists(feedIdToSnapshot, Table.SCHEDULE_EXCEPTIONS.name);
+        Set<Table> views = new HashSet<>();
+        for (Table table : SNAPSHOT_TABLES) {
+            if (isView(table)) views.add(table);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(maxConcurrentTables, runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-copier");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Callable<Void>> copyTasks = new ArrayList<>();
+            for (Table table : SNAPSHOT_TABLES) {
+                if (table == Table.SCHEDULE_EXCEPTIONS && generateScheduleExceptions) continue;
+                TableLoadResult tableLoadResult = tableResults.get(table);
+                copyTasks.add(() -> onOwnConnection(tableLoadResult, tableLoadResult.copy, connection -> {
+                    boolean isView = views.contains(table);
+                    boolean success = table == Table.STOP_TIMES && normalizeStopTimes && !isView
+                        ? copyNormalizedStopTimesInParts(connection)
+                        : createTable(connection, table, isView);
+                    if (!success) throw new SQLException("Could not create table " + tablePrefix + table.name);
+                    if (!isView) addEditorSpecificFields(connection, tablePrefix, table);
+                }));
+            }
+            executor.invokeAll(copyTasks);
+            List<Callable<Void>> indexTasks = new ArrayList<>();
+            for (Table table : SNAPSHOT_TABLES) {
+                TableLoadResult tableLoadResult = tableResults.get(table);
+                if (views.contains(table) || tableLoadResult.fatalException != null) continue;
+                if (table == Table.SCHEDULE_EXCEPTIONS && generateScheduleExceptions) continue;
+                // Use spec table to create indexes. See createIndexes method for more info on why.
+                indexTasks.add(() -> onOwnConnection(tableLoadResult, tableLoadResult.index,
+                    connection -> table.createIndexes(connection, tablePrefix)));
+            }
+            executor.invokeAll(indexTasks);
+        } finally {
+            executor.shutdownNow();
+        }
+        for (Table table : SNAPSHOT_TABLES) {
+            if (table == Table.SCHEDULE_EXCEPTIONS && generateScheduleExceptions) {
+                tableResults.put(table, createScheduleExceptionsTable());
+                continue;
+            }
+            TableLoadResult tableLoadResult = tableResults.get(table);
+            if (tableLoadResult.fatalException != null) continue;
+            try {
+                // Populate default values for editor fields.
+                populateDefaultEditorValues(connection, tablePrefix, table);
+                connection.commit();
+            } catch (SQLException ex) {
+                tableLoadResult.fatalException = ex.toString();
+                LOG.error("Error: ", ex);
+                connection.rollback();
+            }
+        }
+        return tableResults;
+    }
+
+    /** A step of making a snapshot that is run on a connection of its own. */
+    private interface ConnectionTask {
+        void run (Connection connection) throws SQLException, InterruptedException;
+    }
+
+    /**
+     * Run a task on a new connection from the pool and commit it, timing the task in the given phase. Failures are
+     * recorded in the table's result rather than thrown.
+     */
+    private Void onOwnConnection (TableLoadResult tableLoadResult, PhaseTiming timing, ConnectionTask task) {
+        Connection taskConnection = null;
+        try {
+            taskConnection = dataSource.getConnection();
+            timing.start();
+            task.run(taskConnection);
+            timing.stop();
+            tableLoadResult.commit.start();
+            taskConnection.commit();
+            tableLoadResult.commit.stop();
+        } catch (Exception ex) {
+            tableLoadResult.fatalException = ex.toString();
+            LOG.error("Error: ", ex);
+            try {
+                if (taskConnection != null) taskConnection.rollback();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        } finally {
+            DbUtils.closeQuietly(taskConnection);
+        }
+        return null;
+    }
+
+    /**
+     * Copy the stop times table with normalized stop sequences in as many parts as tables are copied at once, each
+     * inserted on its own connection. The numbering is a window function over each trip's stop times, which a single
+     * insert evaluates on one CPU, so this is much faster for large feeds. The empty table is committed before the
+     * parts are inserted, and the ID column and primary key are added on the given connection after all of them are
+     * committed. As the parts cannot be rolled back together, the table is dropped if any of them fails, rather than
+     * being left half filled.
+     */
+    private boolean copyNormalizedStopTimesInParts (Connection connection) throws SQLException, InterruptedException {
+        Table table = Table.STOP_TIMES;
+        Table targetTable = new Table(tablePrefix + table.name, table.entityClass, table.required, table.fields);
+        String fromTableName = String.format("%s.%s", feedIdToSnapshot, table.name);
+        LOG.info("Copying table {} to {} in {} parts", fromTableName, targetTable.name, maxConcurrentTables);
+        Connection createConnection = dataSource.getConnection();
+        try {
+            targetTable.createSqlTableLike(createConnection, fromTableName);
+            createConnection.commit();
+        } finally {
+            DbUtils.closeQuietly(createConnection);
+        }
+        ExecutorService partExecutor = Executors.newFixedThreadPool(maxConcurrentTables);
+        boolean copied = false;
+        try {
+            List<Callable<Void>> parts = new ArrayList<>();
+            for (int i = 0; i < maxConcurrentTables; i++) {
+                int part = i;
+                parts.add(() -> {
+                    try (Connection partConnection = dataSource.getConnection()) {
+                        targetTable.insertNormalizedStopTimesFrom(partConnection, fromTableName, part, maxConcurrentTables);
+                        partConnection.commit();
+                    }
+                    return null;
+                });
+            }
+            for (Future<Void> part : partExecutor.invokeAll(parts)) part.get();
+            targetTable.applyIdConstraints(connection);
+            copied = true;
+        } catch (ExecutionException e) {
+            throw new SQLException("Could not copy part of " + fromTableName, e.getCause());
+        } finally {
+            partExecutor.shutdownNow();
+            if (!copied) {
+                // Release any lock taken by adding the ID constraints, which would otherwise block the drop.
+                connection.rollback();
+                dropPartialTable(targetTable.name);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drop a table that was committed empty and then partly filled, on a connection of its own so that it is dropped
+     * even though the connection it was being copied on is rolled back. Failing to drop it is only logged, so that the
+     * failure that left it partly filled is the one reported.
+     */
+    private void dropPartialTable (String tableName) {
+        try (Connection dropConnection = dataSource.getConnection(); Statement statement = dropConnection.createStatement()) {
+            String dropSql = String.format("drop table if exists %s", tableName);
+            LOG.info(dropSql);
+            statement.execute(dropSql);
+            dropConnection.commit();
+        } catch (SQLException e) {
+            LOG.error("Could not drop partly copied table {}", tableName, e);
+        }
+    }
+
+    /**
+     * Create a view of the source feed's table in place of a copy, with the same columns a copy would have: the source
+     * table's columns plus any missing editor fields, which are null.
+     */
+    private boolean createView (Connection connection, Table table) throws SQLException {
+        String fromTableName = String.format("%s.%s", feedIdToSnapshot, table.name);
+        List<String> columns = new ArrayList<>();
+        Set<String> columnNames = new HashSet<>();
+        for (Field field : table.getExistingFields(connection, feedIdToSnapshot)) {
+            columnNames.add(field.name);
+            columns.add(field.name);
+        }
+        for (Field field : table.editorFields()) {
+            if (!columnNames.contains(field.name)) {
+                columns.add(String.format("null::%s as %s", field.getSqlTypeName(), field.name));
+            }
+        }
+        String createViewSql = String.format("create view %s%s as select %s from %s",
+            tablePrefix, table.name, String.join(", ", columns), fromTableName);
+        LOG.info(createViewSql);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(createViewSql);
+        }
+        return true;
+    }
+
+    /**
+     * Get the names of the tables in a namespace that are still views of another namespace's tables, because the
+     * namespace is a lazy snapshot and they have not been written to yet.
+     */
+    public static Set<String> getViewNames (Connection connection, String namespace) throws SQLException {
+        Set<String> viewNames = new HashSet<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+            "select table_name from information_schema.views where table_schema = ?"
+        )) {
+            statement.setString(1, namespace);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) viewNames.add(resultSet.getString(1));
+        }
+        return viewNames;
+    }
+
+    /**
+     * If the given table in a lazy snapshot is still a view of the source feed's table, replace it with a copy that can
+     * be edited, with indexes. Views of the view in other lazy snapshots are copied first. This does not commit, so that
+     * the copy is rolled back with any failed edits it was made for. Concurrent calls for the same table wait for each
+     * other.
+     * @return whether the table was copied
+     */
+    public static boolean materialize (Connection connection, String namespace, Table table) throws SQLException {
+        String tableName = String.join(".", namespace, table.name);
+        try (PreparedStatement lockStatement = connection.prepareStatement("select pg_advisory_xact_lock(hashtext(?))")) {
+            lockStatement.setString(1, tableName);
+            lockStatement.execute();
+        }
+        // Another connection may have materialized the table while this one waited for the lock.
+        if (!getViewNames(connection, namespace).contains(table.name)) return false;
+        materializeDependents(connection, namespace, Collections.singleton(table));
+        long startTime = System.currentTimeMillis();
+        String viewName = table.name + MATERIALIZING_SUFFIX;
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(String.format("alter view %s rename to %s", tableName, viewName));
+            Table targetTable = new Table(tableName, table.entityClass, table.required, table.fields);
+            targetTable.createSqlTableAs(connection, String.format("select * from %s.%s", namespace, viewName));
+            statement.execute(String.format("drop view %s.%s", namespace, viewName));
+        }
+        table.createIndexes(connection, namespace);
+        LOG.info("Materialized {} in {} ms", tableName, System.currentTimeMillis() - startTime);
+        return true;
+    }
+
+    /**
+     * Replace the views in other namespaces (lazy snapshots) of the given tables of a namespace with copies, so that
+     * the tables can be changed or dropped without changing those snapshots. This does not commit.
+     * @return the number of tables copied
+     */
+    public static int materializeDependents (Connection connection, String namespace, Collection<Table> tables)
+        throws SQLException {
+        Map<String, Table> tablesByName = new HashMap<>();
+        for (Table table : tables) tablesByName.put(table.name, table);
+        Multimap<String, Table> viewsBySchema = HashMultimap.create();
+        try (PreparedStatement statement = connection.prepareStatement(
+            "select distinct view_schema, view_name from information_schema.view_table_usage " +
+                "where table_schema = ? and view_schema <> ? and table_name = view_name"
+        )) {
+            statement.setString(1, namespace);
+            statement.setString(2, namespace);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                Table table = tablesByName.get(resultSet.getString(2));
+                if (table != null) viewsBySchema.put(resultSet.getString(1), table);
+            }
+        }
+        int materialized = 0;
+        for (Map.Entry<String, Table> view : viewsBySchema.entries()) {
+            if (materialize(connection, view.getKey(), view.getValue())) materialized++;
+        }
+        return materialized;
+    }
+
+    /**
+     * Replace all of the views in a lazy snapshot with copies of the source feed's tables, so that the snapshot no
+     * longer depends on the source feed.
+     * @return the number of tables copied
+     */
+    public static int materialize (DataSource dataSource, String namespace) throws SQLException {
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            int materialized = 0;
+            for (Table table : Table.tablesInOrder) {
+                if (materialize(connection, namespace, table)) materialized++;
+            }
+            connection.commit();
+            return materialized;
+        } catch (SQLException e) {
+            if (connection != null) connection.rollback();
+            throw e;
+        } finally {
+            DbUtils.closeQuietly(connection);
+        }
+    }
+
     /**
      * Special logic is needed for creating the schedule_exceptions table.
      *
@@ -32,6 +32,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -128,6 +129,7 @@ public class JdbcTableWriter implements TableWriter {
         final boolean isCreating = id == null;
         JsonNode jsonNode = getJsonNode(json);
         try {
+            materializeTablesWrittenBy(specTable);
             if (jsonNode.isArray()) {
                 // If an array of objects is passed in as the JSON input, update them all in a single transaction, only
                 // committing once all entities have been updated.
@@ -279,6 +281,7 @@ public class JdbcTableWriter implements TableWriter {
                 tablePrefix + ".",
                 EntityPopulator.PATTERN_STOP
             );
+            materializeTables(Collections.singleton(Table.STOP_TIMES));
             String patternId = getValueForId(id, "pattern_id", tablePrefix, Table.PATTERNS, connection);
             List<PatternStop> patternStopsToNormalize = new ArrayList<>();
             for (PatternStop patternStop : patternStops.getOrdered(patternId)) {
@@ -316,28 +319,81 @@ public class JdbcTableWriter implements TableWriter {
         List<Field> fields = new ArrayList<>();
         List<JsonNode> values = new ArrayList<>();
         List<String> fieldStrings = new ArrayList<>();
+        List<String> changedStrings = new ArrayList<>();
         for (String field : linkedFieldsToUpdate) {
             fields.add(referenceTable.getFieldForName(field));
             values.add(exemplarEntity.get(field));
             fieldStrings.add(String.format("%s = ?", field));
+            changedStrings.add(String.format("%s%s is distinct from ?", updatingStopTimes ? "st." : "", field));
         }
         String setFields = String.join(", ", fieldStrings);
+        // Only rows whose values differ are updated, so that unchanged rows (and tables) are not written to.
+        String changedFields = String.join(" OR ", changedStrings);
         // If updating stop_times, use a more complex query that joins trips to stop_times in order to match on pattern_id
         Field orderField = updatingStopTimes ? referenceTable.getFieldForName(referenceTable.getOrderFieldName()) : null;
+        String whereClause = updatingStopTimes
+            ? String.format("st.trip_id = t.trip_id AND t.%s = ? AND st.%s = ? AND (%s)", keyField, orderField.name,
+                changedFields)
+            : String.format("%s = ? AND (%s)", keyField, changedFields);
         String sql = updatingStopTimes
-            ? String.format(
-            "update %s.stop_times st set %s from %s.trips t " +
-                "where st.trip_id = t.trip_id AND t.%s = ? AND st.%s = ?",
-            tablePrefix,
-            setFields,
-            tablePrefix,
-            keyField,
-            orderField.name
-        )
-            : String.format("update %s.%s set %s where %s = ?", tablePrefix, linkedTableName, setFields, keyField);
+            ? String.format("update %s.stop_times st set %s from %s.trips t where %s", tablePrefix, setFields,
+                tablePrefix, whereClause)
+            : String.format("update %s.%s set %s where %s", tablePrefix, linkedTableName, setFields, whereClause);
+        // If the linked table is a view in a lazy snapshot, it is only copied if there are rows to update.
+        String changedRowsSql = updatingStopTimes
+            ? String.format("select 1 from %s.stop_times st, %s.trips t where %s limit 1", tablePrefix, tablePrefix,
+                whereClause)
+            : String.format("select 1 from %s.%s where %s limit 1", tablePrefix, linkedTableName, whereClause);
+        PreparedStatement changedRowsStatement = connection.prepareStatement(changedRowsSql);
+        setLinkedFieldWhereParameters(changedRowsStatement, 1, exemplarEntity, keyField, orderField, fields, values);
+        LOG.debug(changedRowsStatement.toString());
+        if (!changedRowsStatement.executeQuery().next()) {
+            LOG.debug("No {} linked fields to update", linkedTableName);
+            return;
+        }
+        for (Table table : Table.tablesInOrder) {
+            if (table.name.equals(linkedTableName)) materializeTables(Collections.singleton(table));
+        }
         // Prepare the statement and set statement parameters
         PreparedStatement statement = connection.prepareStatement(sql);
-        int oneBasedIndex = 1;
+        int oneBasedIndex = setLinkedFieldValues(statement, 1, fields, values);
+        setLinkedFieldWhereParameters(statement, oneBasedIndex, exemplarEntity, keyField, orderField, fields, values);
+        // Log query, execute statement, and log result.
+        LOG.debug(statement.toString());
+        int entitiesUpdated = statement.executeUpdate();
+        LOG.debug("{} {} linked fields updated", entitiesUpdated, linkedTableName);
+    }
+
+    /**
+     * Set the parameters for the where clause of updateLinkedFields: the value of the key field (e.g., set values where
+     * pattern_id = '3'), the stop sequence if updating stop times, then the values that the linked fields must differ
+     * from.
+     */
+    private static void setLinkedFieldWhereParameters(
+        PreparedStatement statement,
+        int oneBasedIndex,
+        ObjectNode exemplarEntity,
+        String keyField,
+        Field orderField,
+        List<Field> fields,
+        List<JsonNode> values
+    ) throws SQLException {
+        statement.setString(oneBasedIndex++, exemplarEntity.get(keyField).asText());
+        if (orderField != null) {
+            // If updating stop times set the order field parameter (stop_sequence)
+            String orderValue = exemplarEntity.get(orderField.name).asText();
+            orderField.setParameter(statement, oneBasedIndex++, orderValue);
+        }
+        setLinkedFieldValues(statement, oneBasedIndex, fields, values);
+    }
+
+    /** Set the values of the linked fields, starting at the given parameter index, and return the next index. */
+    private static int setLinkedFieldValues(
+        PreparedStatement statement,
+        int oneBasedIndex,
+        List<Field> fields,
+        List<JsonNode> values
+    ) throws SQLException {
         // Iterate over list of fields that need to be updated and set params.
         for (int i = 0; i < fields.size(); i++) {
             Field field = fields.get(i);
@@ -345,17 +401,7 @@ public class JdbcTableWriter implements TableWriter {
             if (newValue == null) field.setNull(statement, oneBasedIndex++);
             else field.setParameter(statement, oneBasedIndex++, newValue);
         }
-        // Set "where clause" with value for key field (e.g., set values where pattern_id = '3')
-        statement.setString(oneBasedIndex++, exemplarEntity.get(keyField).asText());
-        if (updatingStopTimes) {
-            // If updating stop times set the order field parameter (stop_sequence)
-            String orderValue = exemplarEntity.get(orderField.name).asText();
-            orderField.setParameter(statement, oneBasedIndex++, orderValue);
-        }
-        // Log query, execute statement, and log result.
-        LOG.debug(statement.toString());
-        int entitiesUpdated = statement.executeUpdate();
-        LOG.debug("{} {} linked fields updated", entitiesUpdated, linkedTableName);
+        return oneBasedIndex;
     }
 
     /**
@@ -1315,6 +1361,7 @@ public class JdbcTableWriter implements TableWriter {
             // Handle "cascading" delete or constraints on deleting entities that other entities depend on
             // (e.g., keep a calendar from being deleted if trips reference it).
             // FIXME: actually add "cascading"? Currently, it just deletes one level down.
+            materializeTables(Collections.singleton(specTable));
             deleteFromReferencingTables(tablePrefix, specTable, id);
             // Next, delete the actual record specified by id.
             PreparedStatement statement = connection.prepareStatement(specTable.generateDeleteSql(tablePrefix));
@@ -1560,6 +1607,37 @@ public class JdbcTableWriter implements TableWriter {
         return uniqueIds;
     }
 
+    /**
+     * Copy the tables that are always written to when an entity of the given table is created or updated, if they are
+     * still views of another feed's tables because this namespace is a lazy snapshot (see {@link JdbcGtfsSnapshotter}).
+     * These are the table itself, its child tables, whose rows are replaced with the entity's JSON arrays, and for
+     * patterns, their shapes and the stop times kept in sync with their pattern stops. The tables that reference the
+     * entity are only written to if its key changes (see updateReferencingTables), and trips and stop times with linked
+     * fields only if those fields change (see updateLinkedFields), so they are copied there.
+     */
+    private void materializeTablesWrittenBy(Table table) throws SQLException {
+        Set<Table> tables = new HashSet<>();
+        tables.add(table);
+        for (Table referencingTable : getReferencingTables(table)) {
+            Table parentTable = referencingTable.getParentTable();
+            if (parentTable != null && parentTable.name.equals(table.name)) tables.add(referencingTable);
+        }
+        if (table.name.equals(Table.PATTERNS.name)) tables.addAll(Arrays.asList(Table.SHAPES, Table.STOP_TIMES));
+        materializeTables(tables);
+    }
+
+    /**
+     * Copy any of the given tables that are still views in a lazy snapshot, then copy any views of them in lazy
+     * snapshots of this namespace, which would otherwise see the changes. This happens within the current transaction.
+     */
+    private void materializeTables(Collection<Table> tables) throws SQLException {
+        Set<String> viewNames = JdbcGtfsSnapshotter.getViewNames(connection, tablePrefix);
+        for (Table table : tables) {
+            if (viewNames.contains(table.name)) JdbcGtfsSnapshotter.materialize(connection, tablePrefix, table);
+        }
+        JdbcGtfsSnapshotter.materializeDependents(connection, tablePrefix, tables);
+    }
+
     /**
      * Finds the set of tables that reference the parent entity being updated.
      */
@@ -1690,6 +1768,16 @@ public class JdbcTableWriter implements TableWriter {
             LOG.warn("Entity {} to {} has null value for {}. Skipping references check.", id, sqlMethod, keyField);
             return;
         }
+        // Copy the tables whose references are about to be updated or deleted, and on delete, the descendants deleted
+        // with routes and patterns, if they are still views.
+        Set<Table> tablesToWrite = new HashSet<>(referencingTables);
+        if (
+            sqlMethod.equals(SqlMethod.DELETE) &&
+            (table.name.equals(Table.PATTERNS.name) || table.name.equals(Table.ROUTES.name))
+        ) {
+            tablesToWrite.addAll(Arrays.asList(Table.PATTERN_STOP, Table.STOP_TIMES, Table.FREQUENCIES, Table.SHAPES));
+        }
+        materializeTables(tablesToWrite);
         if (
             sqlMethod.equals(SqlMethod.DELETE) &&
             (table.name.equals(Table.PATTERNS.name) || table.name.equals(Table.ROUTES.name))
@@ -0,0 +1,350 @@
+package com.conveyal.gtfs.loader;
+
+import com.conveyal.gtfs.loader.JDBCTableReader.Partitioning;
+import com.conveyal.gtfs.model.Entity;
+import com.conveyal.gtfs.storage.StorageException;
+import org.apache.commons.dbutils.DbUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import static com.conveyal.gtfs.loader.JDBCTableReader.SQL_STATE_UNDEFINED_TABLE;
+import static java.sql.ResultSet.CONCUR_READ_ONLY;
+import static java.sql.ResultSet.TYPE_FORWARD_ONLY;
+
+/**
+ * Reads a whole table as several partitions at once, each over its own connection and on its own thread, so that the
+ * database can serve (and sort) the partitions in parallel. The table is partitioned either into ranges of the id
+ * column or by a hash of the key field. Created by {@link JDBCTableReader#scanPartitioned} and
+ * {@link JDBCTableReader#scanOrdered}.
+ */
+class PartitionedTableScan<T extends Entity> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PartitionedTableScan.class);
+
+    /** The number of rows each partition may read ahead of an ordered merge. */
+    static final int MERGE_QUEUE_SIZE = 1_000;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final DataSource dataSource;
+    private final String qualifiedTableName;
+    // The entity columns followed by the key (and order field, if any) under aliases, as in the multi-key lookups.
+    private final String selectClause;
+    private final int keyColumn;
+    private final int orderColumn;
+    private final String keyField;
+    private final String orderField;
+    private final EntityPopulator.Compiled<T> populator;
+    private final int idColumn;
+    private final int fetchSize;
+    private final LongAdder rowsRead;
+
+    PartitionedTableScan (
+        DataSource dataSource,
+        String qualifiedTableName,
+        String selectColumns,
+        int selectedColumnCount,
+        String keyField,
+        String orderField,
+        EntityPopulator.Compiled<T> populator,
+        int idColumn,
+        int fetchSize,
+        LongAdder rowsRead
+    ) {
+        this.dataSource = dataSource;
+        this.qualifiedTableName = qualifiedTableName;
+        this.keyField = keyField;
+        this.orderField = orderField;
+        this.populator = populator;
+        this.idColumn = idColumn;
+        this.fetchSize = fetchSize;
+        this.rowsRead = rowsRead;
+        String extraColumns = keyField + " as group_key";
+        if (orderField != null) extraColumns += ", " + orderField + " as group_order";
+        selectClause = String.format("select %s, %s from %s", selectColumns, extraColumns, qualifiedTableName);
+        keyColumn = selectedColumnCount + 1;
+        orderColumn = orderField == null ? 0 : selectedColumnCount + 2;
+    }
+
+    /**
+     * Read every partition to the end, passing each item to the consumer for its partition, and return when all are
+     * done. If reading any partition fails, the first failure is rethrown after the others have finished.
+     */
+    void scan (int partitions, Partitioning partitioning, boolean ordered, IntFunction<Consumer<T>> consumerForPartition) {
+        List<String> queries = partitionQueries(partitions, partitioning, ordered);
+        if (queries.isEmpty()) return;
+        ExecutorService executor = Executors.newFixedThreadPool(queries.size(), daemonThreadFactory());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int p = 0; p < queries.size(); p++) {
+                String sql = queries.get(p);
+                Consumer<T> consumer = consumerForPartition.apply(p);
+                futures.add(executor.submit(() -> {
+                    readPartition(sql, row -> consumer.accept(row.entity));
+                    return null;
+                }));
+            }
+            RuntimeException failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) failure = asRuntimeException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    if (failure == null) failure = new StorageException(e);
+                }
+            }
+            if (failure != null) throw failure;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Read all partitions at once, each sorted by key and order field, and merge them into a single iterable in key
+     * and order field order, e.g. (trip_id, stop_sequence) for stop_times. Keys are compared by code point, so the
+     * partition queries sort keys with the "C" collation rather than the database default, which may differ.
+     * @param tableExists if false, the merge is empty and no queries are made.
+     */
+    CloseableIterable<T> mergeOrdered (int partitions, boolean tableExists) {
+        List<String> queries = partitionQueries(partitions, Partitioning.KEY_HASH, true);
+        return new OrderedMerge(tableExists ? queries : Collections.emptyList());
+    }
+
+    /**
+     * @return one query per partition, or an empty list if the table is empty or does not exist.
+     */
+    private List<String> partitionQueries (int partitions, Partitioning partitioning, boolean ordered) {
+        if (partitions < 1) throw new IllegalArgumentException("The number of partitions must be at least one.");
+        List<String> queries = new ArrayList<>();
+        String orderClause = "";
+        if (ordered) {
+            orderClause = String.format(" order by %s collate \"C\"", keyField);
+            if (orderField != null) orderClause += ", " + orderField;
+        }
+        if (partitioning == Partitioning.KEY_HASH) {
+            for (int p = 0; p < partitions; p++) {
+                // Mask off the sign bit rather than using abs(), which overflows for the minimum integer. Null keys
+                // are hashed as empty strings, since hashtext(null) is null and those rows would be in no partition.
+                queries.add(String.format("%s where (hashtext(coalesce(%s, '')) & 2147483647) %% %d = %d%s",
+                    selectClause, keyField, partitions, p, orderClause));
+            }
+            return queries;
+        }
+        long minId;
+        long maxId;
+        try (Connection connection = dataSource.getConnection()) {
+            ResultSet resultSet = connection.createStatement()
+                .executeQuery(String.format("select min(id), max(id) from %s", qualifiedTableName));
+            resultSet.next();
+            minId = resultSet.getLong(1);
+            if (resultSet.wasNull()) return queries;
+            maxId = resultSet.getLong(2);
+        } catch (SQLException e) {
+            if (SQL_STATE_UNDEFINED_TABLE.equals(e.getSQLState())) return queries;
+            throw new StorageException(e);
+        }
+        long rangeSize = (maxId - minId) / partitions + 1;
+        for (int p = 0; p < partitions; p++) {
+            long from = minId + p * rangeSize;
+            if (from > maxId) break;
+            queries.add(String.format("%s where id >= %d and id < %d%s", selectClause, from, from + rangeSize, orderClause));
+        }
+        return queries;
+    }
+
+    /**
+     * Run one partition query to the end on a connection of its own, passing each row to the consumer. This returns
+     * early (closing the connection) if the thread is interrupted.
+     */
+    private void readPartition (String sql, RowConsumer<T> consumer) throws SQLException, InterruptedException {
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            PreparedStatement preparedStatement = connection.prepareStatement(sql, TYPE_FORWARD_ONLY, CONCUR_READ_ONLY);
+            preparedStatement.setFetchSize(fetchSize);
+            LOG.info(sql);
+            ResultSet results = preparedStatement.executeQuery();
+            while (results.next()) {
+                if (Thread.interrupted()) throw new InterruptedException();
+                Row<T> row = new Row<>();
+                row.entity = populator.populate(results);
+                row.entity.id = EntityPopulator.getIntIfPresent(results, idColumn);
+                row.key = results.getString(keyColumn);
+                if (orderColumn != 0) row.order = (Comparable) results.getObject(orderColumn);
+                rowsRead.increment();
+                consumer.accept(row);
+            }
+        } finally {
+            DbUtils.closeQuietly(connection);
+        }
+    }
+
+    /** Unwrap the failure of a partition's thread so it can be rethrown on the calling thread. */
+    private static RuntimeException asRuntimeException (Throwable t) {
+        if (t instanceof Error) throw (Error) t;
+        return t instanceof RuntimeException ? (RuntimeException) t : new StorageException((Exception) t);
+    }
+
+    private static ThreadFactory daemonThreadFactory () {
+        return runnable -> {
+            Thread thread = new Thread(runnable, "partitioned-scan-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @FunctionalInterface
+    private interface RowConsumer<T extends Entity> {
+        void accept (Row<T> row) throws InterruptedException;
+    }
+
+    /**
+     * Compare strings by code point, as the "C" collation sorts them in UTF-8, rather than by UTF-16 code unit as
+     * {@link String#compareTo} does. The two orders differ when a character outside the Basic Multilingual Plane (e.g.
+     * an emoji), encoded as a surrogate pair, is compared with a character from U+E000 to U+FFFF.
+     */
+    static int compareCodePoints (String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int codePointA = a.codePointAt(i);
+            int codePointB = b.codePointAt(j);
+            if (codePointA != codePointB) return Integer.compare(codePointA, codePointB);
+            i += Character.charCount(codePointA);
+            j += Character.charCount(codePointB);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    /** An entity along with the values it is sorted on. */
+    private static class Row<T> {
+        T entity;
+        String key;
+        Comparable order;
+        int partition;
+    }
+
+    /**
+     * Reads each partition on its own thread into a bounded queue, and merges the heads of the queues in order. The
+     * merge is a single-use iterable. Closing it stops the reading threads, which close their connections.
+     */
+    private class OrderedMerge implements CloseableIterable<T>, Iterator<T> {
+
+        // Marks the end of a partition's rows in its queue.
+        private final Row<T> endOfPartition = new Row<>();
+
+        private final List<BlockingQueue<Row<T>>> queues = new ArrayList<>();
+        private final List<Future<?>> futures = new ArrayList<>();
+        private final PriorityQueue<Row<T>> heads;
+        private final ExecutorService executor;
+        private boolean started = false;
+        private boolean iterated = false;
+
+        @SuppressWarnings("unchecked")
+        OrderedMerge (List<String> queries) {
+            // Rows with null keys are sorted last, as in the partition queries.
+            Comparator<Row<T>> byKey = Comparator.comparing(row -> row.key,
+                Comparator.nullsLast(PartitionedTableScan::compareCodePoints));
+            heads = new PriorityQueue<>(Math.max(1, queries.size()), byKey.thenComparing(
+                row -> row.order, Comparator.nullsFirst(Comparator.naturalOrder())));
+            executor = queries.isEmpty() ? null : Executors.newFixedThreadPool(queries.size(), daemonThreadFactory());
+            for (String sql : queries) {
+                BlockingQueue<Row<T>> queue = new ArrayBlockingQueue<>(MERGE_QUEUE_SIZE);
+                queues.add(queue);
+                futures.add(executor.submit(() -> {
+                    try {
+                        readPartition(sql, queue::put);
+                    } catch (Throwable t) {
+                        // Always mark the end, so the merge does not wait forever if reading fails. The merge rethrows
+                        // the failure when it reaches the marker, so the unread rows can be dropped to make room.
+                        queue.clear();
+                        queue.offer(endOfPartition);
+                        throw t;
+                    }
+                    // The queue may be full, so wait for the merge to make room for the marker.
+                    queue.put(endOfPartition);
+                    return null;
+                }));
+            }
+        }
+
+        @Override
+        public Iterator<T> iterator () {
+            if (iterated) throw new IllegalStateException("An ordered scan of " + qualifiedTableName + " can only be iterated once.");
+            iterated = true;
+            return this;
+        }
+
+        @Override
+        public boolean hasNext () {
+            if (!started) {
+                started = true;
+                for (int p = 0; p < queues.size(); p++) takeFromPartition(p);
+            }
+            boolean hasNext = !heads.isEmpty();
+            if (!hasNext) close();
+            return hasNext;
+        }
+
+        @Override
+        public T next () {
+            if (!hasNext()) throw new NoSuchElementException();
+            Row<T> row = heads.poll();
+            takeFromPartition(row.partition);
+            return row.entity;
+        }
+
+        /** Move the next row of the given partition (if any) into the merge heap. */
+        private void takeFromPartition (int partition) {
+            try {
+                Row<T> row = queues.get(partition).take();
+                if (row == endOfPartition) {
+                    // Rethrow any failure, rather than silently returning an incomplete table.
+                    futures.get(partition).get();
+                    return;
+                }
+                row.partition = partition;
+                heads.add(row);
+            } catch (ExecutionException e) {
+                close();
+                throw asRuntimeException(e.getCause());
+            } catch (InterruptedException e) {
+                close();
+                Thread.currentThread().interrupt();
+                throw new StorageException(e);
+            }
+        }
+
+        @Override
+        public void close () {
+            heads.clear();
+            if (executor != null) executor.shutdownNow();
+        }
+    }
+}
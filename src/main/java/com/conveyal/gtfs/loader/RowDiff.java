@@ -0,0 +1,42 @@
+package com.conveyal.gtfs.loader;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One row that differs between two feed namespaces, as reported by {@link JdbcGtfsDiffer}.
+ */
+public class RowDiff {
+
+    public enum Type {
+        /** The row is only in the other namespace. */
+        ADDED,
+        /** The row is only in the base namespace. */
+        REMOVED,
+        /** A row with the same key is in both namespaces, but some of its fields differ. */
+        CHANGED
+    }
+
+    public final String table;
+    public final Type type;
+    /**
+     * The key field values identifying the row, as text in key order. For tables without a key (e.g., calendar_dates),
+     * this holds every compared field of the row.
+     */
+    public final Map<String, String> key;
+    /** The names of the fields that differ for a changed row, or an empty list for added and removed rows. */
+    public final List<String> changedFields;
+
+    public RowDiff (String table, Type type, Map<String, String> key, List<String> changedFields) {
+        this.table = table;
+        this.type = type;
+        this.key = Collections.unmodifiableMap(key);
+        this.changedFields = Collections.unmodifiableList(changedFields);
+    }
+
+    @Override
+    public String toString () {
+        return String.format("%s %s %s%s", type, table, key, changedFields.isEmpty() ? "" : " " + changedFields);
+    }
+}
@@ -8,4 +8,5 @@ public class SnapshotResult extends FeedLoadResult {
     private static final long serialVersionUID = 1L;
 
     public TableLoadResult scheduleExceptions;
+    public TableLoadResult patternStops;
 }
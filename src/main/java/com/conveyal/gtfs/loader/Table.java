@@ -50,6 +50,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -735,15 +736,23 @@ public class Table {
      * all be included.
      */
     public String generateSelectSql (String namespace, Requirement minimumRequirement) {
+        return generateSelectSql(namespace, minimumRequirement, true);
+    }
+
+    /**
+     * Generate select all SQL string as above. If csvOutput is false, the columns are selected as they are stored,
+     * rather than converted to their GTFS format with PostgreSQL expressions (see {@link Field#formatCsvValue}).
+     */
+    public String generateSelectSql (String namespace, Requirement minimumRequirement, boolean csvOutput) {
         String fieldsString;
         String tableName = String.join(".", namespace, name);
         String fieldPrefix = tableName + ".";
         if (minimumRequirement.equals(EDITOR)) {
-            fieldsString = commaSeparatedNames(editorFields(), fieldPrefix, true);
+            fieldsString = commaSeparatedNames(editorFields(), fieldPrefix, csvOutput);
         } else if (minimumRequirement.equals(OPTIONAL)) {
-            fieldsString = commaSeparatedNames(specFields(), fieldPrefix, true);
+            fieldsString = commaSeparatedNames(specFields(), fieldPrefix, csvOutput);
         } else if (minimumRequirement.equals(REQUIRED)) {
-            fieldsString = commaSeparatedNames(requiredFields(), fieldPrefix, true);
+            fieldsString = commaSeparatedNames(requiredFields(), fieldPrefix, csvOutput);
         } else fieldsString = "*";
         return String.format("select %s from %s", fieldsString, tableName);
     }
@@ -785,6 +794,24 @@ public class Table {
         );
     }
 
+    /**
+     * Get the fields of the columns that actually exist in the database table, in column order, using only JDBC
+     * metadata so that it works with any database. Columns are matched to fields ignoring case, since some databases
+     * report unquoted names in upper case.
+     */
+    public List<Field> getExistingFields(Connection connection, String namespace) throws SQLException {
+        List<Field> existingFields = new ArrayList<>();
+        String sql = String.format("select * from %s.%s where 1 = 0", namespace, name);
+        try (PreparedStatement statement = connection.prepareStatement(sql);
+             ResultSet resultSet = statement.executeQuery()) {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                existingFields.add(getFieldForName(metaData.getColumnName(i).toLowerCase(Locale.ROOT)));
+            }
+        }
+        return existingFields;
+    }
+
     public String generateJoinSql (Table joinTable, String namespace, String fieldName, boolean prefixTableName) {
         return generateJoinSql(null, joinTable, null, namespace, fieldName, prefixTableName);
     }
@@ -1014,14 +1041,7 @@ public class Table {
                 LOG.info(createTableAsSql);
                 statement.execute(createTableAsSql);
             }
-            applyAutoIncrementingSequence(statement);
-            // FIXME: Is there a need to add primary key constraint here?
-            if (usePrimaryKey) {
-                // Add primary key to ID column for any tables that require it.
-                String addPrimaryKeySql = String.format("ALTER TABLE %s ADD PRIMARY KEY (id)", name);
-                LOG.info(addPrimaryKeySql);
-                statement.execute(addPrimaryKeySql);
-            }
+            applyIdConstraints(statement);
             return true;
         } catch (SQLException ex) {
             LOG.error("Error cloning table {}: {}", name, ex.getSQLState());
@@ -1042,6 +1062,69 @@ public class Table {
         }
     }
 
+    /**
+     * Create this table from the rows of a query, such as a select from a view, with an auto-incrementing ID column and
+     * (if required) a primary key, as createSqlTableFrom does. Unlike that method, errors are thrown rather than
+     * recovered from, so that the caller's transaction can be rolled back without losing rows. Indexes are not created.
+     */
+    public void createSqlTableAs(Connection connection, String selectSql) throws SQLException {
+        long startTime = System.currentTimeMillis();
+        try (Statement statement = connection.createStatement()) {
+            String createTableAsSql = String.format("create table %s as %s", name, selectSql);
+            LOG.info(createTableAsSql);
+            statement.execute(createTableAsSql);
+            applyIdConstraints(statement);
+        }
+        LOG.info("Created table {} in {} ms", name, System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Clone a stop times table with normalized stop sequences, as createSqlTableFrom does, but in several parts that
+     * can be inserted at once on separate connections. First call this method to create the empty table and commit,
+     * then call {@link #insertNormalizedStopTimesFrom} for each part, then {@link #applyIdConstraints(Connection)}.
+     */
+    public void createSqlTableLike(Connection connection, String tableToClone) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            String dropSql = String.format("drop table if exists %s", name);
+            LOG.info(dropSql);
+            statement.execute(dropSql);
+            String createTableLikeSql = String.format("create table %s (like %s)", name, tableToClone);
+            LOG.info(createTableLikeSql);
+            statement.execute(createTableLikeSql);
+        }
+    }
+
+    /**
+     * Insert one part of a stop times table with normalized stop sequences (see {@link #createSqlTableLike}). Rows are
+     * split into parts by a hash of the trip ID, so that each trip's stop times are numbered together.
+     */
+    public void insertNormalizedStopTimesFrom(Connection connection, String tableToClone, int part, int partCount)
+        throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            // Masking the sign bit rather than using abs avoids overflow for the smallest hash value.
+            String condition = String.format("(hashtext(coalesce(trip_id, '')) & 2147483647) %% %d = %d", partCount, part);
+            insertNormalizedStopTimes(statement, name, tableToClone, condition);
+        }
+    }
+
+    /** Make the ID column of a cloned table auto-incrementing and add a primary key if the table requires one. */
+    public void applyIdConstraints(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            applyIdConstraints(statement);
+        }
+    }
+
+    private void applyIdConstraints(Statement statement) throws SQLException {
+        applyAutoIncrementingSequence(statement);
+        // FIXME: Is there a need to add primary key constraint here?
+        if (usePrimaryKey) {
+            // Add primary key to ID column for any tables that require it.
+            String addPrimaryKeySql = String.format("ALTER TABLE %s ADD PRIMARY KEY (id)", name);
+            LOG.info(addPrimaryKeySql);
+            statement.execute(addPrimaryKeySql);
+        }
+    }
+
     /**
      *  Normalize stop sequences for stop times table so that sequences are all zero-based and increment
      by one. This ensures that sequence values for stop_times and pattern_stops are not initially out
@@ -1064,6 +1147,12 @@ public class Table {
         String createTableLikeSql = String.format("create table %s (like %s)", name, tableToClone);
         LOG.info(createTableLikeSql);
         statement.execute(createTableLikeSql);
+        insertNormalizedStopTimes(statement, name, tableToClone, null);
+    }
+
+    /** Insert the stop times matching a condition (or all of them if it is null) with normalized stop sequences. */
+    private static void insertNormalizedStopTimes(Statement statement, String name, String tableToClone, String condition)
+        throws SQLException {
         long normalizeStartTime = System.currentTimeMillis();
         LOG.info("Normalizing stop sequences");
         // First get the column names (to account for any non-standard fields that may be present)
@@ -1076,7 +1165,8 @@ public class Table {
         }
         // Replace stop sequence column with the normalized sequence values.
         columns.set(columns.indexOf("stop_sequence"), "-1 + row_number() over (partition by trip_id order by stop_sequence) as stop_sequence");
-        String insertAllSql = String.format("insert into %s (select %s from %s)", name, String.join(", ", columns), tableToClone);
+        String insertAllSql = String.format("insert into %s (select %s from %s%s)", name, String.join(", ", columns),
+            tableToClone, condition == null ? "" : " where " + condition);
         LOG.info(insertAllSql);
         statement.execute(insertAllSql);
         LOG.info("Normalized stop times sequences in {} ms", System.currentTimeMillis() - normalizeStartTime);
@@ -0,0 +1,27 @@
+package com.conveyal.gtfs.loader;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.io.Serializable;
+
+/**
+ * The number of rows of one table that differ between two feed namespaces, as found by {@link JdbcGtfsDiffer}.
+ */
+public class TableDiffResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    public long added;
+    public long removed;
+    public long changed;
+    /** Whether rows were matched by key. If not, the table has no key and rows are only ever added or removed. */
+    public boolean keyed;
+    public String fatalException = null;
+    public long diffTimeMillis;
+
+    public TableDiffResult () { }
+
+    @JsonIgnore
+    public long getTotal () {
+        return added + removed + changed;
+    }
+}
@@ -1,5 +1,7 @@
 package com.conveyal.gtfs.loader;
 
+import com.conveyal.gtfs.util.PhaseTiming;
+
 import java.io.Serializable;
 
 /**
@@ -13,6 +15,14 @@ public class TableLoadResult implements Serializable {
     public int errorCount;
     public String fatalException = null;
     public int fileSize;
+    /** Time spent reading and checking the CSV rows and staging them for the database. */
+    public PhaseTiming parse = new PhaseTiming();
+    /** Time spent copying the staged rows into the database (or sending the final batch of inserts). */
+    public PhaseTiming copy = new PhaseTiming();
+    /** Time spent creating indexes on the table. */
+    public PhaseTiming index = new PhaseTiming();
+    /** Time spent committing the transaction. */
+    public PhaseTiming commit = new PhaseTiming();
 
     /** No-arg constructor for Mongo */
     public TableLoadResult () { }
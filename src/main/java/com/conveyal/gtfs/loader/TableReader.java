@@ -2,6 +2,14 @@ package com.conveyal.gtfs.loader;
 
 import com.conveyal.gtfs.model.Entity;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 /**
  * This is an interface for classes that can iterate over all entities in a single GTFS table, or fetch single entities
  * by ID, or fetch ordered groups of entities with the same ID (e.g. all stop times with the same trip_id).
@@ -17,4 +25,61 @@ public interface TableReader <T extends Entity> extends Iterable<T> {
 
     Iterable<T> getAllOrdered ();
 
+    /**
+     * Get the item for each of the given IDs. Implementations should fetch them in batches rather than calling
+     * {@link #get(String)} for every ID, which is what this default does.
+     * @return the items keyed on ID, in the order the IDs were supplied. IDs with no item are not present.
+     */
+    default Map<String, T> getAll (Collection<String> ids) {
+        Map<String, T> entityForId = new LinkedHashMap<>();
+        for (String id : ids) {
+            if (id == null || entityForId.containsKey(id)) continue;
+            // Iterate fully so that the underlying resources are released, keeping the first item.
+            for (T entity : getOrdered(id)) entityForId.putIfAbsent(id, entity);
+        }
+        return entityForId;
+    }
+
+    /**
+     * Get all the items with each of the given IDs, in order (e.g. the stop times for a set of trips).
+     * Implementations should fetch them in batches rather than calling {@link #getOrdered(String)} for every ID, which
+     * is what this default does.
+     * @return the ordered items grouped by ID, in the order the IDs were supplied. IDs with no items are not present.
+     */
+    default Map<String, List<T>> getOrderedForKeys (Collection<String> ids) {
+        Map<String, List<T>> entitiesForId = new LinkedHashMap<>();
+        for (String id : ids) {
+            if (id == null || entitiesForId.containsKey(id)) continue;
+            List<T> entities = new ArrayList<>();
+            getOrdered(id).forEach(entities::add);
+            if (!entities.isEmpty()) entitiesForId.put(id, entities);
+        }
+        return entitiesForId;
+    }
+
+    /**
+     * @return a sequential stream over all the items in this table. Implementations backed by a database hold a
+     * connection open until the stream is consumed or closed, so close it (e.g. with try-with-resources) if it may be
+     * terminated early.
+     */
+    default Stream<T> stream () {
+        return StreamSupport.stream(getAll().spliterator(), false);
+    }
+
+    /**
+     * @return a possibly parallel stream over all the items in this table. This must also be closed if it may be
+     * terminated early.
+     */
+    default Stream<T> parallelStream () {
+        return stream().parallel();
+    }
+
+    /**
+     * @return a reader that may fetch only the named columns, leaving the other fields of the entities it returns with
+     * their missing values. This is an optimization hint: by default the complete entities are returned.
+     */
+    default TableReader<T> withColumns (String... columnNames) {
+        return this;
+    }
+
 }
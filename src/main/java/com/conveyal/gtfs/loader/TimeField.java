@@ -6,6 +6,8 @@ import com.conveyal.gtfs.storage.StorageException;
 
 import java.sql.JDBCType;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.SQLType;
 import java.util.Collections;
 import java.util.Set;
@@ -79,4 +81,12 @@ public class TimeField extends Field {
             : columnName;
     }
 
+    /** Format seconds after midnight as HH:MM:SS, with hours past 23 for times after midnight, like TO_CHAR. */
+    @Override
+    public String formatCsvValue(ResultSet resultSet, int oneBasedIndex) throws SQLException {
+        int seconds = resultSet.getInt(oneBasedIndex);
+        if (resultSet.wasNull()) return null;
+        return String.format("%02d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
 }
@@ -89,8 +89,18 @@ public class CalendarDate extends Entity implements Cloneable, Serializable {
     }
 
     public static class Writer extends Entity.Writer<CalendarDate> {
+        // Calendar dates to write instead of those of the feed's services, if any.
+        private final Iterable<CalendarDate> calendarDates;
+
         public Writer (GTFSFeed feed) {
             super(feed, "calendar_dates");
+            this.calendarDates = null;
+        }
+
+        /** Write the given calendar dates, in order, rather than those of a feed. */
+        public Writer (Iterable<CalendarDate> calendarDates) {
+            super(null, "calendar_dates");
+            this.calendarDates = calendarDates;
         }
 
         @Override
@@ -108,6 +118,7 @@ public class CalendarDate extends Entity implements Cloneable, Serializable {
 
         @Override
         protected Iterator<CalendarDate> iterator() {
+            if (calendarDates != null) return calendarDates.iterator();
             Iterator<Service> serviceIterator = feed.services.values().iterator();
             return Iterators.concat(Iterators.transform(serviceIterator, service -> service.calendar_dates.values().iterator()));
         }
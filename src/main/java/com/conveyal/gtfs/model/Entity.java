@@ -15,6 +15,8 @@ import com.conveyal.gtfs.error.TimeParseError;
 import com.conveyal.gtfs.error.URLParseError;
 import com.conveyal.gtfs.loader.DateField;
 import com.conveyal.gtfs.util.Deduplicator;
+import com.conveyal.gtfs.util.ParallelZipWriter;
+import com.conveyal.gtfs.util.ReadAheadInputStream;
 import com.csvreader.CsvReader;
 import com.csvreader.CsvWriter;
 
@@ -24,6 +26,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
@@ -100,11 +103,16 @@ public abstract class Entity implements Serializable {
     public static abstract class Loader<E extends Entity> {
 
         private static final Logger LOG = LoggerFactory.getLogger(Loader.class);
-        private static final Deduplicator deduplicator = new Deduplicator();
+        // Uncompressed tables larger than this are decompressed on a separate thread.
+        private static final long READ_AHEAD_MIN_BYTES = 16 * 1024 * 1024;
+        // The number of entities handed to a SortedBatchWriter at once.
+        protected static final int WRITE_BATCH_SIZE = 10_000;
 
         protected final GTFSFeed feed;    // the feed into which we are loading the entities
         protected final String tableName; // name of corresponding table without .txt
         protected final Set<String> missingRequiredColumns = Sets.newHashSet();
+        // Shared by all the loaders for a feed, which may run concurrently.
+        private final Deduplicator deduplicator;
 
         protected CsvReader reader;
         protected int       row;
@@ -113,6 +121,7 @@ public abstract class Entity implements Serializable {
         public Loader(GTFSFeed feed, String tableName) {
             this.feed = feed;
             this.tableName = tableName;
+            this.deduplicator = feed.getDeduplicator();
         }
 
         /** @return whether the number actual is in the range [min, max] */
@@ -258,8 +267,8 @@ public abstract class Entity implements Serializable {
             if (str != null) {
                 val = target.get(str);
                 String transitId = column + ":" + str;
-                if (!feed.transitIds.contains(transitId)) {
-                    feed.transitIds.add(transitId);
+                // Tables are loaded concurrently, so check and record the ID in a single atomic operation.
+                if (feed.transitIds.add(transitId)) {
                     if (val == null) {
                         feed.errors.add(new ReferentialIntegrityError(tableName, row, column, str));
                     }
@@ -302,21 +311,31 @@ public abstract class Entity implements Serializable {
             }
             LOG.info("Loading GTFS table {} from {}", tableName, entry);
             InputStream zis = zip.getInputStream(entry);
+            // Decompress large tables on a separate thread, overlapping with parsing.
+            if (entry.getSize() > READ_AHEAD_MIN_BYTES) zis = new ReadAheadInputStream(zis, tableName);
             // skip any byte order mark that may be present. Files must be UTF-8,
             // but the GTFS spec says that "files that include the UTF byte order mark are acceptable"
             InputStream bis = new BOMInputStream(zis);
             CsvReader reader = new CsvReader(bis, ',', Charset.forName("UTF8"));
             this.reader = reader;
-            boolean hasHeaders = reader.readHeaders();
-            if (!hasHeaders) {
-                feed.errors.add(new EmptyTableError(tableName));
-            }
-            while (reader.readRecord()) {
-                // reader.getCurrentRecord() is zero-based and does not include the header line, keep our own row count
-                if (++row % 500000 == 0) {
-                    LOG.info("Record number {}", human(row));
+            try {
+                boolean hasHeaders = reader.readHeaders();
+                if (!hasHeaders) {
+                    feed.errors.add(new EmptyTableError(tableName));
                 }
-                loadOneRow(); // Call subclass method to produce an entity from the current row.
+                while (reader.readRecord()) {
+                    // Stop if the load has been abandoned, e.g. because loading another table failed.
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException("Interrupted while loading " + tableName);
+                    }
+                    // reader.getCurrentRecord() is zero-based and does not include the header line, keep our own row count
+                    if (++row % 500000 == 0) {
+                        LOG.info("Record number {}", human(row));
+                    }
+                    loadOneRow(); // Call subclass method to produce an entity from the current row.
+                }
+            } finally {
+                reader.close();
             }
             if (row == 0) {
                 feed.errors.add(new EmptyTableError(tableName));
@@ -337,6 +356,12 @@ public abstract class Entity implements Serializable {
             super(out);
         }
 
+        @Override
+        public void write (byte[] bytes, int offset, int length) throws IOException {
+            // FilterOutputStream would write one byte at a time.
+            out.write(bytes, offset, length);
+        }
+
         @Override
         public void close () {
             // no-op
@@ -390,13 +415,26 @@ public abstract class Entity implements Serializable {
         protected abstract Iterator<E> iterator();
 
         public void writeTable (ZipOutputStream zip) throws IOException {
-            LOG.info("Writing GTFS table {}", tableName);
-
             ZipEntry zipEntry = new ZipEntry(tableName + ".txt");
             zip.putNextEntry(zipEntry);
+            writeTable((OutputStream) zip);
+            zip.closeEntry();
+        }
+
+        /**
+         * Add this table to a zip file that is being written in parallel. The table is written on another thread, so
+         * this writer should not be used for anything else.
+         */
+        public void writeTable (ParallelZipWriter zip) {
+            zip.addEntry(tableName + ".txt", this::writeTable);
+        }
+
+        /** Write the table as CSV to the given stream, which is left open. */
+        public void writeTable (OutputStream out) throws IOException {
+            LOG.info("Writing GTFS table {}", tableName);
 
             // don't let CSVWriter close the stream when it is garbage-collected
-            OutputStream protectedOut = new UncloseableOutputStream(zip);
+            OutputStream protectedOut = new UncloseableOutputStream(out);
             this.writer = new CsvWriter(protectedOut, ',', Charset.forName("UTF8"));
 
             this.writeHeaders();
@@ -414,7 +452,6 @@ public abstract class Entity implements Serializable {
 
             // closing the writer closes the underlying output stream, so we don't do that.
             writer.flush();
-            zip.closeEntry();
 
             LOG.info("Wrote {} rows", human(row));
         }
@@ -1,12 +1,15 @@
 package com.conveyal.gtfs.model;
 
 import com.conveyal.gtfs.GTFSFeed;
+import com.conveyal.gtfs.util.SortedBatchWriter;
 
 import java.io.IOException;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.Iterator;
+import java.util.zip.ZipFile;
 
+import org.mapdb.Fun;
 import org.mapdb.Fun.Tuple2;
 
 public class ShapePoint extends Entity {
@@ -58,10 +61,22 @@ public class ShapePoint extends Entity {
 
     public static class Loader extends Entity.Loader<ShapePoint> {
 
+        // Inserts parsed shape points into the feed on a separate thread, so parsing and MapDB insertion overlap.
+        private SortedBatchWriter<Tuple2<String, Integer>, ShapePoint> writer;
+
         public Loader(GTFSFeed feed) {
             super(feed, "shapes");
         }
 
+        @Override
+        public void loadTable(ZipFile zip) throws IOException {
+            try (SortedBatchWriter<Tuple2<String, Integer>, ShapePoint> writer =
+                     new SortedBatchWriter<>(tableName, feed.shape_points, Fun.COMPARATOR, WRITE_BATCH_SIZE)) {
+                this.writer = writer;
+                super.loadTable(zip);
+            }
+        }
+
         @Override
         protected boolean isRequired() {
             return false;
@@ -78,7 +93,7 @@ public class ShapePoint extends Entity {
             ShapePoint s = new ShapePoint(shape_id, shape_pt_lat, shape_pt_lon, shape_pt_sequence, shape_dist_traveled);
             s.id = row + 1; // offset line number by 1 to account for 0-based row index
             s.feed = null; // since we're putting this into MapDB, we don't want circular serialization
-            feed.shape_points.put(new Tuple2<String, Integer>(s.shape_id, s.shape_pt_sequence), s);
+            writer.put(new Tuple2<String, Integer>(s.shape_id, s.shape_pt_sequence), s);
         }
     }
 
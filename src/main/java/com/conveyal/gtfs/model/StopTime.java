@@ -1,6 +1,7 @@
 package com.conveyal.gtfs.model;
 
 import com.conveyal.gtfs.GTFSFeed;
+import com.conveyal.gtfs.util.SortedBatchWriter;
 
 import org.mapdb.Fun;
 
@@ -10,6 +11,7 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.Iterator;
 import java.util.Objects;
+import java.util.zip.ZipFile;
 
 /**
  * Represents a GTFS StopTime. Note that once created and saved in a feed, stop times are by convention immutable
@@ -66,10 +68,22 @@ public class StopTime extends Entity implements Cloneable, Serializable {
 
     public static class Loader extends Entity.Loader<StopTime> {
 
+        // Inserts parsed stop times into the feed on a separate thread, so parsing and MapDB insertion overlap.
+        private SortedBatchWriter<Fun.Tuple2, StopTime> writer;
+
         public Loader(GTFSFeed feed) {
             super(feed, "stop_times");
         }
 
+        @Override
+        public void loadTable(ZipFile zip) throws IOException {
+            try (SortedBatchWriter<Fun.Tuple2, StopTime> writer =
+                     new SortedBatchWriter<>(tableName, feed.stop_times, Fun.COMPARATOR, WRITE_BATCH_SIZE)) {
+                this.writer = writer;
+                super.loadTable(zip);
+            }
+        }
+
         @Override
         protected boolean isRequired() {
             return true;
@@ -94,7 +108,7 @@ public class StopTime extends Entity implements Cloneable, Serializable {
             st.shape_dist_traveled = getDoubleField("shape_dist_traveled", false, 0D, Double.MAX_VALUE); // FIXME using both 0 and NaN for "missing", define DOUBLE_MISSING
             st.timepoint      = getIntField("timepoint", false, 0, 1, INT_MISSING);
             st.feed           = null; // this could circular-serialize the whole feed
-            feed.stop_times.put(new Fun.Tuple2(st.trip_id, st.stop_sequence), st);
+            writer.put(new Fun.Tuple2(st.trip_id, st.stop_sequence), st);
 
             /*
               Check referential integrity without storing references. StopTime cannot directly reference Trips or
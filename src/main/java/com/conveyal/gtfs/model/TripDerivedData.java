@@ -0,0 +1,76 @@
+package com.conveyal.gtfs.model;
+
+import com.conveyal.gtfs.GTFSFeed;
+import org.locationtech.jts.geom.LineString;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Values derived from a trip's stop times, shape and stops: its interpolated stop times, geometry, length and speed.
+ * Never saved in MapDB but computed on the fly by {@link GTFSFeed}, which can compute them for all trips at once and
+ * keep them in a cache, because they are expensive to recompute on every call.
+ */
+public class TripDerivedData {
+
+    public final String trip_id;
+
+    /** The shape of the trip if it has one with points, otherwise the straight line between its stops. */
+    public final LineString geometry;
+
+    /** Straight line between the stops of the trip, or null if the trip has fewer than two stop times. */
+    public final LineString straightLineGeometry;
+
+    /** Length of the geometry in meters, or NaN if there is no geometry. */
+    public final double distance;
+
+    /** Length of the straight line between stops in meters, or NaN if there is no straight line. */
+    public final double straightLineDistance;
+
+    /** Time from the departure at the first stop to the arrival at the last stop in seconds, or INT_MISSING. */
+    public final int travelTime;
+
+    // Stop times with interpolated arrival and departure times, or null if they cannot be interpolated.
+    private final StopTime[] interpolatedStopTimes;
+
+    public TripDerivedData (String trip_id, LineString geometry, LineString straightLineGeometry, double distance,
+                            double straightLineDistance, int travelTime, StopTime[] interpolatedStopTimes) {
+        this.trip_id = trip_id;
+        this.geometry = geometry;
+        this.straightLineGeometry = straightLineGeometry;
+        this.distance = distance;
+        this.straightLineDistance = straightLineDistance;
+        this.travelTime = travelTime;
+        this.interpolatedStopTimes = interpolatedStopTimes;
+    }
+
+    /** @return false if the first or last stop of the trip does not have times, so the others cannot be interpolated. */
+    public boolean hasInterpolatedStopTimes () {
+        return interpolatedStopTimes != null;
+    }
+
+    /**
+     * @return copies of the trip's stop times in order, with interpolated times, which the caller may modify, or null if
+     * they cannot be interpolated.
+     */
+    public List<StopTime> getInterpolatedStopTimes () {
+        if (interpolatedStopTimes == null) return null;
+        List<StopTime> stopTimes = new ArrayList<>(interpolatedStopTimes.length);
+        for (StopTime stopTime : interpolatedStopTimes) stopTimes.add(stopTime.clone());
+        return stopTimes;
+    }
+
+    /** @return the speed along the trip's geometry in meters per second (NaN if there are no stop times). */
+    public double getSpeed () {
+        return speed(distance);
+    }
+
+    /** @return the speed along the straight line between stops in meters per second. */
+    public double getStraightLineSpeed () {
+        return speed(straightLineDistance);
+    }
+
+    private double speed (double meters) {
+        return travelTime == Entity.INT_MISSING ? Double.NaN : meters / travelTime;
+    }
+}
@@ -0,0 +1,25 @@
+package com.conveyal.gtfs.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Remote storage for the files of a GTFS cache, such as the original GTFS zip files and their MapDB files. Keys are
+ * slash-separated paths. Implementations must be safe to use from several threads at once. Closing a blob store
+ * releases any threads or connections it holds, after which it must not be used.
+ */
+public interface BlobStore extends Closeable {
+
+    /** @return whether a file is stored under the given key. */
+    boolean exists (String key) throws IOException;
+
+    /**
+     * Copy the file stored under the given key to a local file, replacing it.
+     * @return false if there is no file stored under the key, in which case the local file is left unchanged
+     */
+    boolean download (String key, File destination) throws IOException;
+
+    /** Store a local file under the given key, replacing any file already stored under it. */
+    void upload (String key, File source) throws IOException;
+}
@@ -0,0 +1,51 @@
+package com.conveyal.gtfs.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Stores files in a directory on the local filesystem, for instance a shared network drive, or when testing offline.
+ */
+public class LocalBlobStore implements BlobStore {
+
+    public final File directory;
+
+    public LocalBlobStore (File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public void close () {
+        // Nothing is held open between calls.
+    }
+
+    @Override
+    public boolean exists (String key) {
+        return new File(directory, key).isFile();
+    }
+
+    @Override
+    public boolean download (String key, File destination) throws IOException {
+        File file = new File(directory, key);
+        if (!file.isFile()) return false;
+        Files.copy(file.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+
+    @Override
+    public void upload (String key, File source) throws IOException {
+        File file = new File(directory, key);
+        file.getParentFile().mkdirs();
+        // Copy to a temp file and move it into place, so a file is never seen partly written.
+        File temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        try {
+            Files.copy(source.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+    }
+}
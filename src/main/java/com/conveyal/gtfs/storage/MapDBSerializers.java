@@ -0,0 +1,360 @@
+package com.conveyal.gtfs.storage;
+
+import com.conveyal.gtfs.Geometries;
+import com.conveyal.gtfs.model.Pattern;
+import com.conveyal.gtfs.model.ShapePoint;
+import com.conveyal.gtfs.model.StopTime;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequence;
+import org.mapdb.BTreeKeySerializer;
+import org.mapdb.Fun;
+import org.mapdb.Fun.Tuple2;
+import org.mapdb.Serializer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+
+import static com.conveyal.gtfs.model.Entity.DOUBLE_MISSING;
+import static com.conveyal.gtfs.model.Entity.INT_MISSING;
+
+/**
+ * Compact MapDB serializers for the largest GTFSFeed maps. By default MapDB serializes these entities with its POJO
+ * serializer, which writes class and field metadata and fixed-width numbers, and patterns go through Java
+ * serialization. These serializers write only the field values, with integers as variable-length (zig-zag) varints,
+ * so small values like times of day, sequence numbers and pickup types take one to three bytes.
+ *
+ * The serializers are themselves stored in the MapDB catalog when a map is created, so they must stay Serializable and
+ * keep their class names. Changing the format of any of them requires incrementing GTFSFeed.DB_FORMAT_VERSION so that
+ * existing database files are detected and rebuilt.
+ */
+public class MapDBSerializers {
+
+    /** Keys of the form (trip or shape ID, sequence number), as used by stop_times and shape_points. */
+    public static final BTreeKeySerializer<Tuple2<String, Integer>> ID_SEQUENCE_KEYS = new IdSequenceKeySerializer();
+
+    public static final Serializer<StopTime> STOP_TIME = new StopTimeSerializer();
+
+    public static final Serializer<ShapePoint> SHAPE_POINT = new ShapePointSerializer();
+
+    public static final Serializer<Pattern> PATTERN = new PatternSerializer();
+
+    /**
+     * Serializes the keys of a B-tree node together. Keys in a node are sorted, so consecutive keys usually share their
+     * ID (e.g. all the stop times of a trip). The ID is written once per run as the length of the prefix it shares with
+     * the previous ID and the remaining suffix, and sequence numbers within a run are written as deltas.
+     */
+    private static class IdSequenceKeySerializer extends BTreeKeySerializer<Tuple2<String, Integer>> implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void serialize (DataOutput out, int start, int end, Object[] keys) throws IOException {
+            String previousId = null;
+            int previousSequence = 0;
+            for (int i = start; i < end; i++) {
+                @SuppressWarnings("unchecked")
+                Tuple2<String, Integer> key = (Tuple2<String, Integer>) keys[i];
+                if (key.a.equals(previousId)) {
+                    // Zero marks a key with the same ID as the previous one.
+                    writeVarInt(out, 0);
+                    writeSignedVarInt(out, key.b - previousSequence);
+                } else {
+                    int commonPrefix = previousId == null ? 0 : commonPrefixLength(previousId, key.a);
+                    writeVarInt(out, commonPrefix + 1);
+                    writeString(out, key.a.substring(commonPrefix));
+                    writeSignedVarInt(out, key.b);
+                    previousId = key.a;
+                }
+                previousSequence = key.b;
+            }
+        }
+
+        @Override
+        public Object[] deserialize (DataInput in, int start, int end, int size) throws IOException {
+            Object[] keys = new Object[size];
+            String previousId = null;
+            int previousSequence = 0;
+            for (int i = start; i < end; i++) {
+                int commonPrefix = readVarInt(in) - 1;
+                int sequence;
+                if (commonPrefix < 0) {
+                    sequence = previousSequence + readSignedVarInt(in);
+                } else {
+                    String suffix = readString(in);
+                    previousId = commonPrefix == 0 ? suffix : previousId.substring(0, commonPrefix) + suffix;
+                    sequence = readSignedVarInt(in);
+                }
+                keys[i] = new Tuple2<>(previousId, sequence);
+                previousSequence = sequence;
+            }
+            return keys;
+        }
+
+        /** Compare tuples naturally, which allows the null and Fun.HI bounds used in range queries. */
+        @Override
+        @SuppressWarnings("unchecked")
+        public Comparator<Tuple2<String, Integer>> getComparator () {
+            return Fun.COMPARATOR;
+        }
+
+        private static int commonPrefixLength (String a, String b) {
+            int maxLength = Math.min(a.length(), b.length());
+            int i = 0;
+            while (i < maxLength && a.charAt(i) == b.charAt(i)) i++;
+            // Do not split a surrogate pair.
+            if (i > 0 && Character.isHighSurrogate(a.charAt(i - 1))) i--;
+            return i;
+        }
+    }
+
+    private static class StopTimeSerializer implements Serializer<StopTime>, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void serialize (DataOutput out, StopTime stopTime) throws IOException {
+            writeSignedVarInt(out, stopTime.id);
+            writeString(out, stopTime.trip_id);
+            writeString(out, stopTime.stop_id);
+            writeSignedVarInt(out, stopTime.stop_sequence);
+            writeSignedVarInt(out, stopTime.arrival_time);
+            // Departure usually equals or closely follows arrival, so store the difference when both are present.
+            boolean bothTimes = stopTime.arrival_time != INT_MISSING && stopTime.departure_time != INT_MISSING;
+            out.writeBoolean(bothTimes);
+            writeSignedVarInt(out, bothTimes ? stopTime.departure_time - stopTime.arrival_time : stopTime.departure_time);
+            writeString(out, stopTime.stop_headsign);
+            writeSignedVarInt(out, stopTime.pickup_type);
+            writeSignedVarInt(out, stopTime.drop_off_type);
+            writeSignedVarInt(out, stopTime.continuous_pickup);
+            writeSignedVarInt(out, stopTime.continuous_drop_off);
+            writeSignedVarInt(out, stopTime.timepoint);
+            writeOptionalDouble(out, stopTime.shape_dist_traveled);
+        }
+
+        @Override
+        public StopTime deserialize (DataInput in, int available) throws IOException {
+            StopTime stopTime = new StopTime();
+            stopTime.id = readSignedVarInt(in);
+            stopTime.trip_id = readString(in);
+            stopTime.stop_id = readString(in);
+            stopTime.stop_sequence = readSignedVarInt(in);
+            stopTime.arrival_time = readSignedVarInt(in);
+            boolean bothTimes = in.readBoolean();
+            stopTime.departure_time = readSignedVarInt(in);
+            if (bothTimes) stopTime.departure_time += stopTime.arrival_time;
+            stopTime.stop_headsign = readString(in);
+            stopTime.pickup_type = readSignedVarInt(in);
+            stopTime.drop_off_type = readSignedVarInt(in);
+            stopTime.continuous_pickup = readSignedVarInt(in);
+            stopTime.continuous_drop_off = readSignedVarInt(in);
+            stopTime.timepoint = readSignedVarInt(in);
+            stopTime.shape_dist_traveled = readOptionalDouble(in);
+            return stopTime;
+        }
+
+        @Override
+        public int fixedSize () {
+            return -1;
+        }
+    }
+
+    private static class ShapePointSerializer implements Serializer<ShapePoint>, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void serialize (DataOutput out, ShapePoint point) throws IOException {
+            writeSignedVarInt(out, point.id);
+            writeString(out, point.shape_id);
+            writeSignedVarInt(out, point.shape_pt_sequence);
+            out.writeDouble(point.shape_pt_lat);
+            out.writeDouble(point.shape_pt_lon);
+            writeOptionalDouble(out, point.shape_dist_traveled);
+        }
+
+        @Override
+        public ShapePoint deserialize (DataInput in, int available) throws IOException {
+            ShapePoint point = new ShapePoint();
+            point.id = readSignedVarInt(in);
+            point.shape_id = readString(in);
+            point.shape_pt_sequence = readSignedVarInt(in);
+            point.shape_pt_lat = in.readDouble();
+            point.shape_pt_lon = in.readDouble();
+            point.shape_dist_traveled = readOptionalDouble(in);
+            return point;
+        }
+
+        @Override
+        public int fixedSize () {
+            return -1;
+        }
+    }
+
+    /**
+     * Writes the fields of a pattern directly, with its geometry as a count followed by packed x, y coordinates. Java
+     * serialization of JTS geometries writes an object per coordinate and is much larger and slower.
+     */
+    private static class PatternSerializer implements Serializer<Pattern>, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void serialize (DataOutput out, Pattern pattern) throws IOException {
+            writeSignedVarInt(out, pattern.id);
+            writeString(out, pattern.pattern_id);
+            writeString(out, pattern.name);
+            writeString(out, pattern.route_id);
+            writeSignedVarInt(out, pattern.direction_id);
+            writeSignedVarInt(out, pattern.use_frequency);
+            writeString(out, pattern.shape_id);
+            writeString(out, pattern.feed_id);
+            writeStrings(out, pattern.orderedStops);
+            writeStrings(out, pattern.associatedTrips);
+            writeStrings(out, pattern.associatedShapes);
+            if (pattern.segmentIndex == null) {
+                writeVarInt(out, 0);
+            } else {
+                writeVarInt(out, pattern.segmentIndex.length + 1);
+                for (int index : pattern.segmentIndex) writeSignedVarInt(out, index);
+            }
+            if (pattern.segmentFraction == null) {
+                writeVarInt(out, 0);
+            } else {
+                writeVarInt(out, pattern.segmentFraction.length + 1);
+                for (double fraction : pattern.segmentFraction) out.writeDouble(fraction);
+            }
+            if (pattern.geometry == null) {
+                writeVarInt(out, 0);
+            } else {
+                CoordinateSequence coordinates = pattern.geometry.getCoordinateSequence();
+                writeVarInt(out, coordinates.size() + 1);
+                for (int i = 0; i < coordinates.size(); i++) {
+                    out.writeDouble(coordinates.getX(i));
+                    out.writeDouble(coordinates.getY(i));
+                }
+            }
+        }
+
+        @Override
+        public Pattern deserialize (DataInput in, int available) throws IOException {
+            Pattern pattern = new Pattern();
+            pattern.id = readSignedVarInt(in);
+            pattern.pattern_id = readString(in);
+            pattern.name = readString(in);
+            pattern.route_id = readString(in);
+            pattern.direction_id = readSignedVarInt(in);
+            pattern.use_frequency = readSignedVarInt(in);
+            pattern.shape_id = readString(in);
+            pattern.feed_id = readString(in);
+            pattern.orderedStops = readStrings(in, new ArrayList<>());
+            pattern.associatedTrips = readStrings(in, new ArrayList<>());
+            pattern.associatedShapes = readStrings(in, new HashSet<>());
+            int nSegmentIndexes = readVarInt(in) - 1;
+            if (nSegmentIndexes >= 0) {
+                pattern.segmentIndex = new int[nSegmentIndexes];
+                for (int i = 0; i < nSegmentIndexes; i++) pattern.segmentIndex[i] = readSignedVarInt(in);
+            }
+            int nSegmentFractions = readVarInt(in) - 1;
+            if (nSegmentFractions >= 0) {
+                pattern.segmentFraction = new double[nSegmentFractions];
+                for (int i = 0; i < nSegmentFractions; i++) pattern.segmentFraction[i] = in.readDouble();
+            }
+            int nCoordinates = readVarInt(in) - 1;
+            if (nCoordinates >= 0) {
+                double[] packedCoordinates = new double[nCoordinates * 2];
+                for (int i = 0; i < packedCoordinates.length; i++) packedCoordinates[i] = in.readDouble();
+                pattern.geometry = Geometries.geometryFactory.createLineString(
+                    new PackedCoordinateSequence.Double(packedCoordinates, 2, 0));
+            }
+            return pattern;
+        }
+
+        @Override
+        public int fixedSize () {
+            return -1;
+        }
+    }
+
+    /** Write a non-negative int in seven-bit groups, low bits first, so that small values take a single byte. */
+    static void writeVarInt (DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt (DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+
+    /**
+     * Write an int that may be negative (including INT_MISSING) with zig-zag encoding, which maps small magnitudes of
+     * either sign to small unsigned values.
+     */
+    static void writeSignedVarInt (DataOutput out, int value) throws IOException {
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    static int readSignedVarInt (DataInput in) throws IOException {
+        int encoded = readVarInt(in);
+        return (encoded >>> 1) ^ -(encoded & 1);
+    }
+
+    /** Write a nullable string as its UTF-8 length plus one (zero for null), followed by the bytes. */
+    static void writeString (DataOutput out, String string) throws IOException {
+        if (string == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    static String readString (DataInput in) throws IOException {
+        int length = readVarInt(in) - 1;
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeOptionalDouble (DataOutput out, double value) throws IOException {
+        boolean present = value != DOUBLE_MISSING;
+        out.writeBoolean(present);
+        if (present) out.writeDouble(value);
+    }
+
+    private static double readOptionalDouble (DataInput in) throws IOException {
+        return in.readBoolean() ? in.readDouble() : DOUBLE_MISSING;
+    }
+
+    private static void writeStrings (DataOutput out, Collection<String> strings) throws IOException {
+        if (strings == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, strings.size() + 1);
+        for (String string : strings) writeString(out, string);
+    }
+
+    private static <C extends Collection<String>> C readStrings (DataInput in, C strings) throws IOException {
+        int size = readVarInt(in) - 1;
+        if (size < 0) return null;
+        for (int i = 0; i < size; i++) strings.add(readString(in));
+        return strings;
+    }
+}
@@ -0,0 +1,167 @@
+package com.conveyal.gtfs.storage;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Stores files in an S3 bucket. Large files are downloaded as several byte ranges at once and uploaded in parts at
+ * once, since a single stream from S3 is much slower than the network can carry.
+ */
+public class S3BlobStore implements BlobStore {
+    private static final Logger LOG = LoggerFactory.getLogger(S3BlobStore.class);
+
+    // The size of the byte ranges downloaded and parts uploaded at once. Smaller files are transferred in one request.
+    private static final long PART_SIZE = 16 * 1024 * 1024;
+    private static final int TRANSFER_THREADS = 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public final String bucket;
+
+    private final AmazonS3 s3;
+    // Whether the client was created by this blob store, and so should be shut down when it is closed.
+    private final boolean ownsClient;
+    private final TransferManager transferManager;
+    private final ExecutorService downloadExecutor;
+
+    public S3BlobStore (String bucket) {
+        this(bucket, new AmazonS3Client(), true);
+    }
+
+    /** Use the given client, which is left open when this blob store is closed. */
+    public S3BlobStore (String bucket, AmazonS3 s3) {
+        this(bucket, s3, false);
+    }
+
+    private S3BlobStore (String bucket, AmazonS3 s3, boolean ownsClient) {
+        this.bucket = bucket;
+        this.s3 = s3;
+        this.ownsClient = ownsClient;
+        this.transferManager = new TransferManager(s3, Executors.newFixedThreadPool(TRANSFER_THREADS,
+            runnable -> daemon(runnable, "s3-uploader")));
+        TransferManagerConfiguration configuration = new TransferManagerConfiguration();
+        configuration.setMultipartUploadThreshold(PART_SIZE);
+        configuration.setMinimumUploadPartSize(PART_SIZE);
+        transferManager.setConfiguration(configuration);
+        this.downloadExecutor = Executors.newFixedThreadPool(TRANSFER_THREADS,
+            runnable -> daemon(runnable, "s3-downloader"));
+    }
+
+    private static Thread daemon (Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /** Stop the upload and download threads, cancelling any transfers in progress. */
+    @Override
+    public void close () {
+        downloadExecutor.shutdownNow();
+        transferManager.shutdownNow(ownsClient);
+    }
+
+    @Override
+    public boolean exists (String key) throws IOException {
+        try {
+            return s3.doesObjectExist(bucket, key);
+        } catch (AmazonClientException e) {
+            throw new IOException("Could not check for s3://" + bucket + "/" + key, e);
+        }
+    }
+
+    @Override
+    public boolean download (String key, File destination) throws IOException {
+        ObjectMetadata metadata;
+        try {
+            metadata = s3.getObjectMetadata(bucket, key);
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404) return false;
+            throw new IOException("Could not download s3://" + bucket + "/" + key, e);
+        }
+        long size = metadata.getContentLength();
+        long startTime = System.currentTimeMillis();
+        try (RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+            file.setLength(size);
+        }
+        List<Future<?>> ranges = new ArrayList<>();
+        for (long start = 0; start < size; start += PART_SIZE) {
+            long first = start;
+            long last = Math.min(start + PART_SIZE, size) - 1;
+            // Every range must come from the same version of the object, in case it is replaced while downloading.
+            ranges.add(downloadExecutor.submit(() -> downloadRange(key, metadata.getETag(), first, last, destination)));
+        }
+        try {
+            for (Future<?> range : ranges) range.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while downloading s3://" + bucket + "/" + key);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not download s3://" + bucket + "/" + key, e.getCause());
+        } finally {
+            for (Future<?> range : ranges) range.cancel(true);
+        }
+        LOG.info("Downloaded {} bytes from s3://{}/{} in {} ranges in {} ms", size, bucket, key, ranges.size(),
+            System.currentTimeMillis() - startTime);
+        return true;
+    }
+
+    private Void downloadRange (String key, String eTag, long first, long last, File destination) throws IOException {
+        GetObjectRequest request = new GetObjectRequest(bucket, key).withRange(first, last)
+            .withMatchingETagConstraint(eTag);
+        S3Object object = s3.getObject(request);
+        if (object == null) throw new IOException("s3://" + bucket + "/" + key + " changed while downloading");
+        long position = first;
+        try (InputStream in = object.getObjectContent();
+             FileChannel channel = FileChannel.open(destination.toPath(), StandardOpenOption.WRITE)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+                while (bytes.hasRemaining()) position += channel.write(bytes, position);
+            }
+        }
+        if (position != last + 1) {
+            throw new IOException(String.format("Expected bytes %d to %d of s3://%s/%s but received up to %d",
+                first, last, bucket, key, position - 1));
+        }
+        return null;
+    }
+
+    @Override
+    public void upload (String key, File source) throws IOException {
+        long startTime = System.currentTimeMillis();
+        try {
+            transferManager.upload(bucket, key, source).waitForCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while uploading s3://" + bucket + "/" + key);
+        } catch (AmazonClientException e) {
+            throw new IOException("Could not upload s3://" + bucket + "/" + key, e);
+        }
+        LOG.info("Uploaded {} bytes to s3://{}/{} in {} ms", source.length(), bucket, key,
+            System.currentTimeMillis() - startTime);
+    }
+}
@@ -1,25 +1,218 @@
 package com.conveyal.gtfs.util;
 
-import com.google.common.collect.Maps;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Does the same thing as String.intern, but for several different types.
  * Java's String.intern uses perm gen space and is broken anyway.
+ *
+ * A deduplicator is meant to be scoped to one job, such as loading a feed, and then dropped or reset so its canonical
+ * objects can be garbage collected. By default it keeps every distinct object it sees. For long or unpredictable jobs,
+ * a bounded deduplicator keeps only the most recently used objects of each type, and a weak one keeps objects only
+ * while something else still refers to them. All kinds are safe to share between threads.
  */
 public class Deduplicator implements Serializable {
     private static final long serialVersionUID = 20140524L;
 
-    private final Map<IntArray, IntArray> canonicalIntArrays = Maps.newHashMap();
-    private final Map<String, String> canonicalStrings = Maps.newHashMap();
-    private final Map<BitSet, BitSet> canonicalBitSets = Maps.newHashMap();
-    private final Map<StringArray, StringArray> canonicalStringArrays = Maps.newHashMap();
+    // Approximate sizes in bytes of object headers and references, used to estimate the memory saved.
+    private static final int OBJECT_HEADER_BYTES = 16;
+    private static final int STRING_BYTES = 24;
+    private static final int REFERENCE_BYTES = 4;
 
-    /** Free up any memory used by the deduplicator. */
+    /** How many canonical objects of each type a deduplicator keeps. */
+    public enum Retention {
+        /** Keep every distinct object until reset. */
+        UNBOUNDED,
+        /** Keep up to a fixed number of distinct objects of each type, evicting the least recently used. */
+        BOUNDED,
+        /** Keep objects only while they are strongly reachable from elsewhere. */
+        WEAK
+    }
+
+    /** A set of canonical objects: returns an equal object that was seen before, or the object itself. */
+    private interface CanonicalTable<T> extends Serializable {
+        T canonical (T object);
+        /** @return an equal canonical object without adding the given one, or null if none is known. */
+        T get (T object);
+        long size ();
+        void clear ();
+    }
+
+    private static class UnboundedTable<T> implements CanonicalTable<T> {
+        private static final long serialVersionUID = 1L;
+        private final Map<T, T> map = new ConcurrentHashMap<>();
+        public T canonical (T object) {
+            T canonical = map.putIfAbsent(object, object);
+            return canonical == null ? object : canonical;
+        }
+        public T get (T object) {
+            return map.get(object);
+        }
+        public long size () {
+            return map.size();
+        }
+        public void clear () {
+            map.clear();
+        }
+    }
+
+    /** Guava caches are not serializable, so the cached objects are written out and put in a new cache when read. */
+    private static class BoundedTable<T> implements CanonicalTable<T> {
+        private static final long serialVersionUID = 1L;
+        private final long maxSize;
+        private transient Cache<T, T> cache;
+        BoundedTable (long maxSize) {
+            this.maxSize = maxSize;
+            cache = CacheBuilder.newBuilder().maximumSize(maxSize).build();
+        }
+        public T canonical (T object) {
+            T canonical = cache.asMap().putIfAbsent(object, object);
+            return canonical == null ? object : canonical;
+        }
+        public T get (T object) {
+            return cache.getIfPresent(object);
+        }
+        public long size () {
+            return cache.size();
+        }
+        public void clear () {
+            cache.invalidateAll();
+        }
+        private void writeObject (ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            out.writeObject(new ArrayList<>(cache.asMap().keySet()));
+        }
+        @SuppressWarnings("unchecked")
+        private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            cache = CacheBuilder.newBuilder().maximumSize(maxSize).build();
+            for (T object : (ArrayList<T>) in.readObject()) cache.put(object, object);
+        }
+    }
+
+    /**
+     * Interners are not serializable, and weakly held objects should not be kept alive by serializing them, so a weak
+     * table is read back empty.
+     */
+    private static class WeakTable<T> implements CanonicalTable<T> {
+        private static final long serialVersionUID = 1L;
+        // Interners cannot be cleared, so clearing replaces the interner.
+        private transient volatile Interner<T> interner = Interners.newWeakInterner();
+        private final LongAdder count = new LongAdder();
+        public T canonical (T object) {
+            T canonical = interner.intern(object);
+            if (canonical == object) count.increment();
+            return canonical;
+        }
+        /** An interner cannot be queried without adding to it, so this always finds nothing. */
+        public T get (T object) {
+            return null;
+        }
+        /** The number of objects interned, some of which may since have been garbage collected. */
+        public long size () {
+            return count.sum();
+        }
+        public void clear () {
+            interner = Interners.newWeakInterner();
+            count.reset();
+        }
+        private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            interner = Interners.newWeakInterner();
+            count.reset();
+        }
+    }
+
+    /** Counts of lookups and the memory they saved, to help choose how deduplication is configured. */
+    public static class Stats implements Serializable {
+        private static final long serialVersionUID = 1L;
+        /** The number of objects looked up. */
+        public final long lookups;
+        /** The number of objects for which an equal canonical object was found. */
+        public final long hits;
+        /** An estimate of the number of bytes of duplicate objects that could be garbage collected. */
+        public final long bytesSaved;
+        /** The number of canonical objects currently held (for weak deduplicators, an upper bound). */
+        public final long canonicalObjects;
+
+        Stats (long lookups, long hits, long bytesSaved, long canonicalObjects) {
+            this.lookups = lookups;
+            this.hits = hits;
+            this.bytesSaved = bytesSaved;
+            this.canonicalObjects = canonicalObjects;
+        }
+
+        public double getHitRate () {
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString () {
+            return String.format("%d lookups, %.1f%% hits, about %s bytes saved, %d canonical objects",
+                lookups, 100 * getHitRate(), Util.human((int) Math.min(bytesSaved, Integer.MAX_VALUE)), canonicalObjects);
+        }
+    }
+
+    public final Retention retention;
+
+    private final CanonicalTable<IntArray> canonicalIntArrays;
+    private final CanonicalTable<String> canonicalStrings;
+    private final CanonicalTable<BitSet> canonicalBitSets;
+    private final CanonicalTable<StringArray> canonicalStringArrays;
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+
+    /** Create a deduplicator that keeps every distinct object until it is reset. */
+    public Deduplicator() {
+        this(Retention.UNBOUNDED, 0);
+    }
+
+    /**
+     * @param maxSize for BOUNDED retention, the maximum number of canonical objects of each type. Ignored otherwise.
+     */
+    public Deduplicator(Retention retention, long maxSize) {
+        this.retention = retention;
+        canonicalIntArrays = newTable(retention, maxSize);
+        canonicalStrings = newTable(retention, maxSize);
+        canonicalBitSets = newTable(retention, maxSize);
+        canonicalStringArrays = newTable(retention, maxSize);
+    }
+
+    /** Create a deduplicator that keeps up to maxSize of the most recently used objects of each type. */
+    public static Deduplicator bounded(long maxSize) {
+        return new Deduplicator(Retention.BOUNDED, maxSize);
+    }
+
+    /** Create a deduplicator that only keeps objects while they are in use elsewhere. */
+    public static Deduplicator weak() {
+        return new Deduplicator(Retention.WEAK, 0);
+    }
+
+    private static <T> CanonicalTable<T> newTable(Retention retention, long maxSize) {
+        switch (retention) {
+            case BOUNDED: return new BoundedTable<>(maxSize);
+            case WEAK: return new WeakTable<>();
+            default: return new UnboundedTable<>();
+        }
+    }
+
+    /** Free up any memory used by the deduplicator. The statistics are kept. */
     public void reset() {
         canonicalIntArrays.clear();
         canonicalStrings.clear();
@@ -27,50 +220,57 @@ public class Deduplicator implements Serializable {
         canonicalStringArrays.clear();
     }
 
+    public Stats getStats() {
+        long canonicalObjects = canonicalIntArrays.size() + canonicalStrings.size() + canonicalBitSets.size()
+            + canonicalStringArrays.size();
+        return new Stats(lookups.sum(), hits.sum(), bytesSaved.sum(), canonicalObjects);
+    }
+
+    /** Record a lookup, which saved the given number of bytes if an existing canonical object was found. */
+    private <T> T record(T original, T canonical, long bytes) {
+        lookups.increment();
+        if (canonical != original) {
+            hits.increment();
+            bytesSaved.add(bytes);
+        }
+        return canonical;
+    }
+
     /** Used to deduplicate time and stop sequence arrays. The same times may occur in many trips. */
     public int[] deduplicateIntArray(int[] original) {
         if (original == null) return null;
         IntArray intArray = new IntArray(original);
-        IntArray canonical = canonicalIntArrays.get(intArray);
-        if (canonical == null) {
-            canonical = intArray;
-            canonicalIntArrays.put(canonical, canonical);
-        }
-        return canonical.array;
+        int[] canonical = canonicalIntArrays.canonical(intArray).array;
+        return record(original, canonical, OBJECT_HEADER_BYTES + 4L * original.length);
     }
 
     public String deduplicateString(String original) {
         if (original == null) return null;
-        String canonical = canonicalStrings.get(original);
-        if (canonical == null) {
-            canonical = new String(original.toCharArray()); // Trim String if necessary (older JDKs)
-            canonicalStrings.put(canonical, canonical);
-        }
-        return canonical;
+        String canonical = canonicalStrings.canonical(original);
+        return record(original, canonical, STRING_BYTES + OBJECT_HEADER_BYTES + 2L * original.length());
     }
 
     public BitSet deduplicateBitSet(BitSet original) {
         if (original == null) return null;
-        BitSet canonical = canonicalBitSets.get(original);
-        if (canonical == null) {
-            canonical = original;
-            canonicalBitSets.put(canonical, canonical);
-        }
-        return canonical;
+        BitSet canonical = canonicalBitSets.canonical(original);
+        return record(original, canonical, 2 * OBJECT_HEADER_BYTES + original.size() / 8);
     }
 
     public String[] deduplicateStringArray(String[] original) {
         if (original == null) return null;
-        StringArray canonical = canonicalStringArrays.get(new StringArray(original, false));
-        if (canonical == null) {
-            canonical = new StringArray(original, true);
-            canonicalStringArrays.put(canonical, canonical);
-        }
-        return canonical.array;
+        long bytes = OBJECT_HEADER_BYTES + (long) REFERENCE_BYTES * original.length;
+        // Look the array up as it is, only copying it and deduplicating its strings if it has not been seen before.
+        StringArray existing = canonicalStringArrays.get(new StringArray(original, false));
+        if (existing != null) return record(original, existing.array, bytes);
+        StringArray copy = new StringArray(original, true);
+        String[] canonical = canonicalStringArrays.canonical(copy).array;
+        // The copy is discarded if another thread added an equal array in the meantime, so this counts as a hit.
+        record(copy.array, canonical, bytes);
+        return canonical;
     }
 
     /** A wrapper for a primitive int array. This is insane but necessary in Java. */
-    private class IntArray implements Serializable {
+    private static class IntArray implements Serializable {
         private static final long serialVersionUID = 20140524L;
         final int[] array;
         IntArray(int[] array) {
@@ -0,0 +1,488 @@
+package com.conveyal.gtfs.util;
+
+import com.conveyal.gtfs.GTFSFeed;
+import com.conveyal.gtfs.model.ShapePoint;
+import com.conveyal.gtfs.model.Stop;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.set.hash.TIntHashSet;
+import org.mapdb.Fun;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.IntConsumer;
+
+import static com.conveyal.gtfs.util.Util.METERS_PER_DEGREE_LATITUDE;
+
+/**
+ * An index of the stops and shape segments of a feed, for nearest-neighbor and radius queries such as snapping points
+ * to shapes or finding stops to transfer between. Each stop or segment is placed in the cells of a grid, roughly 500
+ * meters on a side, that it touches. Only the cells that contain something are stored, in primitive arrays sorted by
+ * cell, so a query is a few binary searches. Because the index is just arrays, it can be written to bytes and stored
+ * in the feed's MapDB file (see {@link GTFSFeed#getFeedSpatialIndex()}) rather than rebuilt whenever a feed is opened.
+ *
+ * Coordinates are always given as latitude then longitude in degrees, and distances are in meters, using the same
+ * equirectangular approximation as {@link Util#fastDistance}.
+ */
+public class FeedSpatialIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FeedSpatialIndex.class);
+
+    /** Increment this whenever the serialized layout changes, so that indexes stored by earlier versions are rebuilt. */
+    private static final int FORMAT_VERSION = 1;
+
+    // Height of a grid cell in degrees of latitude. Cells are scaled to be about as wide as they are tall.
+    private static final double CELL_SIZE_DEGREES = 0.005;
+
+    /** A stop or shape segment found by a query, with the point on it nearest to the query point. */
+    public static class Neighbor {
+        /** The stop_id of a stop, or the shape_id of a shape segment. */
+        public final String id;
+        /** The shape_pt_sequence of the first point of a shape segment, or -1 for a stop. */
+        public final int sequence;
+        public final double lat;
+        public final double lon;
+        /** Distance from the query point in meters. */
+        public final double distance;
+
+        public Neighbor (String id, int sequence, double lat, double lon, double distance) {
+            this.id = id;
+            this.sequence = sequence;
+            this.lat = lat;
+            this.lon = lon;
+            this.distance = distance;
+        }
+    }
+
+    /** The items in each non-empty cell of the grid. */
+    private static class Grid {
+        // Sorted keys of the non-empty cells.
+        final long[] cells;
+        // The items in cell i are items[starts[i]] until items[starts[i + 1]].
+        final int[] starts;
+        final int[] items;
+        final int minX, maxX, minY, maxY;
+
+        Grid (long[] cells, int[] starts, int[] items) {
+            this.cells = cells;
+            this.starts = starts;
+            this.items = items;
+            int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+            for (long cell : cells) {
+                minX = Math.min(minX, cellX(cell));
+                maxX = Math.max(maxX, cellX(cell));
+                minY = Math.min(minY, cellY(cell));
+                maxY = Math.max(maxY, cellY(cell));
+            }
+            this.minX = minX;
+            this.maxX = maxX;
+            this.minY = minY;
+            this.maxY = maxY;
+        }
+
+        /** Group items by cell, given the cell key of each (cell, item) pair. */
+        static Grid build (TLongArrayList pairCells, TIntArrayList pairItems) {
+            long[] sortedCells = pairCells.toArray();
+            Arrays.sort(sortedCells);
+            int cellCount = 0;
+            for (int i = 0; i < sortedCells.length; i++) {
+                if (i == 0 || sortedCells[i] != sortedCells[i - 1]) sortedCells[cellCount++] = sortedCells[i];
+            }
+            long[] cells = Arrays.copyOf(sortedCells, cellCount);
+            int[] starts = new int[cellCount + 1];
+            for (int i = 0; i < pairCells.size(); i++) {
+                starts[Arrays.binarySearch(cells, pairCells.get(i)) + 1]++;
+            }
+            for (int c = 0; c < cellCount; c++) starts[c + 1] += starts[c];
+            int[] next = Arrays.copyOf(starts, cellCount);
+            int[] items = new int[pairItems.size()];
+            for (int i = 0; i < pairCells.size(); i++) {
+                items[next[Arrays.binarySearch(cells, pairCells.get(i))]++] = pairItems.get(i);
+            }
+            return new Grid(cells, starts, items);
+        }
+
+        /** Call the consumer with every item in the cells in column x from row y0 to row y1, inclusive. */
+        void scan (int x, int y0, int y1, IntConsumer consumer) {
+            if (x < minX || x > maxX) return;
+            y0 = Math.max(y0, minY);
+            y1 = Math.min(y1, maxY);
+            if (y0 > y1) return;
+            long lastCell = cellKey(x, y1);
+            int c = Arrays.binarySearch(cells, cellKey(x, y0));
+            if (c < 0) c = -c - 1;
+            for (; c < cells.length && cells[c] <= lastCell; c++) {
+                for (int i = starts[c]; i < starts[c + 1]; i++) consumer.accept(items[i]);
+            }
+        }
+    }
+
+    /** Computes the distance from a query point to an item, and the point on the item nearest the query point. */
+    private interface Measure {
+        Neighbor measure (int item, double lat, double lon);
+    }
+
+    /** The checksum of the feed this index was built from, to detect that a stored index is out of date. */
+    public final long feedChecksum;
+
+    // Longitudes are multiplied by this (the cosine of the latitude of the center of the feed) to make cells square.
+    private final double lonScale;
+    // The greatest absolute latitude of anything in the index, where cells are narrowest.
+    private final double maxAbsLat;
+
+    private final String[] stopIds;
+    private final double[] stopLats;
+    private final double[] stopLons;
+
+    private final String[] shapeIds;
+    // For each segment, the index of its shape in shapeIds and the shape_pt_sequence of its first point.
+    private final int[] segmentShapes;
+    private final int[] segmentSequences;
+    // For each segment, the latitude and longitude of its first point, then those of its second point.
+    private final double[] segmentCoordinates;
+
+    private final Grid stopGrid;
+    private final Grid segmentGrid;
+
+    // Whether this index was deserialized by fromBytes rather than built from a feed.
+    private boolean loadedFromBytes = false;
+
+    private FeedSpatialIndex (long feedChecksum, double lonScale, double maxAbsLat, String[] stopIds, double[] stopLats,
+                              double[] stopLons, String[] shapeIds, int[] segmentShapes, int[] segmentSequences,
+                              double[] segmentCoordinates, Grid stopGrid, Grid segmentGrid) {
+        this.feedChecksum = feedChecksum;
+        this.lonScale = lonScale;
+        this.maxAbsLat = maxAbsLat;
+        this.stopIds = stopIds;
+        this.stopLats = stopLats;
+        this.stopLons = stopLons;
+        this.shapeIds = shapeIds;
+        this.segmentShapes = segmentShapes;
+        this.segmentSequences = segmentSequences;
+        this.segmentCoordinates = segmentCoordinates;
+        this.stopGrid = stopGrid;
+        this.segmentGrid = segmentGrid;
+    }
+
+    /** Index the stops (other than those without coordinates) and the segments between shape points of a feed. */
+    public static FeedSpatialIndex build (GTFSFeed feed) {
+        long startTime = System.currentTimeMillis();
+        List<String> stopIds = new ArrayList<>();
+        TDoubleArrayList stopLats = new TDoubleArrayList();
+        TDoubleArrayList stopLons = new TDoubleArrayList();
+        for (Stop stop : feed.stops.values()) {
+            if (Double.isNaN(stop.stop_lat) || Double.isNaN(stop.stop_lon)) continue;
+            stopIds.add(stop.stop_id);
+            stopLats.add(stop.stop_lat);
+            stopLons.add(stop.stop_lon);
+        }
+
+        // Shape points are iterated in order of shape_id then shape_pt_sequence, so consecutive points of the same
+        // shape are the ends of a segment.
+        List<String> shapeIds = new ArrayList<>();
+        TIntArrayList segmentShapes = new TIntArrayList();
+        TIntArrayList segmentSequences = new TIntArrayList();
+        TDoubleArrayList segmentCoordinates = new TDoubleArrayList();
+        ShapePoint previous = null;
+        for (Map.Entry<Fun.Tuple2<String, Integer>, ShapePoint> entry : feed.shape_points.entrySet()) {
+            ShapePoint point = entry.getValue();
+            String shapeId = entry.getKey().a;
+            boolean sameShape = !shapeIds.isEmpty() && shapeIds.get(shapeIds.size() - 1).equals(shapeId);
+            if (!sameShape) shapeIds.add(shapeId);
+            else if (previous != null) {
+                segmentShapes.add(shapeIds.size() - 1);
+                segmentSequences.add(previous.shape_pt_sequence);
+                segmentCoordinates.add(new double[] {
+                    previous.shape_pt_lat, previous.shape_pt_lon, point.shape_pt_lat, point.shape_pt_lon
+                });
+            }
+            previous = point;
+        }
+
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < stopLats.size(); i++) {
+            minLat = Math.min(minLat, stopLats.get(i));
+            maxLat = Math.max(maxLat, stopLats.get(i));
+        }
+        for (int i = 0; i < segmentCoordinates.size(); i += 2) {
+            minLat = Math.min(minLat, segmentCoordinates.get(i));
+            maxLat = Math.max(maxLat, segmentCoordinates.get(i));
+        }
+        boolean empty = minLat > maxLat;
+        double lonScale = empty ? 1 : Math.cos(Math.toRadians((minLat + maxLat) / 2));
+        double maxAbsLat = empty ? 0 : Math.max(Math.abs(minLat), Math.abs(maxLat));
+
+        TLongArrayList pairCells = new TLongArrayList();
+        TIntArrayList pairItems = new TIntArrayList();
+        for (int s = 0; s < stopIds.size(); s++) {
+            pairCells.add(cellKey(cellX(stopLons.get(s), lonScale), cellY(stopLats.get(s))));
+            pairItems.add(s);
+        }
+        Grid stopGrid = Grid.build(pairCells, pairItems);
+
+        // A segment is placed in every cell its bounding box touches, which includes the cell containing whichever of
+        // its points is nearest to any query point.
+        pairCells.resetQuick();
+        pairItems.resetQuick();
+        for (int s = 0; s < segmentShapes.size(); s++) {
+            double lat0 = segmentCoordinates.get(4 * s), lon0 = segmentCoordinates.get(4 * s + 1);
+            double lat1 = segmentCoordinates.get(4 * s + 2), lon1 = segmentCoordinates.get(4 * s + 3);
+            int x0 = cellX(Math.min(lon0, lon1), lonScale), x1 = cellX(Math.max(lon0, lon1), lonScale);
+            int y0 = cellY(Math.min(lat0, lat1)), y1 = cellY(Math.max(lat0, lat1));
+            for (int x = x0; x <= x1; x++) {
+                for (int y = y0; y <= y1; y++) {
+                    pairCells.add(cellKey(x, y));
+                    pairItems.add(s);
+                }
+            }
+        }
+        Grid segmentGrid = Grid.build(pairCells, pairItems);
+
+        FeedSpatialIndex index = new FeedSpatialIndex(feed.checksum, lonScale, maxAbsLat,
+            stopIds.toArray(new String[0]), stopLats.toArray(), stopLons.toArray(), shapeIds.toArray(new String[0]),
+            segmentShapes.toArray(), segmentSequences.toArray(), segmentCoordinates.toArray(), stopGrid, segmentGrid);
+        LOG.info("Indexed {} stops and {} shape segments in {} ms.", stopIds.size(), segmentShapes.size(),
+            System.currentTimeMillis() - startTime);
+        return index;
+    }
+
+    /** @return up to k stops nearest to the given point, nearest first. */
+    public List<Neighbor> nearestStops (double lat, double lon, int k) {
+        return nearest(stopGrid, lat, lon, k, this::measureStop);
+    }
+
+    /** @return all stops within the given distance in meters of the given point, nearest first. */
+    public List<Neighbor> stopsWithin (double lat, double lon, double radius) {
+        return within(stopGrid, lat, lon, radius, this::measureStop);
+    }
+
+    /** @return up to k shape segments nearest to the given point, nearest first, with the nearest point on each. */
+    public List<Neighbor> nearestShapeSegments (double lat, double lon, int k) {
+        return nearest(segmentGrid, lat, lon, k, this::measureSegment);
+    }
+
+    /** @return all shape segments within the given distance in meters of the given point, nearest first. */
+    public List<Neighbor> shapeSegmentsWithin (double lat, double lon, double radius) {
+        return within(segmentGrid, lat, lon, radius, this::measureSegment);
+    }
+
+    public int getStopCount () {
+        return stopIds.length;
+    }
+
+    /** @return true if this index was read back from its serialized form rather than built from a feed. */
+    public boolean isLoadedFromBytes () {
+        return loadedFromBytes;
+    }
+
+    public int getShapeSegmentCount () {
+        return segmentShapes.length;
+    }
+
+    private Neighbor measureStop (int stop, double lat, double lon) {
+        return new Neighbor(stopIds[stop], -1, stopLats[stop], stopLons[stop],
+            Util.fastDistance(lat, lon, stopLats[stop], stopLons[stop]));
+    }
+
+    /** Find the nearest point on a segment in a plane tangent to the earth at the query point. */
+    private Neighbor measureSegment (int segment, double lat, double lon) {
+        double metersPerDegreeLon = Math.cos(Math.toRadians(lat)) * METERS_PER_DEGREE_LATITUDE;
+        double ax = (segmentCoordinates[4 * segment + 1] - lon) * metersPerDegreeLon;
+        double ay = (segmentCoordinates[4 * segment] - lat) * METERS_PER_DEGREE_LATITUDE;
+        double bx = (segmentCoordinates[4 * segment + 3] - lon) * metersPerDegreeLon;
+        double by = (segmentCoordinates[4 * segment + 2] - lat) * METERS_PER_DEGREE_LATITUDE;
+        double dx = bx - ax, dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, -(ax * dx + ay * dy) / lengthSquared));
+        double px = ax + t * dx, py = ay + t * dy;
+        return new Neighbor(shapeIds[segmentShapes[segment]], segmentSequences[segment],
+            lat + py / METERS_PER_DEGREE_LATITUDE, lon + px / metersPerDegreeLon, Math.sqrt(px * px + py * py));
+    }
+
+    /**
+     * Visit cells in rings of increasing size around the cell containing the query point, until k items have been found
+     * and no unvisited cell can contain anything nearer than the kth.
+     */
+    private List<Neighbor> nearest (Grid grid, double lat, double lon, int k, Measure measure) {
+        if (k <= 0 || grid.cells.length == 0) return Collections.emptyList();
+        PriorityQueue<Neighbor> farthestFirst = new PriorityQueue<>(
+            Comparator.comparingDouble((Neighbor neighbor) -> neighbor.distance).reversed());
+        TIntHashSet seen = new TIntHashSet();
+        IntConsumer visit = item -> {
+            if (!seen.add(item)) return;
+            Neighbor neighbor = measure.measure(item, lat, lon);
+            if (farthestFirst.size() < k) farthestFirst.add(neighbor);
+            else if (neighbor.distance < farthestFirst.peek().distance) {
+                farthestFirst.poll();
+                farthestFirst.add(neighbor);
+            }
+        };
+        int qx = cellX(lon, lonScale), qy = cellY(lat);
+        // Rings nearer than this do not overlap any non-empty cell.
+        int firstRing = Math.max(0, Math.max(
+            Math.max(grid.minX - qx, qx - grid.maxX),
+            Math.max(grid.minY - qy, qy - grid.maxY)));
+        double cellMeters = minCellMeters(lat);
+        for (int r = firstRing; ; r++) {
+            grid.scan(qx - r, qy - r, qy + r, visit);
+            if (r > 0) {
+                grid.scan(qx + r, qy - r, qy + r, visit);
+                for (int x = Math.max(qx - r + 1, grid.minX); x < qx + r && x <= grid.maxX; x++) {
+                    grid.scan(x, qy - r, qy - r, visit);
+                    grid.scan(x, qy + r, qy + r, visit);
+                }
+            }
+            // Every cell outside ring r is at least r cell widths from the query point.
+            if (farthestFirst.size() == k && farthestFirst.peek().distance <= r * cellMeters) break;
+            if (qx - r <= grid.minX && qx + r >= grid.maxX && qy - r <= grid.minY && qy + r >= grid.maxY) break;
+        }
+        List<Neighbor> neighbors = new ArrayList<>(farthestFirst);
+        neighbors.sort(Comparator.comparingDouble(neighbor -> neighbor.distance));
+        return neighbors;
+    }
+
+    private List<Neighbor> within (Grid grid, double lat, double lon, double radius, Measure measure) {
+        List<Neighbor> neighbors = new ArrayList<>();
+        if (grid.cells.length == 0) return neighbors;
+        double dLat = radius / METERS_PER_DEGREE_LATITUDE;
+        double dLon = radius / (METERS_PER_DEGREE_LATITUDE * Math.cos(Math.toRadians(Math.min(89, Math.abs(lat) + dLat))));
+        TIntHashSet seen = new TIntHashSet();
+        IntConsumer visit = item -> {
+            if (!seen.add(item)) return;
+            Neighbor neighbor = measure.measure(item, lat, lon);
+            if (neighbor.distance <= radius) neighbors.add(neighbor);
+        };
+        int y0 = cellY(lat - dLat), y1 = cellY(lat + dLat);
+        int x1 = Math.min(cellX(lon + dLon, lonScale), grid.maxX);
+        for (int x = Math.max(cellX(lon - dLon, lonScale), grid.minX); x <= x1; x++) grid.scan(x, y0, y1, visit);
+        neighbors.sort(Comparator.comparingDouble(neighbor -> neighbor.distance));
+        return neighbors;
+    }
+
+    /** @return a lower bound on the width or height of a cell in meters, near the given latitude. */
+    private double minCellMeters (double lat) {
+        double cos = Math.cos(Math.toRadians(Math.max(Math.abs(lat), maxAbsLat)));
+        return CELL_SIZE_DEGREES * METERS_PER_DEGREE_LATITUDE * Math.min(1, cos / lonScale);
+    }
+
+    private static int cellX (double lon, double lonScale) {
+        return (int) Math.floor(lon * lonScale / CELL_SIZE_DEGREES);
+    }
+
+    private static int cellY (double lat) {
+        return (int) Math.floor(lat / CELL_SIZE_DEGREES);
+    }
+
+    /** Cell keys sort by column, then by row. The sign bit of the row is flipped so negative rows sort first. */
+    private static long cellKey (int x, int y) {
+        return ((long) x << 32) | ((y ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+    }
+
+    private static int cellX (long cellKey) {
+        return (int) (cellKey >> 32);
+    }
+
+    private static int cellY (long cellKey) {
+        return ((int) cellKey) ^ Integer.MIN_VALUE;
+    }
+
+    /** Serialize this index so it can be stored in a MapDB file. */
+    public byte[] toBytes () {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(feedChecksum);
+            out.writeDouble(lonScale);
+            out.writeDouble(maxAbsLat);
+            out.writeInt(stopIds.length);
+            for (int s = 0; s < stopIds.length; s++) {
+                out.writeUTF(stopIds[s]);
+                out.writeDouble(stopLats[s]);
+                out.writeDouble(stopLons[s]);
+            }
+            out.writeInt(shapeIds.length);
+            for (String shapeId : shapeIds) out.writeUTF(shapeId);
+            out.writeInt(segmentShapes.length);
+            for (int s = 0; s < segmentShapes.length; s++) {
+                out.writeInt(segmentShapes[s]);
+                out.writeInt(segmentSequences[s]);
+                for (int c = 4 * s; c < 4 * s + 4; c++) out.writeDouble(segmentCoordinates[c]);
+            }
+            writeGrid(out, stopGrid);
+            writeGrid(out, segmentGrid);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** @return the index serialized by toBytes, or null if it was serialized in a different format. */
+    public static FeedSpatialIndex fromBytes (byte[] bytes) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (in.readInt() != FORMAT_VERSION) return null;
+            long feedChecksum = in.readLong();
+            double lonScale = in.readDouble();
+            double maxAbsLat = in.readDouble();
+            int stopCount = in.readInt();
+            String[] stopIds = new String[stopCount];
+            double[] stopLats = new double[stopCount];
+            double[] stopLons = new double[stopCount];
+            for (int s = 0; s < stopCount; s++) {
+                stopIds[s] = in.readUTF();
+                stopLats[s] = in.readDouble();
+                stopLons[s] = in.readDouble();
+            }
+            String[] shapeIds = new String[in.readInt()];
+            for (int s = 0; s < shapeIds.length; s++) shapeIds[s] = in.readUTF();
+            int segmentCount = in.readInt();
+            int[] segmentShapes = new int[segmentCount];
+            int[] segmentSequences = new int[segmentCount];
+            double[] segmentCoordinates = new double[4 * segmentCount];
+            for (int s = 0; s < segmentCount; s++) {
+                segmentShapes[s] = in.readInt();
+                segmentSequences[s] = in.readInt();
+                for (int c = 4 * s; c < 4 * s + 4; c++) segmentCoordinates[c] = in.readDouble();
+            }
+            Grid stopGrid = readGrid(in);
+            Grid segmentGrid = readGrid(in);
+            FeedSpatialIndex index = new FeedSpatialIndex(feedChecksum, lonScale, maxAbsLat, stopIds, stopLats,
+                stopLons, shapeIds, segmentShapes, segmentSequences, segmentCoordinates, stopGrid, segmentGrid);
+            index.loadedFromBytes = true;
+            return index;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeGrid (DataOutputStream out, Grid grid) throws IOException {
+        out.writeInt(grid.cells.length);
+        for (long cell : grid.cells) out.writeLong(cell);
+        for (int start : grid.starts) out.writeInt(start);
+        out.writeInt(grid.items.length);
+        for (int item : grid.items) out.writeInt(item);
+    }
+
+    private static Grid readGrid (DataInputStream in) throws IOException {
+        long[] cells = new long[in.readInt()];
+        for (int c = 0; c < cells.length; c++) cells[c] = in.readLong();
+        int[] starts = new int[cells.length + 1];
+        for (int c = 0; c < starts.length; c++) starts[c] = in.readInt();
+        int[] items = new int[in.readInt()];
+        for (int i = 0; i < items.length; i++) items[i] = in.readInt();
+        return new Grid(cells, starts, items);
+    }
+}
@@ -0,0 +1,425 @@
+package com.conveyal.gtfs.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a zip file whose entries are produced and compressed in parallel. Each entry is written by its own task, and
+ * its contents are split into chunks that are deflated independently on a shared pool of threads, in the same way as
+ * pigz: every chunk but the last ends with a sync flush, and each chunk is primed with the end of the previous one so
+ * compression is almost as good as deflating the whole entry in one stream. The compressed entries are spooled to temp
+ * files and assembled into the zip file, in the order they were added, when this writer is closed. ZIP64 extensions
+ * are used where sizes or offsets do not fit in 32 bits.
+ */
+public class ParallelZipWriter implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelZipWriter.class);
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    // The maximum distance deflate looks back, and so the size of the dictionary carried over between chunks.
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+
+    /** Writes the uncompressed contents of an entry. The stream must not be closed. */
+    @FunctionalInterface
+    public interface EntryWriter {
+        void write (OutputStream out) throws IOException;
+    }
+
+    /** An entry that has been compressed into a temp file. */
+    private static class CompressedEntry {
+        String name;
+        File file;
+        long crc;
+        long compressedSize;
+        long uncompressedSize;
+        boolean omitIfEmpty;
+    }
+
+    private final File file;
+    private final int compressionLevel;
+    private final int threads;
+    private final ExecutorService entryExecutor;
+    private final ExecutorService deflateExecutor;
+    private final List<Future<CompressedEntry>> entries = new ArrayList<>();
+    private boolean closed = false;
+
+    /**
+     * @param compressionLevel a deflate level from 0 to 9, or Deflater.DEFAULT_COMPRESSION
+     * @param threads          the number of entries that may be written at once, and of chunks deflated at once
+     */
+    public ParallelZipWriter (File file, int compressionLevel, int threads) {
+        if ((compressionLevel < 0 || compressionLevel > 9) && compressionLevel != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level " + compressionLevel);
+        }
+        this.file = file;
+        this.compressionLevel = compressionLevel;
+        this.threads = Math.max(1, threads);
+        this.entryExecutor = Executors.newFixedThreadPool(this.threads, runnable -> daemon(runnable, "zip-entry-writer"));
+        this.deflateExecutor = Executors.newFixedThreadPool(this.threads, runnable -> daemon(runnable, "zip-deflater"));
+    }
+
+    private static Thread daemon (Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /** Start writing and compressing an entry with the given name. Entries appear in the zip in the order added. */
+    public void addEntry (String name, EntryWriter entryWriter) {
+        addEntry(name, false, entryWriter);
+    }
+
+    /**
+     * Start writing and compressing an entry with the given name. Entries appear in the zip in the order added.
+     * @param omitIfEmpty if true, the entry is left out of the zip when nothing is written to it
+     */
+    public void addEntry (String name, boolean omitIfEmpty, EntryWriter entryWriter) {
+        if (closed) throw new IllegalStateException("Zip writer is closed.");
+        entries.add(entryExecutor.submit(() -> {
+            CompressedEntry entry = new CompressedEntry();
+            entry.name = name;
+            entry.omitIfEmpty = omitIfEmpty;
+            entry.file = File.createTempFile("zip-entry", ".deflate");
+            try (ChunkedDeflaterOutputStream out = new ChunkedDeflaterOutputStream(entry.file)) {
+                entryWriter.write(out);
+                out.finish();
+                entry.crc = out.crc.getValue();
+                entry.uncompressedSize = out.uncompressedSize;
+                entry.compressedSize = out.compressedSize;
+            } catch (Exception e) {
+                entry.file.delete();
+                throw e;
+            }
+            return entry;
+        }));
+    }
+
+    /**
+     * Wait for all entries to be compressed, then write the zip file. If writing any entry failed, that failure is
+     * thrown and the zip file is not written. If writing the zip file itself fails, the partly written file is deleted.
+     */
+    @Override
+    public void close () throws IOException {
+        if (closed) return;
+        closed = true;
+        List<CompressedEntry> compressedEntries = new ArrayList<>();
+        try {
+            IOException failure = null;
+            for (Future<CompressedEntry> future : entries) {
+                try {
+                    compressedEntries.add(future.get());
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException
+                            ? (IOException) e.getCause()
+                            : new IOException("Could not write zip entry.", e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while writing zip entries.", e);
+                }
+            }
+            if (failure != null) throw failure;
+            try {
+                writeZip(compressedEntries.stream()
+                    .filter(entry -> !(entry.omitIfEmpty && entry.uncompressedSize == 0))
+                    .collect(Collectors.toList()));
+            } catch (IOException | RuntimeException e) {
+                file.delete();
+                throw e;
+            }
+        } finally {
+            entryExecutor.shutdownNow();
+            deflateExecutor.shutdownNow();
+            for (CompressedEntry entry : compressedEntries) entry.file.delete();
+        }
+    }
+
+    /** Stop writing entries and discard them without writing the zip file, for instance after a failure. */
+    public void abort () {
+        if (closed) return;
+        closed = true;
+        entryExecutor.shutdownNow();
+        deflateExecutor.shutdownNow();
+        for (Future<CompressedEntry> future : entries) {
+            if (!future.cancel(true) && !future.isCancelled()) {
+                try {
+                    future.get().file.delete();
+                } catch (InterruptedException | ExecutionException e) {
+                    // The entry failed or was interrupted, and has already deleted its temp file.
+                }
+            }
+        }
+    }
+
+    private void writeZip (List<CompressedEntry> compressedEntries) throws IOException {
+        LocalDateTime now = LocalDateTime.now();
+        int dosTime = (now.getHour() << 11) | (now.getMinute() << 5) | (now.getSecond() >> 1);
+        int dosDate = ((now.getYear() - 1980) << 9) | (now.getMonthValue() << 5) | now.getDayOfMonth();
+        try (LittleEndianOutput out = new LittleEndianOutput(new BufferedOutputStream(new FileOutputStream(file)))) {
+            long[] offsets = new long[compressedEntries.size()];
+            for (int i = 0; i < compressedEntries.size(); i++) {
+                CompressedEntry entry = compressedEntries.get(i);
+                offsets[i] = out.written;
+                byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+                boolean zip64 = entry.compressedSize >= ZIP64_LIMIT || entry.uncompressedSize >= ZIP64_LIMIT;
+                // Local file header
+                out.writeInt(0x04034b50);
+                out.writeShort(zip64 ? 45 : 20);
+                out.writeShort(0x0800); // File names are UTF-8
+                out.writeShort(Deflater.DEFLATED);
+                out.writeShort(dosTime);
+                out.writeShort(dosDate);
+                out.writeInt((int) entry.crc);
+                out.writeInt(zip64 ? (int) ZIP64_LIMIT : (int) entry.compressedSize);
+                out.writeInt(zip64 ? (int) ZIP64_LIMIT : (int) entry.uncompressedSize);
+                out.writeShort(name.length);
+                out.writeShort(zip64 ? 20 : 0);
+                out.write(name);
+                if (zip64) {
+                    out.writeShort(0x0001);
+                    out.writeShort(16);
+                    out.writeLong(entry.uncompressedSize);
+                    out.writeLong(entry.compressedSize);
+                }
+                Files.copy(entry.file.toPath(), out);
+                entry.file.delete();
+            }
+
+            long centralDirectoryOffset = out.written;
+            for (int i = 0; i < compressedEntries.size(); i++) {
+                CompressedEntry entry = compressedEntries.get(i);
+                byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+                boolean zip64 = entry.compressedSize >= ZIP64_LIMIT || entry.uncompressedSize >= ZIP64_LIMIT
+                    || offsets[i] >= ZIP64_LIMIT;
+                // Central directory file header. If any value needs ZIP64, all three are written in the extra field.
+                out.writeInt(0x02014b50);
+                out.writeShort(45);
+                out.writeShort(zip64 ? 45 : 20);
+                out.writeShort(0x0800);
+                out.writeShort(Deflater.DEFLATED);
+                out.writeShort(dosTime);
+                out.writeShort(dosDate);
+                out.writeInt((int) entry.crc);
+                out.writeInt(zip64 ? (int) ZIP64_LIMIT : (int) entry.compressedSize);
+                out.writeInt(zip64 ? (int) ZIP64_LIMIT : (int) entry.uncompressedSize);
+                out.writeShort(name.length);
+                out.writeShort(zip64 ? 28 : 0);
+                out.writeShort(0); // Comment length
+                out.writeShort(0); // Disk number
+                out.writeShort(0); // Internal attributes
+                out.writeInt(0); // External attributes
+                out.writeInt(zip64 ? (int) ZIP64_LIMIT : (int) offsets[i]);
+                out.write(name);
+                if (zip64) {
+                    out.writeShort(0x0001);
+                    out.writeShort(24);
+                    out.writeLong(entry.uncompressedSize);
+                    out.writeLong(entry.compressedSize);
+                    out.writeLong(offsets[i]);
+                }
+            }
+            long centralDirectoryEnd = out.written;
+            long centralDirectorySize = centralDirectoryEnd - centralDirectoryOffset;
+
+            boolean zip64 = centralDirectoryOffset >= ZIP64_LIMIT || compressedEntries.size() >= 0xFFFF;
+            if (zip64) {
+                // ZIP64 end of central directory record and locator
+                out.writeInt(0x06064b50);
+                out.writeLong(44);
+                out.writeShort(45);
+                out.writeShort(45);
+                out.writeInt(0);
+                out.writeInt(0);
+                out.writeLong(compressedEntries.size());
+                out.writeLong(compressedEntries.size());
+                out.writeLong(centralDirectorySize);
+                out.writeLong(centralDirectoryOffset);
+                out.writeInt(0x07064b50);
+                out.writeInt(0);
+                out.writeLong(centralDirectoryEnd);
+                out.writeInt(1);
+            }
+            // End of central directory record
+            out.writeInt(0x06054b50);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(zip64 ? 0xFFFF : compressedEntries.size());
+            out.writeShort(zip64 ? 0xFFFF : compressedEntries.size());
+            out.writeInt((int) centralDirectorySize);
+            out.writeInt(zip64 ? (int) ZIP64_LIMIT : (int) centralDirectoryOffset);
+            out.writeShort(0);
+        }
+        LOG.info("Wrote {} entries to {}", compressedEntries.size(), file);
+    }
+
+    /**
+     * Collects the contents of an entry into chunks, deflates them on the shared pool, and writes the compressed chunks
+     * in order to a temp file. A few chunks may be in flight at once.
+     */
+    private class ChunkedDeflaterOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final CRC32 crc = new CRC32();
+        private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+        private byte[] chunk = new byte[CHUNK_SIZE];
+        private int length = 0;
+        private byte[] dictionary = null;
+        private long uncompressedSize = 0;
+        private long compressedSize = 0;
+
+        ChunkedDeflaterOutputStream (File file) throws IOException {
+            out = new BufferedOutputStream(new FileOutputStream(file));
+        }
+
+        @Override
+        public void write (int b) throws IOException {
+            if (length == CHUNK_SIZE) submit(false);
+            chunk[length++] = (byte) b;
+        }
+
+        @Override
+        public void write (byte[] bytes, int offset, int count) throws IOException {
+            while (count > 0) {
+                if (length == CHUNK_SIZE) submit(false);
+                int n = Math.min(count, CHUNK_SIZE - length);
+                System.arraycopy(bytes, offset, chunk, length, n);
+                length += n;
+                offset += n;
+                count -= n;
+            }
+        }
+
+        private void submit (boolean last) throws IOException {
+            byte[] input = chunk;
+            int inputLength = length;
+            byte[] inputDictionary = dictionary;
+            crc.update(input, 0, inputLength);
+            uncompressedSize += inputLength;
+            pending.add(deflateExecutor.submit(() -> deflate(input, inputLength, inputDictionary, last)));
+            if (!last) {
+                dictionary = Arrays.copyOfRange(input, Math.max(0, inputLength - DICTIONARY_SIZE), inputLength);
+                chunk = new byte[CHUNK_SIZE];
+                length = 0;
+            }
+            // Bound the memory used by chunks waiting to be compressed and written.
+            while (pending.size() > threads * 2 || (last && !pending.isEmpty())) writeCompressed(pending.poll());
+        }
+
+        private void writeCompressed (Future<byte[]> future) throws IOException {
+            try {
+                byte[] compressed = future.get();
+                out.write(compressed);
+                compressedSize += compressed.length;
+            } catch (ExecutionException e) {
+                throw new IOException("Could not compress zip entry.", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while compressing zip entry.", e);
+            }
+        }
+
+        private byte[] deflate (byte[] input, int inputLength, byte[] inputDictionary, boolean last) {
+            Deflater deflater = new Deflater(compressionLevel, true);
+            try {
+                if (inputDictionary != null) deflater.setDictionary(inputDictionary);
+                deflater.setInput(input, 0, inputLength);
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(inputLength / 4 + 64);
+                byte[] buffer = new byte[64 * 1024];
+                if (last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        compressed.write(buffer, 0, deflater.deflate(buffer));
+                    }
+                } else {
+                    // Flush to a byte boundary so the next chunk's compressed data can be appended directly.
+                    int n;
+                    do {
+                        n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                        compressed.write(buffer, 0, n);
+                    } while (n == buffer.length);
+                }
+                return compressed.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        /** Compress the final chunk and wait for all chunks to be written. */
+        void finish () throws IOException {
+            submit(true);
+            out.flush();
+        }
+
+        @Override
+        public void close () throws IOException {
+            for (Future<byte[]> future : pending) future.cancel(true);
+            out.close();
+        }
+    }
+
+    /** Writes little-endian values, as used throughout the zip format, and counts the bytes written. */
+    private static class LittleEndianOutput extends OutputStream {
+        private final OutputStream out;
+        long written = 0;
+
+        LittleEndianOutput (OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write (int b) throws IOException {
+            out.write(b);
+            written++;
+        }
+
+        @Override
+        public void write (byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            written += length;
+        }
+
+        void writeShort (int value) throws IOException {
+            write(value & 0xFF);
+            write((value >>> 8) & 0xFF);
+        }
+
+        void writeInt (int value) throws IOException {
+            writeShort(value & 0xFFFF);
+            writeShort((value >>> 16) & 0xFFFF);
+        }
+
+        void writeLong (long value) throws IOException {
+            writeInt((int) value);
+            writeInt((int) (value >>> 32));
+        }
+
+        @Override
+        public void close () throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.conveyal.gtfs.util;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Wall clock and CPU time spent in one phase of a unit of work, such as parsing a table during a load or running the
+ * validate stage of a validator. A phase may be timed in many short intervals (e.g. once per trip) by repeated calls
+ * to {@link #start()} and {@link #stop()}. Time is accumulated in nanoseconds internally to avoid rounding many short
+ * intervals down to zero, but is exposed in milliseconds like the other timing fields in result objects.
+ *
+ * CPU time is measured for the calling thread only, so start and stop must be called on the same thread.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class PhaseTiming implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    public long wallTimeMillis;
+    public long cpuTimeMillis;
+
+    // Accumulated totals and the start of the interval currently being timed. These are not part of the serialized form.
+    private transient long wallTimeNanos;
+    private transient long cpuTimeNanos;
+    private transient long wallStartNanos;
+    private transient long cpuStartNanos;
+
+    public void start () {
+        wallStartNanos = System.nanoTime();
+        cpuStartNanos = currentThreadCpuTimeNanos();
+    }
+
+    public void stop () {
+        wallTimeNanos += System.nanoTime() - wallStartNanos;
+        cpuTimeNanos += currentThreadCpuTimeNanos() - cpuStartNanos;
+        wallTimeMillis = wallTimeNanos / 1_000_000;
+        cpuTimeMillis = cpuTimeNanos / 1_000_000;
+    }
+
+    /**
+     * @return the CPU time consumed by the current thread in nanoseconds, or zero if the JVM cannot measure it.
+     */
+    private static long currentThreadCpuTimeNanos () {
+        return threadMXBean.isCurrentThreadCpuTimeSupported() ? threadMXBean.getCurrentThreadCpuTime() : 0;
+    }
+}
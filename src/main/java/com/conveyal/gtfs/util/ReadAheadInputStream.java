@@ -0,0 +1,103 @@
+package com.conveyal.gtfs.util;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads another input stream on a background thread, a chunk at a time, keeping a few chunks ahead of the consumer.
+ * Wrapping a zip entry's input stream in this moves decompression onto its own thread, so it overlaps with parsing.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final int CHUNKS_AHEAD = 8;
+    // Marks the end of the source stream in the queue.
+    private static final byte[] END = new byte[0];
+
+    private final InputStream source;
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(CHUNKS_AHEAD);
+    private final Thread readerThread;
+    private volatile IOException failure;
+    private byte[] chunk;
+    private int position;
+    private boolean ended = false;
+
+    public ReadAheadInputStream (InputStream source, String name) {
+        this.source = source;
+        readerThread = new Thread(this::readAhead, "read-ahead-" + name);
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    private void readAhead () {
+        try {
+            while (true) {
+                byte[] buffer = new byte[CHUNK_SIZE];
+                int length = 0;
+                int n;
+                while (length < CHUNK_SIZE && (n = source.read(buffer, length, CHUNK_SIZE - length)) != -1) length += n;
+                if (length > 0) chunks.put(length == CHUNK_SIZE ? buffer : Arrays.copyOf(buffer, length));
+                if (length < CHUNK_SIZE) break;
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            // The stream was closed by the consumer, who will not read any further.
+            return;
+        }
+        try {
+            chunks.put(END);
+        } catch (InterruptedException e) {
+            // Closed by the consumer.
+        }
+    }
+
+    /** @return false if the end of the stream has been reached. */
+    private boolean nextChunk () throws IOException {
+        if (ended) return false;
+        if (chunk != null && position < chunk.length) return true;
+        try {
+            chunk = chunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for input.", e);
+        }
+        position = 0;
+        if (chunk == END) {
+            ended = true;
+            if (failure != null) throw failure;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int read () throws IOException {
+        if (!nextChunk()) return -1;
+        return chunk[position++] & 0xFF;
+    }
+
+    @Override
+    public int read (byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+        if (!nextChunk()) return -1;
+        int n = Math.min(length, chunk.length - position);
+        System.arraycopy(chunk, position, bytes, offset, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public void close () throws IOException {
+        ended = true;
+        // Stop the reader thread and wait for it to exit, since it may be in the middle of reading the source.
+        readerThread.interrupt();
+        Uninterruptibles.joinUninterruptibly(readerThread);
+        source.close();
+    }
+}
@@ -0,0 +1,110 @@
+package com.conveyal.gtfs.util;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Puts entries into a map on a separate writer thread, in batches sorted by key. This lets a loader parse rows while
+ * the previous rows are being inserted into a MapDB map, and inserting each batch in key order means consecutive
+ * inserts touch the same B-tree nodes rather than jumping around the tree.
+ *
+ * Entries are only guaranteed to be in the map once close() has returned. If an insert fails, close() (or a later
+ * put()) throws the failure.
+ */
+public class SortedBatchWriter<K, V> implements AutoCloseable {
+
+    private static final int BATCHES_AHEAD = 4;
+
+    private final Map<K, V> target;
+    private final Comparator<? super K> comparator;
+    private final int batchSize;
+    private final BlockingQueue<List<Map.Entry<K, V>>> batches = new ArrayBlockingQueue<>(BATCHES_AHEAD);
+    // An empty batch marks the end of the input.
+    private final List<Map.Entry<K, V>> endOfInput = new ArrayList<>();
+    private final Thread writerThread;
+    private volatile Exception failure;
+    private List<Map.Entry<K, V>> batch;
+    private boolean closed = false;
+
+    public SortedBatchWriter (String name, Map<K, V> target, Comparator<? super K> comparator, int batchSize) {
+        this.target = target;
+        this.comparator = comparator;
+        this.batchSize = batchSize;
+        batch = new ArrayList<>(batchSize);
+        writerThread = new Thread(this::write, "batch-writer-" + name);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    private void write () {
+        try {
+            while (true) {
+                List<Map.Entry<K, V>> entries = batches.take();
+                if (entries == endOfInput) return;
+                // After a failure, keep taking batches so that the producer does not block, but discard them.
+                if (failure != null) continue;
+                try {
+                    entries.sort(Map.Entry.comparingByKey(comparator));
+                    for (Map.Entry<K, V> entry : entries) target.put(entry.getKey(), entry.getValue());
+                } catch (Exception e) {
+                    failure = e;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void put (K key, V value) throws IOException {
+        if (failure != null) throw new IOException("Writing a batch of entries failed.", failure);
+        batch.add(new AbstractMap.SimpleImmutableEntry<>(key, value));
+        if (batch.size() >= batchSize) {
+            handOff(batch);
+            batch = new ArrayList<>(batchSize);
+        }
+    }
+
+    private void handOff (List<Map.Entry<K, V>> entries) throws IOException {
+        try {
+            batches.put(entries);
+        } catch (InterruptedException e) {
+            writerThread.interrupt();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while handing off a batch of entries.", e);
+        }
+    }
+
+    /**
+     * Write any remaining entries and wait for the writer thread to finish. If this fails or is interrupted, the writer
+     * thread is interrupted instead, and still waited for, so that it never writes to the map after this returns.
+     */
+    @Override
+    public void close () throws IOException {
+        if (closed) return;
+        closed = true;
+        boolean finished = false;
+        try {
+            if (!batch.isEmpty()) handOff(batch);
+            handOff(endOfInput);
+            writerThread.join();
+            finished = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for entries to be written.", e);
+        } finally {
+            if (!finished) {
+                writerThread.interrupt();
+                Uninterruptibles.joinUninterruptibly(writerThread);
+            }
+        }
+        if (failure != null) throw new IOException("Writing a batch of entries failed.", failure);
+    }
+}
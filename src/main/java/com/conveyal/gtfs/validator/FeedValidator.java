@@ -3,6 +3,9 @@ package com.conveyal.gtfs.validator;
 import com.conveyal.gtfs.error.SQLErrorStorage;
 import com.conveyal.gtfs.loader.Feed;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * A subtype of validator that can validate the entire feed at once.
  */
@@ -15,4 +18,12 @@ public abstract class FeedValidator extends Validator {
     /** The main extension point. Each subsclass must define this method. */
     public abstract void validate ();
 
+    /**
+     * Feed validators that run other validators internally (see {@link NewTripTimesValidator}) should override this to
+     * report the timings of those validators, which will be added to the {@link ValidationResult}.
+     */
+    public List<ValidatorTiming> getNestedValidatorTimings () {
+        return Collections.emptyList();
+    }
+
 }
@@ -73,4 +73,9 @@ public class FrequencyValidator extends FeedValidator {
             }
         }
     }
+
+    @Override
+    public int getEntityCacheSize () {
+        return frequenciesById.size();
+    }
 }
@@ -2,23 +2,34 @@ package com.conveyal.gtfs.validator;
 
 import com.conveyal.gtfs.error.SQLErrorStorage;
 import com.conveyal.gtfs.loader.Feed;
+import com.conveyal.gtfs.loader.JDBCTableReader;
+import com.conveyal.gtfs.loader.Table;
+import com.conveyal.gtfs.loader.TableReader;
 import com.conveyal.gtfs.model.Entity;
 import com.conveyal.gtfs.model.Route;
 import com.conveyal.gtfs.model.Stop;
 import com.conveyal.gtfs.model.StopTime;
 import com.conveyal.gtfs.model.Trip;
+import com.conveyal.gtfs.storage.StorageException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import static com.conveyal.gtfs.error.NewGTFSErrorType.CONDITIONALLY_REQUIRED;
 import static com.conveyal.gtfs.error.NewGTFSErrorType.MISSING_ARRIVAL_OR_DEPARTURE;
 import static com.conveyal.gtfs.error.NewGTFSErrorType.TRIP_TOO_FEW_STOP_TIMES;
+import static com.conveyal.gtfs.loader.JDBCTableReader.SQL_STATE_UNDEFINED_TABLE;
+import static java.sql.ResultSet.CONCUR_READ_ONLY;
+import static java.sql.ResultSet.TYPE_FORWARD_ONLY;
 
 /**
  * Check that the travel times between adjacent stops in trips are reasonable.
@@ -43,16 +54,30 @@ public class NewTripTimesValidator extends FeedValidator {
 
     // As an optimization, these validators are fed the stoptimes for each trip to avoid repeated iteration and grouping.
     private final TripValidator[] tripValidators;
+    // Profiling information for each trip validator, in the same order as the validators themselves.
+    private final ValidatorTiming[] tripValidatorTimings;
+
+    // The stop times of the trip currently being accumulated. This buffer is reused for every trip.
+    private final TripStopTimes stopTimes = new TripStopTimes();
+    // The number of stop times for the current trip, including those dropped from the buffer for missing stops.
+    private int stopTimeCountForTrip = 0;
+    // Whether any stop time for the current trip (including those dropped from the buffer) has continuous behavior.
+    private boolean stopTimesHaveContinuousBehavior = false;
 
     public NewTripTimesValidator(Feed feed, SQLErrorStorage errorStorage) {
         super(feed, errorStorage);
         tripValidators = new TripValidator[] {
             new SpeedTripValidator(feed, errorStorage),
             new ReferencesTripValidator(feed, errorStorage),
-            new ReversedTripValidator(feed, errorStorage),
+            // ReversedTripValidator is not run: it does not check anything yet, and the default validateTrip would
+            // build lists of StopTime and Stop objects for every trip only for them to be ignored.
             new ServiceValidator(feed, errorStorage),
             new PatternFinderValidator(feed, errorStorage)
         };
+        tripValidatorTimings = new ValidatorTiming[tripValidators.length];
+        for (int i = 0; i < tripValidators.length; i++) {
+            tripValidatorTimings[i] = new ValidatorTiming(tripValidators[i], this);
+        }
     }
 
     @Override
@@ -65,46 +90,84 @@ public class NewTripTimesValidator extends FeedValidator {
         for (Trip trip: feed.trips) tripById.put(trip.trip_id, trip);
         for (Route route: feed.routes) routeById.put(route.route_id, route);
         LOG.info("Done.");
-        // Accumulate StopTimes with the same trip_id into a list, then process each trip separately.
-        List<StopTime> stopTimesForTrip = new ArrayList<>();
-        String previousTripId = null;
-        // Order stop times by trip ID and sequence number (i.e. scan through the stops in each trip in order)
-        for (StopTime stopTime : feed.stopTimes.getAllOrdered()) {
-            // All bad references should already be caught elsewhere, this should just be a continue
-            if (stopTime.trip_id == null) continue;
-            if (!stopTime.trip_id.equals(previousTripId) && !stopTimesForTrip.isEmpty()) {
-                processTrip(stopTimesForTrip);
-                stopTimesForTrip.clear();
+        // Accumulate the stop times with the same trip_id into the columnar buffer, then process each trip separately.
+        // The stop times are read straight from the result set into the buffer, which is reused for every trip, so
+        // no StopTime objects are created unless a validator registers an error on one.
+        // Order stop times by trip ID and sequence number (i.e. scan through the stops in each trip in order).
+        // Only the columns read into the buffer are selected, and the fetch size is chosen for the width of those
+        // columns, as for the table readers.
+        String selectClause = "select * from " + feed.getTableNameWithSchemaPrefix(Table.STOP_TIMES.name);
+        int fetchSize = 1000;
+        TableReader<StopTime> projectedReader = feed.stopTimes.withColumns(StopTimeColumns.NAMES);
+        if (projectedReader instanceof JDBCTableReader) {
+            selectClause = ((JDBCTableReader<StopTime>) projectedReader).getSelectClause();
+            fetchSize = ((JDBCTableReader<StopTime>) projectedReader).getFetchSize();
+        }
+        String sql = selectClause + " order by trip_id, stop_sequence";
+        long rowCount = 0;
+        try (Connection connection = feed.getConnection()) {
+            PreparedStatement statement = connection.prepareStatement(sql, TYPE_FORWARD_ONLY, CONCUR_READ_ONLY);
+            // A non-zero fetch size makes the driver use a cursor (autoCommit is off for our connections) rather than
+            // loading the whole table into memory.
+            statement.setFetchSize(fetchSize);
+            LOG.info(sql);
+            ResultSet resultSet = statement.executeQuery();
+            StopTimeColumns columns = new StopTimeColumns(resultSet.getMetaData());
+            while (resultSet.next()) {
+                rowCount++;
+                String tripId = resultSet.getString(columns.tripId);
+                // All bad references should already be caught elsewhere, this should just be a continue
+                if (tripId == null) continue;
+                if (!tripId.equals(stopTimes.tripId)) {
+                    if (stopTimeCountForTrip > 0) processTrip();
+                    stopTimes.reset(tripId);
+                    stopTimeCountForTrip = 0;
+                    stopTimesHaveContinuousBehavior = false;
+                }
+                addStopTime(resultSet, columns);
+            }
+            if (stopTimeCountForTrip > 0) processTrip();
+        } catch (SQLException e) {
+            if (SQL_STATE_UNDEFINED_TABLE.equals(e.getSQLState())) {
+                // As with the table readers, a missing table is treated as if it were empty.
+                LOG.info("Table stop_times did not exist, there are no trips to validate.");
+            } else {
+                throw new StorageException(e);
             }
-            stopTimesForTrip.add(stopTime);
-            previousTripId = stopTime.trip_id;
+        } finally {
+            feed.countRowsRead(rowCount);
         }
-        if (!stopTimesForTrip.isEmpty()) processTrip(stopTimesForTrip);
-    }
-
-    protected static boolean missingEitherTime (StopTime stopTime) {
-        return (stopTime.arrival_time == Entity.INT_MISSING || stopTime.departure_time == Entity.INT_MISSING);
-    }
-
-    protected static boolean missingBothTimes(StopTime stopTime) {
-        return (stopTime.arrival_time == Entity.INT_MISSING && stopTime.departure_time == Entity.INT_MISSING);
+        for (int i = 0; i < tripValidators.length; i++) tripValidatorTimings[i].sampleCacheSize(tripValidators[i]);
     }
 
     /**
-     * If the StopTime is missing one of arrival or departure time, copy from the other field.
-     * @return whether one of the times was missing.
+     * Copy the stop time in the current row of the result set into the columnar buffer for the current trip. Stop
+     * times for stops that don't exist in the feed are counted but not added to the buffer. All bad references should
+     * have been recorded at import, so we can just drop them from the trips. We could ask the SQL server to do the
+     * join between stop_times and stops, but we want to check references.
      */
-    protected static boolean fixMissingTimes (StopTime stopTime) {
-        boolean missing = false;
-        if (stopTime.arrival_time == Entity.INT_MISSING) {
-            stopTime.arrival_time = stopTime.departure_time;
-            missing = true;
-        }
-        if (stopTime.departure_time == Entity.INT_MISSING) {
-            stopTime.departure_time = stopTime.arrival_time;
-            missing = true;
+    private void addStopTime (ResultSet resultSet, StopTimeColumns columns) throws SQLException {
+        stopTimeCountForTrip++;
+        int continuousPickup = getIntIfPresent(resultSet, columns.continuousPickup);
+        int continuousDropOff = getIntIfPresent(resultSet, columns.continuousDropOff);
+        if (hasContinuousBehavior(continuousDropOff, continuousPickup)) {
+            stopTimesHaveContinuousBehavior = true;
         }
-        return missing;
+        Stop stop = stopById.get(getStringIfPresent(resultSet, columns.stopId));
+        if (stop == null) return;
+        int i = stopTimes.append();
+        stopTimes.setStop(i, stop);
+        stopTimes.lineNumbers[i] = getIntIfPresent(resultSet, columns.id);
+        stopTimes.stopSequences[i] = getIntIfPresent(resultSet, columns.stopSequence);
+        stopTimes.arrivalTimes[i] = getIntIfPresent(resultSet, columns.arrivalTime);
+        stopTimes.departureTimes[i] = getIntIfPresent(resultSet, columns.departureTime);
+        stopTimes.stopHeadsigns[i] = getStringIfPresent(resultSet, columns.stopHeadsign);
+        stopTimes.pickupTypes[i] = getIntIfPresent(resultSet, columns.pickupType);
+        stopTimes.dropOffTypes[i] = getIntIfPresent(resultSet, columns.dropOffType);
+        stopTimes.continuousPickups[i] = continuousPickup;
+        stopTimes.continuousDropOffs[i] = continuousDropOff;
+        stopTimes.timepoints[i] = getIntIfPresent(resultSet, columns.timepoint);
+        stopTimes.shapeDistTraveled[i] = getDoubleIfPresent(resultSet, columns.shapeDistTraveled);
     }
 
     /**
@@ -112,11 +175,12 @@ public class NewTripTimesValidator extends FeedValidator {
      * If has only one or the other, we infer them. If it's missing both we have a problem.
      * @return whether the error is not recoverable because both stoptimes are missing.
      */
-    private boolean fixInitialFinal (StopTime stopTime) {
-        if (missingEitherTime(stopTime)) {
+    private boolean fixInitialFinal (int i) {
+        if (stopTimes.missingEitherTime(i)) {
+            StopTime stopTime = stopTimes.toStopTime(i);
             registerError(stopTime, MISSING_ARRIVAL_OR_DEPARTURE);
-            fixMissingTimes(stopTime);
-            if (missingEitherTime(stopTime)) {
+            stopTimes.fixMissingTimes(i);
+            if (stopTimes.missingEitherTime(i)) {
                 //TODO: Is this even needed? Already covered by MISSING_ARRIVAL_OR_DEPARTURE.
                 registerError(stopTime, CONDITIONALLY_REQUIRED, "First and last stop times are required to have both an arrival and departure time.");
                 return true;
@@ -126,15 +190,14 @@ public class NewTripTimesValidator extends FeedValidator {
     }
 
     /**
-     * This validates an ordered list of stopTimes for a single trip.
-     * @param stopTimes must all have the same trip_id and be in order of increasing stop_sequence
+     * This validates the stop times accumulated in the buffer for a single trip, which are all for the same trip_id
+     * and in order of increasing stop_sequence.
      */
-    private void processTrip (List<StopTime> stopTimes) {
+    private void processTrip () {
         if (++tripCount % 20_000 == 0) LOG.info("Validating trip {}", tripCount);
         // All stop times have the same trip_id, so we look it up right away.
         // FIXME: gtfs_load error if there are no stop times? / feed=Birnie_Bus_20141105T102949-05_24e99790-211d-4f92-b1d2-147e6f3d5040.zip
-        String tripId = stopTimes.get(0).trip_id;
-        Trip trip = tripById.get(tripId);
+        Trip trip = tripById.get(stopTimes.tripId);
         if (trip == null) {
             // This feed does not contain a trip with the ID specified in these stop_times.
             // This error should already have been caught TODO verify.
@@ -142,36 +205,19 @@ public class NewTripTimesValidator extends FeedValidator {
         }
 
         // Our code should only call this method with non-null stopTimes.
-        if (stopTimes.size() < 2) {
+        if (stopTimeCountForTrip < 2) {
             registerError(trip, TRIP_TOO_FEW_STOP_TIMES);
             return;
         }
-        boolean hasContinuousBehavior = false;
-        // Make a parallel list of stops based on the stop_times for this trip.
-        // We will remove any stop_times for stops that don't exist in the feed.
-        // We could ask the SQL server to do the join between stop_times and stops, but we want to check references.
-        List<Stop> stops = new ArrayList<>();
-        for (Iterator<StopTime> it = stopTimes.iterator(); it.hasNext(); ) {
-            StopTime stopTime = it.next();
-            if (hasContinuousBehavior(stopTime.continuous_drop_off, stopTime.continuous_pickup)) {
-                hasContinuousBehavior = true;
-            }
-            Stop stop = stopById.get(stopTime.stop_id);
-            if (stop == null) {
-                // All bad references should have been recorded at import, we can just remove them from the trips.
-                it.remove();
-            } else {
-                stops.add(stop);
-            }
-        }
-        // StopTimes list may have shrunk due to missing stop references.
-        if (stopTimes.size() < 2) return;
+        boolean hasContinuousBehavior = stopTimesHaveContinuousBehavior;
+        // The buffer may have fewer stop times than the trip due to missing stop references.
+        if (stopTimes.size < 2) return;
         // Check that first and last stop times are not missing values and repair them.
         // Note that this repair will be seen by the validators but not saved in the database.
-        fixInitialFinal(stopTimes.get(0));
-        fixInitialFinal(stopTimes.get(stopTimes.size() - 1));
+        fixInitialFinal(0);
+        fixInitialFinal(stopTimes.size - 1);
         // Repair the case where an arrival or departure time is provided, but not both.
-        for (StopTime stopTime : stopTimes) fixMissingTimes(stopTime);
+        for (int i = 0; i < stopTimes.size; i++) stopTimes.fixMissingTimes(i);
         // TODO check characteristics of timepoints
         // All bad references should have been recorded at import and null trip check is handled above, we can just
         // ignore nulls.
@@ -188,21 +234,105 @@ public class NewTripTimesValidator extends FeedValidator {
                 "shape_id is required when a trip has continuous behavior defined."
             );
         }
-        // Pass these same cleaned lists of stop_times and stops into each trip validator in turn.
-        for (TripValidator tripValidator : tripValidators) tripValidator.validateTrip(trip, route, stopTimes, stops);
+        // Pass the same cleaned stop times into each trip validator in turn.
+        for (int i = 0; i < tripValidators.length; i++) {
+            ValidatorTiming timing = tripValidatorTimings[i];
+            int errorCountBefore = errorStorage.getStoredErrorCount();
+            timing.validate.start();
+            try {
+                tripValidators[i].validateTrip(trip, route, stopTimes);
+            } finally {
+                timing.validate.stop();
+                timing.rowsScanned += stopTimes.size;
+                timing.errorsEmitted += errorStorage.getStoredErrorCount() - errorCountBefore;
+            }
+        }
     }
 
     /**
      * Completing this feed validator means completing each of its constituent trip validators.
      */
     public void complete (ValidationResult validationResult) {
-        for (TripValidator tripValidator : tripValidators) {
+        for (int i = 0; i < tripValidators.length; i++) {
+            TripValidator tripValidator = tripValidators[i];
+            ValidatorTiming timing = tripValidatorTimings[i];
             LOG.info("Running complete stage for {}", tripValidator.getClass().getSimpleName());
-            tripValidator.complete(validationResult);
+            int errorCountBefore = errorStorage.getStoredErrorCount();
+            timing.complete.start();
+            try {
+                tripValidator.complete(validationResult);
+            } finally {
+                timing.complete.stop();
+                timing.errorsEmitted += errorStorage.getStoredErrorCount() - errorCountBefore;
+                timing.sampleCacheSize(tripValidator);
+            }
             LOG.info("{} finished", tripValidator.getClass().getSimpleName());
         }
     }
 
+    @Override
+    public List<ValidatorTiming> getNestedValidatorTimings () {
+        return Arrays.asList(tripValidatorTimings);
+    }
+
+    @Override
+    public int getEntityCacheSize () {
+        return stopById.size() + tripById.size() + routeById.size();
+    }
+
+    private static int getIntIfPresent (ResultSet resultSet, int column) throws SQLException {
+        if (column == 0) return Entity.INT_MISSING;
+        int value = resultSet.getInt(column);
+        return resultSet.wasNull() ? Entity.INT_MISSING : value;
+    }
+
+    private static double getDoubleIfPresent (ResultSet resultSet, int column) throws SQLException {
+        if (column == 0) return Entity.DOUBLE_MISSING;
+        double value = resultSet.getDouble(column);
+        return resultSet.wasNull() ? Entity.DOUBLE_MISSING : value;
+    }
+
+    private static String getStringIfPresent (ResultSet resultSet, int column) throws SQLException {
+        return column == 0 ? null : resultSet.getString(column);
+    }
+
+    /**
+     * The (1-based) index of each stop_times column in the result set, resolved once per query rather than once per
+     * row. As with the table readers, zero means the column is not present (optional columns are only created if
+     * they appear in the GTFS file) and the value is treated as missing.
+     */
+    private static class StopTimeColumns {
+        static final String[] NAMES = {
+            "id", "trip_id", "stop_id", "stop_sequence", "arrival_time", "departure_time", "stop_headsign",
+            "pickup_type", "drop_off_type", "continuous_pickup", "continuous_drop_off", "timepoint",
+            "shape_dist_traveled"
+        };
+
+        int id, tripId, stopId, stopSequence, arrivalTime, departureTime, stopHeadsign, pickupType, dropOffType,
+            continuousPickup, continuousDropOff, timepoint, shapeDistTraveled;
+
+        StopTimeColumns (ResultSetMetaData metaData) throws SQLException {
+            for (int c = 1; c <= metaData.getColumnCount(); c++) {
+                switch (metaData.getColumnName(c)) {
+                    case "id": id = c; break;
+                    case "trip_id": tripId = c; break;
+                    case "stop_id": stopId = c; break;
+                    case "stop_sequence": stopSequence = c; break;
+                    case "arrival_time": arrivalTime = c; break;
+                    case "departure_time": departureTime = c; break;
+                    case "stop_headsign": stopHeadsign = c; break;
+                    case "pickup_type": pickupType = c; break;
+                    case "drop_off_type": dropOffType = c; break;
+                    case "continuous_pickup": continuousPickup = c; break;
+                    case "continuous_drop_off": continuousDropOff = c; break;
+                    case "timepoint": timepoint = c; break;
+                    case "shape_dist_traveled": shapeDistTraveled = c; break;
+                    default: break;
+                }
+            }
+        }
+    }
+
     /**
      * Determine if a trip has continuous behaviour by checking the values that have been defined for continuous drop
      * off and pickup.
@@ -43,6 +43,11 @@ public class PatternFinderValidator extends TripValidator {
 
     @Override
     public void validateTrip (Trip trip, Route route, List<StopTime> stopTimes, List<Stop> stops) {
+        patternFinder.processTrip(trip, stopTimes);
+    }
+
+    @Override
+    public void validateTrip (Trip trip, Route route, TripStopTimes stopTimes) {
         // As we hit each trip, accumulate them into the wrapped PatternFinder object.
         patternFinder.processTrip(trip, stopTimes);
     }
@@ -65,5 +70,9 @@ public class PatternFinderValidator extends TripValidator {
         Map<TripPatternKey, Pattern> patterns = patternFinder.createPatternObjects(stopById, patternsFromFeed, errorStorage);
         patternBuilder.create(patterns, patternFinder.canUsePatternsFromFeed(patternsFromFeed));
     }
-}
 
+    @Override
+    public int getEntityCacheSize () {
+        return patternFinder.getTripCount();
+    }
+}
@@ -35,9 +35,15 @@ public class ReferencesTripValidator extends TripValidator {
 
     @Override
     public void validateTrip(Trip trip, Route route, List<StopTime> stopTimes, List<Stop> stops) {
+        validateTrip(trip, route, TripStopTimes.fromLists(stopTimes, stops));
+    }
+
+    @Override
+    public void validateTrip(Trip trip, Route route, TripStopTimes stopTimes) {
         if (trip != null) referencedTrips.add(trip.trip_id);
         if (route != null) referencedRoutes.add(route.route_id);
-        for (Stop stop : stops) {
+        for (int i = 0; i < stopTimes.size; i++) {
+            Stop stop = stopTimes.stops[i];
             referencedStops.add(stop.stop_id);
             // If a stop used by the trip has a parent station, count this among the referenced stops, too. While the
             // parent station may not be referenced directly, the relationship is functioning correctly and there is
@@ -48,21 +54,26 @@ public class ReferencesTripValidator extends TripValidator {
 
     @Override
     public void complete (ValidationResult validationResult) {
-        for (Stop stop : feed.stops) {
+        // Only the IDs are needed to find unused entities (and to identify them in errors), so skip the other columns.
+        for (Stop stop : feed.stops.withColumns("stop_id")) {
             if (!referencedStops.contains(stop.stop_id)) {
                 registerError(stop, STOP_UNUSED, stop.stop_id);
             }
         }
-        for (Trip trip : feed.trips) {
+        for (Trip trip : feed.trips.withColumns("trip_id")) {
             if (!referencedTrips.contains(trip.trip_id)) {
                 registerError(trip, TRIP_EMPTY);
             }
         }
-        for (Route route : feed.routes) {
+        for (Route route : feed.routes.withColumns("route_id")) {
             if (!referencedRoutes.contains(route.route_id)) {
                 registerError(route, ROUTE_UNUSED);
             }
         }
     }
 
+    @Override
+    public int getEntityCacheSize () {
+        return referencedStops.size() + referencedTrips.size() + referencedRoutes.size();
+    }
 }
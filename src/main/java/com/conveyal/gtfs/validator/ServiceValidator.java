@@ -68,21 +68,26 @@ public class ServiceValidator extends TripValidator {
 
     @Override
     public void validateTrip(Trip trip, Route route, List<StopTime> stopTimes, List<Stop> stops) {
+        validateTrip(trip, route, TripStopTimes.fromLists(stopTimes, stops));
+    }
+
+    @Override
+    public void validateTrip(Trip trip, Route route, TripStopTimes stopTimes) {
+        int last = stopTimes.size - 1;
         if (trip.block_id != null) {
             // If the trip has a block_id, add a new block interval to the map.
             BlockInterval blockInterval = new BlockInterval();
             blockInterval.trip = trip;
-            StopTime firstStopTime = stopTimes.get(0);
-            blockInterval.startTime = firstStopTime.departure_time;
-            blockInterval.firstStop = firstStopTime;
-            blockInterval.lastStop = stopTimes.get(stopTimes.size() - 1);
+            blockInterval.startTime = stopTimes.departureTimes[0];
+            blockInterval.firstStopArrival = stopTimes.arrivalTimes[0];
+            blockInterval.lastStopDeparture = stopTimes.departureTimes[last];
             // Construct new list of intervals if none exists for encountered block_id.
             blockIntervals
                 .computeIfAbsent(trip.block_id, k -> new ArrayList<>())
                 .add(blockInterval);
         }
-        int firstStopDeparture = stopTimes.get(0).departure_time;
-        int lastStopArrival = stopTimes.get(stopTimes.size() - 1).arrival_time;
+        int firstStopDeparture = stopTimes.departureTimes[0];
+        int lastStopArrival = stopTimes.arrivalTimes[last];
         if (firstStopDeparture == Entity.INT_MISSING || lastStopArrival == Entity.INT_MISSING) {
             // ERR
             return;
@@ -417,7 +422,7 @@ public class ServiceValidator extends TripValidator {
                 BlockInterval interval1 = intervals.get(n);
                 // Compare the interval at position N with all other intervals at position N+1 to the end of the list.
                 for (BlockInterval interval2 : intervals.subList(n + 1, intervals.size())) {
-                    if (interval1.lastStop.departure_time <= interval2.firstStop.arrival_time || interval2.lastStop.departure_time <= interval1.firstStop.arrival_time) {
+                    if (interval1.lastStopDeparture <= interval2.firstStopArrival || interval2.lastStopDeparture <= interval1.firstStopArrival) {
                         continue;
                     }
                     // If either trip's last departure occurs after the other's first arrival, they overlap. We still
@@ -447,9 +452,10 @@ public class ServiceValidator extends TripValidator {
      */
     private class BlockInterval {
         Trip trip;
-        Integer startTime;
-        StopTime firstStop;
-        StopTime lastStop;
+        int startTime;
+        // Only the times are kept rather than the stop times themselves, which are not retained between trips.
+        int firstStopArrival;
+        int lastStopDeparture;
     }
 
     /**
@@ -467,4 +473,9 @@ public class ServiceValidator extends TripValidator {
             calendar.saturday == 1 ||
             calendar.sunday == 1;
     }
+
+    @Override
+    public int getEntityCacheSize () {
+        return serviceInfoForServiceId.size() + dateInfoForDate.size() + blockIntervals.size();
+    }
 }
@@ -16,7 +16,6 @@ import java.util.Set;
 
 import static com.conveyal.gtfs.error.NewGTFSErrorType.*;
 import static com.conveyal.gtfs.util.Util.fastDistance;
-import static com.conveyal.gtfs.validator.NewTripTimesValidator.missingBothTimes;
 
 /**
  * Created by abyrd on 2017-04-18
@@ -33,67 +32,79 @@ public class SpeedTripValidator extends TripValidator {
 
     @Override
     public void validateTrip(Trip trip, Route route, List<StopTime> stopTimes, List<Stop> stops) {
+        validateTrip(trip, route, TripStopTimes.fromLists(stopTimes, stops));
+    }
+
+    /**
+     * This works directly on the arrays of the columnar view. StopTime objects are only created for stop times that
+     * have errors.
+     */
+    @Override
+    public void validateTrip(Trip trip, Route route, TripStopTimes stopTimes) {
         // The specific maximum speed for this trip's route's mode of travel.
         double maxSpeedKph = getMaxSpeedKph(route);
         // Skip over any initial stop times that won't allow calculating speeds.
         int beginIndex = 0;
-        while (missingBothTimes(stopTimes.get(beginIndex))) {
+        while (stopTimes.missingBothTimes(beginIndex)) {
             beginIndex++;
-            if (beginIndex == stopTimes.size()) return;
+            if (beginIndex == stopTimes.size) return;
         }
         // Unfortunately we can't work on each stop pair in isolation,
         // because we want to accumulate distance when stop times are missing.
-        StopTime prevStopTime = stopTimes.get(beginIndex);
-        Stop prevStop = stops.get(beginIndex);
+        int prev = beginIndex;
+        int prevStop = beginIndex;
         double distanceMeters = 0;
-        for (int i = beginIndex + 1; i < stopTimes.size(); i++) {
-            StopTime currStopTime = stopTimes.get(i);
-            if (currStopTime.pickup_type == 1 && currStopTime.drop_off_type == 1 && currStopTime.timepoint == 0) {
+        for (int curr = beginIndex + 1; curr < stopTimes.size; curr++) {
+            if (stopTimes.pickupTypes[curr] == 1 && stopTimes.dropOffTypes[curr] == 1 && stopTimes.timepoints[curr] == 0) {
                 // stop_time allows neither pickup or drop off and is not a timepoint, so it serves no purpose.
-                registerError(currStopTime, NewGTFSErrorType.STOP_TIME_UNUSED);
+                registerError(stopTimes.toStopTime(curr), NewGTFSErrorType.STOP_TIME_UNUSED);
             }
-            Stop currStop = stops.get(i);
             // Distance is accumulated in case times are not provided for some StopTimes.
-            distanceMeters += fastDistance(currStop.stop_lat, currStop.stop_lon, prevStop.stop_lat, prevStop.stop_lon);
+            distanceMeters += fastDistance(
+                stopTimes.stopLats[curr], stopTimes.stopLons[curr],
+                stopTimes.stopLats[prevStop], stopTimes.stopLons[prevStop]
+            );
             // Redefine previous stop for next iteration (doing so here ensures the reassignment is not skipped if both
             // stop times for the stop are missing).
-            prevStop = currStop;
+            prevStop = curr;
             // Check that shape_dist_traveled is increasing. Note: we skip checking the first index because it appears
             // to be a common practice for agencies to omit a 0.0 value during export. Because most feed consumers
             // likely will just default a missing value to 0.0, we skip this check because it causes excessive noise in
             // validation results.
-            if (beginIndex > 0) checkShapeDistTraveled(prevStopTime, currStopTime);
-            if (missingBothTimes(currStopTime)) {
+            if (beginIndex > 0) checkShapeDistTraveled(stopTimes, prev, curr);
+            if (stopTimes.missingBothTimes(curr)) {
                 // FixMissingTimes has already been called, so both arrival and departure time are missing.
                 // The spec allows this. Other than accumulating distance, skip this StopTime. If this stop_time serves
                 // as a timepoint; however, this is considered an error.
-                if (currStopTime.timepoint == 1) registerError(currStopTime, NewGTFSErrorType.TIMEPOINT_MISSING_TIMES);
+                if (stopTimes.timepoints[curr] == 1) {
+                    registerError(stopTimes.toStopTime(curr), NewGTFSErrorType.TIMEPOINT_MISSING_TIMES);
+                }
                 continue;
             }
-            if (currStopTime.departure_time < currStopTime.arrival_time) {
-                registerError(currStopTime, DEPARTURE_BEFORE_ARRIVAL);
+            if (stopTimes.departureTimes[curr] < stopTimes.arrivalTimes[curr]) {
+                registerError(stopTimes.toStopTime(curr), DEPARTURE_BEFORE_ARRIVAL);
             }
             // Detect if travel times are rounded off to minutes.
-            boolean bothTravelTimesRounded = areTravelTimesRounded(prevStopTime) && areTravelTimesRounded(currStopTime);
-            double travelTimeSeconds = currStopTime.arrival_time - prevStopTime.departure_time;
+            boolean bothTravelTimesRounded = areTravelTimesRounded(stopTimes, prev) && areTravelTimesRounded(stopTimes, curr);
+            double travelTimeSeconds = stopTimes.arrivalTimes[curr] - stopTimes.departureTimes[prev];
             // If travel times are rounded and travel time is zero, determine the maximum and minimum possible speed
             // by adding/removing one minute of slack.
             if (bothTravelTimesRounded && travelTimeSeconds == 0) {
                 travelTimeSeconds += 60;
             }
-            if (checkDistanceAndTime(distanceMeters, travelTimeSeconds, currStopTime)) {
+            if (checkDistanceAndTime(distanceMeters, travelTimeSeconds, stopTimes, curr)) {
                 // If distance and time are OK, we've got valid numbers to calculate a travel speed.
                 double kph = (distanceMeters / 1000D) / (travelTimeSeconds / 60D / 60D);
                 if (kph < MIN_SPEED_KPH) {
-                    registerError(currStopTime, TRAVEL_TOO_SLOW, String.format("%2.1f km/h", kph));
+                    registerError(stopTimes.toStopTime(curr), TRAVEL_TOO_SLOW, String.format("%2.1f km/h", kph));
                 } else if (kph > maxSpeedKph) {
-                    registerError(currStopTime, TRAVEL_TOO_FAST, String.format("%2.1f km/h", kph));
+                    registerError(stopTimes.toStopTime(curr), TRAVEL_TOO_FAST, String.format("%2.1f km/h", kph));
                 }
             }
             // Reset accumulated distance, we've processed a stop time with arrival or departure time specified.
             distanceMeters = 0;
             // Redefine current stopTime for the next iteration.
-            prevStopTime = currStopTime;
+            prev = curr;
         }
     }
 
@@ -104,15 +115,17 @@ public class SpeedTripValidator extends TripValidator {
      * current value is missing, the previous value will be greater than the current stop time's value because
      * {@link Entity#DOUBLE_MISSING} is the lowest possible double value. This in turn will register an error.
      */
-    private void checkShapeDistTraveled(StopTime previous, StopTime current) {
+    private void checkShapeDistTraveled(TripStopTimes stopTimes, int previous, int current) {
+        double currentDistance = stopTimes.shapeDistTraveled[current];
+        double previousDistance = stopTimes.shapeDistTraveled[previous];
         if (
-            current.shape_dist_traveled != Entity.DOUBLE_MISSING &&
+            currentDistance != Entity.DOUBLE_MISSING &&
             (
-                previous.shape_dist_traveled == Entity.DOUBLE_MISSING ||
-                current.shape_dist_traveled <= previous.shape_dist_traveled
+                previousDistance == Entity.DOUBLE_MISSING ||
+                currentDistance <= previousDistance
             )
         ) {
-            registerError(current, SHAPE_DIST_TRAVELED_NOT_INCREASING, current.shape_dist_traveled);
+            registerError(stopTimes.toStopTime(current), SHAPE_DIST_TRAVELED_NOT_INCREASING, currentDistance);
         }
     }
 
@@ -130,8 +143,8 @@ public class SpeedTripValidator extends TripValidator {
      * Check that arrival and departure time for a stop time are rounded to the minute and update
      * {@link #allTravelTimesAreRounded} accordingly.
      */
-    private boolean areTravelTimesRounded(StopTime stopTime) {
-        boolean bothTravelTimesAreRounded = stopTime.departure_time % 60 == 0 && stopTime.arrival_time % 60 == 0;
+    private boolean areTravelTimesRounded(TripStopTimes stopTimes, int i) {
+        boolean bothTravelTimesAreRounded = stopTimes.departureTimes[i] % 60 == 0 && stopTimes.arrivalTimes[i] % 60 == 0;
         if (!bothTravelTimesAreRounded) this.allTravelTimesAreRounded = false;
         return bothTravelTimesAreRounded;
     }
@@ -140,7 +153,10 @@ public class SpeedTripValidator extends TripValidator {
      * This just pulls some of the range checking logic out of the main trip checking loop so it's more readable.
      * @return true if all values are OK
      */
-    private boolean checkDistanceAndTime (double distanceMeters, double travelTimeSeconds, StopTime stopTime) {
+    private boolean checkDistanceAndTime (double distanceMeters, double travelTimeSeconds, TripStopTimes stopTimes, int i) {
+        // Only create a StopTime object if an error is found.
+        if (distanceMeters != 0 && travelTimeSeconds > 0) return true;
+        StopTime stopTime = stopTimes.toStopTime(i);
         boolean good = true;
         // TODO Use Epsilon for very tiny travel e.g. < 5 meters
         if (distanceMeters == 0) {
@@ -178,5 +194,8 @@ public class SpeedTripValidator extends TripValidator {
         }
     }
 
-
+    @Override
+    public int getEntityCacheSize () {
+        return travelTimeZeroErrors.size();
+    }
 }
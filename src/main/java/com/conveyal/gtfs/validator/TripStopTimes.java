@@ -0,0 +1,205 @@
+package com.conveyal.gtfs.validator;
+
+import com.conveyal.gtfs.model.Stop;
+import com.conveyal.gtfs.model.StopTime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.conveyal.gtfs.model.Entity.INT_MISSING;
+
+/**
+ * A columnar view of the stop_times for a single trip, which is passed to {@link TripValidator}s instead of lists of
+ * StopTime and Stop objects. {@link NewTripTimesValidator} fills a single instance straight from the database and
+ * reuses it for every trip, so validating a feed does not create an object for every row in stop_times.
+ *
+ * The arrays are parallel, with one element per stop time in order of increasing stop_sequence. Only the first
+ * {@link #size} elements are meaningful: the arrays grow as needed and are never shrunk or cleared. Missing values are
+ * represented by {@link com.conveyal.gtfs.model.Entity#INT_MISSING} and
+ * {@link com.conveyal.gtfs.model.Entity#DOUBLE_MISSING} as in the entity classes. Stop times that reference a stop
+ * that does not exist are not included.
+ *
+ * Validators must not hold on to an instance (or its arrays) after validateTrip returns. Where a StopTime object is
+ * really needed, e.g. to register an error, one can be created with {@link #toStopTime(int)}.
+ */
+public class TripStopTimes {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    public String tripId;
+    public int size;
+
+    /** The line number in stop_times.txt, which is the id of the StopTime entity. */
+    public int[] lineNumbers;
+    public int[] stopSequences;
+    public int[] arrivalTimes;
+    public int[] departureTimes;
+    public int[] pickupTypes;
+    public int[] dropOffTypes;
+    public int[] continuousPickups;
+    public int[] continuousDropOffs;
+    public int[] timepoints;
+    public double[] shapeDistTraveled;
+    public String[] stopIds;
+    public String[] stopHeadsigns;
+    /** The stop for each stop time. These are shared references to the validator's cached stops. */
+    public Stop[] stops;
+    /** Stop coordinates, copied out of the stops for use in tight loops. */
+    public double[] stopLats;
+    public double[] stopLons;
+
+    public TripStopTimes () {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /** Prepare to receive the stop times of another trip, keeping the arrays that have already been allocated. */
+    public void reset (String tripId) {
+        this.tripId = tripId;
+        // Drop references to stops and strings so they are not retained beyond the trip they belong to.
+        Arrays.fill(stops, 0, size, null);
+        Arrays.fill(stopIds, 0, size, null);
+        Arrays.fill(stopHeadsigns, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Make room for one more stop time.
+     * @return the index at which the caller should set the values for the new stop time.
+     */
+    public int append () {
+        if (size == stopSequences.length) grow(size * 2);
+        return size++;
+    }
+
+    /** Set the stop for the stop time at the given index, along with its coordinates. */
+    public void setStop (int i, Stop stop) {
+        stops[i] = stop;
+        stopIds[i] = stop.stop_id;
+        stopLats[i] = stop.stop_lat;
+        stopLons[i] = stop.stop_lon;
+    }
+
+    public boolean missingEitherTime (int i) {
+        return arrivalTimes[i] == INT_MISSING || departureTimes[i] == INT_MISSING;
+    }
+
+    public boolean missingBothTimes (int i) {
+        return arrivalTimes[i] == INT_MISSING && departureTimes[i] == INT_MISSING;
+    }
+
+    /**
+     * If the stop time at the given index is missing one of arrival or departure time, copy from the other field.
+     * @return whether one of the times was missing.
+     */
+    public boolean fixMissingTimes (int i) {
+        boolean missing = false;
+        if (arrivalTimes[i] == INT_MISSING) {
+            arrivalTimes[i] = departureTimes[i];
+            missing = true;
+        }
+        if (departureTimes[i] == INT_MISSING) {
+            departureTimes[i] = arrivalTimes[i];
+            missing = true;
+        }
+        return missing;
+    }
+
+    /**
+     * Create a StopTime object holding the current values at the given index. This allocates, so it should only be
+     * used off the hot path, e.g. when registering an error or retaining a stop time beyond the current trip.
+     */
+    public StopTime toStopTime (int i) {
+        StopTime stopTime = new StopTime();
+        stopTime.id = lineNumbers[i];
+        stopTime.trip_id = tripId;
+        stopTime.stop_id = stopIds[i];
+        stopTime.stop_sequence = stopSequences[i];
+        stopTime.arrival_time = arrivalTimes[i];
+        stopTime.departure_time = departureTimes[i];
+        stopTime.stop_headsign = stopHeadsigns[i];
+        stopTime.pickup_type = pickupTypes[i];
+        stopTime.drop_off_type = dropOffTypes[i];
+        stopTime.continuous_pickup = continuousPickups[i];
+        stopTime.continuous_drop_off = continuousDropOffs[i];
+        stopTime.timepoint = timepoints[i];
+        stopTime.shape_dist_traveled = shapeDistTraveled[i];
+        return stopTime;
+    }
+
+    /** @return StopTime objects for all stop times in this trip. For validators that have not been ported. */
+    public List<StopTime> toStopTimeList () {
+        List<StopTime> stopTimes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) stopTimes.add(toStopTime(i));
+        return stopTimes;
+    }
+
+    /** @return the stops for all stop times in this trip, parallel to {@link #toStopTimeList()}. */
+    public List<Stop> toStopList () {
+        return new ArrayList<>(Arrays.asList(stops).subList(0, size));
+    }
+
+    /**
+     * Build a columnar view from lists of stop times and their stops, which must be the same length. This allows
+     * ported trip validators to still be called with lists.
+     */
+    public static TripStopTimes fromLists (List<StopTime> stopTimes, List<Stop> stops) {
+        TripStopTimes tripStopTimes = new TripStopTimes();
+        tripStopTimes.reset(stopTimes.isEmpty() ? null : stopTimes.get(0).trip_id);
+        for (int s = 0; s < stopTimes.size(); s++) {
+            StopTime stopTime = stopTimes.get(s);
+            int i = tripStopTimes.append();
+            tripStopTimes.lineNumbers[i] = stopTime.id;
+            tripStopTimes.stopSequences[i] = stopTime.stop_sequence;
+            tripStopTimes.arrivalTimes[i] = stopTime.arrival_time;
+            tripStopTimes.departureTimes[i] = stopTime.departure_time;
+            tripStopTimes.stopHeadsigns[i] = stopTime.stop_headsign;
+            tripStopTimes.pickupTypes[i] = stopTime.pickup_type;
+            tripStopTimes.dropOffTypes[i] = stopTime.drop_off_type;
+            tripStopTimes.continuousPickups[i] = stopTime.continuous_pickup;
+            tripStopTimes.continuousDropOffs[i] = stopTime.continuous_drop_off;
+            tripStopTimes.timepoints[i] = stopTime.timepoint;
+            tripStopTimes.shapeDistTraveled[i] = stopTime.shape_dist_traveled;
+            tripStopTimes.setStop(i, stops.get(s));
+            // Keep the stop ID from the stop time itself, in case the stop list is only approximately parallel.
+            tripStopTimes.stopIds[i] = stopTime.stop_id;
+        }
+        return tripStopTimes;
+    }
+
+    private void allocate (int capacity) {
+        lineNumbers = new int[capacity];
+        stopSequences = new int[capacity];
+        arrivalTimes = new int[capacity];
+        departureTimes = new int[capacity];
+        pickupTypes = new int[capacity];
+        dropOffTypes = new int[capacity];
+        continuousPickups = new int[capacity];
+        continuousDropOffs = new int[capacity];
+        timepoints = new int[capacity];
+        shapeDistTraveled = new double[capacity];
+        stopIds = new String[capacity];
+        stopHeadsigns = new String[capacity];
+        stops = new Stop[capacity];
+        stopLats = new double[capacity];
+        stopLons = new double[capacity];
+    }
+
+    private void grow (int capacity) {
+        lineNumbers = Arrays.copyOf(lineNumbers, capacity);
+        stopSequences = Arrays.copyOf(stopSequences, capacity);
+        arrivalTimes = Arrays.copyOf(arrivalTimes, capacity);
+        departureTimes = Arrays.copyOf(departureTimes, capacity);
+        pickupTypes = Arrays.copyOf(pickupTypes, capacity);
+        dropOffTypes = Arrays.copyOf(dropOffTypes, capacity);
+        continuousPickups = Arrays.copyOf(continuousPickups, capacity);
+        continuousDropOffs = Arrays.copyOf(continuousDropOffs, capacity);
+        timepoints = Arrays.copyOf(timepoints, capacity);
+        shapeDistTraveled = Arrays.copyOf(shapeDistTraveled, capacity);
+        stopIds = Arrays.copyOf(stopIds, capacity);
+        stopHeadsigns = Arrays.copyOf(stopHeadsigns, capacity);
+        stops = Arrays.copyOf(stops, capacity);
+        stopLats = Arrays.copyOf(stopLats, capacity);
+        stopLons = Arrays.copyOf(stopLons, capacity);
+    }
+}
@@ -26,4 +26,14 @@ public abstract class TripValidator extends Validator {
      */
     public abstract void validateTrip (Trip trip, Route route, List<StopTime> stopTimes, List<Stop> stops);
 
+    /**
+     * This is the method actually called on each trip by {@link NewTripTimesValidator}. The stop times are supplied as
+     * a reused columnar buffer, which must not be retained after this method returns. By default this creates lists
+     * of StopTime and Stop objects and calls {@link #validateTrip(Trip, Route, List, List)}, which allocates an object
+     * per stop time; validators that see every trip should override this instead.
+     */
+    public void validateTrip (Trip trip, Route route, TripStopTimes stopTimes) {
+        validateTrip(trip, route, stopTimes.toStopTimeList(), stopTimes.toStopList());
+    }
+
 }
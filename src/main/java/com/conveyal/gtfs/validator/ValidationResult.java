@@ -5,6 +5,8 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import java.awt.geom.Rectangle2D;
 import java.io.Serializable;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * An instance of this class is returned by the validator.
@@ -41,6 +43,11 @@ public class ValidationResult implements Serializable {
     public GeographicBounds fullBounds = new GeographicBounds();
     public GeographicBounds boundsWithoutOutliers = new GeographicBounds();
     public long validationTime;
+    /**
+     * Per-validator profiling information, in the order the validators were run. Empty if the result was reused from
+     * an earlier validation of an identical feed, in which case no validators were run.
+     */
+    public List<ValidatorTiming> validatorTimings = new ArrayList<>();
 
     public static class GeographicBounds implements Serializable {
         private static final long serialVersionUID = 1L;
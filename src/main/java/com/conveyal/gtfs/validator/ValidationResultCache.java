@@ -0,0 +1,260 @@
+package com.conveyal.gtfs.validator;
+
+import com.conveyal.gtfs.storage.StorageException;
+import com.conveyal.gtfs.util.json.JsonManager;
+import com.google.common.hash.Hashing;
+import org.apache.commons.dbutils.DbUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Memoizes validation results by feed content. Feeds loaded from a file are registered in the feeds table along with
+ * the md5 and sha1 of that file, so two namespaces with the same hashes were loaded from identical files and will
+ * produce identical validation output. When a feed is validated, this cache is consulted with the feed's hashes and a
+ * fingerprint of the validators being run. On a hit, the errors and the tables derived during validation are copied
+ * server-side from the namespace that was validated previously, and the stored {@link ValidationResult} is returned.
+ *
+ * Only namespaces that are registered with a content hash take part. Snapshots are registered without hashes (their
+ * contents may have been edited since they were copied), so they are always validated from scratch.
+ */
+public class ValidationResultCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ValidationResultCache.class);
+
+    /**
+     * This must be incremented whenever the behavior of the standard validators changes (e.g., a new check is added or
+     * an existing one is fixed) so that results memoized by an older version of the library are no longer reused.
+     */
+    public static final int VALIDATOR_SET_VERSION = 1;
+
+    /** The name of the table (in the root schema, next to the feeds registry) that holds the memoized results. */
+    public static final String TABLE_NAME = "validation_results";
+
+    private static final JsonManager<ValidationResult> json = new JsonManager<>(ValidationResult.class);
+
+    private final DataSource dataSource;
+    // The namespace being validated, without the separator dot.
+    private final String namespace;
+    private final String fingerprint;
+    // Content hashes for the namespace being validated, or null if it was not loaded from a file.
+    private String md5;
+    private String sha1;
+    // The namespace whose validation output matches this one, if any was found.
+    private String sourceNamespace;
+
+    /**
+     * @param namespace  the namespace of the feed being validated (with or without the trailing dot)
+     * @param validators the complete, ordered list of feed validators that will be run on the feed
+     */
+    public ValidationResultCache (DataSource dataSource, String namespace, List<FeedValidator> validators) {
+        this.dataSource = dataSource;
+        this.namespace = namespace == null ? "" : namespace.replace(".", "");
+        this.fingerprint = fingerprint(validators);
+    }
+
+    /**
+     * @return a short hex string identifying the version and ordered set of validators. Validators supplied by the
+     * caller (e.g. {@link MTCValidator}) are part of the fingerprint, so results from runs with different additional
+     * validators are never confused.
+     */
+    public static String fingerprint (List<FeedValidator> validators) {
+        String validatorNames = validators.stream()
+            .map(validator -> validator.getClass().getName())
+            .collect(Collectors.joining(","));
+        String versionedNames = String.join(":", Integer.toString(VALIDATOR_SET_VERSION), validatorNames);
+        return Hashing.sha256().hashString(versionedNames, StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * Look up a previous validation of identical feed content with the same validators.
+     *
+     * @return the memoized validation result, or null if there was no usable entry, in which case the caller should
+     * run the validators as usual. If a result is returned, {@link #copyCachedTables()} must be called to bring this
+     * namespace's errors and derived tables in line with it.
+     */
+    public ValidationResult lookUpCachedResult () {
+        if (namespace.isEmpty()) return null;
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            if (!lookUpContentHashes(connection)) return null;
+            if (!tableExists(connection, TABLE_NAME)) return null;
+            PreparedStatement selectStatement = connection.prepareStatement(String.format(
+                "select c.namespace, c.validation_result from %s c join feeds f on f.namespace = c.namespace " +
+                    "where c.md5 = ? and c.sha1 = ? and c.validator_fingerprint = ? and c.namespace <> ? " +
+                    "and f.deleted is not true", TABLE_NAME));
+            selectStatement.setString(1, md5);
+            selectStatement.setString(2, sha1);
+            selectStatement.setString(3, fingerprint);
+            selectStatement.setString(4, namespace);
+            ResultSet resultSet = selectStatement.executeQuery();
+            if (!resultSet.next()) return null;
+            ValidationResult validationResult = json.read(resultSet.getString(2));
+            sourceNamespace = resultSet.getString(1);
+            return validationResult;
+        } catch (SQLException | IOException e) {
+            LOG.warn("Could not look up cached validation result for {}.", namespace, e);
+            return null;
+        } finally {
+            DbUtils.closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Copy the errors and derived tables of the namespace found by {@link #lookUpCachedResult()} into this namespace
+     * (replacing the errors recorded during load, which are identical) in a single transaction. This drops tables, so
+     * no other open transaction may be holding a lock on this namespace's errors table.
+     *
+     * @return true if the copy succeeded. On failure, all changes are rolled back.
+     */
+    public boolean copyCachedTables () {
+        if (sourceNamespace == null) return false;
+        LOG.info("Feed {} has the same content as previously validated feed {}. Copying validation results.",
+            namespace, sourceNamespace);
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            copyValidationTables(connection, sourceNamespace);
+            connection.commit();
+            return true;
+        } catch (SQLException e) {
+            LOG.warn("Could not copy cached validation results from {} to {}.", sourceNamespace, namespace, e);
+            DbUtils.rollbackAndCloseQuietly(connection);
+            return false;
+        } finally {
+            DbUtils.closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Record the result of a complete validation run so that future validations of identical feed content can reuse
+     * it. Failure to store the result is logged, but does not affect the validation itself.
+     */
+    public void store (ValidationResult validationResult) {
+        if (namespace.isEmpty()) return;
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            if (!lookUpContentHashes(connection)) return;
+            Statement statement = connection.createStatement();
+            statement.execute(String.format("create table if not exists %s (md5 varchar, sha1 varchar, " +
+                "validator_fingerprint varchar, namespace varchar, validation_result text, created_date timestamp, " +
+                "primary key (md5, sha1, validator_fingerprint))", TABLE_NAME));
+            // Newer validations replace older ones, in case the older namespace is deleted first.
+            PreparedStatement upsertStatement = connection.prepareStatement(String.format(
+                "insert into %s values (?, ?, ?, ?, ?, current_timestamp) " +
+                    "on conflict (md5, sha1, validator_fingerprint) do update set namespace = excluded.namespace, " +
+                    "validation_result = excluded.validation_result, created_date = excluded.created_date",
+                TABLE_NAME));
+            upsertStatement.setString(1, md5);
+            upsertStatement.setString(2, sha1);
+            upsertStatement.setString(3, fingerprint);
+            upsertStatement.setString(4, namespace);
+            upsertStatement.setString(5, json.write(validationResult));
+            upsertStatement.execute();
+            connection.commit();
+            LOG.info("Stored validation result for {} in {}.", namespace, TABLE_NAME);
+        } catch (SQLException | IOException e) {
+            LOG.warn("Could not store validation result for {}.", namespace, e);
+            DbUtils.rollbackAndCloseQuietly(connection);
+        } finally {
+            DbUtils.closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Fetch the content hashes of the namespace being validated from the feeds registry.
+     * @return true if the namespace has content hashes and can therefore participate in caching.
+     */
+    private boolean lookUpContentHashes (Connection connection) throws SQLException {
+        if (md5 != null && sha1 != null) return true;
+        if (!tableExists(connection, "feeds")) return false;
+        PreparedStatement statement = connection.prepareStatement(
+            "select md5, sha1 from feeds where namespace = ? and snapshot_of is null");
+        statement.setString(1, namespace);
+        ResultSet resultSet = statement.executeQuery();
+        if (resultSet.next()) {
+            md5 = resultSet.getString(1);
+            sha1 = resultSet.getString(2);
+        }
+        return md5 != null && sha1 != null;
+    }
+
+    /**
+     * Replace the errors and derived tables of this namespace with copies of those in the source namespace, adding
+     * the same keys and indexes that the validators create. Any missing source table causes an exception (and
+     * therefore a rollback).
+     */
+    private void copyValidationTables (Connection connection, String sourceNamespace) throws SQLException {
+        Statement statement = connection.createStatement();
+        copyTable(statement, sourceNamespace, "errors", "alter table %s add primary key (error_id)");
+        copyTable(statement, sourceNamespace, "error_info");
+        // Tables written by ServiceValidator.
+        copyTable(statement, sourceNamespace, "services");
+        copyTable(statement, sourceNamespace, "service_dates",
+            "create index service_dates_service_date on %s (service_date)",
+            "create index service_dates_service_id on %s (service_id)");
+        copyTable(statement, sourceNamespace, "service_durations",
+            "alter table %s add primary key (service_id, route_type)");
+        // Tables written by PatternFinderValidator (via PatternBuilder).
+        copyTable(statement, sourceNamespace, "patterns", "alter table %s add primary key (pattern_id)");
+        copyTable(statement, sourceNamespace, "pattern_stops",
+            "alter table %s add primary key (pattern_id, stop_sequence)");
+        // PatternBuilder also adds a pattern_id column to the trips table.
+        String tripsTableName = String.join(".", namespace, "trips");
+        String sql = String.format("alter table %s add column if not exists pattern_id varchar", tripsTableName);
+        LOG.info(sql);
+        statement.execute(sql);
+        sql = String.format("update %s as t set pattern_id = s.pattern_id from %s.trips as s where t.trip_id = s.trip_id",
+            tripsTableName, sourceNamespace);
+        LOG.info(sql);
+        statement.execute(sql);
+        sql = String.format("create index if not exists trips_pattern_id_idx on %s (pattern_id)", tripsTableName);
+        LOG.info(sql);
+        statement.execute(sql);
+    }
+
+    /**
+     * Drop the named table in this namespace (if present) and recreate it as a copy of the same table in the source
+     * namespace. Each additional statement is formatted with the target table name and executed after the copy.
+     */
+    private void copyTable (
+        Statement statement,
+        String sourceNamespace,
+        String tableName,
+        String... postCopyStatements
+    ) throws SQLException {
+        String targetTableName = String.join(".", namespace, tableName);
+        statement.execute(String.format("drop table if exists %s", targetTableName));
+        String sql = String.format("create table %s as table %s.%s", targetTableName, sourceNamespace, tableName);
+        LOG.info(sql);
+        statement.execute(sql);
+        for (String postCopyStatement : postCopyStatements) {
+            statement.execute(String.format(postCopyStatement, targetTableName));
+        }
+    }
+
+    private static boolean tableExists (Connection connection, String tableName) {
+        try {
+            PreparedStatement statement = connection.prepareStatement(
+                "select exists (select 1 from information_schema.tables where table_schema = current_schema() and table_name = ?)");
+            statement.setString(1, tableName);
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            return resultSet.getBoolean(1);
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+}
@@ -83,4 +83,12 @@ public abstract class Validator {
      */
     public void complete (ValidationResult validationResult) {}
 
+    /**
+     * Validators that hold feed entities in memory should override this to report how many, so that the peak size
+     * can be recorded in {@link ValidatorTiming#peakCacheSize}.
+     */
+    public int getEntityCacheSize () {
+        return 0;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,45 @@
+package com.conveyal.gtfs.validator;
+
+import com.conveyal.gtfs.util.PhaseTiming;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.io.Serializable;
+
+/**
+ * Profiling information for a single validator, collected in {@link ValidationResult#validatorTimings} so that slow
+ * validators can be identified in production without attaching a profiler.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ValidatorTiming implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public String validatorName;
+    /** For a {@link TripValidator}, the feed validator that feeds it trips. Null for feed validators. */
+    public String parentValidatorName;
+    /** Time spent in validate() (or, for trip validators, the sum over all calls to validateTrip()). */
+    public PhaseTiming validate = new PhaseTiming();
+    /** Time spent in complete(). */
+    public PhaseTiming complete = new PhaseTiming();
+    /**
+     * Number of rows read from the feed's tables while this validator ran. For trip validators, this is the number
+     * of stop_times passed in, which are read once on behalf of all of them.
+     */
+    public long rowsScanned;
+    /** Number of errors stored while this validator ran, in both phases. */
+    public int errorsEmitted;
+    /** The largest number of entities held in memory by this validator, sampled at the end of each phase. */
+    public int peakCacheSize;
+
+    /** No-arg constructor for de/serialization. */
+    public ValidatorTiming () { }
+
+    public ValidatorTiming (Validator validator, Validator parentValidator) {
+        this.validatorName = validator.getClass().getSimpleName();
+        if (parentValidator != null) this.parentValidatorName = parentValidator.getClass().getSimpleName();
+    }
+
+    public void sampleCacheSize (Validator validator) {
+        peakCacheSize = Math.max(peakCacheSize, validator.getEntityCacheSize());
+    }
+}
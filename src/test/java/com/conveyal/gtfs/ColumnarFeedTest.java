@@ -0,0 +1,145 @@
+package com.conveyal.gtfs;
+
+import com.conveyal.gtfs.loader.Feed;
+import com.conveyal.gtfs.loader.FeedLoadResult;
+import com.conveyal.gtfs.model.Entity;
+import com.conveyal.gtfs.model.Route;
+import com.conveyal.gtfs.model.ShapePoint;
+import com.conveyal.gtfs.model.Stop;
+import com.conveyal.gtfs.model.StopTime;
+import com.conveyal.gtfs.model.Trip;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.mapdb.Fun;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.conveyal.gtfs.GTFS.load;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+/**
+ * Tests that a {@link ColumnarFeed} holds the same stops, trips, stop times and shapes as the feed it was built from.
+ */
+public class ColumnarFeedTest {
+    private static String testDBName;
+    private static GTFSFeed gtfsFeed;
+    private static Feed feed;
+
+    @BeforeAll
+    public static void setUpClass() throws IOException {
+        String zipFileName = TestUtils.zipFolderFiles("fake-agency", true);
+        gtfsFeed = GTFSFeed.fromFile(zipFileName);
+        testDBName = TestUtils.generateNewDB();
+        DataSource testDataSource = TestUtils.createTestDataSource(String.format("jdbc:postgresql://localhost/%s", testDBName));
+        FeedLoadResult feedLoadResult = load(zipFileName, testDataSource);
+        feed = new Feed(testDataSource, feedLoadResult.uniqueIdentifier);
+    }
+
+    @AfterAll
+    public static void tearDownClass() {
+        gtfsFeed.close();
+        TestUtils.dropDB(testDBName);
+    }
+
+    @Test
+    void canBuildFromGTFSFeed() {
+        assertMatchesGTFSFeed(ColumnarFeed.fromGTFSFeed(gtfsFeed, false));
+        assertMatchesGTFSFeed(ColumnarFeed.fromGTFSFeed(gtfsFeed, true));
+    }
+
+    @Test
+    void canBuildFromDatabaseFeed() {
+        ColumnarFeed columnarFeed = ColumnarFeed.fromFeed(feed, true);
+        assertThat(columnarFeed.offHeap, equalTo(true));
+        assertMatchesGTFSFeed(columnarFeed);
+    }
+
+    @Test
+    void canHoldMissingValues() {
+        GTFSFeed missingValuesFeed = new GTFSFeed();
+        try {
+            Route route = new Route();
+            route.route_id = "route";
+            route.route_type = Entity.INT_MISSING;
+            missingValuesFeed.routes.put(route.route_id, route);
+            Trip trip = new Trip();
+            trip.trip_id = "trip";
+            trip.route_id = route.route_id;
+            trip.direction_id = Entity.INT_MISSING;
+            missingValuesFeed.trips.put(trip.trip_id, trip);
+            StopTime stopTime = new StopTime();
+            stopTime.trip_id = trip.trip_id;
+            stopTime.stop_sequence = 1;
+            stopTime.pickup_type = Entity.INT_MISSING;
+            stopTime.drop_off_type = Entity.INT_MISSING;
+            missingValuesFeed.stop_times.put(new Fun.Tuple2(trip.trip_id, stopTime.stop_sequence), stopTime);
+
+            ColumnarFeed columnarFeed = ColumnarFeed.fromGTFSFeed(missingValuesFeed, false);
+            // Missing values must not read back as zero, which is a valid code for each of these fields.
+            assertThat(columnarFeed.getRouteType(columnarFeed.getRouteIndex(route.route_id)), equalTo(Entity.INT_MISSING));
+            int t = columnarFeed.getTripIndex(trip.trip_id);
+            assertThat(columnarFeed.getTripDirection(t), equalTo(Entity.INT_MISSING));
+            int row = columnarFeed.getFirstStopTime(t);
+            assertThat(columnarFeed.getPickupType(row), equalTo(Entity.INT_MISSING));
+            assertThat(columnarFeed.getDropOffType(row), equalTo(Entity.INT_MISSING));
+            StopTime materialized = columnarFeed.getStopTimesForTrip(trip.trip_id).get(0);
+            assertThat(materialized.pickup_type, equalTo(Entity.INT_MISSING));
+            assertThat(materialized.drop_off_type, equalTo(Entity.INT_MISSING));
+        } finally {
+            missingValuesFeed.close();
+        }
+    }
+
+    private static void assertMatchesGTFSFeed(ColumnarFeed columnarFeed) {
+        assertThat(columnarFeed.stopIds.size(), equalTo(gtfsFeed.stops.size()));
+        for (Stop stop : gtfsFeed.stops.values()) {
+            int s = columnarFeed.getStopIndex(stop.stop_id);
+            assertThat(columnarFeed.stopIds.get(s), equalTo(stop.stop_id));
+            assertThat(columnarFeed.getStopLat(s), equalTo(stop.stop_lat));
+            assertThat(columnarFeed.getStopLon(s), equalTo(stop.stop_lon));
+            assertThat(columnarFeed.getStopName(s), equalTo(stop.stop_name));
+        }
+        assertThat(columnarFeed.getStopIndex("not_a_stop"), equalTo(-1));
+
+        assertThat(columnarFeed.getStopTimeCount(), equalTo(gtfsFeed.stop_times.size()));
+        for (Trip trip : gtfsFeed.trips.values()) {
+            int t = columnarFeed.getTripIndex(trip.trip_id);
+            assertThat(columnarFeed.routeIds.get(columnarFeed.getTripRoute(t)), equalTo(trip.route_id));
+            assertThat(columnarFeed.serviceIds.get(columnarFeed.getTripService(t)), equalTo(trip.service_id));
+            assertThat(columnarFeed.getTripIdsForRoute(trip.route_id).contains(trip.trip_id), equalTo(true));
+
+            List<StopTime> expected = new ArrayList<>();
+            gtfsFeed.getOrderedStopTimesForTrip(trip.trip_id).forEach(expected::add);
+            List<StopTime> stopTimes = columnarFeed.getStopTimesForTrip(trip.trip_id);
+            assertThat(stopTimes.size(), equalTo(expected.size()));
+            assertThat(columnarFeed.getStopTimeCount(t), equalTo(expected.size()));
+            for (int i = 0; i < expected.size(); i++) {
+                assertThat(stopTimes.get(i).stop_id, equalTo(expected.get(i).stop_id));
+                assertThat(stopTimes.get(i).stop_sequence, equalTo(expected.get(i).stop_sequence));
+                assertThat(stopTimes.get(i).arrival_time, equalTo(expected.get(i).arrival_time));
+                assertThat(stopTimes.get(i).departure_time, equalTo(expected.get(i).departure_time));
+            }
+
+            if (trip.shape_id != null) {
+                int shape = columnarFeed.getTripShape(t);
+                List<ShapePoint> points = new ArrayList<>(gtfsFeed.shape_points.subMap(
+                    new Fun.Tuple2(trip.shape_id, null), new Fun.Tuple2(trip.shape_id, Fun.HI)
+                ).values());
+                assertThat(points.size(), greaterThan(0));
+                double[] coordinates = columnarFeed.getShapeCoordinates(shape);
+                assertThat(coordinates.length, equalTo(2 * points.size()));
+                for (int p = 0; p < points.size(); p++) {
+                    assertThat(coordinates[2 * p], equalTo(points.get(p).shape_pt_lon));
+                    assertThat(coordinates[2 * p + 1], equalTo(points.get(p).shape_pt_lat));
+                }
+            }
+        }
+        assertThat(columnarFeed.getByteSize(), greaterThan(0L));
+    }
+}
@@ -0,0 +1,159 @@
+package com.conveyal.gtfs;
+
+import com.conveyal.gtfs.storage.LocalBlobStore;
+import com.google.common.io.Files;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test the memory and disk budgets of {@link GTFSCache}, working offline without S3.
+ */
+public class GTFSCacheTest {
+    private static File feedZip;
+
+    @BeforeAll
+    public static void setUpClass() throws IOException {
+        feedZip = new File(TestUtils.zipFolderFiles("fake-agency", true));
+    }
+
+    /**
+     * A feed evicted from memory while it is still in use must be returned again rather than opened a second time,
+     * which would connect two GTFSFeeds to the same MapDB file.
+     */
+    @Test
+    public void reusesEvictedFeedStillInUse() throws Exception {
+        // A budget of one byte holds at most one feed, and none that is larger than the budget.
+        GTFSCache cache = new GTFSCache(null, null, Files.createTempDir(), 1, Long.MAX_VALUE);
+        GTFSFeed first = cache.put("first", feedZip);
+        cache.put("second", feedZip);
+        assertThat(cache.getCurrentCacheSize(), lessThanOrEqualTo(1L));
+        assertThat(cache.getCacheStats().evictionCount(), greaterThan(0L));
+
+        assertThat(cache.get("first"), sameInstance(first));
+        assertThat(cache.getCacheStats().missCount(), equalTo(1L));
+        assertThat(cache.getCacheStats().loadCount(), equalTo(1L));
+    }
+
+    /**
+     * When no S3 bucket is set, the disk budget only deletes MapDB files of feeds that are not open, keeping the GTFS
+     * zip files they can be rebuilt from.
+     */
+    @Test
+    public void evictsDatabaseFilesOverDiskBudget() throws Exception {
+        File cacheDir = Files.createTempDir();
+        GTFSCache putCache = new GTFSCache(null, cacheDir);
+        putCache.put("first", feedZip).close();
+        putCache.put("second", feedZip).close();
+
+        // Neither feed is open in a new cache, so opening one deletes the files of the other.
+        GTFSCache cache = new GTFSCache(null, null, cacheDir, Long.MAX_VALUE, 1);
+        GTFSFeed second = cache.get("second");
+        assertThat(new File(cacheDir, "first.db").exists(), equalTo(false));
+        assertThat(new File(cacheDir, "first.zip").exists(), equalTo(true));
+        assertThat(new File(cacheDir, "second.db").exists(), equalTo(true));
+        assertThat(cache.getDiskEvictionCount(), equalTo(1L));
+        assertThat(cache.getDiskBytesEvicted(), greaterThan(0L));
+
+        // The deleted feed is rebuilt from its zip file, while the other stays open.
+        GTFSFeed first = cache.get("first");
+        assertThat(first, notNullValue());
+        assertThat(first.stops.size(), equalTo(second.stops.size()));
+        assertThat(new File(cacheDir, "second.db").exists(), equalTo(true));
+    }
+
+    /** Concurrent asynchronous requests for a feed that is not in memory share a single load. */
+    @Test
+    public void sharesConcurrentAsyncLoads() throws Exception {
+        File cacheDir = Files.createTempDir();
+        new GTFSCache(null, cacheDir).put("feed", feedZip);
+
+        GTFSCache cache = new GTFSCache(null, cacheDir);
+        List<CompletableFuture<GTFSFeed>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) futures.add(cache.getAsync("feed"));
+        GTFSFeed feed = futures.get(0).get();
+        for (CompletableFuture<GTFSFeed> future : futures) assertThat(future.get(), sameInstance(feed));
+        assertThat(cache.getCacheStats().loadCount(), equalTo(1L));
+        assertThat(cache.getAsync("feed").isDone(), equalTo(true));
+    }
+
+    /** Warming up loads every feed that can be loaded, and does not fail because of one that cannot. */
+    @Test
+    public void canWarmUpCache() throws Exception {
+        File cacheDir = Files.createTempDir();
+        GTFSCache putCache = new GTFSCache(null, cacheDir);
+        putCache.putAsync("first", feedZip).get();
+        putCache.putAsync("second", feedZip).get();
+
+        GTFSCache cache = new GTFSCache(null, cacheDir);
+        cache.warmUp(Arrays.asList("first", "second", "missing")).get();
+        assertThat(cache.getCurrentCacheSize(), equalTo(2L));
+        assertThat(cache.getCacheStats().loadExceptionCount(), equalTo(1L));
+        ExecutionException e = assertThrows(ExecutionException.class, () -> cache.getAsync("missing").get());
+        assertThat(e.getCause(), notNullValue());
+    }
+
+    /**
+     * A feed put in the cache is stored remotely with its MapDB files compressed, so another cache with an empty cache
+     * directory can load it without rebuilding them or the spatial index, unless they are corrupt.
+     */
+    @Test
+    public void canLoadFeedFromBlobStore() throws Exception {
+        File remoteDir = Files.createTempDir();
+        LocalBlobStore blobStore = new LocalBlobStore(remoteDir);
+        new GTFSCache(blobStore, "feeds", Files.createTempDir(), Long.MAX_VALUE, Long.MAX_VALUE).put("feed", feedZip);
+        File bundle = new File(remoteDir, "feeds/feed.mapdb.zip");
+        assertThat(bundle.exists(), equalTo(true));
+        assertThat(new File(remoteDir, "feeds/feed.zip").exists(), equalTo(true));
+
+        File cacheDir = Files.createTempDir();
+        GTFSCache cache = new GTFSCache(blobStore, "feeds", cacheDir, Long.MAX_VALUE, Long.MAX_VALUE);
+        GTFSFeed feed = cache.get("feed");
+        assertThat(feed.stops.size(), greaterThan(0));
+        // The MapDB files were downloaded, so the original feed was not.
+        assertThat(new File(cacheDir, "feed.db").exists(), equalTo(true));
+        assertThat(new File(cacheDir, "feed.zip").exists(), equalTo(false));
+        // The spatial index was stored in the bundle rather than rebuilt after downloading it.
+        assertThat(feed.getFeedSpatialIndex().isLoadedFromBytes(), equalTo(true));
+
+        // A bundle that does not match its checksum is rejected, and the feed is rebuilt from the original.
+        java.nio.file.Files.write(bundle.toPath(), new byte[] {1, 2, 3}, StandardOpenOption.APPEND);
+        File otherCacheDir = Files.createTempDir();
+        GTFSFeed rebuilt = new GTFSCache(blobStore, "feeds", otherCacheDir, Long.MAX_VALUE, Long.MAX_VALUE).get("feed");
+        assertThat(rebuilt.stops.size(), equalTo(feed.stops.size()));
+        assertThat(new File(otherCacheDir, "feed.zip").exists(), equalTo(true));
+    }
+
+    /** Closing the cache closes its blob store, so that any threads it transfers files with are stopped. */
+    @Test
+    public void closesBlobStore() throws Exception {
+        AtomicBoolean closed = new AtomicBoolean();
+        LocalBlobStore blobStore = new LocalBlobStore(Files.createTempDir()) {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+        GTFSCache cache = new GTFSCache(blobStore, "feeds", Files.createTempDir(), Long.MAX_VALUE, Long.MAX_VALUE);
+        cache.put("feed", feedZip);
+        cache.close();
+        assertThat(closed.get(), equalTo(true));
+    }
+}
@@ -0,0 +1,78 @@
+package com.conveyal.gtfs;
+
+import com.conveyal.gtfs.model.StopTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the throughput of stop time queries on a GTFSFeed stored in a temp file and one stored on the heap. This is
+ * not run as part of the test suite. Run its main method with the path to a GTFS zip file (the fake-agency test feed
+ * is used if none is given) and optionally the number of passes over all trips.
+ */
+public class GTFSFeedBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GTFSFeedBenchmark.class);
+
+    public static void main (String[] args) throws Exception {
+        String zipFileName = args.length > 0 ? args[0] : TestUtils.zipFolderFiles("fake-agency", true);
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        for (GTFSFeed.Storage storage : GTFSFeed.Storage.values()) {
+            benchmark(zipFileName, storage, passes);
+        }
+    }
+
+    private static void benchmark (String zipFileName, GTFSFeed.Storage storage, int passes) {
+        long startLoad = System.nanoTime();
+        GTFSFeed feed = GTFSFeed.fromFile(zipFileName, null, storage);
+        LOG.info("{}: loaded feed in {} ms", storage, (System.nanoTime() - startLoad) / 1_000_000);
+        List<String> tripIds = new ArrayList<>(feed.trips.keySet());
+
+        // Warm up, then time each query separately.
+        run(feed, tripIds, Math.max(1, passes / 10));
+        long startOrdered = System.nanoTime();
+        long stopTimes = 0;
+        for (int pass = 0; pass < passes; pass++) {
+            for (String tripId : tripIds) {
+                for (StopTime stopTime : feed.getOrderedStopTimesForTrip(tripId)) stopTimes++;
+            }
+        }
+        report(storage, "getOrderedStopTimesForTrip", passes * tripIds.size(), stopTimes, startOrdered);
+
+        long startInterpolated = System.nanoTime();
+        long interpolatedStopTimes = 0;
+        for (int pass = 0; pass < passes; pass++) {
+            for (String tripId : tripIds) {
+                try {
+                    for (StopTime stopTime : feed.getInterpolatedStopTimesForTrip(tripId)) interpolatedStopTimes++;
+                } catch (GTFSFeed.FirstAndLastStopsDoNotHaveTimes e) {
+                    // Skip trips that cannot be interpolated, as callers do.
+                }
+            }
+        }
+        report(storage, "getInterpolatedStopTimesForTrip", passes * tripIds.size(), interpolatedStopTimes,
+            startInterpolated);
+        feed.close();
+    }
+
+    private static void run (GTFSFeed feed, List<String> tripIds, int passes) {
+        for (int pass = 0; pass < passes; pass++) {
+            for (String tripId : tripIds) {
+                feed.getOrderedStopTimesForTrip(tripId).forEach(stopTime -> { });
+                try {
+                    feed.getInterpolatedStopTimesForTrip(tripId);
+                } catch (GTFSFeed.FirstAndLastStopsDoNotHaveTimes e) {
+                    // Skip trips that cannot be interpolated.
+                }
+            }
+        }
+    }
+
+    private static void report (GTFSFeed.Storage storage, String query, long calls, long stopTimes, long startNanos) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        LOG.info("{}: {} {} calls/s, {} stop times/s", storage, query, Math.round(calls / seconds),
+            Math.round(stopTimes / seconds));
+    }
+}
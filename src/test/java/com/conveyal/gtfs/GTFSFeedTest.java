@@ -1,11 +1,19 @@
 package com.conveyal.gtfs;
 
+import com.conveyal.gtfs.model.Pattern;
+import com.conveyal.gtfs.model.Stop;
 import com.conveyal.gtfs.model.StopTime;
+import com.conveyal.gtfs.model.TripDerivedData;
+import com.conveyal.gtfs.validator.service.GeoUtils;
 import com.csvreader.CsvReader;
 import org.apache.commons.io.input.BOMInputStream;
 import org.hamcrest.comparator.ComparatorMatcherBuilder;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Envelope;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.Fun;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,14 +21,22 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.number.IsCloseTo.closeTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 /**
  * Test suite for the GTFSFeed class.
@@ -187,6 +203,24 @@ public class GTFSFeedTest {
         }
     }
 
+    /**
+     * Make sure a feed written with a non-default compression level loads back with the same shapes and stop times.
+     */
+    @Test
+    public void canReloadFeedWrittenToZipFile() throws IOException {
+        File outZip = File.createTempFile("fake-agency-output", ".zip");
+        GTFSFeed feed = GTFSFeed.fromFile(simpleGtfsZipFileName);
+        feed.toFile(outZip.getAbsolutePath(), 1);
+        GTFSFeed reloaded = GTFSFeed.fromFile(outZip.getAbsolutePath());
+        assertThat(reloaded.shape_points.size(), equalTo(feed.shape_points.size()));
+        assertThat(reloaded.shape_points.keySet(), equalTo(feed.shape_points.keySet()));
+        assertThat(reloaded.stop_times.values().stream().map(GTFSFeedTest::describe).collect(Collectors.toList()),
+            equalTo(feed.stop_times.values().stream().map(GTFSFeedTest::describe).collect(Collectors.toList())));
+        reloaded.close();
+        feed.close();
+        outZip.delete();
+    }
+
     /**
      * Make sure that a GTFS feed with interpolated stop times have calculated times after feed processing
      * @throws GTFSFeed.FirstAndLastStopsDoNotHaveTimes
@@ -248,6 +282,11 @@ public class GTFSFeedTest {
             // This should reflect the number of stops in src/test/resources/fake-agency/stops.txt
             equalTo(5)
         );
+        // Stops are indexed with longitude as x and latitude as y.
+        assertThat(
+            feed.getSpatialIndex().query(new Envelope(-122.0075, -122.0074, 37.0612, 37.0613)).size(),
+            equalTo(1)
+        );
     }
 
     /**
@@ -273,4 +312,168 @@ public class GTFSFeedTest {
             is(closeTo(5.18, 0.01))
         );
     }
+
+    /**
+     * Make sure stop times, shapes and patterns written with the compact serializers read back the same after the
+     * MapDB file is closed and reopened.
+     */
+    @Test
+    public void canReopenFeedStoredInFile() throws Exception {
+        File dbFile = File.createTempFile("fake-agency", ".db");
+        dbFile.delete();
+        GTFSFeed feed = new GTFSFeed(dbFile.getAbsolutePath());
+        feed.loadFromFile(new ZipFile(simpleGtfsZipFileName));
+        List<String> stopTimes = feed.stop_times.values().stream().map(GTFSFeedTest::describe).collect(Collectors.toList());
+        List<String> shapePoints = feed.shape_points.entrySet().stream()
+            .map(e -> e.getKey() + " " + e.getValue().shape_pt_lat + " " + e.getValue().shape_pt_lon)
+            .collect(Collectors.toList());
+        Map<String, Pattern> patterns = new HashMap<>(feed.patterns);
+        feed.close();
+
+        GTFSFeed reopened = new GTFSFeed(dbFile.getAbsolutePath());
+        assertThat(reopened.stop_times.values().stream().map(GTFSFeedTest::describe).collect(Collectors.toList()),
+            equalTo(stopTimes));
+        assertThat(reopened.shape_points.entrySet().stream()
+            .map(e -> e.getKey() + " " + e.getValue().shape_pt_lat + " " + e.getValue().shape_pt_lon)
+            .collect(Collectors.toList()), equalTo(shapePoints));
+        assertThat(reopened.patterns.size(), equalTo(patterns.size()));
+        for (Pattern pattern : reopened.patterns.values()) {
+            Pattern original = patterns.get(pattern.pattern_id);
+            assertThat(pattern.orderedStops, equalTo(original.orderedStops));
+            assertThat(pattern.associatedTrips, equalTo(original.associatedTrips));
+            assertThat(pattern.geometry == null ? null : pattern.geometry.toText(),
+                equalTo(original.geometry == null ? null : original.geometry.toText()));
+        }
+        // Range queries with null and Fun.HI bounds still work with the custom key serializer.
+        String tripId = "a30277f8-e50a-4a85-9141-b1e0da9d429d";
+        assertThat(reopened.getOrderedStopTimesForTrip(tripId).iterator().next().trip_id, equalTo(tripId));
+        reopened.close();
+    }
+
+    /**
+     * Make sure a MapDB file written before the format version was recorded is detected, so it can be rebuilt.
+     */
+    @Test
+    public void canDetectDatabaseInEarlierFormat() throws IOException {
+        File dbFile = File.createTempFile("old-format", ".db");
+        dbFile.delete();
+        // Use the same options as GTFSFeed, as earlier versions did.
+        DB db = DBMaker.newFileDB(dbFile).transactionDisable().mmapFileEnable().compressionEnable().make();
+        db.getTreeMap("stop_times").put(new Fun.Tuple2<>("trip", 1), new StopTime());
+        db.close();
+        assertThrows(IOException.class, () -> new GTFSFeed(dbFile.getAbsolutePath()));
+    }
+
+    /**
+     * Make sure a feed stored on the heap holds the same entities and answers the same queries as one stored in a file.
+     */
+    @Test
+    public void canLoadFeedOnHeap() throws GTFSFeed.FirstAndLastStopsDoNotHaveTimes {
+        GTFSFeed fileFeed = GTFSFeed.fromFile(simpleGtfsZipFileName);
+        GTFSFeed heapFeed = GTFSFeed.fromFile(simpleGtfsZipFileName, null, GTFSFeed.Storage.HEAP);
+        assertThat(heapFeed.feedId, equalTo(fileFeed.feedId));
+        assertThat(heapFeed.stops.keySet(), equalTo(fileFeed.stops.keySet()));
+        assertThat(heapFeed.trips.keySet(), equalTo(fileFeed.trips.keySet()));
+        assertThat(heapFeed.shape_points.size(), equalTo(fileFeed.shape_points.size()));
+        assertThat(heapFeed.patterns.size(), equalTo(fileFeed.patterns.size()));
+        assertThat(heapFeed.errors.size(), equalTo(fileFeed.errors.size()));
+        assertThat(heapFeed.stop_times.values().stream().map(GTFSFeedTest::describe).collect(Collectors.toList()),
+            equalTo(fileFeed.stop_times.values().stream().map(GTFSFeedTest::describe).collect(Collectors.toList())));
+        String tripId = "a30277f8-e50a-4a85-9141-b1e0da9d429d";
+        List<String> interpolated = new ArrayList<>();
+        heapFeed.getInterpolatedStopTimesForTrip(tripId).forEach(st -> interpolated.add(describe(st)));
+        List<String> expected = new ArrayList<>();
+        fileFeed.getInterpolatedStopTimesForTrip(tripId).forEach(st -> expected.add(describe(st)));
+        assertThat(interpolated, equalTo(expected));
+        assertThat(heapFeed.getTripSpeed(tripId), equalTo(fileFeed.getTripSpeed(tripId)));
+        heapFeed.close();
+        fileFeed.close();
+    }
+
+    /**
+     * Make sure derived trip data computed in bulk and served from the cache matches what is computed for each trip on
+     * demand.
+     */
+    @Test
+    public void canPrecomputeTripDerivedData() throws GTFSFeed.FirstAndLastStopsDoNotHaveTimes, IOException {
+        GTFSFeed feed = GTFSFeed.fromFile(TestUtils.zipFolderFiles("fake-agency-interpolated-stop-times", true));
+        List<String> tripIds = new ArrayList<>(feed.trips.keySet());
+        Map<String, List<String>> interpolated = new HashMap<>();
+        Map<String, Double> speeds = new HashMap<>();
+        Map<String, Double> straightLineDistances = new HashMap<>();
+        for (String tripId : tripIds) {
+            List<String> stopTimes = new ArrayList<>();
+            feed.getInterpolatedStopTimesForTrip(tripId).forEach(st -> stopTimes.add(describe(st)));
+            interpolated.put(tripId, stopTimes);
+            speeds.put(tripId, feed.getTripSpeed(tripId));
+            straightLineDistances.put(tripId, feed.getTripDistance(tripId, true));
+        }
+
+        // Batch lookups before precomputing compute the trips in parallel.
+        Map<String, TripDerivedData> batch = feed.getTripDerivedData(tripIds);
+        assertThat(new ArrayList<>(batch.keySet()), equalTo(tripIds));
+
+        feed.precomputeTripDerivedData();
+        for (String tripId : tripIds) {
+            TripDerivedData data = feed.getTripDerivedData(tripId);
+            assertThat(data.hasInterpolatedStopTimes(), is(true));
+            assertThat(data.getInterpolatedStopTimes().stream().map(GTFSFeedTest::describe).collect(Collectors.toList()),
+                equalTo(interpolated.get(tripId)));
+            assertThat(data.getSpeed(), equalTo(speeds.get(tripId)));
+            assertThat(data.straightLineDistance, equalTo(straightLineDistances.get(tripId)));
+            assertThat(batch.get(tripId).distance, equalTo(data.distance));
+            // The existing methods are answered from the cache, and return copies that can be modified.
+            List<String> stopTimes = new ArrayList<>();
+            feed.getInterpolatedStopTimesForTrip(tripId).forEach(st -> {
+                stopTimes.add(describe(st));
+                st.arrival_time = 0;
+            });
+            assertThat(stopTimes, equalTo(interpolated.get(tripId)));
+            assertThat(feed.getTripSpeed(tripId), equalTo(speeds.get(tripId)));
+        }
+        feed.close();
+    }
+
+    /**
+     * Make sure derived trip data cached by looking it up is not used by the methods computing a single value for a
+     * trip until it has been precomputed, so that they still see changes to the feed, and that data is not cached for
+     * trips whose stops do not exist.
+     */
+    @Test
+    public void onlyUsesTripDerivedDataOncePrecomputed() throws IOException {
+        GTFSFeed feed = GTFSFeed.fromFile(TestUtils.zipFolderFiles("fake-agency-interpolated-stop-times", true));
+        String tripId = feed.trips.keySet().iterator().next();
+        TripDerivedData data = feed.getTripDerivedData(tripId);
+        assertThat(feed.getTripDistance(tripId, true), equalTo(data.straightLineDistance));
+
+        // Move the last stop of the trip.
+        List<String> stopIds = feed.getOrderedStopListForTrip(tripId);
+        Stop stop = feed.stops.get(stopIds.get(stopIds.size() - 1));
+        stop.stop_lat += 0.01;
+        feed.stops.put(stop.stop_id, stop);
+        double movedDistance = feed.getTripDistance(tripId, true);
+        assertThat(movedDistance, is(not(equalTo(data.straightLineDistance))));
+        assertThat(movedDistance, equalTo(GeoUtils.getDistance(feed.getStraightLineForStops(tripId))));
+        feed.precomputeTripDerivedData();
+        assertThat(feed.getTripDistance(tripId, true), equalTo(movedDistance));
+
+        feed.close();
+
+        // A trip with a stop that does not exist fails, whether or not its data was precomputed, rather than the stop
+        // being skipped.
+        GTFSFeed missingStopFeed = GTFSFeed.fromFile(TestUtils.zipFolderFiles("fake-agency-interpolated-stop-times", true));
+        missingStopFeed.stops.remove(stop.stop_id);
+        assertThrows(RuntimeException.class, () -> missingStopFeed.getTripDerivedData(tripId));
+        assertThat(missingStopFeed.getTripDerivedData(Collections.singleton(tripId)).containsKey(tripId), is(false));
+        missingStopFeed.precomputeTripDerivedData();
+        assertThrows(RuntimeException.class, () -> missingStopFeed.getTripDistance(tripId, true));
+        missingStopFeed.close();
+    }
+
+    private static String describe(StopTime stopTime) {
+        return String.join(",", stopTime.trip_id, stopTime.stop_id, String.valueOf(stopTime.stop_sequence),
+            String.valueOf(stopTime.arrival_time), String.valueOf(stopTime.departure_time),
+            String.valueOf(stopTime.pickup_type), String.valueOf(stopTime.timepoint),
+            String.valueOf(stopTime.shape_dist_traveled), String.valueOf(stopTime.stop_headsign));
+    }
 }
@@ -11,12 +11,15 @@ import com.conveyal.gtfs.storage.ExpectedFieldType;
 import com.conveyal.gtfs.storage.PersistenceExpectation;
 import com.conveyal.gtfs.storage.RecordExpectation;
 import com.conveyal.gtfs.util.InvalidNamespaceException;
+import com.conveyal.gtfs.util.json.JsonManager;
 import com.conveyal.gtfs.validator.FeedValidatorCreator;
 import com.conveyal.gtfs.validator.MTCValidator;
 import com.conveyal.gtfs.validator.ValidationResult;
+import com.conveyal.gtfs.validator.ValidatorTiming;
 import com.csvreader.CsvReader;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
+import com.google.common.io.ByteStreams;
 import graphql.Assert;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.input.BOMInputStream;
@@ -28,26 +31,38 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.core.IsNull.nullValue;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
@@ -646,6 +661,46 @@ public class GTFSTest {
         );
     }
 
+    /**
+     * Load and validate a feed and confirm that per-table load timings and per-validator timings (including the trip
+     * validators run by NewTripTimesValidator) are reported and survive a round trip through JSON.
+     */
+    @Test
+    void canReportLoadAndValidationTimings() throws IOException {
+        String testDBName = TestUtils.generateNewDB();
+        try {
+            String zipFileName = TestUtils.zipFolderFiles("fake-agency", true);
+            DataSource dataSource = TestUtils.createTestDataSource(String.join("/", JDBC_URL, testDBName));
+            FeedLoadResult loadResult = GTFS.load(zipFileName, dataSource);
+            assertThat(loadResult.stopTimes.parse, notNullValue());
+            ValidationResult validationResult = GTFS.validate(loadResult.uniqueIdentifier, dataSource);
+            // 8 standard feed validators plus the 4 trip validators nested within NewTripTimesValidator.
+            assertThat(validationResult.validatorTimings.size(), equalTo(12));
+            long tripValidatorCount = validationResult.validatorTimings.stream()
+                .filter(timing -> "NewTripTimesValidator".equals(timing.parentValidatorName))
+                .count();
+            assertThat(tripValidatorCount, equalTo(4L));
+            ValidatorTiming tripTimesTiming = validationResult.validatorTimings.stream()
+                .filter(timing -> "NewTripTimesValidator".equals(timing.validatorName))
+                .findFirst()
+                .get();
+            assertThat(tripTimesTiming.rowsScanned, greaterThan(0L));
+            assertThat(tripTimesTiming.peakCacheSize, greaterThan(0));
+
+            ValidationResult deserialized = new JsonManager<>(ValidationResult.class)
+                .read(new JsonManager<>(ValidationResult.class).write(validationResult));
+            assertThat(deserialized.validatorTimings.size(), equalTo(12));
+            assertThat(deserialized.validatorTimings.get(0).validatorName,
+                equalTo(validationResult.validatorTimings.get(0).validatorName));
+            FeedLoadResult deserializedLoadResult = new JsonManager<>(FeedLoadResult.class)
+                .read(new JsonManager<>(FeedLoadResult.class).write(loadResult));
+            assertThat(deserializedLoadResult.stopTimes.copy.wallTimeMillis,
+                equalTo(loadResult.stopTimes.copy.wallTimeMillis));
+        } finally {
+            TestUtils.dropDB(testDBName);
+        }
+    }
+
     /**
      * Load a feed and remove all data from the tables that match the mandatory file list. Confirm that the export
      * contains the mandatory files which will be exported even though the matching table has no data.
@@ -712,6 +767,218 @@ public class GTFSTest {
         }
     }
 
+    /**
+     * Load a feed, empty an optional and a mandatory table, and export it to a stream. Confirm that the streamed zip
+     * leaves out the empty optional table but not the empty mandatory one, and has the same files as a zip file export.
+     */
+    @Test
+    void canStreamExportWithoutEmptyOptionalFiles() {
+        String testDBName = TestUtils.generateNewDB();
+        File tempFile = null;
+        try {
+            String zipFileName = TestUtils.zipFolderFiles("fake-agency", true);
+            String dbConnectionUrl = String.join("/", JDBC_URL, testDBName);
+            DataSource dataSource = TestUtils.createTestDataSource(dbConnectionUrl);
+            FeedLoadResult loadResult = GTFS.load(zipFileName, dataSource);
+            String namespace = loadResult.uniqueIdentifier;
+            try (Connection connection = dataSource.getConnection()) {
+                for (Table table : new Table[] {Table.FARE_RULES, Table.STOPS}) {
+                    connection.prepareStatement(String.format("delete from %s.%s", namespace, table.name)).execute();
+                }
+                connection.commit();
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            FeedLoadResult exportResult = GTFS.export(namespace, out, dataSource, false, true);
+            assertThat(exportResult.fatalException, is(nullValue()));
+            assertThat(exportResult.stops.rowCount, equalTo(0));
+            Set<String> streamedFiles = new HashSet<>();
+            try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+                for (ZipEntry entry; (entry = zipInputStream.getNextEntry()) != null; ) streamedFiles.add(entry.getName());
+            }
+            assertThat(streamedFiles.contains(Table.STOPS.fileName), is(true));
+            assertThat(streamedFiles.contains(Table.FARE_RULES.fileName), is(false));
+            assertThat(streamedFiles.contains(Table.ROUTES.fileName), is(true));
+
+            tempFile = exportGtfs(namespace, dataSource, false, true);
+            Set<String> files = new HashSet<>();
+            try (ZipFile zipFile = new ZipFile(tempFile)) {
+                zipFile.stream().forEach(entry -> files.add(entry.getName()));
+            }
+            assertThat(streamedFiles, equalTo(files));
+        } catch (IOException | SQLException e) {
+            LOG.error("An error occurred while attempting to test streaming export.", e);
+            throw new RuntimeException(e);
+        } finally {
+            TestUtils.dropDB(testDBName);
+            if (tempFile != null) tempFile.deleteOnExit();
+        }
+    }
+
+    /**
+     * Tests that exporting with JDBC cursors, as is done for databases other than PostgreSQL, produces exactly the same
+     * files as exporting with the PostgreSQL COPY command, including the formatting of times and rounded coordinates.
+     */
+    @Test
+    void canExportWithJdbcCursorsIdenticallyToCopy() {
+        String testDBName = TestUtils.generateNewDB();
+        try {
+            String zipFileName = TestUtils.zipFolderFiles("fake-agency", true);
+            String dbConnectionUrl = String.join("/", JDBC_URL, testDBName);
+            DataSource dataSource = TestUtils.createTestDataSource(dbConnectionUrl);
+            String namespace = GTFS.load(zipFileName, dataSource).uniqueIdentifier;
+            Map<String, String> copiedFiles = null;
+            for (boolean forceJdbcCursors : new boolean[] {false, true}) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                FeedLoadResult exportResult = new JdbcGtfsExporter(namespace, null, dataSource, false, true,
+                    JdbcGtfsExporter.DEFAULT_MAX_CONCURRENT_TABLES, Deflater.DEFAULT_COMPRESSION, forceJdbcCursors
+                ).exportTables(out);
+                assertThat(exportResult.fatalException, is(nullValue()));
+                assertThat(exportResult.stopTimes.fatalException, is(nullValue()));
+                assertThat(exportResult.stopTimes.rowCount, greaterThan(0));
+                Map<String, String> files = new HashMap<>();
+                try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+                    for (ZipEntry entry; (entry = zipInputStream.getNextEntry()) != null; ) {
+                        files.put(entry.getName(), new String(ByteStreams.toByteArray(zipInputStream), StandardCharsets.UTF_8));
+                    }
+                }
+                if (copiedFiles == null) copiedFiles = files;
+                else assertThat(files, equalTo(copiedFiles));
+            }
+        } catch (IOException e) {
+            LOG.error("An error occurred while attempting to test export with JDBC cursors.", e);
+            throw new RuntimeException(e);
+        } finally {
+            TestUtils.dropDB(testDBName);
+        }
+    }
+
+    /**
+     * Tests that a streamed export whose stop_times fail partway through, after the entry has been started, fails the
+     * export and leaves the zip unfinished (so that it cannot be read), both with COPY and with JDBC cursors.
+     */
+    @Test
+    void streamedExportFailingMidTableIsNotReadableZip() {
+        String testDBName = TestUtils.generateNewDB();
+        File tempFile = null;
+        try {
+            String zipFileName = TestUtils.zipFolderFiles("fake-agency", true);
+            String dbConnectionUrl = String.join("/", JDBC_URL, testDBName);
+            DataSource dataSource = TestUtils.createTestDataSource(dbConnectionUrl);
+            String namespace = GTFS.load(zipFileName, dataSource).uniqueIdentifier;
+            try (Connection connection = dataSource.getConnection()) {
+                // Replace stop_times with a view of many copies of its rows that fails after more rows than are
+                // fetched at once with a cursor, so that the entry has been started when it fails.
+                connection.prepareStatement(String.format(
+                    "alter table %s.stop_times rename to failing_stop_times", namespace)).execute();
+                connection.prepareStatement(String.format(
+                    "create sequence %s.failing_rows", namespace)).execute();
+                connection.prepareStatement(String.format(
+                    "create view %1$s.stop_times as select s.* from %1$s.failing_stop_times s " +
+                        "cross join generate_series(1, 2000) g " +
+                        "where case when nextval('%1$s.failing_rows') > 1500 then 1 / (s.id - s.id + g - g) = 0 else true end",
+                    namespace)).execute();
+                connection.commit();
+            }
+            tempFile = File.createTempFile("failed-export", ".zip");
+            for (boolean forceJdbcCursors : new boolean[] {false, true}) {
+                try (Connection connection = dataSource.getConnection()) {
+                    connection.prepareStatement(String.format(
+                        "alter sequence %s.failing_rows restart", namespace)).execute();
+                    connection.commit();
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                FeedLoadResult exportResult = new JdbcGtfsExporter(namespace, null, dataSource, false, true,
+                    JdbcGtfsExporter.DEFAULT_MAX_CONCURRENT_TABLES, Deflater.DEFAULT_COMPRESSION, forceJdbcCursors
+                ).exportTables(out);
+                assertThat(exportResult.fatalException, is(notNullValue()));
+                Files.write(tempFile.toPath(), out.toByteArray());
+                File exportedFile = tempFile;
+                assertThrows(ZipException.class, () -> new ZipFile(exportedFile).close());
+            }
+        } catch (IOException | SQLException e) {
+            LOG.error("An error occurred while attempting to test a failed streaming export.", e);
+            throw new RuntimeException(e);
+        } finally {
+            TestUtils.dropDB(testDBName);
+            if (tempFile != null) tempFile.delete();
+        }
+    }
+
+    /**
+     * Tests that a snapshot made by copying and indexing several tables at once (and a lazy one made the same way) has
+     * exactly the same rows as one made a table at a time, and reports the time spent copying each table.
+     */
+    @Test
+    void canMakeParallelSnapshotIdenticalToSequentialSnapshot() {
+        String testDBName = TestUtils.generateNewDB();
+        try {
+            String zipFileName = TestUtils.zipFolderFiles("fake-agency", true);
+            String dbConnectionUrl = String.join("/", JDBC_URL, testDBName);
+            DataSource dataSource = TestUtils.createTestDataSource(dbConnectionUrl);
+            String namespace = GTFS.load(zipFileName, dataSource).uniqueIdentifier;
+            SnapshotResult sequentialResult = GTFS.makeSnapshot(namespace, dataSource, true, false, 1);
+            assertThatSnapshotIsErrorFree(sequentialResult);
+            for (boolean lazy : new boolean[] {false, true}) {
+                SnapshotResult parallelResult = GTFS.makeSnapshot(namespace, dataSource, true, lazy, 3);
+                assertThatSnapshotIsErrorFree(parallelResult);
+                assertThat(parallelResult.stopTimes.fatalException, is(nullValue()));
+                assertThat(parallelResult.patternStops.fatalException, is(nullValue()));
+                assertThat(parallelResult.stopTimes.copy.wallTimeMillis, greaterThanOrEqualTo(0L));
+                for (Table table : Table.tablesInOrder) {
+                    // Rows in one snapshot but not the other, in either direction.
+                    String differenceSql = String.format(
+                        "select count(*) from ((select * from %1$s.%3$s except all select * from %2$s.%3$s) " +
+                            "union all (select * from %2$s.%3$s except all select * from %1$s.%3$s)) difference",
+                        sequentialResult.uniqueIdentifier, parallelResult.uniqueIdentifier, table.name
+                    );
+                    TestUtils.assertThatSqlCountQueryYieldsExpectedCount(dataSource, differenceSql, 0);
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("An error occurred while attempting to test parallel snapshots.", e);
+            throw new RuntimeException(e);
+        } finally {
+            TestUtils.dropDB(testDBName);
+        }
+    }
+
+    /**
+     * Tests that when one part of the stop times fails to be copied with normalized stop sequences, the parts that
+     * were copied are not left behind in a half filled stop_times table.
+     */
+    @Test
+    void failedPartOfNormalizedStopTimesDropsTable() {
+        String testDBName = TestUtils.generateNewDB();
+        try {
+            String zipFileName = TestUtils.zipFolderFiles("fake-agency", true);
+            String dbConnectionUrl = String.join("/", JDBC_URL, testDBName);
+            DataSource dataSource = TestUtils.createTestDataSource(dbConnectionUrl);
+            String namespace = GTFS.load(zipFileName, dataSource).uniqueIdentifier;
+            try (Connection connection = dataSource.getConnection()) {
+                // Replace stop_times with a view that fails to read the stop times of one trip, so that only the part
+                // with that trip fails.
+                connection.prepareStatement(String.format(
+                    "alter table %s.stop_times rename to failing_stop_times", namespace)).execute();
+                connection.prepareStatement(String.format(
+                    "create view %1$s.stop_times as select * from %1$s.failing_stop_times " +
+                        "where case when trip_id = 'frequency-trip' then 1 / (id - id) = 0 else true end",
+                    namespace)).execute();
+                connection.commit();
+            }
+            SnapshotResult snapshotResult = GTFS.makeSnapshot(namespace, dataSource, true, false, 3);
+            assertThat(snapshotResult.stopTimes.fatalException, is(notNullValue()));
+            TestUtils.assertThatSqlCountQueryYieldsExpectedCount(dataSource, String.format(
+                "select count(*) from information_schema.tables where table_schema = '%s' and table_name = 'stop_times'",
+                snapshotResult.uniqueIdentifier), 0);
+        } catch (IOException | SQLException e) {
+            LOG.error("An error occurred while attempting to test a failed snapshot.", e);
+            throw new RuntimeException(e);
+        } finally {
+            TestUtils.dropDB(testDBName);
+        }
+    }
+
     /**
      * A helper method that will run GTFS#main with a certain zip file.
      * This tests whether a GTFS zip file can be loaded without any errors. The full list of steps includes:
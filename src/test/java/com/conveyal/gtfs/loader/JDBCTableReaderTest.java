@@ -0,0 +1,309 @@
+package com.conveyal.gtfs.loader;
+
+import com.conveyal.gtfs.TestUtils;
+import com.conveyal.gtfs.model.Entity;
+import com.conveyal.gtfs.model.Stop;
+import com.conveyal.gtfs.model.StopTime;
+import com.conveyal.gtfs.model.Trip;
+import org.apache.commons.dbcp2.ConnectionFactory;
+import org.apache.commons.dbcp2.DriverManagerConnectionFactory;
+import org.apache.commons.dbcp2.PoolableConnection;
+import org.apache.commons.dbcp2.PoolableConnectionFactory;
+import org.apache.commons.dbcp2.PoolingDataSource;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.conveyal.gtfs.GTFS.load;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Tests for reading entities with {@link JDBCTableReader}, including column projections.
+ */
+public class JDBCTableReaderTest {
+    private static String testDBName;
+    private static DataSource testDataSource;
+    private static Feed feed;
+
+    @BeforeAll
+    public static void setUpClass() throws IOException {
+        testDBName = TestUtils.generateNewDB();
+        testDataSource = TestUtils.createTestDataSource(String.format("jdbc:postgresql://localhost/%s", testDBName));
+        String zipFileName = TestUtils.zipFolderFiles("fake-agency", true);
+        FeedLoadResult feedLoadResult = load(zipFileName, testDataSource);
+        feed = new Feed(testDataSource, feedLoadResult.uniqueIdentifier);
+    }
+
+    @AfterAll
+    public static void tearDownClass() {
+        TestUtils.dropDB(testDBName);
+    }
+
+    @Test
+    void canReadOnlyProjectedColumns() {
+        List<Stop> stops = new ArrayList<>();
+        long rowsReadBefore = feed.getRowsRead();
+        feed.stops.withColumns("stop_id", "stop_lat", "not_a_column").forEach(stops::add);
+        assertThat(stops.size(), greaterThan(0));
+        // Rows read through a projected reader count toward the feed's total.
+        assertThat(feed.getRowsRead() - rowsReadBefore, equalTo((long) stops.size()));
+        for (Stop stop : stops) {
+            Stop completeStop = feed.stops.get(stop.stop_id);
+            assertThat(stop.id, equalTo(completeStop.id));
+            assertThat(stop.stop_lat, equalTo(completeStop.stop_lat));
+            // Columns that were not selected are left with their missing values.
+            assertThat(stop.stop_name, nullValue());
+            assertThat(stop.stop_lon, equalTo(Entity.DOUBLE_MISSING));
+            assertThat(stop.location_type, equalTo(Entity.INT_MISSING));
+        }
+    }
+
+    @Test
+    void canFilterOnColumnsOutsideProjection() {
+        Stop completeStop = feed.stops.get("4u6g");
+        // The key field used in the where clause does not need to be among the selected columns.
+        Stop stop = feed.stops.withColumns("stop_name").get(completeStop.stop_id);
+        assertThat(stop.id, equalTo(completeStop.id));
+        assertThat(stop.stop_name, equalTo(completeStop.stop_name));
+        assertThat(stop.stop_id, nullValue());
+    }
+
+    @Test
+    void canGetItemsForManyKeys() {
+        List<String> stopIds = new ArrayList<>();
+        for (Stop stop : feed.stops) stopIds.add(stop.stop_id);
+        // Duplicate and unknown keys are ignored.
+        List<String> requestedIds = new ArrayList<>(stopIds);
+        requestedIds.add(stopIds.get(0));
+        requestedIds.add("not_a_stop");
+        Map<String, Stop> stopsById = feed.stops.getAll(requestedIds);
+        assertThat(new ArrayList<>(stopsById.keySet()), equalTo(stopIds));
+        for (String stopId : stopIds) {
+            assertThat(stopsById.get(stopId).stop_name, equalTo(feed.stops.get(stopId).stop_name));
+        }
+    }
+
+    @Test
+    void canGetOrderedItemsForManyKeys() {
+        Set<String> tripIds = new LinkedHashSet<>();
+        for (Trip trip : feed.trips) tripIds.add(trip.trip_id);
+        Map<String, List<StopTime>> stopTimesForTrip = feed.stopTimes.getOrderedForKeys(tripIds);
+        assertThat(stopTimesForTrip.size(), greaterThan(0));
+        for (String tripId : stopTimesForTrip.keySet()) {
+            List<Integer> expectedSequences = new ArrayList<>();
+            for (StopTime stopTime : feed.stopTimes.getOrdered(tripId)) expectedSequences.add(stopTime.stop_sequence);
+            List<Integer> sequences = stopTimesForTrip.get(tripId).stream()
+                .map(stopTime -> stopTime.stop_sequence)
+                .collect(Collectors.toList());
+            assertThat(sequences, equalTo(expectedSequences));
+        }
+    }
+
+    @Test
+    void canStopStreamingEarlyWithoutLeakingConnections() {
+        // With a single pooled connection, any leaked connection would make the next read time out.
+        DataSource singleConnectionDataSource = createSingleConnectionDataSource();
+        JDBCTableReader<StopTime> stopTimes = new JDBCTableReader<>(
+            Table.STOP_TIMES, singleConnectionDataSource, feed.getTableNameWithSchemaPrefix(""), EntityPopulator.STOP_TIME);
+        for (int i = 0; i < 3; i++) {
+            try (Stream<StopTime> stream = stopTimes.stream()) {
+                assertThat(stream.findFirst().isPresent(), equalTo(true));
+            }
+            try (CloseableIterable<StopTime> iterable = stopTimes.openAll(true)) {
+                for (StopTime stopTime : iterable) break;
+            }
+            // A trip has several stop times, so getting one by trip ID also leaves rows unread.
+            assertThat(stopTimes.get("a30277f8-e50a-4a85-9141-b1e0da9d429d").stop_sequence, greaterThan(0));
+        }
+    }
+
+    @Test
+    void canStreamTableInParallel() {
+        List<Integer> sequentialIds;
+        try (Stream<StopTime> stream = feed.stopTimes.stream()) {
+            sequentialIds = stream.map(stopTime -> stopTime.id).sorted().collect(Collectors.toList());
+        }
+        List<Integer> parallelIds;
+        try (Stream<StopTime> stream = feed.stopTimes.parallelStream()) {
+            assertThat(stream.isParallel(), equalTo(true));
+            // Items from the id ranges are encountered in id order.
+            parallelIds = stream.map(stopTime -> stopTime.id).collect(Collectors.toList());
+        }
+        assertThat(parallelIds, equalTo(sequentialIds));
+    }
+
+    @Test
+    void canScanTableInPartitions() {
+        List<Integer> expectedIds = new ArrayList<>();
+        for (StopTime stopTime : feed.stopTimes) expectedIds.add(stopTime.id);
+        Collections.sort(expectedIds);
+        for (JDBCTableReader.Partitioning partitioning : JDBCTableReader.Partitioning.values()) {
+            // Each consumer is only used by one thread, so the lists for each partition need no synchronization.
+            List<List<StopTime>> partitions = new CopyOnWriteArrayList<>();
+            stopTimeReader().scanPartitioned(3, partitioning, true, p -> {
+                List<StopTime> partition = new ArrayList<>();
+                partitions.add(partition);
+                return partition::add;
+            });
+            List<Integer> ids = new ArrayList<>();
+            for (List<StopTime> partition : partitions) {
+                for (StopTime stopTime : partition) ids.add(stopTime.id);
+                if (partitioning == JDBCTableReader.Partitioning.KEY_HASH) {
+                    // All the stop times for a trip are in one partition, together and in sequence.
+                    Set<String> tripsSeen = new HashSet<>();
+                    StopTime previous = null;
+                    for (StopTime stopTime : partition) {
+                        if (previous == null || !previous.trip_id.equals(stopTime.trip_id)) {
+                            assertThat(tripsSeen.add(stopTime.trip_id), equalTo(true));
+                        } else {
+                            assertThat(stopTime.stop_sequence, greaterThan(previous.stop_sequence));
+                        }
+                        previous = stopTime;
+                    }
+                }
+            }
+            Collections.sort(ids);
+            assertThat(ids, equalTo(expectedIds));
+        }
+    }
+
+    @Test
+    void canMergePartitionsInOrder() {
+        List<StopTime> expected = new ArrayList<>();
+        for (StopTime stopTime : feed.stopTimes) expected.add(stopTime);
+        expected.sort(Comparator.<StopTime, String>comparing(stopTime -> stopTime.trip_id)
+            .thenComparingInt(stopTime -> stopTime.stop_sequence));
+        List<Integer> mergedIds = new ArrayList<>();
+        try (CloseableIterable<StopTime> stopTimes = stopTimeReader().scanOrdered(4)) {
+            for (StopTime stopTime : stopTimes) mergedIds.add(stopTime.id);
+        }
+        assertThat(mergedIds, equalTo(expected.stream().map(stopTime -> stopTime.id).collect(Collectors.toList())));
+        // Closing a merge before it is fully read stops reading the partitions.
+        try (CloseableIterable<StopTime> stopTimes = stopTimeReader().scanOrdered(4)) {
+            assertThat(stopTimes.iterator().next().trip_id, equalTo(expected.get(0).trip_id));
+        }
+    }
+
+    @Test
+    void canMergeLargePartitionsWithNullKeys() throws SQLException {
+        // Each of the two partitions holds more rows than the merge queue, and some rows have no trip_id.
+        int partitions = 2;
+        int tripCount = 3 * PartitionedTableScan.MERGE_QUEUE_SIZE / 10;
+        int nullKeyRows = 5;
+        String namespace = "large_partitions";
+        try (Connection connection = testDataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("create schema " + namespace);
+            statement.execute(String.format("create table %s.stop_times (like %s)", namespace,
+                feed.getTableNameWithSchemaPrefix(Table.STOP_TIMES.name)));
+            statement.execute(String.format("insert into %s.stop_times (id, trip_id, stop_sequence, stop_id) " +
+                "select i, 'trip' || (i / 10), i %% 10, 'stop' from generate_series(0, %d) i", namespace, tripCount * 10 - 1));
+            statement.execute(String.format("insert into %s.stop_times (id, trip_id, stop_sequence, stop_id) " +
+                "select %d + i, null, i, 'stop' from generate_series(0, %d) i", namespace, tripCount * 10, nullKeyRows - 1));
+            connection.commit();
+        }
+        JDBCTableReader<StopTime> reader = new JDBCTableReader<>(
+            Table.STOP_TIMES, testDataSource, namespace + ".", EntityPopulator.STOP_TIME);
+        int expectedRows = tripCount * 10 + nullKeyRows;
+        assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            List<List<StopTime>> partitionRows = new CopyOnWriteArrayList<>();
+            reader.scanPartitioned(partitions, JDBCTableReader.Partitioning.KEY_HASH, false, p -> {
+                List<StopTime> partition = new ArrayList<>();
+                partitionRows.add(partition);
+                return partition::add;
+            });
+            for (List<StopTime> partition : partitionRows) {
+                assertThat(partition.size(), greaterThan(PartitionedTableScan.MERGE_QUEUE_SIZE));
+            }
+            assertThat(partitionRows.stream().mapToInt(List::size).sum(), equalTo(expectedRows));
+
+            List<StopTime> merged = new ArrayList<>();
+            try (CloseableIterable<StopTime> stopTimes = reader.scanOrdered(partitions)) {
+                for (StopTime stopTime : stopTimes) merged.add(stopTime);
+            }
+            assertThat(merged.size(), equalTo(expectedRows));
+            // Trips are in order, each in sequence, followed by the rows without a trip.
+            for (int i = 1; i < tripCount * 10; i++) {
+                StopTime previous = merged.get(i - 1);
+                StopTime stopTime = merged.get(i);
+                int tripOrder = previous.trip_id.compareTo(stopTime.trip_id);
+                assertThat(tripOrder < 0 || (tripOrder == 0 && previous.stop_sequence < stopTime.stop_sequence),
+                    equalTo(true));
+            }
+            for (int i = tripCount * 10; i < expectedRows; i++) assertThat(merged.get(i).trip_id, nullValue());
+        });
+    }
+
+    @Test
+    void canMergeKeysOutsideBasicMultilingualPlaneInCodePointOrder() throws SQLException {
+        // An emoji is encoded as a surrogate pair, which String.compareTo sorts before U+FF5E, unlike the database.
+        String emoji = "\uD83D\uDE00";
+        String fullwidthTilde = "\uFF5E";
+        assertThat(emoji.compareTo(fullwidthTilde) < 0, equalTo(true));
+        assertThat(PartitionedTableScan.compareCodePoints(emoji, fullwidthTilde) > 0, equalTo(true));
+
+        // Enough trips with each kind of character that both kinds are in every partition.
+        int partitions = 4;
+        String namespace = "surrogate_keys";
+        List<Integer> expectedIds = new ArrayList<>();
+        try (Connection connection = testDataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("create schema " + namespace);
+            statement.execute(String.format("create table %s.stop_times (like %s)", namespace,
+                feed.getTableNameWithSchemaPrefix(Table.STOP_TIMES.name)));
+            statement.execute(String.format("insert into %s.stop_times (id, trip_id, stop_sequence, stop_id) " +
+                "select i, 'trip' || chr(case when i %% 2 = 0 then %d else %d end + i / 4), i %% 4 / 2, 'stop' " +
+                "from generate_series(0, 159) i", namespace, emoji.codePointAt(0), fullwidthTilde.codePointAt(0) - 40));
+            connection.commit();
+            ResultSet resultSet = statement.executeQuery(String.format(
+                "select id from %s.stop_times order by trip_id collate \"C\", stop_sequence", namespace));
+            while (resultSet.next()) expectedIds.add(resultSet.getInt(1));
+        }
+        JDBCTableReader<StopTime> reader = new JDBCTableReader<>(
+            Table.STOP_TIMES, testDataSource, namespace + ".", EntityPopulator.STOP_TIME);
+        List<Integer> mergedIds = new ArrayList<>();
+        try (CloseableIterable<StopTime> stopTimes = reader.scanOrdered(partitions)) {
+            for (StopTime stopTime : stopTimes) mergedIds.add(stopTime.id);
+        }
+        assertThat(mergedIds, equalTo(expectedIds));
+    }
+
+    private static JDBCTableReader<StopTime> stopTimeReader() {
+        return new JDBCTableReader<>(
+            Table.STOP_TIMES, testDataSource, feed.getTableNameWithSchemaPrefix(""), EntityPopulator.STOP_TIME);
+    }
+
+    private static DataSource createSingleConnectionDataSource() {
+        ConnectionFactory connectionFactory = new DriverManagerConnectionFactory(
+            String.format("jdbc:postgresql://localhost/%s", testDBName), TestUtils.PG_TEST_USER, TestUtils.PG_TEST_PASSWORD);
+        PoolableConnectionFactory poolableConnectionFactory = new PoolableConnectionFactory(connectionFactory, null);
+        GenericObjectPool<PoolableConnection> connectionPool = new GenericObjectPool<>(poolableConnectionFactory);
+        connectionPool.setMaxTotal(1);
+        connectionPool.setMaxWaitMillis(5000);
+        poolableConnectionFactory.setPool(connectionPool);
+        poolableConnectionFactory.setDefaultAutoCommit(false);
+        return new PoolingDataSource<>(connectionPool);
+    }
+}
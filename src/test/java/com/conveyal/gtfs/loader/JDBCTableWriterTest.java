@@ -1,5 +1,6 @@
 package com.conveyal.gtfs.loader;
 
+import com.conveyal.gtfs.GTFS;
 import com.conveyal.gtfs.TestUtils;
 import com.conveyal.gtfs.dto.CalendarDTO;
 import com.conveyal.gtfs.dto.CalendarDateDTO;
@@ -34,6 +35,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Set;
 import java.util.UUID;
 
 import static com.conveyal.gtfs.GTFS.load;
@@ -42,6 +44,7 @@ import static com.conveyal.gtfs.GTFS.validate;
 import static com.conveyal.gtfs.TestUtils.getResourceFileName;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.not;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
@@ -976,6 +979,138 @@ public class JDBCTableWriterTest {
         );
     }
 
+    /**
+     * Test that a lazy snapshot reads the source feed's tables through views, copies only the tables that an edit
+     * writes to (leaving the source feed unchanged), and keeps its data when the source feed is deleted.
+     */
+    @Test
+    public void canEditLazySnapshot() throws InvalidNamespaceException, IOException, SQLException {
+        String sourceNamespace = load(getResourceFileName("real-world-gtfs-feeds/gtfs_GL.zip"), testDataSource).uniqueIdentifier;
+        SnapshotResult snapshotResult = makeSnapshot(sourceNamespace, testDataSource, false, true);
+        assertNull(snapshotResult.fatalException);
+        String lazyNamespace = snapshotResult.uniqueIdentifier;
+        try (Connection connection = testDataSource.getConnection()) {
+            Set<String> viewNames = JdbcGtfsSnapshotter.getViewNames(connection, lazyNamespace);
+            assertThat(viewNames.contains(Table.STOP_TIMES.name), equalTo(true));
+            assertThat(viewNames.contains(Table.TRIPS.name), equalTo(true));
+            assertThat(viewNames.contains(Table.CALENDAR.name), equalTo(false));
+        }
+        assertThat(countRows(String.format("select * from %s.stop_times", lazyNamespace)), equalTo(53));
+
+        // Changing the service id also updates the trips that reference it, so the trips table must be copied.
+        JdbcTableWriter tableWriter = new JdbcTableWriter(Table.CALENDAR, testDataSource, lazyNamespace);
+        tableWriter.update(
+            2,
+            "{\"id\":2,\"service_id\":\"test\",\"description\":\"MoTuWeThFrSaSu\",\"monday\":1,\"tuesday\":1,\"wednesday\":1,\"thursday\":1,\"friday\":1,\"saturday\":1,\"sunday\":1,\"start_date\":\"20180526\",\"end_date\":\"20201231\"}",
+            true
+        );
+        try (Connection connection = testDataSource.getConnection()) {
+            Set<String> viewNames = JdbcGtfsSnapshotter.getViewNames(connection, lazyNamespace);
+            assertThat(viewNames.contains(Table.TRIPS.name), equalTo(false));
+            assertThat(viewNames.contains(Table.STOP_TIMES.name), equalTo(true));
+        }
+        assertThat(countRows(String.format("select * from %s.trips where service_id = 'test'", sourceNamespace)), equalTo(0));
+        // The snapshot's trips for the old service id now have the new one.
+        assertThat(countRows(String.format(
+            "select * from %1$s.trips where service_id = (select service_id from %2$s.calendar where id = 2)",
+            lazyNamespace, sourceNamespace
+        )), equalTo(0));
+        assertThat(countRows(String.format(
+            "select * from %2$s.trips source_trips join %1$s.trips using (trip_id) " +
+                "where source_trips.service_id = (select service_id from %2$s.calendar where id = 2) " +
+                "and %1$s.trips.service_id <> 'test'",
+            lazyNamespace, sourceNamespace
+        )), equalTo(0));
+
+        // Deleting the source feed copies the remaining views first.
+        GTFS.delete(sourceNamespace, testDataSource);
+        try (Connection connection = testDataSource.getConnection()) {
+            assertThat(JdbcGtfsSnapshotter.getViewNames(connection, lazyNamespace).isEmpty(), equalTo(true));
+        }
+        assertThat(countRows(String.format("select * from %s.stop_times", lazyNamespace)), equalTo(53));
+    }
+
+    /**
+     * Test that an update that does not change a route's key or linked fields only writes to the routes table, leaving
+     * the other tables of a lazy snapshot as views, and that normalized stop times are always copied.
+     */
+    @Test
+    public void canUpdateRouteOfLazySnapshotWithoutCopyingOtherTables()
+        throws InvalidNamespaceException, IOException, SQLException {
+        String sourceNamespace = load(getResourceFileName("real-world-gtfs-feeds/gtfs_GL.zip"), testDataSource).uniqueIdentifier;
+        SnapshotResult snapshotResult = makeSnapshot(sourceNamespace, testDataSource, false, true);
+        assertNull(snapshotResult.fatalException);
+        String lazyNamespace = snapshotResult.uniqueIdentifier;
+        RouteDTO route = new RouteDTO();
+        try (Connection connection = testDataSource.getConnection()) {
+            ResultSet resultSet = connection.prepareStatement(String.format(
+                "select r.id, r.route_id, r.agency_id, r.route_short_name, r.route_type, r.status, r.publicly_visible, " +
+                    "(select wheelchair_accessible from %1$s.trips t where t.route_id = r.route_id limit 1) " +
+                    "from %1$s.routes r limit 1", lazyNamespace
+            )).executeQuery();
+            resultSet.next();
+            route.id = resultSet.getInt(1);
+            route.route_id = resultSet.getString(2);
+            route.agency_id = resultSet.getString(3);
+            route.route_short_name = resultSet.getString(4);
+            route.route_type = resultSet.getInt(5);
+            route.status = resultSet.getInt(6);
+            route.publicly_visible = resultSet.getInt(7);
+            route.wheelchair_accessible = (Integer) resultSet.getObject(8);
+            connection.rollback();
+        }
+        route.route_long_name = "Renamed";
+        new JdbcTableWriter(Table.ROUTES, testDataSource, lazyNamespace)
+            .update(route.id, mapper.writeValueAsString(route), true);
+        try (Connection connection = testDataSource.getConnection()) {
+            Set<String> viewNames = JdbcGtfsSnapshotter.getViewNames(connection, lazyNamespace);
+            assertThat(viewNames.contains(Table.STOP_TIMES.name), equalTo(true));
+            assertThat(viewNames.contains(Table.TRIPS.name), equalTo(true));
+        }
+        assertThat(countRows(String.format("select * from %s.routes where route_long_name = 'Renamed'", lazyNamespace)),
+            equalTo(1));
+
+        // Numbering stop sequences in a view would keep it from using indexes, so normalized stop times are copied.
+        String normalizedNamespace = makeSnapshot(sourceNamespace, testDataSource, true, true).uniqueIdentifier;
+        try (Connection connection = testDataSource.getConnection()) {
+            Set<String> viewNames = JdbcGtfsSnapshotter.getViewNames(connection, normalizedNamespace);
+            assertThat(viewNames.contains(Table.STOP_TIMES.name), equalTo(false));
+            assertThat(viewNames.contains(Table.TRIPS.name), equalTo(true));
+        }
+        assertThat(countRows(String.format("select * from %s.stop_times", normalizedNamespace)), equalTo(53));
+    }
+
+    /**
+     * Test that editing a feed that has lazy snapshots of its own copies their views of the tables it writes to first,
+     * so the edit does not change them.
+     */
+    @Test
+    public void canEditFeedWithLazySnapshots() throws InvalidNamespaceException, IOException, SQLException {
+        String sourceNamespace = load(getResourceFileName("real-world-gtfs-feeds/gtfs_GL.zip"), testDataSource).uniqueIdentifier;
+        String editedNamespace = makeSnapshot(sourceNamespace, testDataSource, false).uniqueIdentifier;
+        String lazyNamespace = makeSnapshot(editedNamespace, testDataSource, false, true).uniqueIdentifier;
+        // A lazy snapshot of the lazy snapshot reads the edited feed through two views.
+        String secondLazyNamespace = makeSnapshot(lazyNamespace, testDataSource, false, true).uniqueIdentifier;
+
+        // Changing the service id also updates the trips that reference it.
+        new JdbcTableWriter(Table.CALENDAR, testDataSource, editedNamespace).update(
+            2,
+            "{\"id\":2,\"service_id\":\"test\",\"description\":\"MoTuWeThFrSaSu\",\"monday\":1,\"tuesday\":1,\"wednesday\":1,\"thursday\":1,\"friday\":1,\"saturday\":1,\"sunday\":1,\"start_date\":\"20180526\",\"end_date\":\"20201231\"}",
+            true
+        );
+        assertThat(countRows(String.format("select * from %s.trips where service_id = 'test'", editedNamespace)),
+            greaterThan(0));
+        for (String namespace : new String[] {lazyNamespace, secondLazyNamespace}) {
+            try (Connection connection = testDataSource.getConnection()) {
+                Set<String> viewNames = JdbcGtfsSnapshotter.getViewNames(connection, namespace);
+                assertThat(viewNames.contains(Table.TRIPS.name), equalTo(false));
+                assertThat(viewNames.contains(Table.STOP_TIMES.name), equalTo(true));
+            }
+            assertThat(countRows(String.format("select * from %s.trips where service_id = 'test'", namespace)),
+                equalTo(0));
+        }
+    }
+
     /*****************************************************************************************************************
      * End tests, begin helpers
      ****************************************************************************************************************/
@@ -1014,6 +1149,21 @@ public class JDBCTableWriterTest {
         assertThat(resultSet.getObject(field), matcher);
     }
 
+    /**
+     * Count the rows returned by a query, closing the connection so that it holds no locks that would keep a lazy
+     * snapshot's views from being replaced.
+     */
+    private static int countRows(String sql) throws SQLException {
+        LOG.info(sql);
+        try (Connection connection = testDataSource.getConnection()) {
+            ResultSet resultSet = connection.prepareStatement(sql).executeQuery();
+            int rowCount = 0;
+            while (resultSet.next()) rowCount++;
+            connection.rollback();
+            return rowCount;
+        }
+    }
+
     private void assertThatSqlQueryYieldsRowCount(String sql, int expectedRowCount) throws SQLException {
         LOG.info(sql);
         int recordCount = 0;
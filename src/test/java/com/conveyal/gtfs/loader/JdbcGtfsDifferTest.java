@@ -0,0 +1,119 @@
+package com.conveyal.gtfs.loader;
+
+import com.conveyal.gtfs.GTFS;
+import com.conveyal.gtfs.TestUtils;
+import com.conveyal.gtfs.util.InvalidNamespaceException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Test that {@link JdbcGtfsDiffer} finds exactly the rows that were added, removed and changed between two feed
+ * namespaces, and the fields that changed.
+ */
+public class JdbcGtfsDifferTest {
+
+    private static String testDBName;
+    private static DataSource testDataSource;
+    private static String feedNamespace;
+
+    @BeforeAll
+    public static void setUpClass() throws IOException {
+        testDBName = TestUtils.generateNewDB();
+        testDataSource = TestUtils.createTestDataSource("jdbc:postgresql://localhost/" + testDBName);
+        feedNamespace = GTFS.load(TestUtils.zipFolderFiles("fake-agency", true), testDataSource).uniqueIdentifier;
+    }
+
+    @AfterAll
+    public static void tearDownClass() {
+        TestUtils.dropDB(testDBName);
+    }
+
+    @Test
+    public void canFindNoDifferencesBetweenIdenticalFeeds() throws IOException, InvalidNamespaceException {
+        String otherNamespace = GTFS.load(TestUtils.zipFolderFiles("fake-agency", true), testDataSource)
+            .uniqueIdentifier;
+        List<RowDiff> rowDiffs = new ArrayList<>();
+        FeedDiffResult result = GTFS.diff(feedNamespace, otherNamespace, testDataSource, rowDiffs::add);
+        assertThat(rowDiffs.toString(), rowDiffs.isEmpty(), is(true));
+        assertThat(result.isIdentical(), is(true));
+        assertThat(result.tables.get(Table.STOP_TIMES.name).keyed, is(true));
+        assertThat(result.tables.get(Table.CALENDAR_DATES.name).keyed, is(false));
+        // Tables that were not loaded are not compared.
+        assertThat(result.tables.containsKey(Table.SCHEDULE_EXCEPTIONS.name), is(false));
+    }
+
+    @Test
+    public void canDiffEditedSnapshot() throws SQLException, InvalidNamespaceException {
+        String baseNamespace = GTFS.makeSnapshot(feedNamespace, testDataSource, false).uniqueIdentifier;
+        String editedNamespace = GTFS.makeSnapshot(feedNamespace, testDataSource, false).uniqueIdentifier;
+        executeSql(
+            String.format("update %s.stops set stop_name = 'Renamed', stop_desc = 'Moved' where stop_id = 'johv'",
+                editedNamespace),
+            String.format("insert into %s.stops (stop_id, stop_name, stop_lat, stop_lon) values ('new', 'New', 37, -122)",
+                editedNamespace),
+            String.format("delete from %s.stop_times where trip_id = 'frequency-trip' and stop_sequence = 2",
+                editedNamespace),
+            String.format("update %s.stop_times set arrival_time = arrival_time + 60 " +
+                "where trip_id = 'a30277f8-e50a-4a85-9141-b1e0da9d429d' and stop_sequence = 1", editedNamespace),
+            // A second copy of an existing row of a table without a key.
+            String.format("insert into %1$s.calendar_dates (service_id, date, exception_type) " +
+                "select service_id, date, exception_type from %1$s.calendar_dates where date = '20170917'",
+                editedNamespace)
+        );
+
+        List<String> rowDiffs = new ArrayList<>();
+        FeedDiffResult result = GTFS.diff(baseNamespace, editedNamespace, testDataSource,
+            rowDiff -> rowDiffs.add(rowDiff.toString()));
+        assertThat(rowDiffs, containsInAnyOrder(
+            "CHANGED stops {stop_id=johv} [stop_name, stop_desc]",
+            "ADDED stops {stop_id=new}",
+            "REMOVED stop_times {trip_id=frequency-trip, stop_sequence=2}",
+            "CHANGED stop_times {trip_id=a30277f8-e50a-4a85-9141-b1e0da9d429d, stop_sequence=1} [arrival_time]",
+            "ADDED calendar_dates {service_id=calendar-date-service, date=20170917, exception_type=1}"
+        ));
+        TableDiffResult stopTimes = result.tables.get(Table.STOP_TIMES.name);
+        assertThat(stopTimes.removed, equalTo(1L));
+        assertThat(stopTimes.changed, equalTo(1L));
+        assertThat(stopTimes.added, equalTo(0L));
+        assertThat(result.isIdentical(), is(false));
+
+        // Comparing the loaded feed with its snapshot compares the fields they share, and treats the snapshot's
+        // schedule exceptions table as added.
+        Set<String> changedTables = new TreeSet<>();
+        result = GTFS.diff(feedNamespace, baseNamespace, testDataSource,
+            rowDiff -> changedTables.add(rowDiff.table));
+        for (TableDiffResult tableResult : result.tables.values()) {
+            assertThat(tableResult.fatalException, nullValue());
+        }
+        TableDiffResult scheduleExceptions = result.tables.get(Table.SCHEDULE_EXCEPTIONS.name);
+        assertThat(scheduleExceptions.added, greaterThan(0L));
+        assertThat(scheduleExceptions.removed, equalTo(0L));
+        assertThat(changedTables.contains(Table.STOPS.name), is(false));
+        assertThat(changedTables.contains(Table.STOP_TIMES.name), is(false));
+    }
+
+    private static void executeSql(String... sqlStatements) throws SQLException {
+        try (Connection connection = testDataSource.getConnection(); Statement statement = connection.createStatement()) {
+            for (String sql : sqlStatements) statement.execute(sql);
+            connection.commit();
+        }
+    }
+}
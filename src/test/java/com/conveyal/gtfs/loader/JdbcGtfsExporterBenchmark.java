@@ -0,0 +1,64 @@
+package com.conveyal.gtfs.loader;
+
+import com.conveyal.gtfs.GTFS;
+import com.conveyal.gtfs.TestUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.util.zip.Deflater;
+
+/**
+ * Compares the throughput of exporting a feed from PostgreSQL with the COPY command and with JDBC cursors, the path
+ * used for other databases. This is not run as part of the test suite. Run its main method with the path to a GTFS zip
+ * file (the fake-agency test feed is used if none is given) and optionally the number of exports with each method. A
+ * test database is created on the local PostgreSQL server and dropped afterward.
+ */
+public class JdbcGtfsExporterBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcGtfsExporterBenchmark.class);
+
+    public static void main (String[] args) throws Exception {
+        String zipFileName = args.length > 0 ? args[0] : TestUtils.zipFolderFiles("fake-agency", true);
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String testDBName = TestUtils.generateNewDB();
+        try {
+            DataSource dataSource = TestUtils.createTestDataSource("jdbc:postgresql://localhost/" + testDBName);
+            String namespace = GTFS.load(zipFileName, dataSource).uniqueIdentifier;
+            for (boolean forceJdbcCursors : new boolean[] {false, true}) {
+                // Warm up, then time the exports.
+                export(namespace, dataSource, forceJdbcCursors);
+                long startNanos = System.nanoTime();
+                long rows = 0;
+                long bytes = 0;
+                for (int pass = 0; pass < passes; pass++) {
+                    long[] rowsAndBytes = export(namespace, dataSource, forceJdbcCursors);
+                    rows += rowsAndBytes[0];
+                    bytes += rowsAndBytes[1];
+                }
+                double seconds = (System.nanoTime() - startNanos) / 1e9;
+                LOG.info("{}: {} exports/s, {} rows/s, {} zipped bytes/s", forceJdbcCursors ? "JDBC cursors" : "COPY",
+                    Math.round(passes / seconds), Math.round(rows / seconds), Math.round(bytes / seconds));
+            }
+        } finally {
+            TestUtils.dropDB(testDBName);
+        }
+    }
+
+    /** Export the feed to a stream that only counts bytes, returning the number of rows and bytes exported. */
+    private static long[] export (String namespace, DataSource dataSource, boolean forceJdbcCursors) {
+        CountingOutputStream out = new CountingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+        FeedLoadResult result = new JdbcGtfsExporter(namespace, null, dataSource, false, false,
+            JdbcGtfsExporter.DEFAULT_MAX_CONCURRENT_TABLES, Deflater.BEST_SPEED, forceJdbcCursors).exportTables(out);
+        if (result.fatalException != null) throw new RuntimeException(result.fatalException);
+        long rows = 0;
+        for (TableLoadResult table : new TableLoadResult[] {result.agency, result.calendar, result.calendarDates,
+            result.fareAttributes, result.fareRules, result.feedInfo, result.frequencies, result.routes, result.shapes,
+            result.stops, result.stopTimes, result.transfers, result.trips, result.translations, result.attributions}) {
+            if (table != null) rows += table.rowCount;
+        }
+        return new long[] {rows, out.getByteCount()};
+    }
+}
@@ -0,0 +1,135 @@
+package com.conveyal.gtfs.util;
+
+import com.conveyal.gtfs.GTFSFeed;
+import com.conveyal.gtfs.TestUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.ZipFile;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ * Test that each kind of {@link Deduplicator} returns canonical instances, stays within its bounds, is safe to use
+ * from several threads and counts what it saves.
+ */
+public class DeduplicatorTest {
+
+    @Test
+    public void canDeduplicateWithEachRetention() {
+        for (Deduplicator deduplicator : new Deduplicator[] {
+            new Deduplicator(), Deduplicator.bounded(100), Deduplicator.weak()
+        }) {
+            String first = deduplicator.deduplicateString(new String("route_1"));
+            String second = deduplicator.deduplicateString(new String("route_1"));
+            assertThat(second, sameInstance(first));
+            int[] times = deduplicator.deduplicateIntArray(new int[] {3600, 3700});
+            assertThat(deduplicator.deduplicateIntArray(new int[] {3600, 3700}), sameInstance(times));
+            String[] stops = deduplicator.deduplicateStringArray(new String[] {"a", "b"});
+            assertThat(deduplicator.deduplicateStringArray(new String[] {new String("a"), "b"}), sameInstance(stops));
+
+            Deduplicator.Stats stats = deduplicator.getStats();
+            assertThat(stats.hits, greaterThan(0L));
+            assertThat(stats.bytesSaved, greaterThan(0L));
+            assertThat(stats.getHitRate(), greaterThan(0.0));
+        }
+    }
+
+    /** A string array that was seen before is found without copying it or looking up its strings again. */
+    @Test
+    public void findsKnownStringArraysWithoutCopying() {
+        for (Deduplicator deduplicator : new Deduplicator[] { new Deduplicator(), Deduplicator.bounded(100) }) {
+            String[] stops = deduplicator.deduplicateStringArray(new String[] {"a", "b"});
+            // One lookup for each string and one for the array.
+            assertThat(deduplicator.getStats().lookups, equalTo(3L));
+            assertThat(deduplicator.getStats().hits, equalTo(0L));
+            assertThat(deduplicator.deduplicateStringArray(new String[] {"a", "b"}), sameInstance(stops));
+            assertThat(deduplicator.getStats().lookups, equalTo(4L));
+            assertThat(deduplicator.getStats().hits, equalTo(1L));
+            // Looking up the canonical array itself saves nothing.
+            assertThat(deduplicator.deduplicateStringArray(stops), sameInstance(stops));
+            assertThat(deduplicator.getStats().hits, equalTo(1L));
+        }
+    }
+
+    @Test
+    public void canSerializeEachRetention() throws Exception {
+        for (Deduplicator deduplicator : new Deduplicator[] {
+            new Deduplicator(), Deduplicator.bounded(100), Deduplicator.weak()
+        }) {
+            deduplicator.deduplicateString("route_1");
+            deduplicator.deduplicateStringArray(new String[] {"a", "b"});
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(deduplicator);
+            }
+            Deduplicator copy;
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                copy = (Deduplicator) in.readObject();
+            }
+            assertThat(copy.retention, equalTo(deduplicator.retention));
+            assertThat(copy.getStats().lookups, equalTo(deduplicator.getStats().lookups));
+            // Weakly held objects are not kept, the others are.
+            long expectedObjects = deduplicator.retention == Deduplicator.Retention.WEAK ? 0
+                : deduplicator.getStats().canonicalObjects;
+            assertThat(copy.getStats().canonicalObjects, equalTo(expectedObjects));
+            String canonical = copy.deduplicateString(new String("route_1"));
+            assertThat(copy.deduplicateString(new String("route_1")), sameInstance(canonical));
+        }
+    }
+
+    @Test
+    public void boundedDeduplicatorEvictsObjects() {
+        Deduplicator deduplicator = Deduplicator.bounded(10);
+        for (int i = 0; i < 1000; i++) deduplicator.deduplicateString("stop_" + i);
+        assertThat(deduplicator.getStats().canonicalObjects, lessThanOrEqualTo(10L));
+        deduplicator.reset();
+        assertThat(deduplicator.getStats().canonicalObjects, equalTo(0L));
+        // Statistics survive a reset.
+        assertThat(deduplicator.getStats().lookups, equalTo(1000L));
+    }
+
+    @Test
+    public void canDeduplicateConcurrently() {
+        Deduplicator deduplicator = new Deduplicator();
+        List<String> canonical = IntStream.range(0, 100_000).parallel()
+            .mapToObj(i -> deduplicator.deduplicateString(new String("trip_" + (i % 100))))
+            .collect(Collectors.toList());
+        Set<String> distinctInstances = Collections.newSetFromMap(new IdentityHashMap<>());
+        distinctInstances.addAll(canonical);
+        assertThat(distinctInstances.size(), equalTo(100));
+        assertThat(deduplicator.getStats().hits, equalTo(100_000L - 100));
+    }
+
+    @Test
+    public void feedLoadUsesSuppliedDeduplicator() throws Exception {
+        Deduplicator deduplicator = Deduplicator.bounded(1000);
+        GTFSFeed feed = new GTFSFeed();
+        feed.setDeduplicator(deduplicator);
+        feed.loadFromFile(new ZipFile(TestUtils.zipFolderFiles("fake-agency", true)));
+        assertThat(feed.getDeduplicator(), sameInstance(deduplicator));
+        assertThat(deduplicator.getStats().hits, greaterThan(0L));
+        // A supplied deduplicator is left for the caller to reset.
+        assertThat(deduplicator.getStats().canonicalObjects, greaterThan(0L));
+        feed.close();
+
+        // A deduplicator created for the load releases its strings afterward, but keeps its statistics.
+        GTFSFeed ownFeed = GTFSFeed.fromFile(TestUtils.zipFolderFiles("fake-agency", true));
+        assertThat(ownFeed.getDeduplicator().getStats().canonicalObjects, equalTo(0L));
+        assertThat(ownFeed.getDeduplicator().getStats().lookups, greaterThan(0L));
+        ownFeed.close();
+    }
+}
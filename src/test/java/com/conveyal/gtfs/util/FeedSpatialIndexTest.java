@@ -0,0 +1,133 @@
+package com.conveyal.gtfs.util;
+
+import com.conveyal.gtfs.GTFSFeed;
+import com.conveyal.gtfs.TestUtils;
+import com.conveyal.gtfs.model.Stop;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.ZipFile;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+/**
+ * Test that the nearest-neighbor and radius queries of {@link FeedSpatialIndex} agree with a search of every stop and
+ * shape segment, and that the index survives being stored in and reloaded from a MapDB file.
+ */
+public class FeedSpatialIndexTest {
+    // Points around and far from the fake agency's stops and shapes, in (lat, lon) order.
+    private static final double[][] QUERY_POINTS = {
+        {37.0612132, -122.0074332},
+        {37.0600, -122.0090},
+        {37.0666, -122.0777},
+        {37.0400, -122.0400},
+        {37.1000, -121.9000},
+        {38.0000, -123.0000},
+        {-33.8688, 151.2093}
+    };
+
+    private static GTFSFeed feed;
+    private static FeedSpatialIndex index;
+
+    @BeforeAll
+    public static void setUpClass() throws IOException {
+        feed = GTFSFeed.fromFile(TestUtils.zipFolderFiles("fake-agency", true));
+        index = feed.getFeedSpatialIndex();
+    }
+
+    @AfterAll
+    public static void tearDownClass() {
+        feed.close();
+    }
+
+    @Test
+    public void canFindNearestStops() {
+        assertThat(index.getStopCount(), equalTo(feed.stops.size()));
+        for (double[] point : QUERY_POINTS) {
+            List<String> expected = feed.stops.values().stream()
+                .sorted(Comparator.comparingDouble(stop -> distance(point, stop)))
+                .map(stop -> stop.stop_id)
+                .collect(Collectors.toList());
+            for (int k = 1; k <= expected.size() + 1; k++) {
+                List<FeedSpatialIndex.Neighbor> nearest = index.nearestStops(point[0], point[1], k);
+                assertThat(ids(nearest), equalTo(expected.subList(0, Math.min(k, expected.size()))));
+            }
+        }
+    }
+
+    @Test
+    public void canFindStopsWithinRadius() {
+        for (double[] point : QUERY_POINTS) {
+            for (double radius : new double[] {10, 300, 1000, 10000}) {
+                List<String> expected = feed.stops.values().stream()
+                    .filter(stop -> distance(point, stop) <= radius)
+                    .sorted(Comparator.comparingDouble(stop -> distance(point, stop)))
+                    .map(stop -> stop.stop_id)
+                    .collect(Collectors.toList());
+                assertThat(ids(index.stopsWithin(point[0], point[1], radius)), equalTo(expected));
+            }
+        }
+    }
+
+    @Test
+    public void canFindNearestShapeSegments() {
+        long shapeCount = feed.shape_points.keySet().stream().map(key -> key.a).distinct().count();
+        assertThat((long) index.getShapeSegmentCount(), equalTo(feed.shape_points.size() - shapeCount));
+        for (double[] point : QUERY_POINTS) {
+            // A radius larger than the earth covers every segment.
+            List<FeedSpatialIndex.Neighbor> all = index.shapeSegmentsWithin(point[0], point[1], 1e8);
+            assertThat(all.size(), equalTo(index.getShapeSegmentCount()));
+            List<FeedSpatialIndex.Neighbor> nearest = index.nearestShapeSegments(point[0], point[1], 3);
+            for (int i = 0; i < nearest.size(); i++) {
+                assertThat(nearest.get(i).distance, equalTo(all.get(i).distance));
+                // The snapped point is at the distance reported (the planar approximation only holds nearby).
+                if (nearest.get(i).distance > 10000) continue;
+                assertThat(Util.fastDistance(point[0], point[1], nearest.get(i).lat, nearest.get(i).lon),
+                    closeTo(nearest.get(i).distance, 0.01 * nearest.get(i).distance + 0.01));
+            }
+            for (FeedSpatialIndex.Neighbor segment : index.shapeSegmentsWithin(point[0], point[1], 200)) {
+                assertThat(segment.distance, lessThanOrEqualTo(200.0));
+            }
+        }
+    }
+
+    @Test
+    public void canStoreIndexInFeedDatabase() throws Exception {
+        File dbFile = File.createTempFile("spatial-index", ".db");
+        dbFile.delete();
+        GTFSFeed fileFeed = new GTFSFeed(dbFile.getAbsolutePath());
+        fileFeed.loadFromFile(new ZipFile(TestUtils.zipFolderFiles("fake-agency", true)));
+        FeedSpatialIndex built = fileFeed.getFeedSpatialIndex();
+        assertThat(built.isLoadedFromBytes(), equalTo(false));
+        fileFeed.close();
+
+        GTFSFeed reopened = new GTFSFeed(dbFile.getAbsolutePath());
+        FeedSpatialIndex stored = reopened.getFeedSpatialIndex();
+        assertThat(stored.isLoadedFromBytes(), equalTo(true));
+        assertThat(stored.feedChecksum, equalTo(built.feedChecksum));
+        for (double[] point : QUERY_POINTS) {
+            assertThat(ids(stored.nearestStops(point[0], point[1], 3)), equalTo(ids(built.nearestStops(point[0], point[1], 3))));
+            assertThat(ids(stored.nearestShapeSegments(point[0], point[1], 2)),
+                equalTo(ids(built.nearestShapeSegments(point[0], point[1], 2))));
+        }
+        reopened.close();
+    }
+
+    private static double distance(double[] point, Stop stop) {
+        return Util.fastDistance(point[0], point[1], stop.stop_lat, stop.stop_lon);
+    }
+
+    private static List<String> ids(List<FeedSpatialIndex.Neighbor> neighbors) {
+        return neighbors.stream().map(neighbor -> neighbor.id + ":" + neighbor.sequence).map(id -> id.replace(":-1", ""))
+            .collect(Collectors.toList());
+    }
+}
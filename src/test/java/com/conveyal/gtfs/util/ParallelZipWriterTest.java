@@ -0,0 +1,84 @@
+package com.conveyal.gtfs.util;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test that zip files written by {@link ParallelZipWriter} can be read back by java.util.zip, including entries that
+ * span several independently compressed chunks.
+ */
+public class ParallelZipWriterTest {
+
+    @Test
+    public void canWriteEntriesInParallel() throws IOException {
+        byte[] large = csv(60_000);
+        byte[] small = "agency_id,agency_name\n1,Fake Transit\n".getBytes(StandardCharsets.UTF_8);
+        for (int level : new int[] {Deflater.DEFAULT_COMPRESSION, 0, 1, 9}) {
+            File file = File.createTempFile("parallel", ".zip");
+            try (ParallelZipWriter zip = new ParallelZipWriter(file, level, 4)) {
+                zip.addEntry("agency.txt", out -> out.write(small));
+                zip.addEntry("empty.txt", out -> { });
+                zip.addEntry("stop_times.txt", out -> {
+                    // Write in uneven pieces so chunk boundaries fall mid-write.
+                    for (int offset = 0; offset < large.length; offset += 7919) {
+                        out.write(large, offset, Math.min(7919, large.length - offset));
+                    }
+                });
+            }
+            try (ZipFile zipFile = new ZipFile(file)) {
+                List<String> names = Collections.list(zipFile.entries()).stream()
+                    .map(ZipEntry::getName)
+                    .collect(Collectors.toList());
+                assertThat(names, equalTo(Arrays.asList("agency.txt", "empty.txt", "stop_times.txt")));
+                assertThat(IOUtils.toByteArray(zipFile.getInputStream(zipFile.getEntry("agency.txt"))), equalTo(small));
+                assertThat(IOUtils.toByteArray(zipFile.getInputStream(zipFile.getEntry("empty.txt"))).length, equalTo(0));
+                ZipEntry entry = zipFile.getEntry("stop_times.txt");
+                assertThat(IOUtils.toByteArray(zipFile.getInputStream(entry)), equalTo(large));
+                if (level != 0) assertThat(entry.getCompressedSize(), lessThan((long) large.length / 2));
+            }
+            file.delete();
+        }
+    }
+
+    @Test
+    public void failsIfAnEntryCannotBeWritten() throws IOException {
+        File file = File.createTempFile("parallel", ".zip");
+        ParallelZipWriter zip = new ParallelZipWriter(file, Deflater.DEFAULT_COMPRESSION, 2);
+        zip.addEntry("agency.txt", out -> out.write(1));
+        zip.addEntry("stops.txt", out -> {
+            throw new IOException("Could not read stops.");
+        });
+        assertThrows(IOException.class, zip::close);
+        file.delete();
+    }
+
+    /** Text resembling stop_times.txt, a few chunks long. */
+    private static byte[] csv(int rows) {
+        Random random = new Random(0);
+        StringBuilder builder = new StringBuilder("trip_id,arrival_time,departure_time,stop_id,stop_sequence\n");
+        for (int row = 0; row < rows; row++) {
+            int time = 6 * 3600 + random.nextInt(18 * 3600);
+            String gtfsTime = String.format("%02d:%02d:%02d", time / 3600, time / 60 % 60, time % 60);
+            builder.append("trip_").append(row / 40).append(',').append(gtfsTime).append(',').append(gtfsTime)
+                .append(",stop_").append(random.nextInt(5000)).append(',').append(row % 40).append('\n');
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
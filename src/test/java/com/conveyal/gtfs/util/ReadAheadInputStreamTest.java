@@ -0,0 +1,80 @@
+package com.conveyal.gtfs.util;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Test that {@link ReadAheadInputStream} returns the bytes of its source, and does not close the source while its
+ * reader thread is still reading from it.
+ */
+public class ReadAheadInputStreamTest {
+
+    @Test
+    void canReadAllBytes() throws IOException {
+        byte[] bytes = new byte[1_000_000];
+        new Random(1).nextBytes(bytes);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new ReadAheadInputStream(new ByteArrayInputStream(bytes), "test")) {
+            byte[] buffer = new byte[10_000];
+            int n;
+            while ((n = in.read(buffer)) != -1) out.write(buffer, 0, n);
+        }
+        assertThat(out.toByteArray(), equalTo(bytes));
+    }
+
+    @Test
+    void closeWaitsForReaderThread() throws InterruptedException {
+        CountDownLatch readStarted = new CountDownLatch(1);
+        CountDownLatch finishRead = new CountDownLatch(1);
+        AtomicBoolean reading = new AtomicBoolean();
+        AtomicBoolean closedWhileReading = new AtomicBoolean();
+        InputStream source = new InputStream() {
+            @Override
+            public int read () {
+                return -1;
+            }
+
+            @Override
+            public int read (byte[] bytes, int offset, int length) {
+                // Like inflating a zip entry, this read cannot be interrupted.
+                reading.set(true);
+                readStarted.countDown();
+                Uninterruptibles.awaitUninterruptibly(finishRead);
+                reading.set(false);
+                return length;
+            }
+
+            @Override
+            public void close () {
+                closedWhileReading.set(reading.get());
+            }
+        };
+        ReadAheadInputStream in = new ReadAheadInputStream(source, "test");
+        readStarted.await();
+        Thread closer = new Thread(() -> {
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        closer.start();
+        closer.join(200);
+        assertThat(closer.isAlive(), equalTo(true));
+        finishRead.countDown();
+        closer.join(10_000);
+        assertThat(closer.isAlive(), equalTo(false));
+        assertThat(closedWhileReading.get(), equalTo(false));
+    }
+}
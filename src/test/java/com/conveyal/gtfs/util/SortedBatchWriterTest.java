@@ -0,0 +1,122 @@
+package com.conveyal.gtfs.util;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test that {@link SortedBatchWriter} puts every entry into its map with each batch in key order, keeps the last value
+ * put for a key, and reports failures of its writer thread to the caller.
+ */
+public class SortedBatchWriterTest {
+
+    @Test
+    void canWriteEachBatchInKeyOrder() throws IOException {
+        int batchSize = 10;
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 95; i++) keys.add(i);
+        Collections.shuffle(keys, new Random(1));
+        // The map remembers the order in which the entries were put.
+        Map<Integer, String> target = Collections.synchronizedMap(new LinkedHashMap<>());
+        try (SortedBatchWriter<Integer, String> writer =
+                 new SortedBatchWriter<>("test", target, Comparator.naturalOrder(), batchSize)) {
+            for (int key : keys) writer.put(key, "value " + key);
+        }
+        List<Integer> written = new ArrayList<>(target.keySet());
+        assertThat(written.size(), equalTo(keys.size()));
+        for (int start = 0; start < keys.size(); start += batchSize) {
+            List<Integer> batch = new ArrayList<>(keys.subList(start, Math.min(keys.size(), start + batchSize)));
+            Collections.sort(batch);
+            assertThat(written.subList(start, start + batch.size()), equalTo(batch));
+        }
+        for (int key : keys) assertThat(target.get(key), equalTo("value " + key));
+    }
+
+    @Test
+    void keepsLastValueForDuplicateKeys() throws IOException {
+        Map<String, Integer> target = new HashMap<>();
+        try (SortedBatchWriter<String, Integer> writer =
+                 new SortedBatchWriter<>("test", target, Comparator.naturalOrder(), 4)) {
+            // Duplicates both within a batch and across batches.
+            for (int i = 0; i < 10; i++) {
+                writer.put("a", i);
+                writer.put("b" + (i % 3), i);
+            }
+        }
+        assertThat(target.get("a"), equalTo(9));
+        assertThat(target.get("b0"), equalTo(9));
+        assertThat(target.get("b1"), equalTo(7));
+        assertThat(target.get("b2"), equalTo(8));
+    }
+
+    @Test
+    void closeThrowsWriterFailure() {
+        RuntimeException failure = new RuntimeException("Cannot write this entry.");
+        Map<Integer, Integer> target = new HashMap<Integer, Integer>() {
+            @Override
+            public Integer put (Integer key, Integer value) {
+                if (key == 5) throw failure;
+                return super.put(key, value);
+            }
+        };
+        SortedBatchWriter<Integer, Integer> writer = new SortedBatchWriter<>("test", target, Comparator.naturalOrder(), 2);
+        IOException thrown = assertThrows(IOException.class, () -> {
+            for (int i = 0; i < 10; i++) writer.put(i, i);
+            writer.close();
+        });
+        assertThat(thrown.getCause(), sameInstance(failure));
+    }
+
+    @Test
+    void interruptedCloseWaitsForWriterThread() throws InterruptedException {
+        CountDownLatch putStarted = new CountDownLatch(1);
+        CountDownLatch finishPut = new CountDownLatch(1);
+        Map<Integer, Integer> target = new HashMap<Integer, Integer>() {
+            @Override
+            public Integer put (Integer key, Integer value) {
+                // Like inserting into a MapDB map, this put cannot be interrupted.
+                putStarted.countDown();
+                Uninterruptibles.awaitUninterruptibly(finishPut);
+                return super.put(key, value);
+            }
+        };
+        AtomicReference<Exception> closeFailure = new AtomicReference<>();
+        Thread closer = new Thread(() -> {
+            SortedBatchWriter<Integer, Integer> writer =
+                new SortedBatchWriter<>("test", target, Comparator.naturalOrder(), 1);
+            try {
+                writer.put(1, 1);
+                Uninterruptibles.awaitUninterruptibly(putStarted);
+                Thread.currentThread().interrupt();
+                writer.close();
+            } catch (IOException e) {
+                closeFailure.set(e);
+            }
+        });
+        closer.start();
+        putStarted.await();
+        closer.join(200);
+        assertThat(closer.isAlive(), equalTo(true));
+        finishPut.countDown();
+        closer.join(10_000);
+        assertThat(closer.isAlive(), equalTo(false));
+        assertThat(closeFailure.get(), instanceOf(IOException.class));
+    }
+}
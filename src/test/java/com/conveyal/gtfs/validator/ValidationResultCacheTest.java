@@ -0,0 +1,100 @@
+package com.conveyal.gtfs.validator;
+
+import com.conveyal.gtfs.TestUtils;
+import com.conveyal.gtfs.loader.FeedLoadResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static com.conveyal.gtfs.GTFS.load;
+import static com.conveyal.gtfs.GTFS.validate;
+import static com.conveyal.gtfs.TestUtils.assertThatSqlCountQueryYieldsExpectedCount;
+import static com.conveyal.gtfs.TestUtils.zipFolderFiles;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.not;
+
+/**
+ * Checks that validating a feed loaded from the same file as an already validated feed reuses the earlier results.
+ */
+public class ValidationResultCacheTest {
+
+    private static String zipFileName;
+    // Each test gets its own database so that cached results from one test are not visible in another.
+    private String testDBName;
+    private DataSource testDataSource;
+
+    @BeforeAll
+    public static void setUpClass() throws IOException {
+        zipFileName = zipFolderFiles("fake-agency", true);
+    }
+
+    @BeforeEach
+    public void setUp() {
+        testDBName = TestUtils.generateNewDB();
+        String dbConnectionUrl = String.format("jdbc:postgresql://localhost/%s", testDBName);
+        testDataSource = TestUtils.createTestDataSource(dbConnectionUrl);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        TestUtils.dropDB(testDBName);
+    }
+
+    @Test
+    void canReuseValidationResultForIdenticalFeed() throws SQLException {
+        FeedLoadResult firstLoad = load(zipFileName, testDataSource);
+        ValidationResult firstResult = validate(firstLoad.uniqueIdentifier, testDataSource, true);
+        FeedLoadResult secondLoad = load(zipFileName, testDataSource);
+        ValidationResult secondResult = validate(secondLoad.uniqueIdentifier, testDataSource, true);
+
+        assertThat(firstResult.errorCount, greaterThan(0));
+        assertThat(secondResult.errorCount, equalTo(firstResult.errorCount));
+        assertThat(secondResult.firstCalendarDate, equalTo(firstResult.firstCalendarDate));
+        assertThat(secondResult.dailyTripCounts, equalTo(firstResult.dailyTripCounts));
+        // No validators were run for the second feed, so there are no timings to report.
+        assertThat(firstResult.validatorTimings.isEmpty(), equalTo(false));
+        assertThat(secondResult.validatorTimings.isEmpty(), equalTo(true));
+        // Errors and derived tables must match those of the namespace that was actually validated.
+        for (String table : new String[] {"errors", "error_info", "services", "service_dates", "patterns", "pattern_stops"}) {
+            assertSameCount(String.format("select count(*) from %%s.%s", table), firstLoad, secondLoad);
+        }
+        assertSameCount("select count(*) from %s.trips where pattern_id is not null", firstLoad, secondLoad);
+        // A hit does not record a new entry, so only the first namespace should be present in the cache.
+        assertThatSqlCountQueryYieldsExpectedCount(testDataSource, String.format("select count(*) from %s where namespace = '%s'",
+            ValidationResultCache.TABLE_NAME, firstLoad.uniqueIdentifier), 1);
+        assertThatSqlCountQueryYieldsExpectedCount(testDataSource, String.format("select count(*) from %s where namespace = '%s'",
+            ValidationResultCache.TABLE_NAME, secondLoad.uniqueIdentifier), 0);
+    }
+
+    @Test
+    void doesNotReuseResultForDifferentValidators() {
+        FeedLoadResult firstLoad = load(zipFileName, testDataSource);
+        validate(firstLoad.uniqueIdentifier, testDataSource, true);
+        FeedLoadResult secondLoad = load(zipFileName, testDataSource);
+        validate(secondLoad.uniqueIdentifier, testDataSource, true, MTCValidator::new);
+        // The MTC validator yields a different fingerprint, so its result is stored separately.
+        assertThatSqlCountQueryYieldsExpectedCount(testDataSource,
+            String.format("select count(*) from %s where namespace = '%s'",
+                ValidationResultCache.TABLE_NAME, secondLoad.uniqueIdentifier), 1);
+        assertThat(secondLoad.uniqueIdentifier, not(equalTo(firstLoad.uniqueIdentifier)));
+    }
+
+    private void assertSameCount(String sqlTemplate, FeedLoadResult first, FeedLoadResult second) throws SQLException {
+        String firstSql = String.format(sqlTemplate, first.uniqueIdentifier);
+        int expectedCount = -1;
+        try (Connection connection = testDataSource.getConnection()) {
+            ResultSet resultSet = connection.prepareStatement(firstSql).executeQuery();
+            if (resultSet.next()) expectedCount = resultSet.getInt(1);
+        }
+        assertThatSqlCountQueryYieldsExpectedCount(testDataSource, String.format(sqlTemplate, second.uniqueIdentifier), expectedCount);
+    }
+}